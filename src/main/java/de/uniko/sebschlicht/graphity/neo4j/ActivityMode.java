@@ -0,0 +1,28 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+/**
+ * ways to record system activity such as followships
+ * 
+ * @author sebschlicht
+ * 
+ */
+public enum ActivityMode {
+
+    /**
+     * activity is posted as regular status updates, which reorders the ego
+     * networks of the users' followers
+     */
+    STATUS_UPDATES,
+
+    /**
+     * activity is recorded as compact event records that are coalesced per
+     * user and merged into news feeds at read time without reordering any
+     * ego network
+     */
+    EVENTS,
+
+    /**
+     * activity is not recorded at all
+     */
+    NONE;
+}
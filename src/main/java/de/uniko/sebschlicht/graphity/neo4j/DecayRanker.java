@@ -0,0 +1,122 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+import java.util.Map;
+
+/**
+ * ranking of status updates by exponential recency decay and author
+ * affinity<br>
+ * The score of a status update is the affinity of the reader to its author
+ * multiplied by a factor that halves with each half-life passed since the
+ * status update was published.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class DecayRanker implements FeedRanker {
+
+    /**
+     * timestamp the age of status updates is measured from
+     */
+    private final long _now;
+
+    /**
+     * decay rate per millisecond
+     */
+    private final double _decay;
+
+    /**
+     * (optional) affinities of the reader to certain authors
+     */
+    private final Map<Long, Double> _affinities;
+
+    /**
+     * affinity to authors not specified
+     */
+    private final double _defaultAffinity;
+
+    /**
+     * maximum affinity to any author
+     */
+    private final double _maxAffinity;
+
+    /**
+     * Creates a ranker for a reader.
+     * 
+     * @param now
+     *            timestamp the age of status updates is measured from
+     * @param halfLife
+     *            time in milliseconds after which the score of a status
+     *            update has halved
+     * @param affinities
+     *            (optional) affinities of the reader to certain authors
+     * @param defaultAffinity
+     *            affinity to authors not specified
+     * @throws IllegalArgumentException
+     *             if the half-life is not positive or any affinity is
+     *             negative
+     */
+    public DecayRanker(
+            long now,
+            long halfLife,
+            Map<Long, Double> affinities,
+            double defaultAffinity) {
+        if (halfLife <= 0) {
+            throw new IllegalArgumentException("half-life must be positive");
+        }
+        double maxAffinity = defaultAffinity;
+        if (affinities != null) {
+            for (double affinity : affinities.values()) {
+                maxAffinity = Math.max(maxAffinity, affinity);
+                if (affinity < 0) {
+                    throw new IllegalArgumentException(
+                            "affinities must not be negative");
+                }
+            }
+        }
+        if (defaultAffinity < 0) {
+            throw new IllegalArgumentException(
+                    "affinities must not be negative");
+        }
+        _now = now;
+        _decay = Math.log(2) / halfLife;
+        _affinities = affinities;
+        _defaultAffinity = defaultAffinity;
+        _maxAffinity = maxAffinity;
+    }
+
+    /**
+     * Creates a ranker ordering status updates by recency only.
+     * 
+     * @param now
+     *            timestamp the age of status updates is measured from
+     * @param halfLife
+     *            time in milliseconds after which the score of a status
+     *            update has halved
+     */
+    public DecayRanker(
+            long now,
+            long halfLife) {
+        this(now, halfLife, null, 1);
+    }
+
+    @Override
+    public double score(long idAuthor, long published) {
+        double affinity = _defaultAffinity;
+        if (_affinities != null) {
+            Double authorAffinity = _affinities.get(idAuthor);
+            if (authorAffinity != null) {
+                affinity = authorAffinity;
+            }
+        }
+        return affinity * decay(published);
+    }
+
+    @Override
+    public double getUpperBound(long published) {
+        return _maxAffinity * decay(published);
+    }
+
+    private double decay(long published) {
+        return Math.exp(-_decay * (_now - published));
+    }
+}
@@ -0,0 +1,514 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+import java.util.Arrays;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats;
+
+/**
+ * primitive cache of single-successor edges<br>
+ * GRAPHITY, REPLICA and PUBLISHED relationships have at most one outgoing
+ * edge per node. This cache maps the node identifier to the identifier of the
+ * successor node per edge type, so a walk along such a chain does not have
+ * to iterate the relationship chain of dense nodes.<br>
+ * <br>
+ * Write paths have to invalidate the pointers of nodes they relink. A thread
+ * with pending invalidations bypasses the cache until its transaction has
+ * finished, so uncommitted pointers are never cached. Concurrent readers only
+ * cache a pointer if the segment was not invalidated while they were reading
+ * it from the graph. The cache has to be registered as transaction event
+ * handler to flush the invalidations after a commit. Write transactions have
+ * to be started via {@link #beginTx()} or passed to {@link #bind(Transaction)}
+ * if owned by the caller, so the invalidations of a transaction closed
+ * without success are dropped as well.<br>
+ * The segments start small and grow with the pointers cached up to the
+ * capacity specified, so idle instances do not occupy memory.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class EdgePointerCache implements TransactionEventHandler<Void> {
+
+    /**
+     * default number of pointers cached per edge type
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /**
+     * pointer value of a node without successor
+     */
+    private static final long NONE = -1;
+
+    /**
+     * slot value of an empty slot and return value of a cache miss
+     */
+    private static final long EMPTY = -2;
+
+    /**
+     * number of segments per edge type (power of two)
+     */
+    private static final int NUM_SEGMENTS = 64;
+
+    /**
+     * initial number of slots per segment (power of two)
+     */
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+    /**
+     * graph database the node identifiers belong to
+     */
+    private final GraphDatabaseService _graphDb;
+
+    /**
+     * pointer segments per cached edge type
+     */
+    private final Segment[][] _segments;
+
+    /**
+     * invalidations of the current thread's transaction
+     */
+    private final ThreadLocal<PendingInvalidations> _pending =
+            new ThreadLocal<PendingInvalidations>() {
+
+                @Override
+                protected PendingInvalidations initialValue() {
+                    return new PendingInvalidations();
+                }
+            };
+
+    /**
+     * Creates an empty pointer cache.
+     * 
+     * @param graphDb
+     *            graph database to resolve cached node identifiers
+     * @param capacity
+     *            number of pointers to be cached per edge type
+     */
+    public EdgePointerCache(
+            GraphDatabaseService graphDb,
+            int capacity) {
+        _graphDb = graphDb;
+        _segments = new Segment[EdgeType.values().length][];
+        // segments are allocated small and grow on demand
+        int maxSegmentCapacity =
+                Integer.highestOneBit(Math.max(capacity / NUM_SEGMENTS, 8)) * 2;
+        for (EdgeType edgeType : EdgeType.values()) {
+            if (isCached(edgeType)) {
+                Segment[] segments = new Segment[NUM_SEGMENTS];
+                for (int i = 0; i < NUM_SEGMENTS; ++i) {
+                    segments[i] = new Segment(maxSegmentCapacity);
+                }
+                _segments[edgeType.ordinal()] = segments;
+            }
+        }
+    }
+
+    /**
+     * @param edgeType
+     *            edge type
+     * @return true - if pointers of this edge type are cached
+     */
+    public static boolean isCached(RelationshipType edgeType) {
+        return (getCachedType(edgeType) != null);
+    }
+
+    /**
+     * Resolves the cached edge type of a relationship type. Relationships
+     * loaded from the graph carry the database's own relationship type
+     * instances, which are matched by name.
+     * 
+     * @param edgeType
+     *            edge type
+     * @return cached edge type or <b>null</b> if not cached
+     */
+    private static EdgeType getCachedType(RelationshipType edgeType) {
+        if (edgeType instanceof EdgeType) {
+            switch ((EdgeType) edgeType) {
+                case GRAPHITY:
+                case REPLICA:
+                case PUBLISHED:
+                    return (EdgeType) edgeType;
+
+                default:
+                    return null;
+            }
+        }
+        String name = edgeType.name();
+        if (EdgeType.GRAPHITY.name().equals(name)) {
+            return EdgeType.GRAPHITY;
+        } else if (EdgeType.REPLICA.name().equals(name)) {
+            return EdgeType.REPLICA;
+        } else if (EdgeType.PUBLISHED.name().equals(name)) {
+            return EdgeType.PUBLISHED;
+        }
+        return null;
+    }
+
+    /**
+     * Walks along an edge type to the next node using the cache if possible.
+     * 
+     * @param sourceNode
+     *            node to start from
+     * @param edgeType
+     *            edge type to walk along
+     * @return next node the edge specified directs to<br>
+     *         <b>null</b> - if the start node has no such edge directing out
+     */
+    public Node nextNode(Node sourceNode, RelationshipType edgeType) {
+        EdgeType cachedType = getCachedType(edgeType);
+        if (cachedType == null || _pending.get().size > 0) {
+            return Walker.nextNode(sourceNode, edgeType);
+        }
+        long sourceId = sourceNode.getId();
+        Segment segment = segment(cachedType, sourceId);
+        long targetId = segment.get(sourceId);
+        if (targetId == NONE) {
+            return null;
+        } else if (targetId != EMPTY) {
+            try {
+                Node targetNode = _graphDb.getNodeById(targetId);
+                // the edge is skipped, the node is loaded nevertheless
+                TraversalStats.nodeVisited();
+                return targetNode;
+            } catch (NotFoundException e) {
+                // stale pointer to a node deleted meanwhile
+                segment.remove(sourceId);
+            }
+        }
+
+        // cache miss: load from graph
+        long stamp = segment.getStamp();
+        Node targetNode = Walker.nextNode(sourceNode, edgeType);
+        segment.putIfUnchanged(sourceId,
+                (targetNode != null) ? targetNode.getId() : NONE, stamp);
+        return targetNode;
+    }
+
+    /**
+     * Begins a transaction that stops the calling thread from bypassing the
+     * cache once it has been closed, whether it was committed or not.<br>
+     * Transactions nested into this transaction may be started via the graph
+     * database directly.
+     * 
+     * @return transaction tracking the invalidations of the calling thread
+     */
+    public Transaction beginTx() {
+        PendingInvalidations pending = _pending.get();
+        if (pending.depth == 0) {
+            // left by a caller-owned transaction closed without success
+            flushPending();
+        }
+        TrackingTransaction tx =
+                new TrackingTransaction(_graphDb.beginTx(), pending);
+        pending.depth += 1;
+        pending.tx = tx;
+        return tx;
+    }
+
+    /**
+     * Binds the invalidations of the calling thread to a transaction owned by
+     * the caller. Invalidations left by another transaction, which was closed
+     * without success, are dropped.<br>
+     * Has no effect within a transaction started via {@link #beginTx()}.
+     * 
+     * @param tx
+     *            transaction the following invalidations belong to
+     */
+    public void bind(Transaction tx) {
+        PendingInvalidations pending = _pending.get();
+        if (pending.depth == 0 && pending.tx != tx) {
+            flushPending();
+            pending.tx = tx;
+        }
+    }
+
+    /**
+     * Invalidates the pointer of a node that is about to be relinked.<br>
+     * The calling thread bypasses the cache until its transaction finished.
+     * 
+     * @param sourceNode
+     *            node whose outgoing edge changes
+     * @param edgeType
+     *            edge type of the edge changing
+     */
+    public void invalidate(Node sourceNode, RelationshipType edgeType) {
+        EdgeType cachedType = getCachedType(edgeType);
+        if (cachedType != null) {
+            long sourceId = sourceNode.getId();
+            _pending.get().add(cachedType, sourceId);
+            segment(cachedType, sourceId).remove(sourceId);
+        }
+    }
+
+    /**
+     * Removes all pointers from the cache.
+     */
+    public void clear() {
+        for (Segment[] segments : _segments) {
+            if (segments != null) {
+                for (Segment segment : segments) {
+                    segment.clear();
+                }
+            }
+        }
+    }
+
+    @Override
+    public Void beforeCommit(TransactionData data) throws Exception {
+        // safety net for write paths not invalidating explicitly
+        for (Relationship relationship : data.createdRelationships()) {
+            invalidate(relationship.getStartNode(), relationship.getType());
+        }
+        for (Relationship relationship : data.deletedRelationships()) {
+            try {
+                invalidate(relationship.getStartNode(), relationship.getType());
+            } catch (NotFoundException e) {
+                // deleted with its start node, invalidated explicitly
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Void state) {
+        flushPending();
+    }
+
+    @Override
+    public void afterRollback(TransactionData data, Void state) {
+        flushPending();
+    }
+
+    /**
+     * Invalidates the pending pointers of the current thread once more, now
+     * that the changes are visible to other threads or have been discarded,
+     * and stops bypassing the cache.
+     */
+    private void flushPending() {
+        PendingInvalidations pending = _pending.get();
+        for (int i = 0; i < pending.size; ++i) {
+            segment(pending.edgeTypes[i], pending.nodeIds[i]).remove(
+                    pending.nodeIds[i]);
+        }
+        pending.clear();
+    }
+
+    private Segment segment(EdgeType edgeType, long nodeId) {
+        return _segments[edgeType.ordinal()][(int) (mix(nodeId) >>> 58)];
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * invalidations of a single thread
+     */
+    private static final class PendingInvalidations {
+
+        EdgeType[] edgeTypes = new EdgeType[16];
+
+        long[] nodeIds = new long[16];
+
+        int size;
+
+        /**
+         * number of open transactions started via the cache
+         */
+        int depth;
+
+        /**
+         * transaction the invalidations belong to or <b>null</b>
+         */
+        Transaction tx;
+
+        void add(EdgeType edgeType, long nodeId) {
+            if (size == nodeIds.length) {
+                edgeTypes = Arrays.copyOf(edgeTypes, size * 2);
+                nodeIds = Arrays.copyOf(nodeIds, size * 2);
+            }
+            edgeTypes[size] = edgeType;
+            nodeIds[size] = nodeId;
+            size += 1;
+        }
+
+        void clear() {
+            size = 0;
+            tx = null;
+        }
+    }
+
+    /**
+     * transaction flushing the invalidations of its thread when the outermost
+     * transaction started via the cache is closed
+     */
+    private final class TrackingTransaction extends ScopedTransaction {
+
+        private final PendingInvalidations _pendingInvalidations;
+
+        TrackingTransaction(
+                Transaction tx,
+                PendingInvalidations pendingInvalidations) {
+            super(tx);
+            _pendingInvalidations = pendingInvalidations;
+        }
+
+        @Override
+        protected void closed() {
+            _pendingInvalidations.depth -= 1;
+            if (_pendingInvalidations.depth == 0) {
+                // no event is fired if closed without success
+                flushPending();
+            }
+        }
+    }
+
+    /**
+     * open addressing hash table of pointers with linear probing<br>
+     * The table doubles when it exceeds its load factor and is cleared
+     * instead once it has reached its maximum capacity.
+     */
+    private static final class Segment {
+
+        private final int _maxCapacity;
+
+        private long[] _keys;
+
+        private long[] _values;
+
+        private int _mask;
+
+        private int _size;
+
+        /**
+         * modification stamp to detect invalidations during a cache miss
+         */
+        private long _stamp;
+
+        Segment(
+                int maxCapacity) {
+            _maxCapacity = maxCapacity;
+            allocate(Math.min(INITIAL_SEGMENT_CAPACITY, maxCapacity));
+        }
+
+        private void allocate(int capacity) {
+            _keys = new long[capacity];
+            _values = new long[capacity];
+            _mask = capacity - 1;
+            Arrays.fill(_keys, EMPTY);
+            _size = 0;
+        }
+
+        synchronized long get(long key) {
+            int slot = (int) mix(key) & _mask;
+            long crrKey;
+            while ((crrKey = _keys[slot]) != EMPTY) {
+                if (crrKey == key) {
+                    return _values[slot];
+                }
+                slot = (slot + 1) & _mask;
+            }
+            return EMPTY;
+        }
+
+        synchronized long getStamp() {
+            return _stamp;
+        }
+
+        synchronized void putIfUnchanged(long key, long value, long stamp) {
+            if (stamp != _stamp) {
+                return;
+            }
+            if (_size >= (_keys.length >>> 1)) {
+                if (_keys.length < _maxCapacity) {
+                    grow();
+                } else {
+                    clear();
+                }
+            }
+            insert(key, value);
+        }
+
+        private void insert(long key, long value) {
+            int slot = (int) mix(key) & _mask;
+            long crrKey;
+            while ((crrKey = _keys[slot]) != EMPTY) {
+                if (crrKey == key) {
+                    _values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & _mask;
+            }
+            _keys[slot] = key;
+            _values[slot] = value;
+            _size += 1;
+        }
+
+        /**
+         * Doubles the capacity and reinserts the pointers cached.
+         */
+        private void grow() {
+            long[] keys = _keys;
+            long[] values = _values;
+            allocate(keys.length * 2);
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i] != EMPTY) {
+                    insert(keys[i], values[i]);
+                }
+            }
+        }
+
+        synchronized void remove(long key) {
+            _stamp += 1;
+            int slot = (int) mix(key) & _mask;
+            long crrKey;
+            while ((crrKey = _keys[slot]) != EMPTY) {
+                if (crrKey == key) {
+                    shiftBackwards(slot);
+                    _size -= 1;
+                    return;
+                }
+                slot = (slot + 1) & _mask;
+            }
+        }
+
+        /**
+         * Closes the gap of a removed slot by moving subsequent entries of
+         * the same probe sequence backwards.
+         */
+        private void shiftBackwards(int gap) {
+            int slot = gap;
+            long key;
+            int home;
+            while (true) {
+                slot = (slot + 1) & _mask;
+                key = _keys[slot];
+                if (key == EMPTY) {
+                    break;
+                }
+                home = (int) mix(key) & _mask;
+                // entry may move if its home is not between gap and slot
+                if (((slot - home) & _mask) >= ((slot - gap) & _mask)) {
+                    _keys[gap] = key;
+                    _values[gap] = _values[slot];
+                    gap = slot;
+                }
+            }
+            _keys[gap] = EMPTY;
+        }
+
+        synchronized void clear() {
+            _stamp += 1;
+            allocate(Math.min(INITIAL_SEGMENT_CAPACITY, _maxCapacity));
+        }
+    }
+}
@@ -28,5 +28,10 @@ public enum EdgeType implements RelationshipType {
     /**
      * replication nodes to overcome relationship type limitation
      */
-    REPLICA;
+    REPLICA,
+
+    /**
+     * system activity recorded for a user
+     */
+    ACTIVITY;
 }
@@ -0,0 +1,90 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+import java.util.Arrays;
+
+import de.uniko.sebschlicht.socialnet.StatusUpdate;
+import de.uniko.sebschlicht.socialnet.StatusUpdateList;
+
+/**
+ * news feed buffered in primitive arrays<br>
+ * Can be reused for any number of news feeds after being cleared.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class FeedBuffer implements FeedSink {
+
+    private long[] _authors;
+
+    private long[] _published;
+
+    private String[] _messages;
+
+    private int _size;
+
+    /**
+     * Creates an empty buffer.
+     * 
+     * @param initialCapacity
+     *            number of status updates to allocate space for upfront
+     */
+    public FeedBuffer(
+            int initialCapacity) {
+        initialCapacity = Math.max(initialCapacity, 1);
+        _authors = new long[initialCapacity];
+        _published = new long[initialCapacity];
+        _messages = new String[initialCapacity];
+    }
+
+    @Override
+    public void add(long idAuthor, long published, String message) {
+        if (_size == _authors.length) {
+            int capacity = _size * 2;
+            _authors = Arrays.copyOf(_authors, capacity);
+            _published = Arrays.copyOf(_published, capacity);
+            _messages = Arrays.copyOf(_messages, capacity);
+        }
+        _authors[_size] = idAuthor;
+        _published[_size] = published;
+        _messages[_size] = message;
+        _size += 1;
+    }
+
+    /**
+     * Empties the buffer.
+     */
+    public void clear() {
+        Arrays.fill(_messages, 0, _size, null);
+        _size = 0;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public long getAuthor(int index) {
+        return _authors[index];
+    }
+
+    public long getPublished(int index) {
+        return _published[index];
+    }
+
+    public String getMessage(int index) {
+        return _messages[index];
+    }
+
+    /**
+     * Materializes the buffered status updates.
+     * 
+     * @return list of the buffered status updates in buffer order
+     */
+    public StatusUpdateList toStatusUpdateList() {
+        StatusUpdateList statusUpdates = new StatusUpdateList();
+        for (int i = 0; i < _size; ++i) {
+            statusUpdates.add(new StatusUpdate(String.valueOf(_authors[i]),
+                    _published[i], _messages[i]));
+        }
+        return statusUpdates;
+    }
+}
@@ -0,0 +1,128 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * restriction of a news feed to a subset of the users followed and/or to a
+ * time window<br>
+ * The authors are held in a sorted primitive array, so checking a replica
+ * against the filter neither allocates nor touches the replica's status
+ * updates.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class FeedFilter {
+
+    /**
+     * sorted identifiers of the authors accepted or <b>null</b> to accept
+     * all users followed
+     */
+    private final long[] _authors;
+
+    /**
+     * minimum timestamp of publishing (inclusive)
+     */
+    private final long _from;
+
+    /**
+     * maximum timestamp of publishing (exclusive)
+     */
+    private final long _to;
+
+    /**
+     * Creates a news feed filter.
+     * 
+     * @param authors
+     *            identifiers of the authors accepted or <b>null</b> to
+     *            accept all users followed
+     * @param from
+     *            minimum timestamp of publishing (inclusive)
+     * @param to
+     *            maximum timestamp of publishing (exclusive)
+     * @throws IllegalArgumentException
+     *             if the time window is empty
+     */
+    public FeedFilter(
+            Collection<Long> authors,
+            long from,
+            long to) {
+        if (from >= to) {
+            throw new IllegalArgumentException("empty time window [" + from
+                    + ", " + to + ")");
+        }
+        if (authors != null) {
+            _authors = new long[authors.size()];
+            int i = 0;
+            for (long idAuthor : authors) {
+                _authors[i++] = idAuthor;
+            }
+            Arrays.sort(_authors);
+        } else {
+            _authors = null;
+        }
+        _from = from;
+        _to = to;
+    }
+
+    /**
+     * @param authors
+     *            identifiers of the authors accepted
+     * @return filter accepting status updates of the authors specified
+     */
+    public static FeedFilter byAuthors(Collection<Long> authors) {
+        return new FeedFilter(authors, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param from
+     *            minimum timestamp of publishing (inclusive)
+     * @param to
+     *            maximum timestamp of publishing (exclusive)
+     * @return filter accepting status updates published in the time window
+     *         specified
+     */
+    public static FeedFilter byTime(long from, long to) {
+        return new FeedFilter(null, from, to);
+    }
+
+    /**
+     * @return true - if the filter is restricted to certain authors
+     */
+    public boolean hasAuthors() {
+        return (_authors != null);
+    }
+
+    /**
+     * @return number of authors accepted<br>
+     *         <code>Integer.MAX_VALUE</code> if all authors are accepted
+     */
+    public int getNumAuthors() {
+        return (_authors != null) ? _authors.length : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param idAuthor
+     *            author identifier
+     * @return true - if status updates of this author are accepted
+     */
+    public boolean acceptsAuthor(long idAuthor) {
+        return (_authors == null || Arrays
+                .binarySearch(_authors, idAuthor) >= 0);
+    }
+
+    /**
+     * @return minimum timestamp of publishing (inclusive)
+     */
+    public long getFrom() {
+        return _from;
+    }
+
+    /**
+     * @return maximum timestamp of publishing (exclusive)
+     */
+    public long getTo() {
+        return _to;
+    }
+}
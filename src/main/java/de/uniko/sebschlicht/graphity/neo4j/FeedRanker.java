@@ -0,0 +1,36 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+/**
+ * scoring of the status updates of a news feed<br>
+ * A ranked news feed contains the status updates with the highest scores.
+ * To stop reading a news feed early, the score of a status update must not
+ * increase with its age, i.e. older status updates of the same author never
+ * score higher than newer ones. Rankers are created per reader, so they may
+ * weight authors by their affinity to the reader.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public interface FeedRanker {
+
+    /**
+     * Scores a status update.
+     * 
+     * @param idAuthor
+     *            author identifier
+     * @param published
+     *            timestamp of publishing
+     * @return score of the status update, not increasing with its age
+     */
+    double score(long idAuthor, long published);
+
+    /**
+     * Bounds the score of status updates of authors not scored yet.
+     * 
+     * @param published
+     *            timestamp of publishing
+     * @return maximum score of any author's status update published at this
+     *         time or earlier
+     */
+    double getUpperBound(long published);
+}
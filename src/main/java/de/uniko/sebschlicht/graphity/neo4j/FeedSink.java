@@ -0,0 +1,24 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+/**
+ * receiver of the status updates of a news feed, the last recent first<br>
+ * Allows to consume a news feed without materializing a status update object
+ * per entry.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public interface FeedSink {
+
+    /**
+     * Receives the next status update of a news feed.
+     * 
+     * @param idAuthor
+     *            author identifier
+     * @param published
+     *            timestamp of publishing
+     * @param message
+     *            status update content
+     */
+    void add(long idAuthor, long published, String message);
+}
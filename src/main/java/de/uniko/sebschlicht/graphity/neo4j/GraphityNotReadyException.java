@@ -0,0 +1,18 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+/**
+ * operation was rejected because the Graphity instance has not been
+ * initialized far enough to serve it
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class GraphityNotReadyException extends RuntimeException {
+
+    private static final long serialVersionUID = 6124917343566839527L;
+
+    public GraphityNotReadyException(
+            String message) {
+        super(message);
+    }
+}
@@ -1,21 +1,48 @@
 package de.uniko.sebschlicht.graphity.neo4j;
 
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import org.neo4j.graphdb.ConstraintViolationException;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Lock;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
 import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema.IndexState;
+import org.neo4j.tooling.GlobalGraphOperations;
 
 import de.uniko.sebschlicht.graphity.Graphity;
 import de.uniko.sebschlicht.graphity.exception.IllegalUserIdException;
 import de.uniko.sebschlicht.graphity.exception.UnknownFollowedIdException;
 import de.uniko.sebschlicht.graphity.exception.UnknownFollowingIdException;
 import de.uniko.sebschlicht.graphity.exception.UnknownReaderIdException;
+import de.uniko.sebschlicht.graphity.neo4j.admission.AdmissionControl;
+import de.uniko.sebschlicht.graphity.neo4j.admission.Lane;
+import de.uniko.sebschlicht.graphity.neo4j.archive.PostArchive;
+import de.uniko.sebschlicht.graphity.neo4j.cdc.ChangeCapture;
+import de.uniko.sebschlicht.graphity.neo4j.cdc.ChangeLog;
+import de.uniko.sebschlicht.graphity.neo4j.cdc.ChangeType;
+import de.uniko.sebschlicht.graphity.neo4j.impl.UserLockList;
+import de.uniko.sebschlicht.graphity.neo4j.maintenance.CacheWarmer;
+import de.uniko.sebschlicht.graphity.neo4j.maintenance.ReaderLog;
+import de.uniko.sebschlicht.graphity.neo4j.model.ActivityType;
+import de.uniko.sebschlicht.graphity.neo4j.model.PostCursor;
+import de.uniko.sebschlicht.graphity.neo4j.model.PostCursorHeap;
 import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
+import de.uniko.sebschlicht.graphity.neo4j.model.UserStats;
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats;
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStatsAggregator;
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStatsHandler;
 import de.uniko.sebschlicht.socialnet.StatusUpdate;
 import de.uniko.sebschlicht.socialnet.StatusUpdateList;
 
@@ -27,11 +54,104 @@ import de.uniko.sebschlicht.socialnet.StatusUpdateList;
  */
 public abstract class Neo4jGraphity extends Graphity {
 
+    /**
+     * interval in milliseconds to poll the state of the user identifier index
+     * while it is populated
+     */
+    private static final long INDEX_POLL_INTERVAL = 500;
+
+    /**
+     * default time window in milliseconds to coalesce activity events in
+     */
+    public static final long DEFAULT_ACTIVITY_WINDOW = 60 * 1000;
+
     /**
      * graph database holding the social network graph
      */
     protected GraphDatabaseService graphDb;
 
+    /**
+     * whether to fall back to string identifiers when looking up users
+     */
+    protected volatile boolean _legacyIdentifiers;
+
+    /**
+     * way system activity is recorded
+     */
+    protected volatile ActivityMode _activityMode;
+
+    /**
+     * time window in milliseconds to coalesce activity events in
+     */
+    protected volatile long _activityWindow;
+
+    /**
+     * cache of single-successor edges
+     */
+    protected final EdgePointerCache _edgePointers;
+
+    /**
+     * (optional) archive holding status updates removed from the graph
+     */
+    protected volatile PostArchive _postArchive;
+
+    /**
+     * (optional) handler writing changes to a change log after commit
+     */
+    protected volatile ChangeCapture _changeCapture;
+
+    /**
+     * (optional) admission control for the operations
+     */
+    protected volatile AdmissionControl _admissionControl;
+
+    /**
+     * (optional) log of the readers requesting their news feeds
+     */
+    protected volatile ReaderLog _readerLog;
+
+    /**
+     * (optional) warm-up run once the schema is online
+     */
+    protected volatile CacheWarmer _cacheWarmer;
+
+    /**
+     * (optional) aggregation of the traversal costs of the requests
+     */
+    protected volatile TraversalStatsAggregator _traversalStats;
+
+    /**
+     * initialization state
+     */
+    protected volatile Readiness _readiness;
+
+    /**
+     * error that stopped the initialization
+     */
+    private volatile Throwable _initFailure;
+
+    /**
+     * released once the initialization has finished or failed
+     */
+    private final CountDownLatch _initialized = new CountDownLatch(1);
+
+    /**
+     * background teardown of users removed
+     */
+    protected final UserTeardown _userTeardown;
+
+    /**
+     * post cursors reused by the news feed requests of a thread
+     */
+    protected final ThreadLocal<PostCursorHeap> _postCursorHeaps =
+            new ThreadLocal<PostCursorHeap>() {
+
+                @Override
+                protected PostCursorHeap initialValue() {
+                    return new PostCursorHeap(16, _edgePointers);
+                }
+            };
+
     /**
      * Creates a new Graphity instance using the Neo4j database provided.
      * 
@@ -42,30 +162,529 @@ public abstract class Neo4jGraphity extends Graphity {
     public Neo4jGraphity(
             GraphDatabaseService graphDb) {
         this.graphDb = graphDb;
+        _legacyIdentifiers = false;
+        _activityMode = ActivityMode.STATUS_UPDATES;
+        _activityWindow = DEFAULT_ACTIVITY_WINDOW;
+        _edgePointers =
+                new EdgePointerCache(graphDb,
+                        EdgePointerCache.DEFAULT_CAPACITY);
+        graphDb.registerTransactionEventHandler(_edgePointers);
+        graphDb.registerTransactionEventHandler(new TraversalStatsHandler());
+        _userTeardown = new UserTeardown(this);
+        _readiness = Readiness.UNINITIALIZED;
     }
 
+    /**
+     * Begins a transaction that keeps the cache of single-successor edges
+     * consistent and discards the changes captured even if it is closed
+     * without success.
+     * 
+     * @return new transaction
+     */
     public Transaction beginTx() {
-        return graphDb.beginTx();
+        Transaction tx = _edgePointers.beginTx();
+        ChangeCapture changeCapture = _changeCapture;
+        return (changeCapture != null) ? changeCapture.track(tx) : tx;
+    }
+
+    /**
+     * Binds the state Graphity keeps per thread to a transaction owned by the
+     * caller, dropping the state left by a transaction that was closed
+     * without success.
+     * 
+     * @param tx
+     *            caller-owned transaction a request is executed in
+     */
+    protected void bindTransaction(Transaction tx) {
+        _edgePointers.bind(tx);
+        ChangeCapture changeCapture = _changeCapture;
+        if (changeCapture != null) {
+            changeCapture.bind(tx);
+        }
+    }
+
+    /**
+     * @return cache of single-successor edges that tools operating on the
+     *         same database have to keep consistent
+     */
+    public EdgePointerCache getEdgePointerCache() {
+        return _edgePointers;
+    }
+
+    /**
+     * @return background teardown of the users removed
+     */
+    public UserTeardown getUserTeardown() {
+        return _userTeardown;
+    }
+
+    /**
+     * Enables or disables the lookup of users by string identifiers.<br>
+     * Stores created before user identifiers were stored as native numbers
+     * have to enable this lookup until the identifier migration has
+     * finished.
+     * 
+     * @param legacyIdentifiers
+     *            whether to fall back to string identifiers if a user was not
+     *            found by its numeric identifier
+     */
+    public void setLegacyIdentifierLookup(boolean legacyIdentifiers) {
+        _legacyIdentifiers = legacyIdentifiers;
+    }
+
+    /**
+     * Sets the way system activity, such as followships, is recorded.
+     * 
+     * @param activityMode
+     *            activity mode, defaults to
+     *            {@link ActivityMode#STATUS_UPDATES}
+     */
+    public void setActivityMode(ActivityMode activityMode) {
+        _activityMode = activityMode;
+    }
+
+    /**
+     * Sets the time window activity events of a user are coalesced in, if
+     * activity is recorded as events.
+     * 
+     * @param activityWindow
+     *            time window in milliseconds
+     */
+    public void setActivityWindow(long activityWindow) {
+        _activityWindow = activityWindow;
+    }
+
+    /**
+     * Continues news feeds with archived status updates when the status
+     * updates of a user in the graph are exhausted.
+     * 
+     * @param postArchive
+     *            archive filled by the retention pruner or <b>null</b>
+     *            to read the graph only
+     */
+    public void setPostArchive(PostArchive postArchive) {
+        _postArchive = postArchive;
+    }
+
+    /**
+     * Writes the changes of all Graphity mutations to a change log after
+     * they have been committed. Changes caused by the bootstrapper or by
+     * maintenance tools are not captured.
+     * 
+     * @param changeLog
+     *            change log or <b>null</b> to stop capturing changes
+     */
+    public synchronized void setChangeLog(ChangeLog changeLog) {
+        if (_changeCapture != null) {
+            graphDb.unregisterTransactionEventHandler(_changeCapture);
+            _changeCapture = null;
+        }
+        if (changeLog != null) {
+            ChangeCapture changeCapture = new ChangeCapture(changeLog);
+            graphDb.registerTransactionEventHandler(changeCapture);
+            _changeCapture = changeCapture;
+        }
+    }
+
+    /**
+     * Limits the operations executed concurrently. Operations rejected throw
+     * a GraphityOverloadedException.
+     * 
+     * @param admissionControl
+     *            admission control or <b>null</b> to admit all operations
+     */
+    public void setAdmissionControl(AdmissionControl admissionControl) {
+        _admissionControl = admissionControl;
+    }
+
+    /**
+     * Records the readers requesting their news feeds, e.g. to warm up the
+     * news feeds of the most active readers after a restart.
+     * 
+     * @param readerLog
+     *            reader log or <b>null</b> to stop recording
+     */
+    public void setReaderLog(ReaderLog readerLog) {
+        _readerLog = readerLog;
+    }
+
+    /**
+     * @return log of the readers requesting their news feeds or <b>null</b>
+     */
+    public ReaderLog getReaderLog() {
+        return _readerLog;
+    }
+
+    /**
+     * Warms up the caches during the initialization, once the schema is
+     * online.
+     * 
+     * @param cacheWarmer
+     *            warm-up or <b>null</b> to skip the warm-up
+     */
+    public void setCacheWarmer(CacheWarmer cacheWarmer) {
+        _cacheWarmer = cacheWarmer;
+    }
+
+    /**
+     * Records the traversal costs of the requests to add followships, add
+     * status updates and read news feeds. Requests of threads recording
+     * traversal statistics on their own are not recorded.
+     * 
+     * @param traversalStats
+     *            aggregation of the costs or <b>null</b> to stop recording
+     */
+    public void setTraversalStats(TraversalStatsAggregator traversalStats) {
+        _traversalStats = traversalStats;
+    }
+
+    /**
+     * Starts to record the traversal costs of a request, if enabled.
+     * 
+     * @return statistics of the request or <b>null</b>
+     */
+    protected TraversalStats startStats() {
+        if (_traversalStats == null || TraversalStats.current() != null) {
+            return null;
+        }
+        return TraversalStats.start();
+    }
+
+    /**
+     * Stops to record the traversal costs of a request and aggregates them.
+     * Has to be called after the request's transaction has been closed.
+     * 
+     * @param stats
+     *            statistics of the request or <b>null</b>
+     */
+    protected void stopStats(TraversalStats stats) {
+        if (stats != null) {
+            stats.stop();
+            TraversalStatsAggregator traversalStats = _traversalStats;
+            if (traversalStats != null) {
+                traversalStats.record(stats);
+            }
+        }
+    }
+
+    /**
+     * Specifies the operation of the traversal costs recorded by the current
+     * thread, if any.
+     * 
+     * @param type
+     *            operation type
+     * @param nUser
+     *            node of the user whose ego network dominates the costs
+     * @param isFollowers
+     *            whether the costs depend on the user's followers rather than
+     *            on the users followed
+     */
+    protected static void recordOperation(
+            OperationType type,
+            Node nUser,
+            boolean isFollowers) {
+        TraversalStats stats = TraversalStats.current();
+        if (stats != null) {
+            UserProxy pUser = new UserProxy(nUser);
+            stats.setOperation(type, isFollowers ? pUser.getNumFollowers()
+                    : pUser.getNumFollowing());
+        }
+    }
+
+    /**
+     * Records a news feed request if a reader log is attached.
+     * 
+     * @param idReader
+     *            reader identifier
+     */
+    protected void recordRead(String idReader) {
+        recordRead(parseUserIdentifier(idReader));
+    }
+
+    /**
+     * Records a news feed request if a reader log is attached.
+     * 
+     * @param idReader
+     *            reader identifier
+     */
+    protected void recordRead(long idReader) {
+        ReaderLog readerLog = _readerLog;
+        if (readerLog != null) {
+            readerLog.record(idReader);
+        }
+    }
+
+    /**
+     * Admits an operation if admission control is enabled.
+     * 
+     * @param type
+     *            operation type
+     * @param cost
+     *            estimated cost of the operation
+     * @return lane the operation was admitted to or <b>null</b>
+     */
+    protected Lane admit(OperationType type, long cost) {
+        AdmissionControl admissionControl = _admissionControl;
+        if (admissionControl != null) {
+            return admissionControl.admit(type, cost);
+        }
+        return null;
+    }
+
+    /**
+     * Releases the admission of an operation that has finished.
+     * 
+     * @param lane
+     *            lane the operation was admitted to or <b>null</b>
+     */
+    protected static void exit(Lane lane) {
+        if (lane != null) {
+            lane.exit();
+        }
     }
 
+    /**
+     * Estimates the number of ego networks a status update of a user has to
+     * be propagated to.
+     * 
+     * @param nAuthor
+     *            author node
+     * @return number of followers of the author
+     */
+    protected long estimateFanOut(Node nAuthor) {
+        return new UserProxy(nAuthor).getNumFollowers();
+    }
+
+    /**
+     * Estimates the fan-out of a status update in a read transaction of its
+     * own, so the status update can be admitted before any lock is taken.
+     * 
+     * @param idAuthor
+     *            author identifier
+     * @return number of followers of the author<br>
+     *         <code>0</code> - if admission control is disabled or the author
+     *         is not existing
+     */
+    private long estimateFanOut(String idAuthor) {
+        if (_admissionControl == null) {
+            return 0;
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            Node nAuthor = findUser(idAuthor);
+            return (nAuthor != null) ? estimateFanOut(nAuthor) : 0;
+        }
+    }
+
+    /**
+     * Records a change of the current transaction if changes are captured.
+     * The change is discarded unless the transaction commits, provided that
+     * the transaction was started via {@link #beginTx()} or bound via
+     * {@link #bindTransaction(Transaction)}.
+     * 
+     * @param type
+     *            change type
+     * @param timestamp
+     *            timestamp of the change
+     * @param idUser
+     *            user that caused the change
+     * @param idTarget
+     *            user or status update affected
+     * @param message
+     *            (optional) status update content
+     */
+    protected void recordChange(
+            ChangeType type,
+            long timestamp,
+            long idUser,
+            long idTarget,
+            String message) {
+        ChangeCapture changeCapture = _changeCapture;
+        if (changeCapture != null) {
+            changeCapture.record(type, timestamp, idUser, idTarget, message);
+        }
+    }
+
+    /**
+     * Parses a user identifier.
+     * 
+     * @param userIdentifier
+     *            user identifier passed to the API
+     * @return numeric user identifier<br>
+     *         <b>0</b> - if the identifier is not a positive number
+     */
+    public static long parseUserIdentifier(String userIdentifier) {
+        try {
+            long idUser = Long.parseLong(userIdentifier);
+            if (idUser > 0) {
+                return idUser;
+            }
+        } catch (NumberFormatException e) {
+            // invalid identifier
+        }
+        return 0;
+    }
+
+    /**
+     * Initializes the instance and blocks until it is ready.
+     * 
+     * @throws IllegalStateException
+     *             if the initialization failed
+     */
     @Override
     public void init() {
-        // create user identifier index if not existing
+        _readiness = Readiness.INITIALIZING;
+        initialize();
+        if (_readiness == Readiness.FAILED) {
+            throw new IllegalStateException("initialization failed",
+                    _initFailure);
+        }
+    }
+
+    /**
+     * Initializes the instance in the background and returns immediately.
+     * News feeds are served meanwhile, though slower, while users can not be
+     * created until the schema is online.
+     * 
+     * @see #getReadiness()
+     */
+    public void initAsync() {
+        _readiness = Readiness.INITIALIZING;
+        Thread initializer = new Thread("graphity-init") {
+
+            @Override
+            public void run() {
+                initialize();
+            }
+        };
+        initializer.setDaemon(true);
+        initializer.start();
+    }
+
+    private void initialize() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // the label scan does not depend on the schema
+            Future<?> teardowns = executor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    resumeTeardowns();
+                }
+            });
+
+            // create user identifier constraint if not existing
+            ConstraintDefinition uniqueUserId =
+                    loadConstraintDefinition(NodeType.USER,
+                            UserProxy.PROP_IDENTIFIER);
+            if (uniqueUserId == null) {
+                createUniqueUserIdentifier();
+            }
+            awaitUserIdentifierIndex();
+            _readiness = Readiness.WARMING;
+
+            // warm-up reads would fall back to label scans before
+            CacheWarmer cacheWarmer = _cacheWarmer;
+            if (cacheWarmer != null) {
+                cacheWarmer.run();
+            }
+            teardowns.get();
+            _readiness = Readiness.READY;
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        } catch (RuntimeException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+        } finally {
+            executor.shutdownNow();
+            _initialized.countDown();
+        }
+    }
+
+    private void fail(Throwable cause) {
+        _initFailure = cause;
+        _readiness = Readiness.FAILED;
+    }
+
+    /**
+     * Resumes the teardown of the users removed before a shutdown.
+     */
+    private void resumeTeardowns() {
+        try (Transaction tx = graphDb.beginTx();
+                ResourceIterator<Node> removedUsers =
+                        GlobalGraphOperations.at(graphDb)
+                                .getAllNodesWithLabel(NodeType.REMOVED_USER)
+                                .iterator()) {
+            while (removedUsers.hasNext()) {
+                _userTeardown.schedule(removedUsers.next().getId());
+            }
+        }
+    }
+
+    /**
+     * Waits for the user identifier index to be populated, regardless of
+     * how long the population takes on large stores.
+     * 
+     * @throws IllegalStateException
+     *             if the population failed
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    private void awaitUserIdentifierIndex() throws InterruptedException {
         IndexDefinition indexUserId =
                 loadIndexDefinition(NodeType.USER, UserProxy.PROP_IDENTIFIER);
         if (indexUserId == null) {
-            try (Transaction tx = graphDb.beginTx()) {
-                graphDb.schema().indexFor(NodeType.USER)
-                        .on(UserProxy.PROP_IDENTIFIER).create();
-                tx.success();
-            }
+            throw new IllegalStateException("user identifier index missing");
         }
-
         try (Transaction tx = graphDb.beginTx()) {
-            graphDb.schema().awaitIndexesOnline(60, TimeUnit.SECONDS);
+            IndexState state;
+            while ((state = graphDb.schema().getIndexState(indexUserId))
+                    != IndexState.ONLINE) {
+                if (state == IndexState.FAILED) {
+                    throw new IllegalStateException(
+                            "failed to populate user identifier index: "
+                                    + graphDb.schema().getIndexFailure(
+                                            indexUserId));
+                }
+                Thread.sleep(INDEX_POLL_INTERVAL);
+            }
         }
     }
 
+    /**
+     * @return initialization state
+     */
+    public Readiness getReadiness() {
+        return _readiness;
+    }
+
+    /**
+     * @return error that stopped the initialization or <b>null</b>
+     */
+    public Throwable getInitFailure() {
+        return _initFailure;
+    }
+
+    /**
+     * Waits for the initialization to finish.
+     * 
+     * @param timeout
+     *            maximum time to wait
+     * @param unit
+     *            unit of the timeout
+     * @return true - if the instance is ready<br>
+     *         false - if the initialization failed or the timeout elapsed
+     *         before
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        _initialized.await(timeout, unit);
+        return (_readiness == Readiness.READY);
+    }
+
     /**
      * Loads the index definition for a label on a certain property key.
      * 
@@ -93,29 +712,113 @@ public abstract class Neo4jGraphity extends Graphity {
         return null;
     }
 
+    /**
+     * Loads the uniqueness constraint for a label on a certain property key.
+     * 
+     * @param label
+     *            label the constraint was created for
+     * @param propertyKey
+     *            property key the constraint was created on
+     * @return constraint definition - for the label on the property
+     *         specified<br>
+     *         <b>null</b> - if there is no constraint for the label on this
+     *         property
+     */
+    protected ConstraintDefinition loadConstraintDefinition(
+            Label label,
+            String propertyKey) {
+        try (Transaction tx = graphDb.beginTx()) {
+            for (ConstraintDefinition constraintDefinition : graphDb.schema()
+                    .getConstraints(label)) {
+                for (String constraintPropertyKey : constraintDefinition
+                        .getPropertyKeys()) {
+                    if (constraintPropertyKey.equals(propertyKey)) {
+                        return constraintDefinition;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the uniqueness constraint on user identifiers, replacing a
+     * plain user identifier index of older stores.
+     * 
+     * @throws IllegalStateException
+     *             if the store contains duplicate users, the plain index is
+     *             restored then
+     */
+    private void createUniqueUserIdentifier() {
+        IndexDefinition indexUserId =
+                loadIndexDefinition(NodeType.USER, UserProxy.PROP_IDENTIFIER);
+        if (indexUserId != null) {
+            try (Transaction tx = graphDb.beginTx()) {
+                indexUserId.drop();
+                tx.success();
+            }
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            graphDb.schema().constraintFor(NodeType.USER)
+                    .assertPropertyIsUnique(UserProxy.PROP_IDENTIFIER)
+                    .create();
+            tx.success();
+        } catch (ConstraintViolationException e) {
+            try (Transaction tx = graphDb.beginTx()) {
+                graphDb.schema().indexFor(NodeType.USER)
+                        .on(UserProxy.PROP_IDENTIFIER).create();
+                tx.success();
+            }
+            throw new IllegalStateException("user identifiers are not unique,"
+                    + " duplicate users have to be merged first", e);
+        }
+    }
+
     /**
      * Creates a user that can act in the social network.
      * 
      * @param userIdentifier
      *            identifier of the new user
-     * @return user node - if the user was successfully created<br>
-     *         <b>null</b> - if the identifier is already in use
+     * @return user node of the new user
      * @throws IllegalUserIdException
      *             if the user identifier is invalid
+     * @throws ConstraintViolationException
+     *             if the identifier is already in use
      */
     public Node createUser(String userIdentifier) throws IllegalUserIdException {
+        long idUser = parseUserIdentifier(userIdentifier);
+        if (idUser == 0) {
+            //TODO log exception reason (NaN/<=0)
+            throw new IllegalUserIdException(userIdentifier);
+        }
+        return createUser(idUser);
+    }
+
+    /**
+     * Creates a user that can act in the social network.
+     * 
+     * @param idUser
+     *            identifier of the new user
+     * @return user node of the new user
+     * @throws IllegalUserIdException
+     *             if the user identifier is not positive
+     * @throws ConstraintViolationException
+     *             if the identifier is already in use
+     */
+    public Node createUser(long idUser) throws IllegalUserIdException {
+        if (idUser <= 0) {
+            throw new IllegalUserIdException(String.valueOf(idUser));
+        }
+        Node nUser = graphDb.createNode(NodeType.USER);
         try {
-            long idUser = Long.valueOf(userIdentifier);
-            if (idUser > 0) {
-                Node nUser = graphDb.createNode(NodeType.USER);
-                nUser.setProperty(UserProxy.PROP_IDENTIFIER, userIdentifier);
-                return nUser;
-            }
-        } catch (NumberFormatException e) {
-            // exception thrown below
+            nUser.setProperty(UserProxy.PROP_IDENTIFIER, idUser);
+        } catch (ConstraintViolationException e) {
+            nUser.delete();
+            throw e;
         }
-        //TODO log exception reason (NaN/<=0)
-        throw new IllegalUserIdException(userIdentifier);
+        recordChange(ChangeType.USER_CREATED, System.currentTimeMillis(),
+                idUser, 0, null);
+        return nUser;
     }
 
     /**
@@ -127,9 +830,43 @@ public abstract class Neo4jGraphity extends Graphity {
      *         <b>null</b> - if there is no node representing the user specified
      */
     protected Node findUser(String userIdentifier) {
+        long idUser = parseUserIdentifier(userIdentifier);
+        if (idUser == 0) {
+            return null;
+        }
+        return findUser(idUser);
+    }
+
+    /**
+     * Searches the social network graph for an user.
+     * 
+     * @param idUser
+     *            identifier of the user searched
+     * @return user node - if the user is existing in social network graph<br>
+     *         <b>null</b> - if there is no node representing the user specified
+     */
+    protected Node findUser(long idUser) {
+        Node nUser = findUserByIdentifier(idUser);
+        if (nUser == null && _legacyIdentifiers) {
+            // user may not have been migrated yet
+            nUser = findUserByIdentifier(String.valueOf(idUser));
+        }
+        return nUser;
+    }
+
+    /**
+     * Looks up a user node in the user identifier index.<br>
+     * Neo4j falls back to a label scan while the index is not online.
+     * 
+     * @param identifier
+     *            value of the identifier property
+     * @return user node - if the identifier is indexed<br>
+     *         <b>null</b> - otherwise
+     */
+    private Node findUserByIdentifier(Object identifier) {
         try (ResourceIterator<Node> users =
                 graphDb.findNodesByLabelAndProperty(NodeType.USER,
-                        UserProxy.PROP_IDENTIFIER, userIdentifier).iterator()) {
+                        UserProxy.PROP_IDENTIFIER, identifier).iterator()) {
             if (users.hasNext()) {
                 return users.next();
             }
@@ -144,77 +881,523 @@ public abstract class Neo4jGraphity extends Graphity {
      *            identifier of the user to interact with
      * @return user node - existing or created node representing the user
      * @throws IllegalUserIdException
-     *             if the user must be created and the identifier is invalid
+     *             if the user must be created and the identifier is invalid
+     */
+    protected Node loadUser(String userIdentifier)
+            throws IllegalUserIdException {
+        long idUser = parseUserIdentifier(userIdentifier);
+        if (idUser == 0) {
+            throw new IllegalUserIdException(userIdentifier);
+        }
+        return loadUser(idUser);
+    }
+
+    /**
+     * Loads a user from social network or lazily creates a new one.
+     * 
+     * @param idUser
+     *            identifier of the user to interact with
+     * @return user node - existing or created node representing the user
+     * @throws IllegalUserIdException
+     *             if the user must be created and the identifier is invalid
+     */
+    protected Node loadUser(long idUser) throws IllegalUserIdException {
+        Node nUser = findUser(idUser);
+        if (nUser != null) {
+            // user is already existing
+            return nUser;
+        }
+        nUser = tryCreateUser(idUser);
+        if (nUser == null) {
+            // user has been created concurrently
+            nUser = findUser(idUser);
+        }
+        return nUser;
+    }
+
+    /**
+     * Creates a user unless the identifier has been taken concurrently.<br>
+     * The uniqueness constraint blocks a creator until a concurrent
+     * transaction that created the same user has finished and rejects the
+     * duplicate then.
+     * 
+     * @param idUser
+     *            identifier of the user that was not found
+     * @return user node - if the user was successfully created<br>
+     *         <b>null</b> - if the identifier has been taken concurrently
+     * @throws IllegalUserIdException
+     *             if the user identifier is not positive
+     * @throws GraphityNotReadyException
+     *             if the uniqueness of user identifiers is not enforced yet
+     *             or could not be enforced
+     */
+    protected Node tryCreateUser(long idUser) throws IllegalUserIdException {
+        Readiness readiness = _readiness;
+        if (readiness == Readiness.INITIALIZING) {
+            throw new GraphityNotReadyException(
+                    "users can not be created until the schema is online");
+        } else if (readiness == Readiness.FAILED) {
+            throw new GraphityNotReadyException(
+                    "users can not be created, initialization failed");
+        }
+        try {
+            return createUser(idUser);
+        } catch (ConstraintViolationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean addUser(String userIdentifier) throws IllegalUserIdException {
+        long idUser = parseUserIdentifier(userIdentifier);
+        if (idUser == 0) {
+            throw new IllegalUserIdException(userIdentifier);
+        }
+        Lane lane = admit(OperationType.ADD_USER, 1);
+        try {
+            Node nUser = findUser(idUser);
+            if (nUser == null) {
+                // user identifier not in use yet
+                return (tryCreateUser(idUser) != null);
+            }
+            return false;
+        } finally {
+            exit(lane);
+        }
+    }
+
+    /**
+     * Adds a user in a transaction of its own.
+     * 
+     * @param idUser
+     *            identifier of the new user
+     * @return true - if the user was created<br>
+     *         false - if the identifier is already in use
+     * @throws IllegalUserIdException
+     *             if the user identifier is not positive
+     */
+    public boolean addUser(long idUser) throws IllegalUserIdException {
+        if (idUser <= 0) {
+            throw new IllegalUserIdException(String.valueOf(idUser));
+        }
+        Lane lane = admit(OperationType.ADD_USER, 1);
+        try (Transaction tx = beginTx()) {
+            if (findUser(idUser) == null && tryCreateUser(idUser) != null) {
+                tx.success();
+                return true;
+            }
+            return false;
+        } finally {
+            exit(lane);
+        }
+    }
+
+    /**
+     * Removes a user from the social network.<br>
+     * The user can no longer be found once this method returns, while its
+     * followships, status updates and activity events are torn down in the
+     * background. No activity is recorded for the followships removed.
+     * 
+     * @param userIdentifier
+     *            identifier of the user to be removed
+     * @return true - if the user was removed<br>
+     *         false - if there is no such user
+     */
+    public boolean removeUser(String userIdentifier) {
+        long idUser = parseUserIdentifier(userIdentifier);
+        if (idUser == 0) {
+            return false;
+        }
+        Lane lane = admit(OperationType.REMOVE_USER, 1);
+        long userNodeId;
+        try (Transaction tx = beginTx()) {
+            Node nUser = findUser(idUser);
+            if (nUser == null) {
+                return false;
+            }
+            tx.acquireWriteLock(nUser);
+            TraversalStats.lockTaken();
+            // hide the user from lookups and free its identifier
+            nUser.removeLabel(NodeType.USER);
+            nUser.addLabel(NodeType.REMOVED_USER);
+            recordChange(ChangeType.USER_REMOVED, System.currentTimeMillis(),
+                    idUser, 0, null);
+            userNodeId = nUser.getId();
+            tx.success();
+        } finally {
+            exit(lane);
+        }
+        _userTeardown.schedule(userNodeId);
+        return true;
+    }
+
+    /**
+     * Tears down a removed user in a single transaction.
+     * 
+     * @param userNodeId
+     *            identifier of the removed user's node
+     * @param batchSize
+     *            maximum number of items to remove
+     * @return true - if the user node has been deleted<br>
+     *         false - if there are further items to remove
+     */
+    protected boolean tearDownUser(long userNodeId, int batchSize) {
+        try (Transaction tx = beginTx()) {
+            Node nUser = graphDb.getNodeById(userNodeId);
+            int numLeft = batchSize;
+            numLeft -= removeFollowships(nUser, numLeft, tx);
+            if (numLeft > 0) {
+                numLeft -= removeChain(nUser, EdgeType.PUBLISHED, numLeft);
+            }
+            if (numLeft > 0) {
+                numLeft -= removeChain(nUser, EdgeType.ACTIVITY, numLeft);
+            }
+            boolean isRemoved = (numLeft > 0 && !nUser.hasRelationship());
+            if (isRemoved) {
+                PostArchive postArchive = _postArchive;
+                if (postArchive != null) {
+                    postArchive.getSegmentFile(UserProxy.readIdentifier(nUser))
+                            .delete();
+                }
+                _edgePointers.invalidate(nUser, EdgeType.GRAPHITY);
+                _edgePointers.invalidate(nUser, EdgeType.PUBLISHED);
+                nUser.delete();
+            }
+            tx.success();
+            return isRemoved;
+        }
+    }
+
+    /**
+     * Removes nodes from the head of a chain of a removed user.
+     * 
+     * @param nUser
+     *            removed user node
+     * @param edgeType
+     *            type of the chain's edges
+     * @param maxNodes
+     *            maximum number of nodes to remove
+     * @return number of nodes removed
+     */
+    private int removeChain(Node nUser, EdgeType edgeType, int maxNodes) {
+        Node nCrr = Walker.nextNode(nUser, edgeType);
+        if (nCrr == null) {
+            return 0;
+        }
+        _edgePointers.invalidate(nUser, edgeType);
+        nUser.getSingleRelationship(edgeType, Direction.OUTGOING).delete();
+        Node nNext;
+        int numRemoved = 0;
+        while (nCrr != null && numRemoved < maxNodes) {
+            _edgePointers.invalidate(nCrr, edgeType);
+            nNext = Walker.nextNode(nCrr, edgeType);
+            if (nNext != null) {
+                nCrr.getSingleRelationship(edgeType, Direction.OUTGOING)
+                        .delete();
+            }
+            nCrr.delete();
+            numRemoved += 1;
+            nCrr = nNext;
+        }
+        if (nCrr != null) {
+            // further nodes are removed in the next transaction
+            nUser.createRelationshipTo(nCrr, edgeType);
+        }
+        return numRemoved;
+    }
+
+    /**
+     * Removes followships of a removed user, both to users it follows and
+     * from users following it. Updates the counters of the other users but
+     * does not record any activity.
+     * 
+     * @param nUser
+     *            removed user node
+     * @param maxFollowships
+     *            maximum number of followships to remove
+     * @param tx
+     *            current graph transaction
+     * @return number of followships removed
+     */
+    abstract protected int removeFollowships(
+            Node nUser,
+            int maxFollowships,
+            Transaction tx);
+
+    @Override
+    public boolean addFollowship(String idFollowing, String idFollowed)
+            throws IllegalUserIdException {
+        TraversalStats stats = startStats();
+        Lane lane = null;
+        try {
+            lane = admit(OperationType.ADD_FOLLOWSHIP, 1);
+            try (Transaction tx = beginTx()) {
+                if (addFollowship(idFollowing, idFollowed, tx)) {
+                    tx.success();
+                    return true;
+                }
+                return false;
+            }
+        } finally {
+            exit(lane);
+            stopStats(stats);
+        }
+    }
+
+    /**
+     * Adds a followship without committing.
+     * 
+     * @param idFollowing
+     * @param idFollowed
+     * @param tx
+     *            current graph transaction
+     * @return
+     * @throws IllegalUserIdException
+     */
+    public boolean addFollowship(
+            String idFollowing,
+            String idFollowed,
+            Transaction tx) throws IllegalUserIdException {
+        bindTransaction(tx);
+        long idUserFollowing = parseUserIdentifier(idFollowing);
+        if (idUserFollowing == 0) {
+            throw new IllegalUserIdException(idFollowing);
+        }
+        long idUserFollowed = parseUserIdentifier(idFollowed);
+        if (idUserFollowed == 0) {
+            throw new IllegalUserIdException(idFollowed);
+        }
+        return addFollowship(idUserFollowing, idUserFollowed, true, tx);
+    }
+
+    /**
+     * Adds a followship of a user homed in another graph, in a transaction of
+     * its own.<br>
+     * The following user is represented by a ghost node. Activity is only
+     * recorded for the user followed, the activity of the following user has
+     * to be recorded in its home graph.
+     * 
+     * @param idFollowing
+     *            identifier of the user that wants to follow a user
+     * @param idFollowed
+     *            identifier of the user homed in this graph
+     * @return true - if the followship was successfully created<br>
+     *         false - if this followship is already existing
+     * @throws IllegalUserIdException
+     *             if any of the identifiers is not positive
      */
-    protected Node loadUser(String userIdentifier)
+    public boolean addGhostFollowship(long idFollowing, long idFollowed)
             throws IllegalUserIdException {
-        Node nUser = findUser(userIdentifier);
-        if (nUser != null) {
-            // user is already existing
-            return nUser;
+        if (idFollowing <= 0) {
+            throw new IllegalUserIdException(String.valueOf(idFollowing));
         }
-        return createUser(userIdentifier);
-    }
-
-    @Override
-    public boolean addUser(String userIdentifier) throws IllegalUserIdException {
-        Node nUser = findUser(userIdentifier);
-        if (nUser == null) {
-            // user identifier not in use yet
-            createUser(userIdentifier);
-            return true;
+        if (idFollowed <= 0) {
+            throw new IllegalUserIdException(String.valueOf(idFollowed));
         }
-        return false;
-    }
-
-    @Override
-    public boolean addFollowship(String idFollowing, String idFollowed)
-            throws IllegalUserIdException {
-        try (Transaction tx = graphDb.beginTx()) {
-            if (addFollowship(idFollowing, idFollowed, tx)) {
-                tx.success();
-                return true;
+        TraversalStats stats = startStats();
+        Lane lane = null;
+        try {
+            lane = admit(OperationType.ADD_FOLLOWSHIP, 1);
+            try (Transaction tx = beginTx()) {
+                if (addFollowship(idFollowing, idFollowed, false, tx)) {
+                    tx.success();
+                    return true;
+                }
+                return false;
             }
-            return false;
+        } finally {
+            exit(lane);
+            stopStats(stats);
         }
     }
 
     /**
      * Adds a followship without committing.
      * 
-     * @param idFollowing
-     * @param idFollowed
+     * @param idUserFollowing
+     *            identifier of the user that wants to follow a user
+     * @param idUserFollowed
+     *            identifier of the user that will be followed
+     * @param isFollowingHome
+     *            whether the following user is homed in this graph rather
+     *            than being a ghost that records no activity
      * @param tx
      *            current graph transaction
-     * @return
+     * @return true - if the followship was successfully created<br>
+     *         false - if this followship is already existing
      * @throws IllegalUserIdException
+     *             if a user must be created and its identifier is invalid
      */
-    public boolean addFollowship(
-            String idFollowing,
-            String idFollowed,
+    protected boolean addFollowship(
+            long idUserFollowing,
+            long idUserFollowed,
+            boolean isFollowingHome,
             Transaction tx) throws IllegalUserIdException {
-        Node nFollowing = loadUser(idFollowing);
-        Node nFollowed = loadUser(idFollowed);
+        Node nFollowing = loadUser(idUserFollowing);
+        Node nFollowed = loadUser(idUserFollowed);
+        recordOperation(OperationType.ADD_FOLLOWSHIP, nFollowing, false);
 
-        if (Long.valueOf(idFollowing) < Long.valueOf(idFollowed)) {
+        if (idUserFollowing < idUserFollowed) {
             tx.acquireWriteLock(nFollowing);
+            TraversalStats.lockTaken();
             tx.acquireWriteLock(nFollowed);
+            TraversalStats.lockTaken();
         } else {
             tx.acquireWriteLock(nFollowed);
+            TraversalStats.lockTaken();
             tx.acquireWriteLock(nFollowing);
+            TraversalStats.lockTaken();
         }
 
         boolean result = addFollowship(nFollowing, nFollowed);
         if (result) {
+            new UserProxy(nFollowing).updateNumFollowing(1);
+            new UserProxy(nFollowed).updateNumFollowers(1);
             long msCrr = System.currentTimeMillis();
-            addStatusUpdate(nFollowing, new StatusUpdate(idFollowing, msCrr,
-                    "now follows " + idFollowed), tx);
-            addStatusUpdate(nFollowed, new StatusUpdate(idFollowed, msCrr,
-                    "has new follower " + idFollowing), tx);
+            if (isFollowingHome) {
+                addActivity(nFollowing, idUserFollowing, ActivityType.FOLLOWS,
+                        idUserFollowed, msCrr, tx);
+            }
+            addActivity(nFollowed, idUserFollowed, ActivityType.FOLLOWED,
+                    idUserFollowing, msCrr, tx);
+            recordChange(ChangeType.FOLLOW_ADDED, msCrr, idUserFollowing,
+                    idUserFollowed, null);
         }
         return result;
     }
 
+    /**
+     * Adds followships of a user to a number of users in a single
+     * transaction.
+     * 
+     * @param idFollowing
+     *            identifier of the user that wants to follow other users
+     * @param idsFollowed
+     *            identifiers of the users to be followed
+     * @return number of followships created
+     * @throws IllegalUserIdException
+     *             if any of the identifiers is invalid
+     */
+    public int addFollowships(
+            String idFollowing,
+            Collection<String> idsFollowed) throws IllegalUserIdException {
+        TraversalStats stats = startStats();
+        Lane lane = null;
+        try {
+            lane = admit(OperationType.ADD_FOLLOWSHIP, idsFollowed.size());
+            try (Transaction tx = beginTx()) {
+                int numAdded = addFollowships(idFollowing, idsFollowed, tx);
+                if (numAdded > 0) {
+                    tx.success();
+                }
+                return numAdded;
+            }
+        } finally {
+            exit(lane);
+            stopStats(stats);
+        }
+    }
+
+    /**
+     * Adds followships of a user to a number of users without committing.
+     * Users missing are created. If the batch fails once users have been
+     * loaded, the transaction is marked to be rolled back as a whole.
+     * 
+     * @param idFollowing
+     * @param idsFollowed
+     * @param tx
+     *            current graph transaction
+     * @return number of followships created
+     * @throws IllegalUserIdException
+     */
+    public int addFollowships(
+            String idFollowing,
+            Collection<String> idsFollowed,
+            Transaction tx) throws IllegalUserIdException {
+        bindTransaction(tx);
+        long idUserFollowing = parseUserIdentifier(idFollowing);
+        if (idUserFollowing == 0) {
+            throw new IllegalUserIdException(idFollowing);
+        }
+        long[] idsUserFollowed = new long[idsFollowed.size()];
+        int i = 0;
+        for (String idFollowed : idsFollowed) {
+            idsUserFollowed[i] = parseUserIdentifier(idFollowed);
+            if (idsUserFollowed[i] == 0) {
+                throw new IllegalUserIdException(idFollowed);
+            }
+            i += 1;
+        }
+
+        try {
+            return addFollowships(idUserFollowing, idsUserFollowed, tx);
+        } catch (RuntimeException | IllegalUserIdException e) {
+            // neither the users created nor any followship must be committed
+            tx.failure();
+            throw e;
+        }
+    }
+
+    private int addFollowships(
+            long idUserFollowing,
+            long[] idsUserFollowed,
+            Transaction tx) throws IllegalUserIdException {
+        // lock all users involved in the global order
+        Node nFollowing = loadUser(idUserFollowing);
+        recordOperation(OperationType.ADD_FOLLOWSHIP, nFollowing, false);
+        Node[] nFollowed = new Node[idsUserFollowed.length];
+        UserLockList users = new UserLockList(nFollowed.length + 1);
+        users.add(nFollowing, idUserFollowing);
+        for (int i = 0; i < nFollowed.length; ++i) {
+            nFollowed[i] = loadUser(idsUserFollowed[i]);
+            users.add(nFollowed[i], idsUserFollowed[i]);
+        }
+        users.lockAll(tx);
+
+        boolean[] isAdded = addFollowships(nFollowing, nFollowed);
+        long msCrr = System.currentTimeMillis();
+        int numAdded = 0;
+        for (int i = 0; i < nFollowed.length; ++i) {
+            if (isAdded[i]) {
+                numAdded += 1;
+                new UserProxy(nFollowed[i]).updateNumFollowers(1);
+            }
+        }
+        if (numAdded > 0) {
+            new UserProxy(nFollowing).updateNumFollowing(numAdded);
+        }
+        for (int i = 0; i < nFollowed.length; ++i) {
+            if (isAdded[i]) {
+                addActivity(nFollowing, idUserFollowing, ActivityType.FOLLOWS,
+                        idsUserFollowed[i], msCrr, tx);
+                addActivity(nFollowed[i], idsUserFollowed[i],
+                        ActivityType.FOLLOWED, idUserFollowing, msCrr, tx);
+                recordChange(ChangeType.FOLLOW_ADDED, msCrr, idUserFollowing,
+                        idsUserFollowed[i], null);
+            }
+        }
+        return numAdded;
+    }
+
+    /**
+     * Adds followships between a user node and a number of user nodes.
+     * Implementations may override this to add the followships at once.
+     * 
+     * @param nFollowing
+     *            node of the user that wants to follow other users
+     * @param nFollowed
+     *            nodes of the users that will be followed
+     * @return per user whether the followship was created, false if it is
+     *         existing already or the user appears more than once
+     */
+    protected boolean[] addFollowships(Node nFollowing, Node[] nFollowed) {
+        boolean[] isAdded = new boolean[nFollowed.length];
+        for (int i = 0; i < nFollowed.length; ++i) {
+            isAdded[i] = addFollowship(nFollowing, nFollowed[i]);
+        }
+        return isAdded;
+    }
+
     /**
      * Adds a followship between two user nodes to the social network graph.
      * 
@@ -230,12 +1413,15 @@ public abstract class Neo4jGraphity extends Graphity {
     @Override
     public boolean removeFollowship(String idFollowing, String idFollowed)
             throws UnknownFollowingIdException, UnknownFollowedIdException {
-        try (Transaction tx = graphDb.beginTx()) {
+        Lane lane = admit(OperationType.REMOVE_FOLLOWSHIP, 1);
+        try (Transaction tx = beginTx()) {
             if (removeFollowship(idFollowing, idFollowed, tx)) {
                 tx.success();
                 return true;
             }
             return false;
+        } finally {
+            exit(lane);
         }
     }
 
@@ -255,34 +1441,116 @@ public abstract class Neo4jGraphity extends Graphity {
             String idFollowed,
             Transaction tx) throws UnknownFollowingIdException,
             UnknownFollowedIdException {
-        Node nFollowing = findUser(idFollowing);
-        if (nFollowing == null) {
+        bindTransaction(tx);
+        long idUserFollowing = parseUserIdentifier(idFollowing);
+        if (idUserFollowing == 0) {
             throw new UnknownFollowingIdException(idFollowing);
         }
-        Node nFollowed = findUser(idFollowed);
-        if (nFollowed == null) {
+        long idUserFollowed = parseUserIdentifier(idFollowed);
+        if (idUserFollowed == 0) {
             throw new UnknownFollowedIdException(idFollowed);
         }
+        return removeFollowship(idUserFollowing, idUserFollowed, true, tx);
+    }
+
+    /**
+     * Removes a followship of a user homed in another graph, in a transaction
+     * of its own.<br>
+     * Activity is only recorded for the user followed, the activity of the
+     * following user has to be recorded in its home graph.
+     * 
+     * @param idFollowing
+     *            identifier of the user that wants to unfollow a user
+     * @param idFollowed
+     *            identifier of the user homed in this graph
+     * @return true - if the followship was successfully removed<br>
+     *         false - if this followship is not existing
+     * @throws UnknownFollowingIdException
+     *             if there is no ghost of the following user
+     * @throws UnknownFollowedIdException
+     *             if the user followed is not existing
+     */
+    public boolean removeGhostFollowship(long idFollowing, long idFollowed)
+            throws UnknownFollowingIdException, UnknownFollowedIdException {
+        Lane lane = admit(OperationType.REMOVE_FOLLOWSHIP, 1);
+        try (Transaction tx = beginTx()) {
+            if (removeFollowship(idFollowing, idFollowed, false, tx)) {
+                tx.success();
+                return true;
+            }
+            return false;
+        } finally {
+            exit(lane);
+        }
+    }
+
+    /**
+     * Removes a followship without committing.
+     * 
+     * @param idUserFollowing
+     *            identifier of the user that wants to unfollow a user
+     * @param idUserFollowed
+     *            identifier of the user that will be unfollowed
+     * @param isFollowingHome
+     *            whether the following user is homed in this graph rather
+     *            than being a ghost that records no activity
+     * @param tx
+     *            current graph transaction
+     * @return true - if the followship was successfully removed<br>
+     *         false - if this followship is not existing
+     * @throws UnknownFollowingIdException
+     * @throws UnknownFollowedIdException
+     */
+    protected boolean removeFollowship(
+            long idUserFollowing,
+            long idUserFollowed,
+            boolean isFollowingHome,
+            Transaction tx) throws UnknownFollowingIdException,
+            UnknownFollowedIdException {
+        Node nFollowing =
+                (idUserFollowing > 0) ? findUser(idUserFollowing) : null;
+        if (nFollowing == null) {
+            throw new UnknownFollowingIdException(
+                    String.valueOf(idUserFollowing));
+        }
+        Node nFollowed =
+                (idUserFollowed > 0) ? findUser(idUserFollowed) : null;
+        if (nFollowed == null) {
+            throw new UnknownFollowedIdException(
+                    String.valueOf(idUserFollowed));
+        }
 
         Lock lFollowing, lFollowed;
-        if (Long.valueOf(idFollowing) < Long.valueOf(idFollowed)) {
+        if (idUserFollowing < idUserFollowed) {
             lFollowing = tx.acquireWriteLock(nFollowing);
+            TraversalStats.lockTaken();
             lFollowed = tx.acquireWriteLock(nFollowed);
+            TraversalStats.lockTaken();
         } else {
             lFollowed = tx.acquireWriteLock(nFollowed);
+            TraversalStats.lockTaken();
             lFollowing = tx.acquireWriteLock(nFollowing);
+            TraversalStats.lockTaken();
         }
 
         boolean result = removeFollowship(nFollowing, nFollowed);
+        if (result) {
+            new UserProxy(nFollowing).updateNumFollowing(-1);
+            new UserProxy(nFollowed).updateNumFollowers(-1);
+        }
         lFollowing.release();
         lFollowed.release();
 
         if (result) {
             long msCrr = System.currentTimeMillis();
-            addStatusUpdate(nFollowing, new StatusUpdate(idFollowing, msCrr,
-                    "did unfollow " + idFollowed), tx);
-            addStatusUpdate(nFollowed, new StatusUpdate(idFollowed, msCrr,
-                    "was unfollowed by " + idFollowing), tx);
+            if (isFollowingHome) {
+                addActivity(nFollowing, idUserFollowing,
+                        ActivityType.UNFOLLOWS, idUserFollowed, msCrr, tx);
+            }
+            addActivity(nFollowed, idUserFollowed, ActivityType.UNFOLLOWED,
+                    idUserFollowing, msCrr, tx);
+            recordChange(ChangeType.FOLLOW_REMOVED, msCrr, idUserFollowing,
+                    idUserFollowed, null);
         }
         return result;
     }
@@ -301,15 +1569,118 @@ public abstract class Neo4jGraphity extends Graphity {
     abstract protected boolean
         removeFollowship(Node nFollowing, Node nFollowed);
 
+    /**
+     * Records a system activity of a user in a transaction of its own,
+     * according to the activity mode.<br>
+     * The user is created if not existing, even if no activity is recorded.
+     * 
+     * @param idUser
+     *            identifier of the user the activity is recorded for
+     * @param type
+     *            activity type
+     * @param idTarget
+     *            identifier of the other user involved
+     * @param published
+     *            timestamp of the activity
+     * @throws IllegalUserIdException
+     *             if the user must be created and the identifier is invalid
+     */
+    public void addActivity(
+            long idUser,
+            ActivityType type,
+            long idTarget,
+            long published) throws IllegalUserIdException {
+        try (Transaction tx = beginTx()) {
+            Node nUser = loadUser(idUser);
+            addActivity(nUser, idUser, type, idTarget, published, tx);
+            tx.success();
+        }
+    }
+
+    /**
+     * Records a system activity according to the activity mode.
+     * 
+     * @param nUser
+     *            node of the user the activity is recorded for
+     * @param idUser
+     *            identifier of this user
+     * @param type
+     *            activity type
+     * @param idTarget
+     *            identifier of the other user involved
+     * @param published
+     *            timestamp of the activity
+     * @param tx
+     *            current graph transaction
+     */
+    protected void addActivity(
+            Node nUser,
+            long idUser,
+            ActivityType type,
+            long idTarget,
+            long published,
+            Transaction tx) {
+        switch (_activityMode) {
+            case STATUS_UPDATES:
+                String message = type.getMessage(String.valueOf(idTarget));
+                long idStatusUpdate =
+                        addStatusUpdate(nUser, new StatusUpdate(
+                                String.valueOf(idUser), published, message), tx);
+                recordChange(ChangeType.POST_CREATED, published, idUser,
+                        idStatusUpdate, message);
+                break;
+
+            case EVENTS:
+                tx.acquireWriteLock(nUser);
+                TraversalStats.lockTaken();
+                new UserProxy(nUser).addActivity(type, published, idTarget,
+                        _activityWindow);
+                break;
+
+            case NONE:
+                break;
+        }
+    }
+
+    /**
+     * Merges the activity events of a user into a news feed, if activity is
+     * recorded as events.<br>
+     * Events do not influence which users are loaded into a news feed.
+     * 
+     * @param postCursors
+     *            cursors merged into the news feed
+     * @param nUser
+     *            user node whose activity events are merged
+     */
+    protected void mergeActivity(PostCursorHeap postCursors, Node nUser) {
+        if (_activityMode == ActivityMode.EVENTS) {
+            PostCursor activityCursor =
+                    postCursors.acquireActivityCursor().reset(nUser, null);
+            if (activityCursor.hasPost()) {
+                postCursors.push(activityCursor);
+            }
+        }
+    }
+
     @Override
     public long addStatusUpdate(String idAuthor, String message)
             throws IllegalUserIdException {
-        try (Transaction tx = graphDb.beginTx()) {
-            long statusUpdateId = addStatusUpdate(idAuthor, message, tx);
-            if (statusUpdateId != 0) {
-                tx.success();
+        TraversalStats stats = startStats();
+        Lane lane = null;
+        try {
+            lane =
+                    admit(OperationType.ADD_STATUS_UPDATE,
+                            estimateFanOut(idAuthor));
+            try (Transaction tx = beginTx()) {
+                long statusUpdateId = addStatusUpdate(idAuthor, message, tx);
+                if (statusUpdateId != 0) {
+                    tx.success();
+                }
+                return statusUpdateId;
             }
-            return statusUpdateId;
+        } finally {
+            exit(lane);
+            stopStats(stats);
         }
     }
 
@@ -326,10 +1697,18 @@ public abstract class Neo4jGraphity extends Graphity {
     public long
         addStatusUpdate(String idAuthor, String message, Transaction tx)
                 throws IllegalUserIdException {
+        bindTransaction(tx);
         Node nAuthor = loadUser(idAuthor);
+        recordOperation(OperationType.ADD_STATUS_UPDATE, nAuthor, true);
+        long published = System.currentTimeMillis();
         StatusUpdate statusUpdate =
-                new StatusUpdate(idAuthor, System.currentTimeMillis(), message);
-        return addStatusUpdate(nAuthor, statusUpdate, tx);
+                new StatusUpdate(idAuthor, published, message);
+        long idStatusUpdate = addStatusUpdate(nAuthor, statusUpdate, tx);
+        if (idStatusUpdate != 0) {
+            recordChange(ChangeType.POST_CREATED, published,
+                    parseUserIdentifier(idAuthor), idStatusUpdate, message);
+        }
+        return idStatusUpdate;
     }
 
     protected long addStatusUpdate(
@@ -337,6 +1716,7 @@ public abstract class Neo4jGraphity extends Graphity {
             StatusUpdate statusUpdate,
             Transaction tx) {
         tx.acquireWriteLock(nAuthor);
+        TraversalStats.lockTaken();
         return addStatusUpdate(nAuthor, statusUpdate);
     }
 
@@ -357,10 +1737,16 @@ public abstract class Neo4jGraphity extends Graphity {
     public StatusUpdateList readStatusUpdates(
             String idReader,
             int numStatusUpdates) throws UnknownReaderIdException {
-        try (Transaction tx = graphDb.beginTx()) {
-            StatusUpdateList statusUpdates =
-                    readStatusUpdates(idReader, numStatusUpdates, tx);
-            return statusUpdates;
+        TraversalStats stats = startStats();
+        Lane lane = null;
+        try {
+            lane = admit(OperationType.READ_STATUS_UPDATES, 1);
+            try (Transaction tx = _edgePointers.beginTx()) {
+                return readStatusUpdates(idReader, numStatusUpdates, tx);
+            }
+        } finally {
+            exit(lane);
+            stopStats(stats);
         }
     }
 
@@ -378,14 +1764,312 @@ public abstract class Neo4jGraphity extends Graphity {
             String idReader,
             int numStatusUpdates,
             Transaction tx) throws UnknownReaderIdException {
+        bindTransaction(tx);
         Node nReader = findUser(idReader);
         if (nReader != null) {
-            return readStatusUpdates(nReader, numStatusUpdates);
+            recordRead(idReader);
+            recordOperation(OperationType.READ_STATUS_UPDATES, nReader, false);
+            FeedBuffer feed = new FeedBuffer(numStatusUpdates);
+            readStatusUpdates(nReader, numStatusUpdates, feed);
+            return feed.toStatusUpdateList();
         }
         throw new UnknownReaderIdException(idReader);
     }
 
-    abstract protected StatusUpdateList readStatusUpdates(
+    /**
+     * Reads a filtered news feed.
+     * 
+     * @param idReader
+     *            reader identifier
+     * @param numStatusUpdates
+     *            maximum number of status updates to read
+     * @param filter
+     *            restriction to certain authors and/or a time window
+     * @return status updates accepted by the filter, the last recent first
+     * @throws UnknownReaderIdException
+     *             if the reader is not existing
+     */
+    public StatusUpdateList readStatusUpdates(
+            String idReader,
+            int numStatusUpdates,
+            FeedFilter filter) throws UnknownReaderIdException {
+        TraversalStats stats = startStats();
+        Lane lane = null;
+        try {
+            lane = admit(OperationType.READ_STATUS_UPDATES, 1);
+            try (Transaction tx = _edgePointers.beginTx()) {
+                Node nReader = findUser(idReader);
+                if (nReader == null) {
+                    throw new UnknownReaderIdException(idReader);
+                }
+                recordRead(idReader);
+                recordOperation(OperationType.READ_STATUS_UPDATES, nReader,
+                        false);
+                FeedBuffer feed = new FeedBuffer(numStatusUpdates);
+                readStatusUpdates(nReader, numStatusUpdates, filter, feed);
+                return feed.toStatusUpdateList();
+            }
+        } finally {
+            exit(lane);
+            stopStats(stats);
+        }
+    }
+
+    /**
+     * Reads a ranked news feed.
+     * 
+     * @param idReader
+     *            reader identifier
+     * @param numStatusUpdates
+     *            maximum number of status updates to read
+     * @param ranker
+     *            scoring of the status updates
+     * @return status updates with the highest scores, the highest score
+     *         first
+     * @throws UnknownReaderIdException
+     *             if the reader is not existing
+     */
+    public StatusUpdateList readRankedStatusUpdates(
+            String idReader,
+            int numStatusUpdates,
+            FeedRanker ranker) throws UnknownReaderIdException {
+        TraversalStats stats = startStats();
+        Lane lane = null;
+        try {
+            lane = admit(OperationType.READ_STATUS_UPDATES, 1);
+            try (Transaction tx = _edgePointers.beginTx()) {
+                Node nReader = findUser(idReader);
+                if (nReader == null) {
+                    throw new UnknownReaderIdException(idReader);
+                }
+                recordRead(idReader);
+                recordOperation(OperationType.READ_STATUS_UPDATES, nReader,
+                        false);
+                FeedBuffer feed = new FeedBuffer(numStatusUpdates);
+                RankedFeed top = new RankedFeed(numStatusUpdates);
+                readRankedStatusUpdates(nReader, ranker, top);
+                top.drainTo(feed);
+                return feed.toStatusUpdateList();
+            }
+        } finally {
+            exit(lane);
+            stopStats(stats);
+        }
+    }
+
+    /**
+     * Reads a ranked news feed into a sink.
+     * 
+     * @param idReader
+     *            reader identifier
+     * @param numStatusUpdates
+     *            maximum number of status updates to read
+     * @param ranker
+     *            scoring of the status updates
+     * @param feed
+     *            sink receiving the status updates, the highest score first
+     * @return true - if the news feed was read<br>
+     *         false - if the reader is not existing in this graph
+     */
+    public boolean readRankedStatusUpdates(
+            long idReader,
+            int numStatusUpdates,
+            FeedRanker ranker,
+            FeedSink feed) {
+        Lane lane = admit(OperationType.READ_STATUS_UPDATES, 1);
+        try (Transaction tx = _edgePointers.beginTx()) {
+            Node nReader = findUser(idReader);
+            if (nReader == null) {
+                return false;
+            }
+            recordRead(idReader);
+            RankedFeed top = new RankedFeed(numStatusUpdates);
+            readRankedStatusUpdates(nReader, ranker, top);
+            top.drainTo(feed);
+            return true;
+        } finally {
+            exit(lane);
+        }
+    }
+
+    /**
+     * Ranks the status updates of an author, the last recent first, until a
+     * status update does not enter the ranked feed. Older status updates of
+     * the author can not score higher.
+     * 
+     * @param cursor
+     *            post cursor positioned at the author's status updates to
+     *            rank
+     * @param ranker
+     *            scoring of the status updates
+     * @param top
+     *            ranked feed to add the status updates to
+     */
+    protected static void rankStatusUpdates(
+            PostCursor cursor,
+            FeedRanker ranker,
+            RankedFeed top) {
+        long idAuthor = cursor.getAuthor().getIdentifier();
+        while (cursor.hasPost()) {
+            double score = ranker.score(idAuthor, cursor.getCrrPublished());
+            if (!top.accepts(score)) {
+                return;
+            }
+            top.add(score, idAuthor, cursor.getCrrPublished(),
+                    cursor.getCrrMessage());
+            cursor.advance();
+        }
+    }
+
+    /**
+     * Reads the statistics of a user without iterating its relationships.
+     * 
+     * @param idUser
+     *            user identifier
+     * @return statistics of the user<br>
+     *         <b>null</b> - if the user is not existing
+     */
+    public UserStats readUserStats(long idUser) {
+        try (Transaction tx = graphDb.beginTx()) {
+            Node nUser = findUser(idUser);
+            if (nUser == null) {
+                return null;
+            }
+            UserProxy pUser = new UserProxy(nUser, idUser);
+            return new UserStats(idUser, pUser.getNumFollowers(),
+                    pUser.getNumFollowing(), pUser.getLastPostTimestamp());
+        }
+    }
+
+    /**
+     * Reads a news feed into a sink.
+     * 
+     * @param idReader
+     *            reader identifier
+     * @param numStatusUpdates
+     *            maximum number of status updates to read
+     * @param feed
+     *            sink receiving the status updates, the last recent first
+     * @return true - if the news feed was read<br>
+     *         false - if the reader is not existing in this graph
+     */
+    public boolean readStatusUpdates(
+            long idReader,
+            int numStatusUpdates,
+            FeedSink feed) {
+        return readStatusUpdates(idReader, numStatusUpdates, null, feed);
+    }
+
+    /**
+     * Reads a filtered news feed into a sink.
+     * 
+     * @param idReader
+     *            reader identifier
+     * @param numStatusUpdates
+     *            maximum number of status updates to read
+     * @param filter
+     *            (optional) restriction to certain authors and/or a time
+     *            window
+     * @param feed
+     *            sink receiving the status updates, the last recent first
+     * @return true - if the news feed was read<br>
+     *         false - if the reader is not existing in this graph
+     */
+    public boolean readStatusUpdates(
+            long idReader,
+            int numStatusUpdates,
+            FeedFilter filter,
+            FeedSink feed) {
+        Lane lane = admit(OperationType.READ_STATUS_UPDATES, 1);
+        try (Transaction tx = _edgePointers.beginTx()) {
+            Node nReader = findUser(idReader);
+            if (nReader == null) {
+                return false;
+            }
+            recordRead(idReader);
+            readStatusUpdates(nReader, numStatusUpdates, filter, feed);
+            return true;
+        } finally {
+            exit(lane);
+        }
+    }
+
+    /**
+     * Reads a news feed to warm up the caches. Unlike a request, the read is
+     * neither subject to admission control nor recorded in the reader log.
+     * 
+     * @param idReader
+     *            reader identifier
+     * @param numStatusUpdates
+     *            maximum number of status updates to read
+     * @param feed
+     *            sink receiving the status updates, the last recent first
+     * @return true - if the news feed was read<br>
+     *         false - if the reader is not existing in this graph
+     */
+    public boolean warmUpStatusUpdates(
+            long idReader,
+            int numStatusUpdates,
+            FeedSink feed) {
+        try (Transaction tx = _edgePointers.beginTx()) {
+            Node nReader = findUser(idReader);
+            if (nReader == null) {
+                return false;
+            }
+            readStatusUpdates(nReader, numStatusUpdates, null, feed);
+            return true;
+        }
+    }
+
+    /**
+     * Reads the news feed of a user.
+     * 
+     * @param nReader
+     *            reader node
+     * @param numStatusUpdates
+     *            maximum number of status updates to read
+     * @param feed
+     *            sink receiving the status updates, the last recent first
+     */
+    protected void readStatusUpdates(
+            Node nReader,
+            int numStatusUpdates,
+            FeedSink feed) {
+        readStatusUpdates(nReader, numStatusUpdates, null, feed);
+    }
+
+    /**
+     * Reads the news feed of a user.
+     * 
+     * @param nReader
+     *            reader node
+     * @param numStatusUpdates
+     *            maximum number of status updates to read
+     * @param filter
+     *            (optional) restriction to certain authors and/or a time
+     *            window
+     * @param feed
+     *            sink receiving the status updates, the last recent first
+     */
+    abstract protected void readStatusUpdates(
+            Node nReader,
+            int numStatusUpdates,
+            FeedFilter filter,
+            FeedSink feed);
+
+    /**
+     * Reads the status updates of a user's news feed with the highest scores.
+     * Activity events are not ranked.
+     * 
+     * @param nReader
+     *            reader node
+     * @param ranker
+     *            scoring of the status updates
+     * @param top
+     *            ranked feed to add the status updates to
+     */
+    abstract protected void readRankedStatusUpdates(
             Node nReader,
-            int numStatusUpdates);
+            FeedRanker ranker,
+            RankedFeed top);
 }
@@ -18,5 +18,15 @@ public enum NodeType implements Label {
     /**
      * user that can act in the social network
      */
-    USER;
+    USER,
+
+    /**
+     * system activity event displayed in user streams
+     */
+    EVENT,
+
+    /**
+     * user removed from the social network, waiting to be torn down
+     */
+    REMOVED_USER;
 }
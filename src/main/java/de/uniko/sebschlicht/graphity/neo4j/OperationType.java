@@ -0,0 +1,22 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+/**
+ * type of a Graphity operation
+ * 
+ * @author sebschlicht
+ * 
+ */
+public enum OperationType {
+
+    ADD_USER,
+
+    REMOVE_USER,
+
+    ADD_FOLLOWSHIP,
+
+    REMOVE_FOLLOWSHIP,
+
+    ADD_STATUS_UPDATE,
+
+    READ_STATUS_UPDATES;
+}
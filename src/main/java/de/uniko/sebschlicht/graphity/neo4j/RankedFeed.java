@@ -0,0 +1,157 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+import java.util.Arrays;
+
+/**
+ * top-k status updates of a ranked news feed, buffered in primitive
+ * arrays<br>
+ * The status updates are held in a binary min-heap by score, so the
+ * threshold a status update has to exceed is available in constant time.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class RankedFeed {
+
+    private final double[] _scores;
+
+    private final long[] _authors;
+
+    private final long[] _published;
+
+    private final String[] _messages;
+
+    private int _size;
+
+    /**
+     * Creates an empty feed.
+     * 
+     * @param capacity
+     *            number of status updates to keep
+     */
+    public RankedFeed(
+            int capacity) {
+        capacity = Math.max(capacity, 0);
+        _scores = new double[capacity];
+        _authors = new long[capacity];
+        _published = new long[capacity];
+        _messages = new String[capacity];
+    }
+
+    /**
+     * @return true - if the feed holds as many status updates as it keeps
+     */
+    public boolean isFull() {
+        return _size == _scores.length;
+    }
+
+    /**
+     * @return score a status update has to exceed to enter the full feed
+     */
+    public double getThreshold() {
+        return (_size > 0) ? _scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @param score
+     *            score of a status update
+     * @return true - if a status update with this score enters the feed
+     */
+    public boolean accepts(double score) {
+        return !isFull() || (_size > 0 && score > _scores[0]);
+    }
+
+    /**
+     * Adds a status update, dropping the one with the lowest score if the
+     * feed is full. Status updates have to be checked via
+     * {@link #accepts(double)} before.
+     * 
+     * @param score
+     *            score of the status update
+     * @param idAuthor
+     *            author identifier
+     * @param published
+     *            timestamp of publishing
+     * @param message
+     *            status update content
+     */
+    public void add(
+            double score,
+            long idAuthor,
+            long published,
+            String message) {
+        if (isFull()) {
+            set(0, score, idAuthor, published, message);
+            siftDown(0, _size);
+        } else {
+            int i = _size;
+            _size += 1;
+            set(i, score, idAuthor, published, message);
+            while (i > 0 && _scores[(i - 1) / 2] > _scores[i]) {
+                swap(i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+    }
+
+    /**
+     * Hands the status updates to a sink, the highest score first, and
+     * empties the feed.
+     * 
+     * @param feed
+     *            sink receiving the status updates
+     */
+    public void drainTo(FeedSink feed) {
+        // heap sort, moving the lowest score to the end
+        for (int end = _size - 1; end > 0; --end) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        for (int i = 0; i < _size; ++i) {
+            feed.add(_authors[i], _published[i], _messages[i]);
+        }
+        Arrays.fill(_messages, 0, _size, null);
+        _size = 0;
+    }
+
+    private void set(
+            int i,
+            double score,
+            long idAuthor,
+            long published,
+            String message) {
+        _scores[i] = score;
+        _authors[i] = idAuthor;
+        _published[i] = published;
+        _messages[i] = message;
+    }
+
+    private void siftDown(int i, int size) {
+        int child;
+        while ((child = 2 * i + 1) < size) {
+            if (child + 1 < size && _scores[child + 1] < _scores[child]) {
+                child += 1;
+            }
+            if (_scores[i] <= _scores[child]) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        double score = _scores[i];
+        _scores[i] = _scores[j];
+        _scores[j] = score;
+        long idAuthor = _authors[i];
+        _authors[i] = _authors[j];
+        _authors[j] = idAuthor;
+        long published = _published[i];
+        _published[i] = _published[j];
+        _published[j] = published;
+        String message = _messages[i];
+        _messages[i] = _messages[j];
+        _messages[j] = message;
+    }
+}
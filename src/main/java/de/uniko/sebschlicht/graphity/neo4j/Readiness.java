@@ -0,0 +1,41 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+/**
+ * initialization state of a Graphity instance
+ * 
+ * @author sebschlicht
+ * 
+ */
+public enum Readiness {
+
+    /**
+     * initialization has not been started, operations are served without any
+     * guarantees regarding the schema
+     */
+    UNINITIALIZED,
+
+    /**
+     * the user identifier schema is being created or populated<br>
+     * Users are looked up by label scans and user creation is rejected, as
+     * the uniqueness of user identifiers is not enforced yet.
+     */
+    INITIALIZING,
+
+    /**
+     * the schema is online and the caches are being warmed up, all
+     * operations are served
+     */
+    WARMING,
+
+    /**
+     * initialization has been finished
+     */
+    READY,
+
+    /**
+     * initialization has failed, the schema may be incomplete<br>
+     * User creation is rejected, as the uniqueness of user identifiers may
+     * not be enforced.
+     */
+    FAILED;
+}
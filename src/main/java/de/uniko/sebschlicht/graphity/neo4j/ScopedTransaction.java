@@ -0,0 +1,80 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+import org.neo4j.graphdb.Lock;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * transaction releasing per-thread state once it has been closed<br>
+ * Transaction event handlers are not invoked for transactions closed without
+ * being marked successful, so state recorded during such a transaction has
+ * to be released when the transaction is closed.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public abstract class ScopedTransaction implements Transaction {
+
+    /**
+     * transaction wrapped
+     */
+    private final Transaction _tx;
+
+    private boolean _isClosed;
+
+    /**
+     * Wraps a transaction.
+     * 
+     * @param tx
+     *            transaction to forward to
+     */
+    protected ScopedTransaction(
+            Transaction tx) {
+        _tx = tx;
+    }
+
+    /**
+     * Releases the state of the transaction. Called once, after the
+     * transaction wrapped has been closed, whether it was committed or not.
+     */
+    protected abstract void closed();
+
+    @Override
+    public void failure() {
+        _tx.failure();
+    }
+
+    @Override
+    public void success() {
+        _tx.success();
+    }
+
+    @Override
+    @Deprecated
+    public void finish() {
+        close();
+    }
+
+    @Override
+    public void close() {
+        if (_isClosed) {
+            return;
+        }
+        _isClosed = true;
+        try {
+            _tx.close();
+        } finally {
+            closed();
+        }
+    }
+
+    @Override
+    public Lock acquireWriteLock(PropertyContainer entity) {
+        return _tx.acquireWriteLock(entity);
+    }
+
+    @Override
+    public Lock acquireReadLock(PropertyContainer entity) {
+        return _tx.acquireReadLock(entity);
+    }
+}
@@ -0,0 +1,163 @@
+package de.uniko.sebschlicht.graphity.neo4j;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+/**
+ * background teardown of users removed from the social network<br>
+ * Removes the followships, status updates and activity events of a removed
+ * user in small transactions, pausing between them, and finally deletes the
+ * user node. A transaction that ran into a deadlock with a regular request
+ * is retried after the pause.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class UserTeardown implements Runnable {
+
+    /**
+     * default maximum number of items removed per transaction
+     */
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    /**
+     * default pause between two transactions in milliseconds
+     */
+    public static final long DEFAULT_PAUSE = 10;
+
+    /**
+     * Graphity instance the users were removed from
+     */
+    private final Neo4jGraphity _graphity;
+
+    /**
+     * nodes of users waiting to be torn down
+     */
+    private final LinkedBlockingQueue<Long> _queue =
+            new LinkedBlockingQueue<Long>();
+
+    /**
+     * maximum number of items removed per transaction
+     */
+    private volatile int _batchSize;
+
+    /**
+     * pause between two transactions in milliseconds
+     */
+    private volatile long _pause;
+
+    /**
+     * (lazy) thread processing the queue
+     */
+    private Thread _thread;
+
+    private volatile boolean _isStopped;
+
+    private final AtomicLong _numUsersRemoved = new AtomicLong();
+
+    private final AtomicLong _numTransactions = new AtomicLong();
+
+    /**
+     * Creates a teardown that starts its thread with the first user
+     * scheduled.
+     * 
+     * @param graphity
+     *            Graphity instance the users are removed from
+     */
+    public UserTeardown(
+            Neo4jGraphity graphity) {
+        _graphity = graphity;
+        _batchSize = DEFAULT_BATCH_SIZE;
+        _pause = DEFAULT_PAUSE;
+    }
+
+    /**
+     * Sets the size of the transactions tearing down a user.
+     * 
+     * @param batchSize
+     *            maximum number of items removed per transaction
+     * @param pause
+     *            pause between two transactions in milliseconds
+     */
+    public void setThrottling(int batchSize, long pause) {
+        _batchSize = batchSize;
+        _pause = pause;
+    }
+
+    /**
+     * Schedules a removed user to be torn down.
+     * 
+     * @param userNodeId
+     *            identifier of the user node
+     */
+    public synchronized void schedule(long userNodeId) {
+        if (_isStopped) {
+            throw new IllegalStateException("teardown has been stopped");
+        }
+        _queue.add(userNodeId);
+        if (_thread == null) {
+            _thread = new Thread(this, "user-teardown");
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+    }
+
+    /**
+     * Stops the teardown after the current transaction. Users not torn down
+     * completely are resumed when Graphity is initialized the next time.
+     */
+    public synchronized void stop() {
+        _isStopped = true;
+        if (_thread != null) {
+            _thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!_isStopped) {
+                long userNodeId = _queue.take();
+                boolean isRemoved = false;
+                while (!isRemoved && !_isStopped) {
+                    try {
+                        isRemoved =
+                                _graphity.tearDownUser(userNodeId, _batchSize);
+                    } catch (DeadlockDetectedException e) {
+                        // retry after the pause
+                    } catch (NotFoundException e) {
+                        // user node deleted already
+                        isRemoved = true;
+                    }
+                    _numTransactions.incrementAndGet();
+                    if (_pause > 0) {
+                        Thread.sleep(_pause);
+                    }
+                }
+                if (isRemoved) {
+                    _numUsersRemoved.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            // teardown was stopped
+        }
+    }
+
+    /**
+     * @return number of users waiting to be torn down
+     */
+    public int getNumPending() {
+        return _queue.size();
+    }
+
+    public long getNumUsersRemoved() {
+        return _numUsersRemoved.get();
+    }
+
+    public long getNumTransactions() {
+        return _numTransactions.get();
+    }
+}
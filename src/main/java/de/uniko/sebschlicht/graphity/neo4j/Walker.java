@@ -5,6 +5,8 @@ import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats;
+
 /**
  * graph walker for Neo4j
  * 
@@ -27,11 +29,35 @@ public abstract class Walker {
     public static Node nextNode(Node sourceNode, RelationshipType edgeType) {
         for (Relationship edge : sourceNode.getRelationships(edgeType,
                 Direction.OUTGOING)) {
+            TraversalStats.relationshipTraversed();
+            TraversalStats.nodeVisited();
             return edge.getEndNode();
         }
         return null;
     }
 
+    /**
+     * Walks along an edge type to the next node using a pointer cache.
+     * 
+     * @param sourceNode
+     *            node to start from
+     * @param edgeType
+     *            edge type to walk along
+     * @param edgePointers
+     *            (optional) pointer cache to look up the next node
+     * @return next node the edge specified directs to<br>
+     *         <b>null</b> - if the start node has no such edge directing out
+     */
+    public static Node nextNode(
+            Node sourceNode,
+            RelationshipType edgeType,
+            EdgePointerCache edgePointers) {
+        if (edgePointers != null) {
+            return edgePointers.nextNode(sourceNode, edgeType);
+        }
+        return nextNode(sourceNode, edgeType);
+    }
+
     /**
      * Walks backwards along an edge type to the previous node.
      * 
@@ -46,6 +72,8 @@ public abstract class Walker {
     public static Node previousNode(Node sourceNode, RelationshipType edgeType) {
         for (Relationship edge : sourceNode.getRelationships(edgeType,
                 Direction.INCOMING)) {
+            TraversalStats.relationshipTraversed();
+            TraversalStats.nodeVisited();
             return edge.getStartNode();
         }
         return null;
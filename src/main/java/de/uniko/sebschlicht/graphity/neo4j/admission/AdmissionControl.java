@@ -0,0 +1,152 @@
+package de.uniko.sebschlicht.graphity.neo4j.admission;
+
+import de.uniko.sebschlicht.graphity.neo4j.OperationType;
+
+/**
+ * admission control for Graphity operations<br>
+ * Each operation type has a lane of its own. Operations whose estimated cost
+ * reaches a threshold, such as status updates of users with many followers,
+ * are routed into a separate heavy lane instead, so they cannot occupy the
+ * capacity reserved for regular operations.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class AdmissionControl {
+
+    /**
+     * default number of operations waiting per lane
+     */
+    public static final int DEFAULT_MAX_QUEUED = 1000;
+
+    /**
+     * default time in milliseconds to wait for admission
+     */
+    public static final long DEFAULT_MAX_WAIT = 1000;
+
+    /**
+     * routing of the operations to the lanes, replaced as a whole
+     */
+    private volatile Routing _routing;
+
+    /**
+     * Creates an admission control with a lane per operation type.
+     * 
+     * @param concurrency
+     *            maximum number of operations of a type executed
+     *            concurrently
+     */
+    public AdmissionControl(
+            int concurrency) {
+        OperationType[] types = OperationType.values();
+        Lane[] lanes = new Lane[types.length];
+        for (OperationType type : types) {
+            lanes[type.ordinal()] =
+                    new Lane(type.name(), concurrency, DEFAULT_MAX_QUEUED,
+                            DEFAULT_MAX_WAIT);
+        }
+        _routing = new Routing(lanes, null, Long.MAX_VALUE);
+    }
+
+    /**
+     * Replaces the lane of an operation type.
+     * 
+     * @param type
+     *            operation type
+     * @param lane
+     *            lane for regular operations of this type
+     */
+    public synchronized void setLane(OperationType type, Lane lane) {
+        Routing routing = _routing;
+        Lane[] lanes = routing.lanes.clone();
+        lanes[type.ordinal()] = lane;
+        _routing = new Routing(lanes, routing.heavyLane, routing.heavyCost);
+    }
+
+    /**
+     * Routes heavy operations into a separate lane.
+     * 
+     * @param heavyLane
+     *            lane for heavy operations
+     * @param heavyCost
+     *            cost from which an operation is considered heavy, e.g. the
+     *            number of followers of a status update author
+     */
+    public synchronized void setHeavyLane(Lane heavyLane, long heavyCost) {
+        _routing = new Routing(_routing.lanes, heavyLane, heavyCost);
+    }
+
+    /**
+     * Admits an operation.
+     * 
+     * @param type
+     *            operation type
+     * @param cost
+     *            estimated cost of the operation
+     * @return lane the operation was admitted to, has to be exited when the
+     *         operation has finished
+     * @throws GraphityOverloadedException
+     *             if the lane is saturated
+     */
+    public Lane admit(OperationType type, long cost) {
+        Routing routing = _routing;
+        Lane lane =
+                (routing.heavyLane != null && cost >= routing.heavyCost)
+                        ? routing.heavyLane
+                        : routing.lanes[type.ordinal()];
+        lane.enter();
+        return lane;
+    }
+
+    public Lane getLane(OperationType type) {
+        return _routing.lanes[type.ordinal()];
+    }
+
+    public Lane getHeavyLane() {
+        return _routing.heavyLane;
+    }
+
+    @Override
+    public String toString() {
+        Routing routing = _routing;
+        StringBuilder metrics = new StringBuilder();
+        for (Lane lane : routing.lanes) {
+            metrics.append(lane).append('\n');
+        }
+        if (routing.heavyLane != null) {
+            metrics.append(routing.heavyLane).append('\n');
+        }
+        return metrics.toString();
+    }
+
+    /**
+     * immutable assignment of the lanes, so a request never combines a heavy
+     * lane with the threshold of another configuration
+     */
+    private static final class Routing {
+
+        /**
+         * lanes per operation type, indexed by ordinal
+         */
+        final Lane[] lanes;
+
+        /**
+         * (optional) lane for heavy operations of any type
+         */
+        final Lane heavyLane;
+
+        /**
+         * cost from which an operation is considered heavy
+         */
+        final long heavyCost;
+
+        Routing(
+                Lane[] lanes,
+                Lane heavyLane,
+                long heavyCost) {
+            this.lanes = lanes;
+            this.heavyLane = heavyLane;
+            this.heavyCost = heavyCost;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package de.uniko.sebschlicht.graphity.neo4j.admission;
+
+/**
+ * operation was rejected because its admission lane is saturated
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class GraphityOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 2307715282340911027L;
+
+    public GraphityOverloadedException(
+            String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,151 @@
+package de.uniko.sebschlicht.graphity.neo4j.admission;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * bounded admission lane<br>
+ * Limits the number of operations executed concurrently and the number of
+ * operations waiting for admission. An operation is rejected immediately if
+ * the waiting queue is full, or when it has waited for the maximum wait time.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class Lane {
+
+    /**
+     * lane name used in rejection messages
+     */
+    private final String _name;
+
+    /**
+     * maximum number of operations executed concurrently
+     */
+    private final int _concurrency;
+
+    /**
+     * maximum number of operations waiting for admission
+     */
+    private final int _maxQueued;
+
+    /**
+     * maximum time in milliseconds to wait for admission
+     */
+    private final long _maxWait;
+
+    private final Semaphore _permits;
+
+    private final AtomicInteger _numQueued = new AtomicInteger();
+
+    private final AtomicLong _numAdmitted = new AtomicLong();
+
+    private final AtomicLong _numRejected = new AtomicLong();
+
+    /**
+     * Creates an admission lane.
+     * 
+     * @param name
+     *            lane name used in rejection messages
+     * @param concurrency
+     *            maximum number of operations executed concurrently
+     * @param maxQueued
+     *            maximum number of operations waiting for admission
+     * @param maxWait
+     *            maximum time in milliseconds to wait for admission
+     */
+    public Lane(
+            String name,
+            int concurrency,
+            int maxQueued,
+            long maxWait) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        _name = name;
+        _concurrency = concurrency;
+        _maxQueued = maxQueued;
+        _maxWait = maxWait;
+        _permits = new Semaphore(concurrency, true);
+    }
+
+    /**
+     * Admits an operation, waiting if the lane is busy.
+     * 
+     * @throws GraphityOverloadedException
+     *             if the lane is saturated
+     */
+    public void enter() {
+        if (_permits.tryAcquire()) {
+            _numAdmitted.incrementAndGet();
+            return;
+        }
+        if (_numQueued.incrementAndGet() > _maxQueued) {
+            _numQueued.decrementAndGet();
+            throw reject("queue full");
+        }
+        try {
+            if (!_permits.tryAcquire(_maxWait, TimeUnit.MILLISECONDS)) {
+                throw reject("timed out");
+            }
+            _numAdmitted.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject("interrupted");
+        } finally {
+            _numQueued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Releases the admission of an operation that has finished.
+     */
+    public void exit() {
+        _permits.release();
+    }
+
+    private GraphityOverloadedException reject(String reason) {
+        _numRejected.incrementAndGet();
+        return new GraphityOverloadedException("lane \"" + _name
+                + "\" saturated: " + reason);
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public int getConcurrency() {
+        return _concurrency;
+    }
+
+    /**
+     * @return number of operations executed currently
+     */
+    public int getNumActive() {
+        return _concurrency - _permits.availablePermits();
+    }
+
+    /**
+     * @return number of operations waiting for admission currently
+     */
+    public int getQueueDepth() {
+        return _numQueued.get();
+    }
+
+    public long getNumAdmitted() {
+        return _numAdmitted.get();
+    }
+
+    public long getNumRejected() {
+        return _numRejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return _name + "[active=" + getNumActive() + ", queued="
+                + getQueueDepth() + ", admitted=" + getNumAdmitted()
+                + ", rejected=" + getNumRejected() + "]";
+    }
+}
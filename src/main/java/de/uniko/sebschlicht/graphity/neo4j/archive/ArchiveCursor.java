@@ -0,0 +1,204 @@
+package de.uniko.sebschlicht.graphity.neo4j.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * reusable cursor over the archived status updates of a single author<br>
+ * Reads the author's segment as mapped by the archive and decompresses one
+ * block at a time into a buffer that is reused across blocks and authors.
+ * Messages are decoded on demand only.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ArchiveCursor {
+
+    /**
+     * blocks of the current segment, the newest block first
+     */
+    private PostArchive.BlockIndex _blocks;
+
+    private final Inflater _inflater = new Inflater();
+
+    /**
+     * mapped segment of the current author, positioned independently of
+     * other cursors
+     */
+    private ByteBuffer _segment;
+
+    /**
+     * records of the current block
+     */
+    private ByteBuffer _records;
+
+    /**
+     * buffer holding the decompressed records of the current block
+     */
+    private byte[] _raw = new byte[4096];
+
+    /**
+     * buffer holding the compressed records of the current block
+     */
+    private byte[] _payload = new byte[1024];
+
+    private int _crrBlock;
+
+    private int _numBlockRecordsLeft;
+
+    /**
+     * records published after this timestamp are skipped
+     */
+    private long _boundaryPublished;
+
+    /**
+     * identifier of a status update that is still part of the graph
+     */
+    private long _boundaryIdentifier;
+
+    private boolean _hasPost;
+
+    private long _published;
+
+    private long _identifier;
+
+    private int _messageOffset;
+
+    private int _messageLength;
+
+    /**
+     * Positions the cursor at the last recent archived status update of an
+     * author that is older than the oldest status update still in the graph.
+     * 
+     * @param archive
+     *            post archive
+     * @param idAuthor
+     *            author identifier
+     * @param boundaryPublished
+     *            timestamp of the oldest status update in the graph
+     * @param boundaryIdentifier
+     *            identifier of the oldest status update in the graph
+     * @return true - if the cursor is positioned at a status update<br>
+     *         false - if there are no such archived status updates
+     */
+    public boolean reset(
+            PostArchive archive,
+            long idAuthor,
+            long boundaryPublished,
+            long boundaryIdentifier) {
+        release();
+        _boundaryPublished = boundaryPublished;
+        _boundaryIdentifier = boundaryIdentifier;
+        PostArchive.Segment segment;
+        try {
+            segment = archive.getSegment(idAuthor);
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to map archive of user "
+                    + idAuthor, e);
+        }
+        if (segment.mapping == null) {
+            return false;
+        }
+        _segment = segment.mapping.duplicate();
+        _blocks = segment.blocks;
+        _crrBlock = -1;
+        advance();
+        return _hasPost;
+    }
+
+    /**
+     * Detaches the cursor from the segment it references.
+     */
+    public void release() {
+        _segment = null;
+        _records = null;
+        _blocks = null;
+        _hasPost = false;
+        _numBlockRecordsLeft = 0;
+    }
+
+    /**
+     * Moves the cursor to the next older archived status update.
+     */
+    public void advance() {
+        while (true) {
+            while (_numBlockRecordsLeft == 0) {
+                if (!loadBlock(_crrBlock + 1)) {
+                    _hasPost = false;
+                    return;
+                }
+            }
+            _published = _records.getLong();
+            _identifier = _records.getLong();
+            _messageLength = _records.getInt();
+            _messageOffset = _records.position();
+            _records.position(_messageOffset + _messageLength);
+            _numBlockRecordsLeft -= 1;
+
+            // skip status updates still being part of the graph
+            if (_published < _boundaryPublished
+                    || (_published == _boundaryPublished
+                            && _identifier != _boundaryIdentifier)) {
+                _hasPost = true;
+                return;
+            }
+        }
+    }
+
+    private boolean loadBlock(int block) {
+        if (_segment == null || block >= _blocks.size) {
+            return false;
+        }
+        _crrBlock = block;
+        int rawLength = _blocks.rawLengths[block];
+        if (_raw.length < rawLength) {
+            _raw = new byte[Math.max(rawLength, _raw.length * 2)];
+        }
+        int payloadLength = _blocks.payloadLengths[block];
+        if (_payload.length < payloadLength) {
+            _payload = new byte[Math.max(payloadLength, _payload.length * 2)];
+        }
+        _segment.position((int) _blocks.offsets[block]
+                + PostArchive.HEADER_SIZE);
+        _segment.get(_payload, 0, payloadLength);
+        _inflater.reset();
+        _inflater.setInput(_payload, 0, payloadLength);
+        try {
+            int numInflated = 0;
+            while (numInflated < rawLength && !_inflater.finished()) {
+                numInflated +=
+                        _inflater.inflate(_raw, numInflated, rawLength
+                                - numInflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupt archive block", e);
+        }
+        _records = ByteBuffer.wrap(_raw, 0, rawLength);
+        _numBlockRecordsLeft = _blocks.numRecords[block];
+        return true;
+    }
+
+    /**
+     * @return true - if the cursor is positioned at a status update<br>
+     *         false - if the archived status updates are exhausted
+     */
+    public boolean hasPost() {
+        return _hasPost;
+    }
+
+    public long getCrrPublished() {
+        return _published;
+    }
+
+    public long getCrrIdentifier() {
+        return _identifier;
+    }
+
+    public String getCrrMessage() {
+        return new String(_raw, _messageOffset, _messageLength,
+                StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,585 @@
+package de.uniko.sebschlicht.graphity.neo4j.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * append-only archive of status updates moved out of the graph<br>
+ * Each author has a segment file of its own. A segment consists of
+ * compressed blocks, each holding a contiguous range of the author's status
+ * updates, the last recent first. A block is a fixed-size header followed by
+ * the deflated records:
+ * 
+ * <pre>
+ * header:  int magic, int payload length, int number of records,
+ *          int raw length, long newest published, long oldest published,
+ *          long newest identifier
+ * record:  long published, long identifier, int message length,
+ *          byte[] message (UTF-8)
+ * </pre>
+ * 
+ * Blocks do not overlap in time but may be appended in any order. A block
+ * torn by a crash is overwritten by the next block appended, the segment is
+ * never truncated since it may be mapped by readers.<br>
+ * <br>
+ * The segments read last are kept mapped along with the index of their
+ * blocks. Appending a block drops the mapping of the segment. Mappings
+ * dropped are released by the garbage collector once no cursor references
+ * them anymore.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class PostArchive {
+
+    /**
+     * magic number starting each block
+     */
+    static final int MAGIC = 0x47504131;
+
+    /**
+     * size of a block header in bytes
+     */
+    static final int HEADER_SIZE = 40;
+
+    /**
+     * default maximum number of segments kept mapped
+     */
+    public static final int DEFAULT_MAX_MAPPED_SEGMENTS = 1024;
+
+    /**
+     * directory holding the segment files
+     */
+    private final File _directory;
+
+    /**
+     * segments read last, the least recently used first
+     */
+    private final Map<Long, Segment> _segments;
+
+    /**
+     * Opens an archive keeping the default number of segments mapped.
+     * 
+     * @param directory
+     *            directory holding the segment files, created if missing
+     */
+    public PostArchive(
+            File directory) {
+        this(directory, DEFAULT_MAX_MAPPED_SEGMENTS);
+    }
+
+    /**
+     * Opens an archive.
+     * 
+     * @param directory
+     *            directory holding the segment files, created if missing
+     * @param maxMappedSegments
+     *            maximum number of segments kept mapped
+     */
+    public PostArchive(
+            File directory,
+            final int maxMappedSegments) {
+        _directory = directory;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalStateException("failed to create archive at "
+                    + directory.getAbsolutePath());
+        }
+        _segments = new LinkedHashMap<Long, Segment>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Long, Segment> eldest) {
+                return size() > maxMappedSegments;
+            }
+        };
+    }
+
+    /**
+     * @param idAuthor
+     *            author identifier
+     * @return segment file holding the status updates of the author
+     */
+    public File getSegmentFile(long idAuthor) {
+        // spread segments over subdirectories to keep directories small
+        File subdirectory =
+                new File(_directory, String.format("%02x", idAuthor & 0xFF));
+        return new File(subdirectory, idAuthor + ".seg");
+    }
+
+    /**
+     * Appends a block of status updates to the segment of an author and
+     * forces it to disk.
+     * 
+     * @param idAuthor
+     *            author identifier
+     * @param published
+     *            timestamps of publishing, the last recent first
+     * @param identifiers
+     *            status update identifiers
+     * @param messages
+     *            status update messages
+     * @param numPosts
+     *            number of status updates to append
+     * @throws IOException
+     *             if the segment could not be written
+     */
+    public void append(
+            long idAuthor,
+            long[] published,
+            long[] identifiers,
+            String[] messages,
+            int numPosts) throws IOException {
+        append(idAuthor, published, identifiers, messages, 0, numPosts);
+    }
+
+    /**
+     * Appends a block of status updates to the segment of an author and
+     * forces it to disk.
+     * 
+     * @param idAuthor
+     *            author identifier
+     * @param published
+     *            timestamps of publishing, the last recent first
+     * @param identifiers
+     *            status update identifiers
+     * @param messages
+     *            status update messages
+     * @param offset
+     *            index of the first status update to append
+     * @param numPosts
+     *            number of status updates to append
+     * @throws IOException
+     *             if the segment could not be written
+     */
+    public synchronized void append(
+            long idAuthor,
+            long[] published,
+            long[] identifiers,
+            String[] messages,
+            int offset,
+            int numPosts) throws IOException {
+        if (numPosts == 0) {
+            return;
+        }
+        // encode records
+        byte[][] encodedMessages = new byte[numPosts][];
+        int rawLength = 0;
+        for (int i = 0; i < numPosts; ++i) {
+            encodedMessages[i] =
+                    messages[offset + i].getBytes(StandardCharsets.UTF_8);
+            rawLength += 20 + encodedMessages[i].length;
+        }
+        ByteBuffer raw = ByteBuffer.allocate(rawLength);
+        raw.order(ByteOrder.BIG_ENDIAN);
+        for (int i = 0; i < numPosts; ++i) {
+            raw.putLong(published[offset + i]);
+            raw.putLong(identifiers[offset + i]);
+            raw.putInt(encodedMessages[i].length);
+            raw.put(encodedMessages[i]);
+        }
+
+        // compress records
+        Deflater deflater = new Deflater();
+        byte[] payload;
+        try {
+            deflater.setInput(raw.array());
+            deflater.finish();
+            payload = new byte[rawLength + 64];
+            int payloadLength = 0;
+            while (!deflater.finished()) {
+                if (payloadLength == payload.length) {
+                    payload =
+                            Arrays.copyOf(payload,
+                                    payload.length * 2);
+                }
+                payloadLength +=
+                        deflater.deflate(payload, payloadLength,
+                                payload.length - payloadLength);
+            }
+            payload = Arrays.copyOf(payload, payloadLength);
+        } finally {
+            deflater.end();
+        }
+
+        ByteBuffer block = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        block.putInt(MAGIC);
+        block.putInt(payload.length);
+        block.putInt(numPosts);
+        block.putInt(rawLength);
+        block.putLong(published[offset]);
+        block.putLong(published[offset + numPosts - 1]);
+        block.putLong(identifiers[offset]);
+        block.put(payload);
+        block.flip();
+
+        File segment = getSegmentFile(idAuthor);
+        File subdirectory = segment.getParentFile();
+        if (!subdirectory.exists() && !subdirectory.mkdirs()) {
+            throw new IOException("failed to create "
+                    + subdirectory.getAbsolutePath());
+        }
+        long validLength = getSegment(idAuthor).getLength();
+        try (FileChannel channel =
+                FileChannel.open(segment.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE)) {
+            // overwrite a block torn by a crash
+            long position = validLength;
+            long tornEnd = channel.size();
+            while (block.hasRemaining()) {
+                position += channel.write(block, position);
+            }
+            if (position < tornEnd) {
+                // clear the rest of the torn block to end the segment
+                ByteBuffer zeros =
+                        ByteBuffer.allocate((int) Math.min(tornEnd - position,
+                                4096));
+                while (position < tornEnd) {
+                    zeros.clear();
+                    zeros.limit((int) Math.min(zeros.capacity(), tornEnd
+                            - position));
+                    position += channel.write(zeros, position);
+                }
+            }
+            channel.force(true);
+        } finally {
+            _segments.remove(idAuthor);
+        }
+    }
+
+    /**
+     * Checks whether a status update has been archived already, e.g. before
+     * the archiving was interrupted. Since a block holds a contiguous range of
+     * status updates, a status update published within the range of a block
+     * is part of it. Only a status update sharing its timestamp with the
+     * oldest or newest record of a block requires the block to be read.
+     * 
+     * @param idAuthor
+     *            author identifier
+     * @param published
+     *            timestamp of publishing
+     * @param identifier
+     *            status update identifier
+     * @return true - if the status update is part of the author's segment
+     * @throws IOException
+     *             if the segment could not be read
+     */
+    public synchronized boolean isArchived(
+            long idAuthor,
+            long published,
+            long identifier) throws IOException {
+        Segment segment = getSegment(idAuthor);
+        BlockIndex blocks = segment.blocks;
+        for (int i = 0; i < blocks.size; ++i) {
+            if (published > blocks.newestPublished[i]
+                    || published < blocks.oldestPublished[i]) {
+                continue;
+            }
+            if (published < blocks.newestPublished[i]
+                    && published > blocks.oldestPublished[i]) {
+                return true;
+            }
+            if (containsRecord(segment, i, published, identifier)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Searches a block for a status update.
+     * 
+     * @param segment
+     *            segment holding the block
+     * @param block
+     *            index of the block
+     * @param published
+     *            timestamp of publishing
+     * @param identifier
+     *            status update identifier
+     * @return true - if the status update is part of the block
+     */
+    private static boolean containsRecord(
+            Segment segment,
+            int block,
+            long published,
+            long identifier) {
+        BlockIndex blocks = segment.blocks;
+        byte[] payload = new byte[blocks.payloadLengths[block]];
+        ByteBuffer mapping = segment.mapping.duplicate();
+        mapping.position((int) blocks.offsets[block] + HEADER_SIZE);
+        mapping.get(payload);
+        byte[] raw = new byte[blocks.rawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            int numInflated = 0;
+            while (numInflated < raw.length && !inflater.finished()) {
+                numInflated +=
+                        inflater.inflate(raw, numInflated, raw.length
+                                - numInflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupt archive block", e);
+        } finally {
+            inflater.end();
+        }
+        ByteBuffer records = ByteBuffer.wrap(raw);
+        for (int i = 0; i < blocks.numRecords[block]; ++i) {
+            long recordPublished = records.getLong();
+            long recordIdentifier = records.getLong();
+            if (recordPublished == published
+                    && recordIdentifier == identifier) {
+                return true;
+            }
+            int messageLength = records.getInt();
+            records.position(records.position() + messageLength);
+        }
+        return false;
+    }
+
+    /**
+     * Provides the segment of an author, mapping it into memory if it is not
+     * mapped yet.
+     * 
+     * @param idAuthor
+     *            author identifier
+     * @return segment of the author, without mapping if no status update of
+     *         the author was archived
+     * @throws IOException
+     *             if the segment could not be mapped
+     */
+    synchronized Segment getSegment(long idAuthor) throws IOException {
+        Segment segment = _segments.get(idAuthor);
+        if (segment == null) {
+            segment = loadSegment(idAuthor);
+            _segments.put(idAuthor, segment);
+        }
+        return segment;
+    }
+
+    private Segment loadSegment(long idAuthor) throws IOException {
+        File file = getSegmentFile(idAuthor);
+        if (!file.exists()) {
+            return Segment.EMPTY;
+        }
+        try (FileChannel channel =
+                FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            BlockIndex blocks = new BlockIndex();
+            long validLength = scanBlocks(channel, blocks);
+            if (validLength == 0) {
+                return Segment.EMPTY;
+            }
+            blocks.sortNewestFirst();
+            // a torn block is not mapped
+            MappedByteBuffer mapping =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                            validLength);
+            return new Segment(mapping, blocks);
+        }
+    }
+
+    /**
+     * Scans the block headers of a segment.
+     * 
+     * @param channel
+     *            segment file channel
+     * @param blocks
+     *            (optional) index to fill with the valid blocks
+     * @return length of the segment up to the end of the last valid block
+     * @throws IOException
+     *             if the segment could not be read
+     */
+    private static long scanBlocks(FileChannel channel, BlockIndex blocks)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long size = channel.size();
+        long position = 0;
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            while (header.hasRemaining()) {
+                if (channel.read(header, position + header.position()) < 0) {
+                    return position;
+                }
+            }
+            header.flip();
+            if (!readHeader(header, position, size, blocks)) {
+                break;
+            }
+            position += HEADER_SIZE + header.getInt(4);
+        }
+        return position;
+    }
+
+    /**
+     * Reads a block header.
+     * 
+     * @param header
+     *            buffer positioned at the header
+     * @param position
+     *            offset of the block within the segment
+     * @param size
+     *            segment size
+     * @param blocks
+     *            (optional) index to add the block to
+     * @return true - if the block is complete<br>
+     *         false - if the block is torn or corrupt
+     */
+    private static boolean readHeader(
+            ByteBuffer header,
+            long position,
+            long size,
+            BlockIndex blocks) {
+        int offset = header.position();
+        if (header.getInt(offset) != MAGIC) {
+            return false;
+        }
+        int payloadLength = header.getInt(offset + 4);
+        if (payloadLength < 0
+                || position + HEADER_SIZE + payloadLength > size) {
+            return false;
+        }
+        if (blocks != null) {
+            blocks.add(position, payloadLength, header.getInt(offset + 8),
+                    header.getInt(offset + 12), header.getLong(offset + 16),
+                    header.getLong(offset + 24));
+        }
+        return true;
+    }
+
+    /**
+     * mapped segment along with the index of its valid blocks<br>
+     * Neither the mapping nor the index must be modified, readers use
+     * duplicates of the mapping.
+     */
+    static class Segment {
+
+        /**
+         * segment of an author without archived status updates
+         */
+        static final Segment EMPTY = new Segment(null, new BlockIndex());
+
+        /**
+         * read-only mapping of the valid blocks or <b>null</b> if there are
+         * none
+         */
+        final ByteBuffer mapping;
+
+        /**
+         * valid blocks, the newest block first
+         */
+        final BlockIndex blocks;
+
+        Segment(
+                ByteBuffer mapping,
+                BlockIndex blocks) {
+            this.mapping = mapping;
+            this.blocks = blocks;
+        }
+
+        /**
+         * @return length of the segment up to the end of the last valid
+         *         block
+         */
+        long getLength() {
+            return (mapping != null) ? mapping.capacity() : 0;
+        }
+    }
+
+    /**
+     * primitive index of the blocks of a segment
+     */
+    static class BlockIndex {
+
+        long[] offsets = new long[8];
+
+        int[] payloadLengths = new int[8];
+
+        int[] numRecords = new int[8];
+
+        int[] rawLengths = new int[8];
+
+        long[] newestPublished = new long[8];
+
+        long[] oldestPublished = new long[8];
+
+        int size;
+
+        void add(
+                long offset,
+                int payloadLength,
+                int numRecords,
+                int rawLength,
+                long newestPublished,
+                long oldestPublished) {
+            if (size == offsets.length) {
+                int capacity = size * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                payloadLengths =
+                        Arrays.copyOf(payloadLengths, capacity);
+                this.numRecords =
+                        Arrays.copyOf(this.numRecords, capacity);
+                rawLengths = Arrays.copyOf(rawLengths, capacity);
+                this.newestPublished =
+                        Arrays.copyOf(this.newestPublished,
+                                capacity);
+                this.oldestPublished =
+                        Arrays.copyOf(this.oldestPublished, capacity);
+            }
+            offsets[size] = offset;
+            payloadLengths[size] = payloadLength;
+            this.numRecords[size] = numRecords;
+            rawLengths[size] = rawLength;
+            this.newestPublished[size] = newestPublished;
+            this.oldestPublished[size] = oldestPublished;
+            size += 1;
+        }
+
+        /**
+         * Sorts the blocks by their last recent status update, the newest
+         * block first.
+         */
+        void sortNewestFirst() {
+            for (int i = 1; i < size; ++i) {
+                for (int j = i; j > 0
+                        && newestPublished[j - 1] < newestPublished[j]; --j) {
+                    swap(j - 1, j);
+                }
+            }
+        }
+
+        private void swap(int i, int j) {
+            long tmpLong = offsets[i];
+            offsets[i] = offsets[j];
+            offsets[j] = tmpLong;
+            tmpLong = newestPublished[i];
+            newestPublished[i] = newestPublished[j];
+            newestPublished[j] = tmpLong;
+            tmpLong = oldestPublished[i];
+            oldestPublished[i] = oldestPublished[j];
+            oldestPublished[j] = tmpLong;
+            int tmpInt = payloadLengths[i];
+            payloadLengths[i] = payloadLengths[j];
+            payloadLengths[j] = tmpInt;
+            tmpInt = numRecords[i];
+            numRecords[i] = numRecords[j];
+            numRecords[j] = tmpInt;
+            tmpInt = rawLengths[i];
+            rawLengths[i] = rawLengths[j];
+            rawLengths[j] = tmpInt;
+        }
+    }
+}
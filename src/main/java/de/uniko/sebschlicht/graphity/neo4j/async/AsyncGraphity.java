@@ -0,0 +1,257 @@
+package de.uniko.sebschlicht.graphity.neo4j.async;
+
+import java.util.EnumMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.uniko.sebschlicht.graphity.Graphity;
+import de.uniko.sebschlicht.graphity.neo4j.OperationType;
+import de.uniko.sebschlicht.socialnet.StatusUpdateList;
+
+/**
+ * asynchronous facade of a Graphity instance<br>
+ * Each operation runs in a transaction of its own on a thread pool dedicated
+ * to its operation type. The pool size limits the number of concurrent
+ * operations of a type; further operations are queued. Thus feed reads can
+ * be issued concurrently without a request thread blocking per read, while
+ * writes cannot starve reads of threads or vice versa.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class AsyncGraphity {
+
+    /**
+     * default number of concurrent operations per type
+     */
+    public static final int DEFAULT_CONCURRENCY = Runtime.getRuntime()
+            .availableProcessors();
+
+    /**
+     * time in seconds an idle pool thread is kept alive
+     */
+    private static final long KEEP_ALIVE = 60;
+
+    /**
+     * Graphity instance executing the operations
+     */
+    private final Graphity _graphity;
+
+    /**
+     * thread pools per operation type
+     */
+    private final EnumMap<OperationType, ThreadPoolExecutor> _executors;
+
+    /**
+     * Creates an asynchronous facade using the default concurrency limit for
+     * all operation types.
+     * 
+     * @param graphity
+     *            Graphity instance executing the operations
+     */
+    public AsyncGraphity(
+            Graphity graphity) {
+        _graphity = graphity;
+        _executors =
+                new EnumMap<OperationType, ThreadPoolExecutor>(
+                        OperationType.class);
+        for (OperationType type : OperationType.values()) {
+            _executors.put(type, createExecutor(type, DEFAULT_CONCURRENCY));
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(
+            OperationType type,
+            int concurrency) {
+        final String prefix = "graphity-" + type.name().toLowerCase() + "-";
+        final AtomicInteger numThreads = new AtomicInteger();
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(concurrency, concurrency, KEEP_ALIVE,
+                        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactory() {
+
+                            @Override
+                            public Thread newThread(Runnable runnable) {
+                                Thread thread =
+                                        new Thread(runnable, prefix
+                                                + numThreads.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Sets the maximum number of concurrent operations of a type.
+     * 
+     * @param type
+     *            operation type
+     * @param concurrency
+     *            maximum number of operations executed concurrently
+     */
+    public void setConcurrency(OperationType type, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        ThreadPoolExecutor executor = _executors.get(type);
+        synchronized (executor) {
+            if (concurrency > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(concurrency);
+                executor.setCorePoolSize(concurrency);
+            } else {
+                executor.setCorePoolSize(concurrency);
+                executor.setMaximumPoolSize(concurrency);
+            }
+        }
+    }
+
+    /**
+     * @param type
+     *            operation type
+     * @return number of operations of this type waiting for execution
+     */
+    public int getQueueLength(OperationType type) {
+        return _executors.get(type).getQueue().size();
+    }
+
+    /**
+     * Stops accepting operations. Operations submitted already are executed.
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor executor : _executors.values()) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the operations submitted to finish after a shutdown.
+     * 
+     * @param timeout
+     *            maximum time to wait in milliseconds
+     * @return true - if all operations have finished
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        for (ThreadPoolExecutor executor : _executors.values()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (!executor.awaitTermination(Math.max(remaining, 0),
+                    TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Future<Boolean> addUserAsync(
+            final String userIdentifier,
+            GraphityCallback<Boolean> callback) {
+        return submit(OperationType.ADD_USER, new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                return _graphity.addUser(userIdentifier);
+            }
+        }, callback);
+    }
+
+    public Future<Boolean> addFollowshipAsync(
+            final String idFollowing,
+            final String idFollowed,
+            GraphityCallback<Boolean> callback) {
+        return submit(OperationType.ADD_FOLLOWSHIP, new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                return _graphity.addFollowship(idFollowing, idFollowed);
+            }
+        }, callback);
+    }
+
+    public Future<Boolean> removeFollowshipAsync(
+            final String idFollowing,
+            final String idFollowed,
+            GraphityCallback<Boolean> callback) {
+        return submit(OperationType.REMOVE_FOLLOWSHIP,
+                new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        return _graphity.removeFollowship(idFollowing,
+                                idFollowed);
+                    }
+                }, callback);
+    }
+
+    public Future<Long> addStatusUpdateAsync(
+            final String idAuthor,
+            final String message,
+            GraphityCallback<Long> callback) {
+        return submit(OperationType.ADD_STATUS_UPDATE, new Callable<Long>() {
+
+            @Override
+            public Long call() throws Exception {
+                return _graphity.addStatusUpdate(idAuthor, message);
+            }
+        }, callback);
+    }
+
+    public Future<StatusUpdateList> readStatusUpdatesAsync(
+            final String idReader,
+            final int numStatusUpdates,
+            GraphityCallback<StatusUpdateList> callback) {
+        return submit(OperationType.READ_STATUS_UPDATES,
+                new Callable<StatusUpdateList>() {
+
+                    @Override
+                    public StatusUpdateList call() throws Exception {
+                        return _graphity.readStatusUpdates(idReader,
+                                numStatusUpdates);
+                    }
+                }, callback);
+    }
+
+    /**
+     * Submits an operation to the pool of its type.
+     * 
+     * @param type
+     *            operation type
+     * @param operation
+     *            operation to execute
+     * @param callback
+     *            (optional) callback to notify when the operation has
+     *            finished
+     * @return future holding the operation result
+     */
+    protected <T> Future<T> submit(
+            OperationType type,
+            final Callable<T> operation,
+            final GraphityCallback<T> callback) {
+        if (callback == null) {
+            return _executors.get(type).submit(operation);
+        }
+        return _executors.get(type).submit(new Callable<T>() {
+
+            @Override
+            public T call() throws Exception {
+                T result;
+                try {
+                    result = operation.call();
+                } catch (Exception e) {
+                    callback.onFailure(e);
+                    throw e;
+                }
+                callback.onSuccess(result);
+                return result;
+            }
+        });
+    }
+}
@@ -0,0 +1,28 @@
+package de.uniko.sebschlicht.graphity.neo4j.async;
+
+/**
+ * callback notified when an asynchronous Graphity operation has finished
+ * 
+ * @author sebschlicht
+ * 
+ * @param <T>
+ *            result type of the operation
+ */
+public interface GraphityCallback<T> {
+
+    /**
+     * Receives the result of an operation that has succeeded.
+     * 
+     * @param result
+     *            operation result
+     */
+    void onSuccess(T result);
+
+    /**
+     * Receives the exception of an operation that has failed.
+     * 
+     * @param e
+     *            exception thrown by the operation
+     */
+    void onFailure(Exception e);
+}
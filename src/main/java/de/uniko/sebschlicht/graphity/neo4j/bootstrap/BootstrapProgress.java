@@ -0,0 +1,161 @@
+package de.uniko.sebschlicht.graphity.neo4j.bootstrap;
+
+import java.io.IOException;
+
+import de.uniko.sebschlicht.graphity.neo4j.maintenance.ProgressCheckpoint;
+
+/**
+ * progress of a bootstrap import<br>
+ * Tracks the phases completed and the next user row of the phase in
+ * progress. The progress is persisted in a checkpoint when the batch inserter
+ * has been shut down, as the store is consistent at that point only. A
+ * checkpoint is marked as running while the import is in progress, so an
+ * import that has not been shut down cleanly is not resumed.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class BootstrapProgress {
+
+    /**
+     * phase of a bootstrap import
+     */
+    public enum Phase {
+        USERS, SUBSCRIPTIONS, POSTS, LINKS
+    }
+
+    /**
+     * flag of a checkpoint saved while the import is running
+     */
+    private static final long RUNNING = 1L << 40;
+
+    private static final int ALL_PHASES = (1 << Phase.values().length) - 1;
+
+    private final ProgressCheckpoint _checkpoint;
+
+    /**
+     * phases completed, one bit per phase
+     */
+    private int _completed;
+
+    /**
+     * next user row of the phase in progress
+     */
+    private int _row;
+
+    /**
+     * whether a previous import is resumed
+     */
+    private boolean _isResumed;
+
+    /**
+     * Loads the progress of a previous import, if any.
+     * 
+     * @param checkpoint
+     *            checkpoint holding the progress
+     * @throws IOException
+     *             if the checkpoint could not be read
+     * @throws IllegalStateException
+     *             if the previous import has not been shut down cleanly
+     */
+    public BootstrapProgress(
+            ProgressCheckpoint checkpoint) throws IOException {
+        _checkpoint = checkpoint;
+        long progress = checkpoint.load();
+        if (progress == -1) {
+            return;
+        }
+        if ((progress & RUNNING) != 0) {
+            throw new IllegalStateException(
+                    "previous import has not been shut down cleanly, the store has to be rebuilt");
+        }
+        _completed = (int) (progress >>> 32) & ALL_PHASES;
+        _row = (int) progress;
+        _isResumed = true;
+    }
+
+    /**
+     * @return true - if a previous import is resumed
+     */
+    public boolean isResumed() {
+        return _isResumed;
+    }
+
+    /**
+     * @param phase
+     *            import phase
+     * @return true - if the phase has been completed
+     */
+    public boolean isCompleted(Phase phase) {
+        return (_completed & (1 << phase.ordinal())) != 0;
+    }
+
+    /**
+     * @return true - if all phases have been completed
+     */
+    public boolean isCompleted() {
+        return _completed == ALL_PHASES;
+    }
+
+    /**
+     * @return next user row of the phase in progress
+     */
+    public int getRow() {
+        return _row;
+    }
+
+    /**
+     * Records that a user row of the phase in progress has been completed.
+     * 
+     * @param row
+     *            user row completed
+     */
+    public void setCompleted(int row) {
+        _row = row + 1;
+    }
+
+    /**
+     * Records that a phase has been completed.
+     * 
+     * @param phase
+     *            import phase
+     */
+    public void setCompleted(Phase phase) {
+        _completed |= 1 << phase.ordinal();
+        _row = 0;
+    }
+
+    /**
+     * Marks the checkpoint as running.
+     * 
+     * @throws IOException
+     *             if the checkpoint could not be written
+     */
+    public void start() throws IOException {
+        _checkpoint.save(encode() | RUNNING);
+    }
+
+    /**
+     * Persists the progress after the store has been shut down.
+     * 
+     * @throws IOException
+     *             if the checkpoint could not be written
+     */
+    public void save() throws IOException {
+        _checkpoint.save(encode());
+    }
+
+    /**
+     * Removes the checkpoint after the import has been completed.
+     * 
+     * @throws IOException
+     *             if the checkpoint could not be removed
+     */
+    public void clear() throws IOException {
+        _checkpoint.clear();
+    }
+
+    private long encode() {
+        return ((long) _completed << 32) | _row;
+    }
+}
@@ -0,0 +1,192 @@
+package de.uniko.sebschlicht.graphity.neo4j.bootstrap;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * fixed-length column of primitive longs outside of the Java heap<br>
+ * The column is split into chunks of direct buffers or, if a swap file is
+ * specified, of memory-mapped regions of that file, so its length is not
+ * limited by the maximum size of a single buffer. Values default to
+ * <code>0</code>.
+ * 
+ * @author sebschlicht
+ * 
+ */
+class LongColumn implements AutoCloseable {
+
+    private static final int CHUNK_BITS = 24;
+
+    /**
+     * number of values per chunk
+     */
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final LongBuffer[] _chunks;
+
+    private final long _length;
+
+    /**
+     * (optional) swap file the column is mapped to
+     */
+    private final File _file;
+
+    private final RandomAccessFile _raf;
+
+    /**
+     * mapped regions of the swap file
+     */
+    private final MappedByteBuffer[] _regions;
+
+    /**
+     * Allocates a column.
+     * 
+     * @param length
+     *            number of values
+     * @param file
+     *            swap file to map the column to or <b>null</b> to allocate
+     *            direct buffers
+     * @throws IOException
+     *             if the swap file could not be mapped
+     */
+    public LongColumn(
+            long length,
+            File file) throws IOException {
+        this(length, file, false);
+    }
+
+    private LongColumn(
+            long length,
+            File file,
+            boolean isExisting) throws IOException {
+        _length = length;
+        _file = file;
+        int numChunks = (int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+        _chunks = new LongBuffer[numChunks];
+        if (file == null) {
+            _raf = null;
+            _regions = null;
+            for (int i = 0; i < numChunks; ++i) {
+                _chunks[i] =
+                        ByteBuffer.allocateDirect(getChunkLength(i) * 8)
+                                .order(ByteOrder.nativeOrder()).asLongBuffer();
+            }
+        } else {
+            _raf = new RandomAccessFile(file, "rw");
+            _regions = new MappedByteBuffer[numChunks];
+            try {
+                if (!isExisting) {
+                    // drop the values of a previous run
+                    _raf.setLength(0);
+                }
+                FileChannel channel = _raf.getChannel();
+                for (int i = 0; i < numChunks; ++i) {
+                    _regions[i] =
+                            channel.map(MapMode.READ_WRITE,
+                                    ((long) i << CHUNK_BITS) * 8,
+                                    getChunkLength(i) * 8L);
+                    _chunks[i] =
+                            _regions[i].order(ByteOrder.nativeOrder())
+                                    .asLongBuffer();
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Maps a column persisted in a swap file before.
+     * 
+     * @param file
+     *            swap file of the column
+     * @return column holding the values persisted
+     * @throws IOException
+     *             if the swap file could not be mapped
+     */
+    public static LongColumn open(File file) throws IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        return new LongColumn(file.length() / 8, file, true);
+    }
+
+    private int getChunkLength(int chunk) {
+        return (int) Math.min(CHUNK_SIZE, _length
+                - ((long) chunk << CHUNK_BITS));
+    }
+
+    public long get(long index) {
+        return _chunks[(int) (index >>> CHUNK_BITS)]
+                .get((int) (index & CHUNK_MASK));
+    }
+
+    public void set(long index, long value) {
+        _chunks[(int) (index >>> CHUNK_BITS)].put((int) (index & CHUNK_MASK),
+                value);
+    }
+
+    /**
+     * Adds a value to the value at a position.
+     * 
+     * @param index
+     *            position
+     * @param delta
+     *            value to add
+     */
+    public void add(long index, long delta) {
+        set(index, get(index) + delta);
+    }
+
+    public long length() {
+        return _length;
+    }
+
+    /**
+     * Writes the values to the swap file, if any.
+     */
+    public void flush() {
+        if (_regions != null) {
+            for (MappedByteBuffer region : _regions) {
+                if (region != null) {
+                    region.force();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the values to the swap file, if any, and releases it. The
+     * memory is released as soon as the buffers are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (_raf != null) {
+            if (_raf.getChannel().isOpen()) {
+                flush();
+            }
+            _raf.close();
+        }
+    }
+
+    /**
+     * Releases the column and removes its swap file, if any.
+     */
+    public void delete() throws IOException {
+        if (_raf != null) {
+            _raf.close();
+            _file.delete();
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package de.uniko.sebschlicht.graphity.neo4j.bootstrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import de.uniko.sebschlicht.graphity.bootstrap.BootstrapClient;
+import de.uniko.sebschlicht.graphity.neo4j.EdgePointerCache;
+import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.Neo4jGraphity;
+import de.uniko.sebschlicht.graphity.neo4j.NodeType;
+import de.uniko.sebschlicht.graphity.neo4j.Walker;
+import de.uniko.sebschlicht.graphity.neo4j.impl.ReadOptimizedGraphity;
+import de.uniko.sebschlicht.graphity.neo4j.impl.ReplicaLayer;
+import de.uniko.sebschlicht.graphity.neo4j.impl.WriteOptimizedGraphity;
+import de.uniko.sebschlicht.graphity.neo4j.model.StatusUpdateProxy;
+import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
+
+/**
+ * bootstrapper appending a bootstrap log to an existing Neo4j store<br>
+ * Users missing in the store are created, followships already existing are
+ * skipped. Runs offline in large transactions instead of one transaction per
+ * operation:
+ * <ul>
+ * <li>the new status updates of a user are chained and spliced onto the head
+ * of the user's PUBLISHED chain at once</li>
+ * <li>the new replicas of a user are merged into the user's GRAPHITY chain
+ * with a single relink</li>
+ * <li>the GRAPHITY chains of the followers of users that have posted are
+ * sorted once per batch of authors</li>
+ * </ul>
+ * The batch inserter can not be used, as it can not delete the edges to be
+ * replaced. No activity is recorded for the followships appended.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class Neo4jAppender extends BootstrapClient {
+
+    /**
+     * default number of nodes and relationships written per transaction
+     */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+
+    /**
+     * number of authors whose followers are collected before sorting
+     */
+    private static final int SORT_BATCH_SIZE = 1000;
+
+    private final GraphDatabaseService _graphDb;
+
+    /**
+     * pointer cache to be kept consistent when relinking
+     */
+    private final EdgePointerCache _edgePointers;
+
+    private final ReplicaLayer _replicaLayer;
+
+    /**
+     * (optional) directory to map the user table to
+     */
+    private final File _swapDirectory;
+
+    /**
+     * users to be appended
+     */
+    private UserTable _userTable;
+
+    private int _batchSize;
+
+    /**
+     * transaction of the current batch
+     */
+    private Transaction _tx;
+
+    /**
+     * number of writes in the current batch
+     */
+    private int _numWrites;
+
+    private long _numEgoNetworksSorted;
+
+    /**
+     * Creates a bootstrapper appending to a store.
+     * 
+     * @param graphDb
+     *            graph database to append to
+     * @param edgePointers
+     *            pointer cache of the Graphity instance operating on the
+     *            database
+     * @param isGraphity
+     *            whether the store uses the read-optimized model
+     * @param swapDirectory
+     *            directory to map the user table to or <b>null</b> to
+     *            allocate direct memory
+     */
+    public Neo4jAppender(
+            GraphDatabaseService graphDb,
+            EdgePointerCache edgePointers,
+            boolean isGraphity,
+            File swapDirectory) {
+        super(isGraphity);
+        _graphDb = graphDb;
+        _edgePointers = edgePointers;
+        _replicaLayer = new ReplicaLayer(edgePointers);
+        _swapDirectory = swapDirectory;
+        _batchSize = DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * @param batchSize
+     *            number of nodes and relationships written per transaction
+     */
+    public void setBatchSize(int batchSize) {
+        _batchSize = batchSize;
+    }
+
+    /**
+     * Releases the user table. A batch in progress is rolled back when the
+     * database is shut down.
+     */
+    public void shutdown() {
+        if (_userTable != null) {
+            try {
+                _userTable.delete();
+            } catch (IOException e) {
+                // swap files are left behind
+            }
+            _userTable = null;
+        }
+    }
+
+    /**
+     * Loads the user table on first access and releases the users parsed
+     * from the bootstrap log then.
+     * 
+     * @return users to be appended
+     */
+    protected UserTable getUserTable() {
+        if (_userTable == null) {
+            try {
+                _userTable = UserTable.load(_users, false, _swapDirectory);
+                // the phases only read the table
+                _users = null;
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to map user table", e);
+            }
+        }
+        return _userTable;
+    }
+
+    /**
+     * Records writes to the current batch and commits the batch if it is
+     * full.
+     * 
+     * @param numWrites
+     *            number of nodes and relationships written
+     */
+    private void written(int numWrites) {
+        _numWrites += numWrites;
+        if (_numWrites >= _batchSize) {
+            commit();
+        }
+    }
+
+    /**
+     * @return transaction of the current batch, started if necessary
+     */
+    private Transaction tx() {
+        if (_tx == null) {
+            _tx = _edgePointers.beginTx();
+        }
+        return _tx;
+    }
+
+    private void commit() {
+        if (_tx != null) {
+            _tx.success();
+            _tx.close();
+            _tx = null;
+        }
+        _numWrites = 0;
+    }
+
+    private Node findUser(long idUser) {
+        try (ResourceIterator<Node> users =
+                _graphDb.findNodesByLabelAndProperty(NodeType.USER,
+                        UserProxy.PROP_IDENTIFIER, idUser).iterator()) {
+            if (users.hasNext()) {
+                return users.next();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected long createUsers() {
+        UserTable users = getUserTable();
+        long numUsersCreated = 0;
+        for (int row = 0; row < users.getNumUsers(); ++row) {
+            tx();
+            long idUser = users.getIdentifier(row);
+            Node nUser = findUser(idUser);
+            if (nUser == null) {
+                nUser = _graphDb.createNode(NodeType.USER);
+                nUser.setProperty(UserProxy.PROP_IDENTIFIER, idUser);
+                nUser.setProperty(UserProxy.PROP_LAST_STREAM_UDPATE,
+                        users.getLastPostTimestamp(row));
+                nUser.setProperty(UserProxy.PROP_NUM_FOLLOWERS, 0L);
+                nUser.setProperty(UserProxy.PROP_NUM_FOLLOWING, 0L);
+                numUsersCreated += 1;
+                written(1);
+            }
+            users.setNodeId(row, nUser.getId());
+        }
+        commit();
+        return numUsersCreated;
+    }
+
+    @Override
+    protected long createSubscriptions() {
+        UserTable users = getUserTable();
+        long numSubscriptions = 0;
+        Set<Long> followed = new HashSet<>();
+        for (int row = 0; row < users.getNumUsers(); ++row) {
+            long begin = users.getSubscriptionsBegin(row);
+            long end = users.getSubscriptionsEnd(row);
+            if (begin == end) {
+                continue;
+            }
+            tx();
+            Node nUser = _graphDb.getNodeById(users.getNodeId(row));
+            // users followed already
+            followed.clear();
+            followed.add(nUser.getId());
+            for (Relationship followship : nUser.getRelationships(
+                    EdgeType.FOLLOWS, Direction.OUTGOING)) {
+                Node nFollowed = followship.getEndNode();
+                if (_isGraphity) {
+                    nFollowed = Walker.nextNode(nFollowed, EdgeType.REPLICA);
+                }
+                followed.add(nFollowed.getId());
+            }
+
+            int numAdded;
+            if (_isGraphity) {
+                numAdded = addReplicas(nUser, users, begin, end, followed);
+            } else {
+                numAdded = 0;
+                for (long i = begin; i < end; ++i) {
+                    long nodeId = users.getNodeId(users.getSubscription(i));
+                    if (followed.add(nodeId)) {
+                        Node nFollowed = _graphDb.getNodeById(nodeId);
+                        nUser.createRelationshipTo(nFollowed, EdgeType.FOLLOWS);
+                        new UserProxy(nFollowed).updateNumFollowers(1);
+                        numAdded += 1;
+                    }
+                }
+            }
+            if (numAdded > 0) {
+                new UserProxy(nUser).updateNumFollowing(numAdded);
+                numSubscriptions += numAdded;
+            }
+            written(3 * numAdded);
+        }
+        commit();
+        return numSubscriptions;
+    }
+
+    /**
+     * Adds replicas of users not followed yet to the ego network of a user.
+     * 
+     * @return number of replicas added
+     */
+    private int addReplicas(
+            Node nUser,
+            UserTable users,
+            long begin,
+            long end,
+            Set<Long> followed) {
+        _replicaLayer.load(nUser);
+        try {
+            int numAdded = 0;
+            for (long i = begin; i < end; ++i) {
+                long nodeId = users.getNodeId(users.getSubscription(i));
+                if (!followed.add(nodeId)) {
+                    continue;
+                }
+                Node nFollowed = _graphDb.getNodeById(nodeId);
+                Node nReplica = _graphDb.createNode();
+                nUser.createRelationshipTo(nReplica, EdgeType.FOLLOWS);
+                nReplica.createRelationshipTo(nFollowed, EdgeType.REPLICA);
+                UserProxy pFollowed = new UserProxy(nFollowed);
+                _replicaLayer.add(nReplica, pFollowed.getLastPostTimestamp());
+                pFollowed.updateNumFollowers(1);
+                numAdded += 1;
+            }
+            if (numAdded > 0) {
+                _replicaLayer.link(nUser);
+            }
+            return numAdded;
+        } finally {
+            _replicaLayer.clear();
+        }
+    }
+
+    /**
+     * Creates the new status updates of each user and splices them onto the
+     * head of the user's PUBLISHED chain.
+     */
+    @Override
+    protected long createPosts() {
+        UserTable users = getUserTable();
+        long numTotalPosts = 0;
+        long tsLastPost = System.currentTimeMillis();
+        for (int row = 0; row < users.getNumUsers(); ++row) {
+            long begin = users.getPostsBegin(row);
+            long end = users.getPostsEnd(row);
+            if (begin == end) {
+                continue;
+            }
+            tx();
+            Node nAuthor = _graphDb.getNodeById(users.getNodeId(row));
+            Node nOldest = null, nNewest = null, nPost;
+            for (long iPost = begin; iPost < end; ++iPost) {
+                nPost = _graphDb.createNode(NodeType.UPDATE);
+                new StatusUpdateProxy(nPost).initNode(tsLastPost,
+                        generatePostMessage(140));
+                if (nNewest != null) {// newerPost -> olderPost
+                    nPost.createRelationshipTo(nNewest, EdgeType.PUBLISHED);
+                } else {
+                    nOldest = nPost;
+                }
+                nNewest = nPost;
+                tsLastPost += 1;
+            }
+
+            // splice the new posts onto the head of the chain
+            _edgePointers.invalidate(nAuthor, EdgeType.PUBLISHED);
+            Node nHead = Walker.nextNode(nAuthor, EdgeType.PUBLISHED);
+            if (nHead != null) {
+                nAuthor.getSingleRelationship(EdgeType.PUBLISHED,
+                        Direction.OUTGOING).delete();
+                nOldest.createRelationshipTo(nHead, EdgeType.PUBLISHED);
+            }
+            nAuthor.createRelationshipTo(nNewest, EdgeType.PUBLISHED);
+            new UserProxy(nAuthor).setLastPostTimestamp(tsLastPost - 1);
+            users.setLastPostTimestamp(row, tsLastPost - 1);
+
+            numTotalPosts += end - begin;
+            written(2 * (int) (end - begin) + 1);
+        }
+        commit();
+        return numTotalPosts;
+    }
+
+    /**
+     * Sorts the GRAPHITY chains of the followers of users that have posted,
+     * as the status updates have been linked when created.
+     */
+    @Override
+    protected long linkPosts() {
+        UserTable users = getUserTable();
+        long numTotalPosts = 0;
+        Set<Long> followers = new HashSet<>();
+        int numAuthors = 0;
+        for (int row = 0; row < users.getNumUsers(); ++row) {
+            long numPosts = users.getPostsEnd(row) - users.getPostsBegin(row);
+            if (numPosts == 0) {
+                continue;
+            }
+            numTotalPosts += numPosts;
+            if (!_isGraphity) {
+                continue;
+            }
+            tx();
+            Node nAuthor = _graphDb.getNodeById(users.getNodeId(row));
+            for (Relationship replication : nAuthor.getRelationships(
+                    EdgeType.REPLICA, Direction.INCOMING)) {
+                followers.add(Walker.previousNode(replication.getStartNode(),
+                        EdgeType.FOLLOWS).getId());
+            }
+            numAuthors += 1;
+            if (numAuthors == SORT_BATCH_SIZE) {
+                sortEgoNetworks(followers);
+                numAuthors = 0;
+            }
+        }
+        sortEgoNetworks(followers);
+        return numTotalPosts;
+    }
+
+    /**
+     * Sorts the GRAPHITY chains of users, committing whenever the batch is
+     * full.
+     * 
+     * @param followers
+     *            identifiers of the user nodes, cleared afterwards
+     */
+    private void sortEgoNetworks(Set<Long> followers) {
+        for (long nodeId : followers) {
+            tx();
+            Node nFollower = _graphDb.getNodeById(nodeId);
+            _replicaLayer.load(nFollower);
+            try {
+                written(_replicaLayer.link(nFollower));
+            } finally {
+                _replicaLayer.clear();
+            }
+        }
+        _numEgoNetworksSorted += followers.size();
+        followers.clear();
+        commit();
+    }
+
+    /**
+     * @return number of GRAPHITY chains sorted after appending status updates
+     */
+    public long getNumEgoNetworksSorted() {
+        return _numEgoNetworksSorted;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 && args.length != 4) {
+            System.out
+                    .println("usage: Neo4jAppender <pathBootstrapLog> <pathNeo4jDb> <algorithm {stou|graphity}> [pathSwap]");
+            throw new IllegalArgumentException("invalid number of arguments");
+        }
+        File fBootstrapLog = new File(args[0]);
+        File fDatabase = new File(args[1]);
+        boolean isGraphity;
+        String sAlgorithm = args[2];
+        if ("stou".equalsIgnoreCase(sAlgorithm)) {
+            isGraphity = false;
+            System.out.println("STOU model set");
+        } else if ("graphity".equalsIgnoreCase(sAlgorithm)) {
+            isGraphity = true;
+            System.out.println("Graphity model set");
+        } else {
+            throw new IllegalArgumentException(
+                    "Invalid social network algorithm! Use \"stou\" or \"graphity\".");
+        }
+        File fSwap = (args.length == 4) ? new File(args[3]) : null;
+
+        final GraphDatabaseService graphDb =
+                new GraphDatabaseFactory().newEmbeddedDatabase(fDatabase
+                        .getAbsolutePath());
+        // ensures the user identifier index
+        Neo4jGraphity graphity =
+                isGraphity ? new ReadOptimizedGraphity(graphDb)
+                        : new WriteOptimizedGraphity(graphDb);
+        graphity.init();
+        final Neo4jAppender appender =
+                new Neo4jAppender(graphDb, graphity.getEdgePointerCache(),
+                        isGraphity, fSwap);
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                System.out.println("process finished. making persistent...");
+                appender.shutdown();
+                graphDb.shutdown();
+                System.out.println("exited.");
+            }
+        });
+        System.out.println("database ready.");
+        appender.bootstrap(fBootstrapLog);
+        System.out.println(appender.getNumEgoNetworksSorted()
+                + " ego networks sorted.");
+    }
+}
@@ -2,170 +2,380 @@ package de.uniko.sebschlicht.graphity.neo4j.bootstrap;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Logger;
 
 import org.neo4j.graphdb.Label;
 import org.neo4j.unsafe.batchinsert.BatchInserter;
 import org.neo4j.unsafe.batchinsert.BatchInserters;
 
 import de.uniko.sebschlicht.graphity.bootstrap.BootstrapClient;
-import de.uniko.sebschlicht.graphity.bootstrap.User;
 import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
 import de.uniko.sebschlicht.graphity.neo4j.NodeType;
+import de.uniko.sebschlicht.graphity.neo4j.bootstrap.BootstrapProgress.Phase;
+import de.uniko.sebschlicht.graphity.neo4j.maintenance.ProgressCheckpoint;
 import de.uniko.sebschlicht.graphity.neo4j.model.StatusUpdateProxy;
 import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
 
+/**
+ * bootstrapper writing a social network into a Neo4j store via the batch
+ * inserter<br>
+ * The users are loaded into a columnar table outside of the Java heap before
+ * the first phase, so the phases neither allocate per-user objects nor boxed
+ * maps. The table is backed by direct memory or, if a swap directory is
+ * specified, by memory-mapped files. The users parsed from the bootstrap log
+ * are released once the table has been loaded.<br>
+ * If a checkpoint is set, the phases and users completed are recorded when
+ * the bootstrapper is shut down and the user table is kept in the swap
+ * directory, so an interrupted import continues where it stopped.
+ * 
+ * @author sebschlicht
+ * 
+ */
 public class Neo4jBootstrapper extends BootstrapClient {
 
+    private static final Logger LOG = Logger.getLogger(Neo4jBootstrapper.class
+            .getName());
+
     private BatchInserter _inserter;
 
+    /**
+     * (optional) directory to map the user table to
+     */
+    private final File _swapDirectory;
+
+    /**
+     * users to be bootstrapped
+     */
+    private UserTable _userTable;
+
+    /**
+     * (optional) progress of a resumable import
+     */
+    private BootstrapProgress _progress;
+
+    /**
+     * whether the inserter has been shut down
+     */
+    private boolean _isShutdown;
+
     public Neo4jBootstrapper(
             String databasePath,
             boolean isGraphity) {
+        this(databasePath, isGraphity, null);
+    }
+
+    /**
+     * Creates a bootstrapper mapping its user table to files.
+     * 
+     * @param databasePath
+     *            path to the Neo4j store
+     * @param isGraphity
+     *            whether to bootstrap the read-optimized model
+     * @param swapDirectory
+     *            directory to map the user table to or <b>null</b> to
+     *            allocate direct memory
+     */
+    public Neo4jBootstrapper(
+            String databasePath,
+            boolean isGraphity,
+            File swapDirectory) {
         super(isGraphity);
         _inserter = BatchInserters.inserter(databasePath);
+        _swapDirectory = swapDirectory;
+    }
+
+    /**
+     * Makes the import resumable. Requires a swap directory to keep the user
+     * table in.
+     * 
+     * @param checkpoint
+     *            checkpoint holding the progress of the import
+     * @throws IOException
+     *             if the checkpoint could not be read
+     * @throws IllegalStateException
+     *             if a previous import has not been shut down cleanly
+     */
+    public void setCheckpoint(ProgressCheckpoint checkpoint)
+            throws IOException {
+        if (_swapDirectory == null) {
+            throw new IllegalStateException(
+                    "resumable imports require a swap directory");
+        }
+        _progress = new BootstrapProgress(checkpoint);
     }
 
-    public void shutdown() {
+    /**
+     * Shuts down the inserter once the current user has been completed. A
+     * running phase fails on its next user.
+     */
+    public synchronized void shutdown() {
+        if (_isShutdown) {
+            return;
+        }
+        _isShutdown = true;
         _inserter.shutdown();
+        if (_userTable == null) {
+            return;
+        }
+        try {
+            if (_progress != null && !_progress.isCompleted()) {
+                // keep the table to resume the import
+                _userTable.close();
+                _progress.save();
+            } else {
+                _userTable.delete();
+                if (_progress != null) {
+                    _progress.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to save progress", e);
+        } finally {
+            _userTable = null;
+        }
+    }
+
+    /**
+     * Loads the user table on first access and releases the users parsed
+     * from the bootstrap log then.
+     * 
+     * @return users to be bootstrapped
+     */
+    protected synchronized UserTable getUserTable() {
+        if (_userTable == null) {
+            checkRunning();
+            try {
+                if (_progress != null && _progress.isResumed()) {
+                    _userTable = UserTable.open(_isGraphity, _swapDirectory);
+                } else {
+                    _userTable =
+                            UserTable.load(_users, _isGraphity,
+                                    _swapDirectory);
+                }
+                // the phases only read the table
+                _users = null;
+                if (_progress != null) {
+                    _progress.start();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to map user table", e);
+            }
+        }
+        return _userTable;
+    }
+
+    /**
+     * Starts an import phase.
+     * 
+     * @param phase
+     *            import phase
+     * @return first user row to process<br>
+     *         <code>-1</code> - if the phase has been completed before
+     */
+    private int beginPhase(Phase phase) {
+        if (_progress == null) {
+            return 0;
+        }
+        if (_progress.isCompleted(phase)) {
+            LOG.info("phase " + phase + " completed before.");
+            return -1;
+        }
+        if (_progress.getRow() > 0) {
+            LOG.info("resuming phase " + phase + " at user "
+                    + _progress.getRow() + ".");
+        }
+        return _progress.getRow();
+    }
+
+    /**
+     * Fails if the inserter has been shut down. Has to be called while
+     * holding the bootstrapper's monitor.
+     */
+    private void checkRunning() {
+        if (_isShutdown) {
+            throw new IllegalStateException("bootstrapper has been shut down");
+        }
+    }
+
+    private void completeRow(int row) {
+        if (_progress != null) {
+            _progress.setCompleted(row);
+        }
+    }
+
+    private void completePhase(Phase phase) {
+        if (_progress != null) {
+            _progress.setCompleted(phase);
+        }
     }
 
     @Override
     protected long createUsers() {
-        long numUsers = 0, nodeId;
-        Map<String, Object> userProperties;
-        ArrayList<User> tmp = new ArrayList<>();
+        int firstRow = beginPhase(Phase.USERS);
+        if (firstRow == -1) {
+            return 0;
+        }
+        UserTable users = getUserTable();
+        long nodeId;
+        // the inserter copies the properties, so the map can be reused
+        Map<String, Object> userProperties = new HashMap<>();
         Label[] nolabel = new Label[0];
-        for (User user : _users.getUsers()) {
-            userProperties = new HashMap<>();
-            userProperties.put(UserProxy.PROP_IDENTIFIER,
-                    String.valueOf(user.getId()));
-            userProperties.put(UserProxy.PROP_LAST_STREAM_UDPATE,
-                    user.getTsLastPost());
-            nodeId = _inserter.createNode(userProperties, NodeType.USER);
-            user.setNodeId(nodeId);
-            numUsers += 1;
-
-            if (_isGraphity) {
-                long[] subscriptions = user.getSubscriptions();
-                if (subscriptions == null) {// can this happen?
-                    continue;
-                }
-                long[] replicas = new long[subscriptions.length];
+        for (int row = firstRow; row < users.getNumUsers(); ++row) {
+            synchronized (this) {
+                checkRunning();
+                userProperties.put(UserProxy.PROP_IDENTIFIER,
+                        users.getIdentifier(row));
+                userProperties.put(UserProxy.PROP_LAST_STREAM_UDPATE,
+                        users.getLastPostTimestamp(row));
+                userProperties.put(UserProxy.PROP_NUM_FOLLOWERS,
+                        users.getNumFollowers(row));
+                userProperties.put(UserProxy.PROP_NUM_FOLLOWING,
+                        users.getSubscriptionsEnd(row)
+                                - users.getSubscriptionsBegin(row));
+                nodeId = _inserter.createNode(userProperties, NodeType.USER);
+                users.setNodeId(row, nodeId);
 
-                // sort subscriptions and create replica nodes
-                for (long idFollowed : subscriptions) {
-                    tmp.add(_users.getUser(idFollowed));
-                }
-                Collections.sort(tmp);
-                int i = 0;
-                for (User followed : tmp) {
-                    subscriptions[i] = followed.getId();
-                    nodeId = _inserter.createNode(null, nolabel);
-                    replicas[i] = nodeId;
-                    i += 1;
+                if (_isGraphity) {
+                    // sort subscriptions and create replica nodes
+                    users.sortSubscriptions(row);
+                    for (long i = users.getSubscriptionsBegin(row); i < users
+                            .getSubscriptionsEnd(row); ++i) {
+                        nodeId = _inserter.createNode(null, nolabel);
+                        users.setReplica(i, nodeId);
+                    }
                 }
-                user.setReplicas(replicas);
-                tmp.clear();
+                completeRow(row);
             }
         }
-        return numUsers;
+        completePhase(Phase.USERS);
+        return users.getNumUsers() - firstRow;
     }
 
     @Override
     protected long createSubscriptions() {
+        int firstRow = beginPhase(Phase.SUBSCRIPTIONS);
+        if (firstRow == -1) {
+            return 0;
+        }
+        UserTable users = getUserTable();
         long numSubscriptions = 0;
-        for (User user : _users.getUsers()) {
-            long[] subscriptions = user.getSubscriptions();
-            if (subscriptions == null) {// can this happen?
-                continue;
-            }
-            if (!_isGraphity) {// WriteOptimizedGraphity
-                for (long idFollowed : subscriptions) {
-                    User followed = _users.getUser(idFollowed);
-                    _inserter.createRelationship(user.getNodeId(),
-                            followed.getNodeId(), EdgeType.FOLLOWS, null);
-                    numSubscriptions += 1;
-                }
-            } else {// ReadOptimizedGraphity
-                // link users and replica layer
-                long prev = user.getNodeId();
-                long[] replicas = user.getReplicas();
-                for (int i = 0; i < replicas.length; ++i) {
-                    // user -> FOLLOWS -> replica
-                    _inserter.createRelationship(user.getNodeId(), replicas[i],
-                            EdgeType.FOLLOWS, null);
-                    // replica -> REPLICA -> followed
-                    User followed = _users.getUser(subscriptions[i]);
-                    _inserter.createRelationship(replicas[i],
-                            followed.getNodeId(), EdgeType.REPLICA, null);
-                    // user/replica -> GRAPHITY -> replica
-                    _inserter.createRelationship(prev, replicas[i],
-                            EdgeType.GRAPHITY, null);
-                    numSubscriptions += 1;
-                    prev = replicas[i];
+        for (int row = firstRow; row < users.getNumUsers(); ++row) {
+            synchronized (this) {
+                checkRunning();
+                long nodeId = users.getNodeId(row);
+                long begin = users.getSubscriptionsBegin(row);
+                long end = users.getSubscriptionsEnd(row);
+                if (!_isGraphity) {// WriteOptimizedGraphity
+                    for (long i = begin; i < end; ++i) {
+                        _inserter.createRelationship(nodeId,
+                                users.getNodeId(users.getSubscription(i)),
+                                EdgeType.FOLLOWS, null);
+                        numSubscriptions += 1;
+                    }
+                } else {// ReadOptimizedGraphity
+                    // link users and replica layer
+                    long prev = nodeId;
+                    long replica;
+                    for (long i = begin; i < end; ++i) {
+                        replica = users.getReplica(i);
+                        // user -> FOLLOWS -> replica
+                        _inserter.createRelationship(nodeId, replica,
+                                EdgeType.FOLLOWS, null);
+                        // replica -> REPLICA -> followed
+                        _inserter.createRelationship(replica,
+                                users.getNodeId(users.getSubscription(i)),
+                                EdgeType.REPLICA, null);
+                        // user/replica -> GRAPHITY -> replica
+                        _inserter.createRelationship(prev, replica,
+                                EdgeType.GRAPHITY, null);
+                        numSubscriptions += 1;
+                        prev = replica;
+                    }
                 }
+                completeRow(row);
             }
         }
+        completePhase(Phase.SUBSCRIPTIONS);
         return numSubscriptions;
     }
 
     @Override
     protected long createPosts() {
+        int firstRow = beginPhase(Phase.POSTS);
+        if (firstRow == -1) {
+            return 0;
+        }
+        UserTable users = getUserTable();
         long numTotalPosts = 0;
-        Map<String, Object> postProperties;
+        Map<String, Object> postProperties = new HashMap<>();
         long tsLastPost = System.currentTimeMillis();
         long nodeId;
-        for (User user : _users.getUsers()) {
-            long[] userPostNodes = user.getPostNodeIds();
-            for (int iPost = 0; iPost < userPostNodes.length; ++iPost) {
-                postProperties = new HashMap<>();
-                postProperties
-                        .put(StatusUpdateProxy.PROP_PUBLISHED, tsLastPost);
-                postProperties.put(StatusUpdateProxy.PROP_MESSAGE,
-                        generatePostMessage(140));
-                nodeId = _inserter.createNode(postProperties, NodeType.UPDATE);
-                userPostNodes[iPost] = nodeId;
-                if (iPost == userPostNodes.length - 1) {
-                    user.setTsLastPost(tsLastPost);
+        for (int row = firstRow; row < users.getNumUsers(); ++row) {
+            synchronized (this) {
+                checkRunning();
+                long begin = users.getPostsBegin(row);
+                long end = users.getPostsEnd(row);
+                for (long iPost = begin; iPost < end; ++iPost) {
+                    postProperties.put(StatusUpdateProxy.PROP_PUBLISHED,
+                            tsLastPost);
+                    postProperties.put(StatusUpdateProxy.PROP_MESSAGE,
+                            generatePostMessage(140));
+                    nodeId =
+                            _inserter.createNode(postProperties,
+                                    NodeType.UPDATE);
+                    users.setPostNodeId(iPost, nodeId);
+                    if (iPost == end - 1) {
+                        users.setLastPostTimestamp(row, tsLastPost);
+                    }
+                    tsLastPost += 1;
+                    numTotalPosts += 1;
                 }
-                tsLastPost += 1;
-                numTotalPosts += 1;
+                completeRow(row);
             }
         }
+        completePhase(Phase.POSTS);
         return numTotalPosts;
     }
 
     @Override
     protected long linkPosts() {
+        int firstRow = beginPhase(Phase.LINKS);
+        if (firstRow == -1) {
+            return 0;
+        }
+        UserTable users = getUserTable();
         long numTotalPosts = 0;
-        for (User user : _users.getUsers()) {
-            long[] postNodeIds = user.getPostNodeIds();
-            if (postNodeIds == null) {// should not happen
-                continue;
-            }
-
-            for (int iPost = 0; iPost < postNodeIds.length; ++iPost) {
-                if (iPost + 1 < postNodeIds.length) {// newerPost -> olderPost
-                    _inserter.createRelationship(postNodeIds[iPost + 1],
-                            postNodeIds[iPost], EdgeType.PUBLISHED, null);
-                } else {// user -> newestPost
-                    _inserter.createRelationship(user.getNodeId(),
-                            postNodeIds[iPost], EdgeType.PUBLISHED, null);
+        for (int row = firstRow; row < users.getNumUsers(); ++row) {
+            synchronized (this) {
+                checkRunning();
+                long begin = users.getPostsBegin(row);
+                long end = users.getPostsEnd(row);
+                for (long iPost = begin; iPost < end; ++iPost) {
+                    if (iPost + 1 < end) {// newerPost -> olderPost
+                        _inserter.createRelationship(
+                                users.getPostNodeId(iPost + 1),
+                                users.getPostNodeId(iPost),
+                                EdgeType.PUBLISHED, null);
+                    } else {// user -> newestPost
+                        _inserter.createRelationship(users.getNodeId(row),
+                                users.getPostNodeId(iPost),
+                                EdgeType.PUBLISHED, null);
+                    }
                 }
+                numTotalPosts += end - begin;
+                completeRow(row);
             }
-            numTotalPosts += postNodeIds.length;
         }
+        completePhase(Phase.LINKS);
         return numTotalPosts;
     }
 
     public static void main(String[] args) throws IOException {
-        if (args.length != 3) {
+        if (args.length != 3 && args.length != 4) {
             System.out
-                    .println("usage: Neo4jBootstrapper <pathBootstrapLog> <pathNeo4jDb> <algorithm {stou|graphity}>");
+                    .println("usage: Neo4jBootstrapper <pathBootstrapLog> <pathNeo4jDb> <algorithm {stou|graphity}> [pathSwap]");
             throw new IllegalArgumentException("invalid number of arguments");
         }
         File fBootstrapLog = new File(args[0]);
@@ -182,8 +392,15 @@ public class Neo4jBootstrapper extends BootstrapClient {
             throw new IllegalArgumentException(
                     "Invalid social network algorithm! Use \"stou\" or \"graphity\".");
         }
+        File fSwap =
+                (args.length == 4) ? new File(args[3]) : new File(fDatabase,
+                        "bootstrap.table");
+        fSwap.mkdirs();
         final Neo4jBootstrapper bootstrapClient =
-                new Neo4jBootstrapper(fDatabase.getAbsolutePath(), isGraphity);
+                new Neo4jBootstrapper(fDatabase.getAbsolutePath(), isGraphity,
+                        fSwap);
+        bootstrapClient.setCheckpoint(new ProgressCheckpoint(new File(
+                fDatabase, "bootstrap.checkpoint")));
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
 
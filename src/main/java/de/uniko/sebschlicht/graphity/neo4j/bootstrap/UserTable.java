@@ -0,0 +1,435 @@
+package de.uniko.sebschlicht.graphity.neo4j.bootstrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.uniko.sebschlicht.graphity.bootstrap.User;
+import de.uniko.sebschlicht.graphity.bootstrap.UserManager;
+
+/**
+ * columnar table of the users to be bootstrapped<br>
+ * Holds the users in rows of primitive columns outside of the Java heap:
+ * identifiers, node identifiers, last post timestamps and follower counts.
+ * Subscriptions, replicas and status update nodes are stored in compressed
+ * sparse rows, i.e. the entries of all users are concatenated in a single
+ * column and each user holds the offset of its first entry. Subscriptions
+ * refer to the row of the user followed, which is resolved once via an
+ * open-addressing index when the table is loaded.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class UserTable implements AutoCloseable {
+
+    private final int _numUsers;
+
+    private final LongColumn _identifiers;
+
+    private final LongColumn _nodeIds;
+
+    private final LongColumn _lastPostTimestamps;
+
+    private final LongColumn _numFollowers;
+
+    /**
+     * offset of the first subscription per user, followed by the total
+     * number of subscriptions
+     */
+    private final LongColumn _subscriptionOffsets;
+
+    /**
+     * rows of the users followed
+     */
+    private final LongColumn _subscriptions;
+
+    /**
+     * (optional) replica node identifiers, aligned with the subscriptions
+     */
+    private final LongColumn _replicas;
+
+    /**
+     * offset of the first status update per user, followed by the total
+     * number of status updates
+     */
+    private final LongColumn _postOffsets;
+
+    private final LongColumn _postNodeIds;
+
+    /**
+     * scratch space to sort the subscriptions of a user
+     */
+    private long[] _sortRows = new long[16];
+
+    private long[] _sortTimestamps = new long[16];
+
+    /**
+     * columns of the table
+     */
+    private final List<LongColumn> _columns = new ArrayList<>();
+
+    /**
+     * directory the columns are mapped to or <b>null</b>
+     */
+    private final File _directory;
+
+    /**
+     * whether the columns are mapped to existing swap files
+     */
+    private final boolean _isExisting;
+
+    private UserTable(
+            int numUsers,
+            long numSubscriptions,
+            long numPosts,
+            boolean hasReplicas,
+            File directory,
+            boolean isExisting) throws IOException {
+        _directory = directory;
+        _isExisting = isExisting;
+        try {
+            _identifiers = column("ids", numUsers);
+            _numUsers = (int) _identifiers.length();
+            _nodeIds = column("nodes", _numUsers);
+            _lastPostTimestamps = column("timestamps", _numUsers);
+            _numFollowers = column("followers", _numUsers);
+            _subscriptionOffsets =
+                    column("subscription-offsets", _numUsers + 1);
+            _subscriptions = column("subscriptions", numSubscriptions);
+            _replicas =
+                    hasReplicas ? column("replicas", numSubscriptions) : null;
+            _postOffsets = column("post-offsets", _numUsers + 1);
+            _postNodeIds = column("posts", numPosts);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private LongColumn column(String name, long length) throws IOException {
+        LongColumn column =
+                _isExisting ? LongColumn.open(file(_directory, name))
+                        : new LongColumn(length, file(_directory, name));
+        _columns.add(column);
+        return column;
+    }
+
+    private static File file(File directory, String column) {
+        return (directory != null) ? new File(directory, column + ".col")
+                : null;
+    }
+
+    /**
+     * Loads the users of a bootstrap log into a table.
+     * 
+     * @param users
+     *            users loaded from the bootstrap log
+     * @param hasReplicas
+     *            whether to store replica node identifiers
+     * @param directory
+     *            directory to map the columns to or <b>null</b> to allocate
+     *            direct memory
+     * @return table holding the users
+     * @throws IOException
+     *             if the columns could not be mapped
+     */
+    public static UserTable load(
+            UserManager users,
+            boolean hasReplicas,
+            File directory) throws IOException {
+        int numUsers = 0;
+        long numSubscriptions = 0, numPosts = 0;
+        for (User user : users.getUsers()) {
+            numUsers += 1;
+            numSubscriptions += length(user.getSubscriptions());
+            numPosts += length(user.getPostNodeIds());
+        }
+        UserTable table =
+                new UserTable(numUsers, numSubscriptions, numPosts,
+                        hasReplicas, directory, false);
+        try {
+            table.fill(users, directory);
+        } catch (IOException | RuntimeException e) {
+            table.delete();
+            throw e;
+        }
+        return table;
+    }
+
+    /**
+     * Opens a table persisted in a directory by a previous run.
+     * 
+     * @param hasReplicas
+     *            whether the table stores replica node identifiers
+     * @param directory
+     *            directory the columns have been mapped to
+     * @return table holding the users persisted
+     * @throws IOException
+     *             if the columns could not be mapped
+     */
+    public static UserTable open(boolean hasReplicas, File directory)
+            throws IOException {
+        return new UserTable(0, 0, 0, hasReplicas, directory, true);
+    }
+
+    private static int length(long[] values) {
+        return (values != null) ? values.length : 0;
+    }
+
+    private void fill(UserManager users, File directory) throws IOException {
+        // index of the rows by user identifier
+        long capacity = Long.highestOneBit(Math.max(_numUsers, 1) * 2L) * 2;
+        long mask = capacity - 1;
+        LongColumn keys = new LongColumn(capacity, file(directory, "keys"));
+        LongColumn rows = null;
+        try {
+            rows = new LongColumn(capacity, file(directory, "rows"));
+            int row = 0;
+            long subscriptionOffset = 0, postOffset = 0;
+            for (User user : users.getUsers()) {
+                _identifiers.set(row, user.getId());
+                _lastPostTimestamps.set(row, user.getTsLastPost());
+                _subscriptionOffsets.set(row, subscriptionOffset);
+                _postOffsets.set(row, postOffset);
+                subscriptionOffset += length(user.getSubscriptions());
+                postOffset += length(user.getPostNodeIds());
+
+                long slot = hash(user.getId()) & mask;
+                while (rows.get(slot) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys.set(slot, user.getId());
+                rows.set(slot, row + 1);
+                row += 1;
+            }
+            _subscriptionOffsets.set(_numUsers, subscriptionOffset);
+            _postOffsets.set(_numUsers, postOffset);
+
+            // resolve the rows of the users followed
+            long index = 0;
+            for (User user : users.getUsers()) {
+                long[] subscriptions = user.getSubscriptions();
+                if (subscriptions == null) {
+                    continue;
+                }
+                for (long idFollowed : subscriptions) {
+                    long slot = hash(idFollowed) & mask;
+                    long rowFollowed;
+                    while ((rowFollowed = rows.get(slot)) != 0
+                            && keys.get(slot) != idFollowed) {
+                        slot = (slot + 1) & mask;
+                    }
+                    if (rowFollowed == 0) {
+                        throw new IllegalStateException("user " + user.getId()
+                                + " follows unknown user " + idFollowed);
+                    }
+                    _subscriptions.set(index, rowFollowed - 1);
+                    _numFollowers.add(rowFollowed - 1, 1);
+                    index += 1;
+                }
+            }
+        } finally {
+            keys.delete();
+            if (rows != null) {
+                rows.delete();
+            }
+        }
+    }
+
+    private static long hash(long identifier) {
+        long h = identifier * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Sorts the subscriptions of a user by the last post timestamp of the
+     * users followed, newest first, i.e. in the order of the user's GRAPHITY
+     * chain.
+     * 
+     * @param row
+     *            row of the user
+     */
+    public void sortSubscriptions(int row) {
+        long begin = getSubscriptionsBegin(row);
+        int numSubscriptions = (int) (getSubscriptionsEnd(row) - begin);
+        if (numSubscriptions > _sortRows.length) {
+            int capacity = Integer.highestOneBit(numSubscriptions) * 2;
+            _sortRows = new long[capacity];
+            _sortTimestamps = new long[capacity];
+        }
+        for (int i = 0; i < numSubscriptions; ++i) {
+            _sortRows[i] = _subscriptions.get(begin + i);
+            _sortTimestamps[i] =
+                    _lastPostTimestamps.get(_sortRows[i]);
+        }
+        sort(0, numSubscriptions - 1);
+        for (int i = 0; i < numSubscriptions; ++i) {
+            _subscriptions.set(begin + i, _sortRows[i]);
+        }
+    }
+
+    /**
+     * Sorts the scratch space by timestamp descending.
+     */
+    private void sort(int low, int high) {
+        while (high - low > 16) {
+            long pivot = _sortTimestamps[(low + high) >>> 1];
+            int i = low, j = high;
+            while (i <= j) {
+                while (_sortTimestamps[i] > pivot) {
+                    i += 1;
+                }
+                while (_sortTimestamps[j] < pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            // recurse into the smaller partition
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; ++i) {
+            for (int j = i; j > low
+                    && _sortTimestamps[j - 1] < _sortTimestamps[j]; --j) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        long row = _sortRows[i];
+        _sortRows[i] = _sortRows[j];
+        _sortRows[j] = row;
+        long timestamp = _sortTimestamps[i];
+        _sortTimestamps[i] = _sortTimestamps[j];
+        _sortTimestamps[j] = timestamp;
+    }
+
+    public int getNumUsers() {
+        return _numUsers;
+    }
+
+    public long getIdentifier(int row) {
+        return _identifiers.get(row);
+    }
+
+    public long getNodeId(int row) {
+        return _nodeIds.get(row);
+    }
+
+    public void setNodeId(int row, long nodeId) {
+        _nodeIds.set(row, nodeId);
+    }
+
+    public long getLastPostTimestamp(int row) {
+        return _lastPostTimestamps.get(row);
+    }
+
+    public void setLastPostTimestamp(int row, long timestamp) {
+        _lastPostTimestamps.set(row, timestamp);
+    }
+
+    public long getNumFollowers(int row) {
+        return _numFollowers.get(row);
+    }
+
+    /**
+     * @param row
+     *            row of the user
+     * @return index of the user's first subscription
+     */
+    public long getSubscriptionsBegin(int row) {
+        return _subscriptionOffsets.get(row);
+    }
+
+    /**
+     * @param row
+     *            row of the user
+     * @return index after the user's last subscription
+     */
+    public long getSubscriptionsEnd(int row) {
+        return _subscriptionOffsets.get(row + 1);
+    }
+
+    /**
+     * @param index
+     *            subscription index
+     * @return row of the user followed
+     */
+    public int getSubscription(long index) {
+        return (int) _subscriptions.get(index);
+    }
+
+    public long getReplica(long index) {
+        return _replicas.get(index);
+    }
+
+    public void setReplica(long index, long nodeId) {
+        _replicas.set(index, nodeId);
+    }
+
+    /**
+     * @param row
+     *            row of the user
+     * @return index of the user's oldest status update
+     */
+    public long getPostsBegin(int row) {
+        return _postOffsets.get(row);
+    }
+
+    /**
+     * @param row
+     *            row of the user
+     * @return index after the user's newest status update
+     */
+    public long getPostsEnd(int row) {
+        return _postOffsets.get(row + 1);
+    }
+
+    public long getPostNodeId(long index) {
+        return _postNodeIds.get(index);
+    }
+
+    public void setPostNodeId(long index, long nodeId) {
+        _postNodeIds.set(index, nodeId);
+    }
+
+    /**
+     * Writes the table to its swap files, if any.
+     */
+    public void flush() {
+        for (LongColumn column : _columns) {
+            column.flush();
+        }
+    }
+
+    /**
+     * Writes the table to its swap files, if any, and releases them. The
+     * table can be opened again from the swap files.
+     */
+    @Override
+    public void close() throws IOException {
+        for (LongColumn column : _columns) {
+            column.close();
+        }
+    }
+
+    /**
+     * Releases the table and removes its swap files, if any.
+     */
+    public void delete() throws IOException {
+        for (LongColumn column : _columns) {
+            column.delete();
+        }
+    }
+}
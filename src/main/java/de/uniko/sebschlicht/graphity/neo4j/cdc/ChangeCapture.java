@@ -0,0 +1,257 @@
+package de.uniko.sebschlicht.graphity.neo4j.cdc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import de.uniko.sebschlicht.graphity.neo4j.ScopedTransaction;
+
+/**
+ * transaction event handler writing the changes recorded by Graphity to a
+ * change log after commit<br>
+ * Changes are recorded per thread while a transaction is open. Sequence
+ * numbers are reserved before the commit and the changes are logged after
+ * the commit. Changes of transactions rolled back are discarded.<br>
+ * <br>
+ * The handler is not invoked for transactions closed without being marked
+ * successful. Transactions started by Graphity are therefore scoped via
+ * {@link #track(Transaction)}, which discards their changes when they are
+ * closed. Transactions owned by the caller are bound via
+ * {@link #bind(Transaction)}, which discards the changes left by another
+ * transaction of the thread.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ChangeCapture implements TransactionEventHandler<Long> {
+
+    /**
+     * change log to write to
+     */
+    private final ChangeLog _log;
+
+    /**
+     * changes recorded in the current thread's transaction
+     */
+    private final ThreadLocal<PendingChanges> _pending =
+            new ThreadLocal<PendingChanges>() {
+
+                @Override
+                protected PendingChanges initialValue() {
+                    return new PendingChanges();
+                }
+            };
+
+    /**
+     * Creates a handler writing to a change log. The handler has to be
+     * registered at the graph database.
+     * 
+     * @param log
+     *            change log
+     */
+    public ChangeCapture(
+            ChangeLog log) {
+        _log = log;
+    }
+
+    public ChangeLog getChangeLog() {
+        return _log;
+    }
+
+    /**
+     * Records a change of the current thread's transaction.
+     * 
+     * @param type
+     *            change type
+     * @param timestamp
+     *            timestamp of the change
+     * @param idUser
+     *            user that caused the change
+     * @param idTarget
+     *            user or status update affected
+     * @param message
+     *            (optional) status update content
+     */
+    public void record(
+            ChangeType type,
+            long timestamp,
+            long idUser,
+            long idTarget,
+            String message) {
+        _pending.get().add(type, timestamp, idUser, idTarget, message);
+    }
+
+    /**
+     * Discards the changes recorded in the current thread, e.g. after a
+     * transaction was closed without being marked successful.
+     */
+    public void discardPending() {
+        _pending.get().clear();
+    }
+
+    /**
+     * Scopes the changes of the current thread to a transaction. Changes
+     * left by a previous transaction are discarded when the outermost
+     * transaction scoped begins, the changes recorded in it when it is
+     * closed, whether it was committed or not.
+     * 
+     * @param tx
+     *            transaction started by Graphity
+     * @return transaction to be used instead
+     */
+    public Transaction track(Transaction tx) {
+        PendingChanges pending = _pending.get();
+        if (pending.depth == 0) {
+            pending.clear();
+        }
+        ScopedChanges scope = new ScopedChanges(tx, pending);
+        pending.depth += 1;
+        pending.tx = scope;
+        return scope;
+    }
+
+    /**
+     * Binds the changes of the current thread to a transaction owned by the
+     * caller. Changes left by another transaction, which was closed without
+     * success, are discarded.<br>
+     * Has no effect within a transaction scoped via
+     * {@link #track(Transaction)}.
+     * 
+     * @param tx
+     *            transaction the following changes belong to
+     */
+    public void bind(Transaction tx) {
+        PendingChanges pending = _pending.get();
+        if (pending.depth == 0 && pending.tx != tx) {
+            pending.clear();
+            pending.tx = tx;
+        }
+    }
+
+    @Override
+    public Long beforeCommit(TransactionData data) throws Exception {
+        PendingChanges pending = _pending.get();
+        if (pending.size == 0) {
+            return null;
+        }
+        return _log.reserve(pending.size);
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Long first) {
+        PendingChanges pending = _pending.get();
+        try {
+            if (first != null) {
+                ChangeEvent[] changes = new ChangeEvent[pending.size];
+                for (int i = 0; i < pending.size; ++i) {
+                    changes[i] =
+                            new ChangeEvent(first + i, pending.types[i],
+                                    pending.timestamps[i], pending.users[i],
+                                    pending.targets[i], pending.messages[i]);
+                }
+                _log.commit(first, changes);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to write change log", e);
+        } finally {
+            pending.clear();
+        }
+    }
+
+    @Override
+    public void afterRollback(TransactionData data, Long first) {
+        try {
+            if (first != null) {
+                _log.abort(first);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to write change log", e);
+        } finally {
+            _pending.get().clear();
+        }
+    }
+
+    /**
+     * changes recorded by a thread
+     */
+    private static class PendingChanges {
+
+        ChangeType[] types = new ChangeType[4];
+
+        long[] timestamps = new long[4];
+
+        long[] users = new long[4];
+
+        long[] targets = new long[4];
+
+        String[] messages = new String[4];
+
+        int size;
+
+        /**
+         * number of open transactions scoped
+         */
+        int depth;
+
+        /**
+         * transaction the changes belong to or <b>null</b>
+         */
+        Transaction tx;
+
+        void add(
+                ChangeType type,
+                long timestamp,
+                long idUser,
+                long idTarget,
+                String message) {
+            if (size == types.length) {
+                int capacity = size * 2;
+                types = Arrays.copyOf(types, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                users = Arrays.copyOf(users, capacity);
+                targets = Arrays.copyOf(targets, capacity);
+                messages = Arrays.copyOf(messages, capacity);
+            }
+            types[size] = type;
+            timestamps[size] = timestamp;
+            users[size] = idUser;
+            targets[size] = idTarget;
+            messages[size] = message;
+            size += 1;
+        }
+
+        void clear() {
+            Arrays.fill(messages, 0, size, null);
+            size = 0;
+            tx = null;
+        }
+    }
+
+    /**
+     * transaction discarding the changes of its thread when the outermost
+     * transaction scoped is closed
+     */
+    private static class ScopedChanges extends ScopedTransaction {
+
+        private final PendingChanges _pendingChanges;
+
+        ScopedChanges(
+                Transaction tx,
+                PendingChanges pendingChanges) {
+            super(tx);
+            _pendingChanges = pendingChanges;
+        }
+
+        @Override
+        protected void closed() {
+            _pendingChanges.depth -= 1;
+            if (_pendingChanges.depth == 0) {
+                // no event is fired if closed without success
+                _pendingChanges.clear();
+            }
+        }
+    }
+}
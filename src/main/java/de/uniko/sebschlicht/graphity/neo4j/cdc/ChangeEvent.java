@@ -0,0 +1,82 @@
+package de.uniko.sebschlicht.graphity.neo4j.cdc;
+
+/**
+ * committed change to the social network graph
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ChangeEvent {
+
+    /**
+     * position of the change in the change log
+     */
+    private final long _sequence;
+
+    private final ChangeType _type;
+
+    /**
+     * timestamp of the change or of publishing for status updates
+     */
+    private final long _timestamp;
+
+    /**
+     * user that caused the change
+     */
+    private final long _idUser;
+
+    /**
+     * user or status update affected, depending on the change type
+     */
+    private final long _idTarget;
+
+    /**
+     * status update content or <b>null</b>
+     */
+    private final String _message;
+
+    public ChangeEvent(
+            long sequence,
+            ChangeType type,
+            long timestamp,
+            long idUser,
+            long idTarget,
+            String message) {
+        _sequence = sequence;
+        _type = type;
+        _timestamp = timestamp;
+        _idUser = idUser;
+        _idTarget = idTarget;
+        _message = message;
+    }
+
+    public long getSequence() {
+        return _sequence;
+    }
+
+    public ChangeType getType() {
+        return _type;
+    }
+
+    public long getTimestamp() {
+        return _timestamp;
+    }
+
+    public long getUser() {
+        return _idUser;
+    }
+
+    public long getTarget() {
+        return _idTarget;
+    }
+
+    public String getMessage() {
+        return _message;
+    }
+
+    @Override
+    public String toString() {
+        return _sequence + ":" + _type + "(" + _idUser + ", " + _idTarget
+                + ")";
+    }
+}
@@ -0,0 +1,19 @@
+package de.uniko.sebschlicht.graphity.neo4j.cdc;
+
+/**
+ * consumer of change events read from a change log
+ * 
+ * @author sebschlicht
+ * 
+ */
+public interface ChangeListener {
+
+    /**
+     * Handles a change event. Events are passed in the order of their
+     * sequence numbers.
+     * 
+     * @param event
+     *            change event
+     */
+    void onChange(ChangeEvent event);
+}
@@ -0,0 +1,459 @@
+package de.uniko.sebschlicht.graphity.neo4j.cdc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * durable append-only log of committed changes<br>
+ * Each change has a unique sequence number. Sequence numbers are reserved
+ * before a transaction commits, while the transaction still holds its locks,
+ * so changes of conflicting transactions are logged in commit order. The
+ * changes of a transaction are written once it has committed; sequence
+ * numbers of transactions rolled back are skipped. A frame on disk is
+ * 
+ * <pre>
+ * int body length, body, int CRC32 of the body
+ * body: long sequence, byte type, long timestamp, long user, long target,
+ *       int message length, byte[] message (UTF-8)
+ * </pre>
+ * 
+ * A frame torn by a crash is cut off when the log is opened.<br>
+ * <br>
+ * If a frame could not be written, the log is marked failed: the changes
+ * waiting are dropped and no further sequence numbers are reserved, so
+ * transactions recording changes fail instead of leaving a gap. The frames
+ * written before the failure can still be read.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ChangeLog implements AutoCloseable {
+
+    /**
+     * number of frames between two entries of the sparse offset index
+     */
+    private static final int INDEX_INTERVAL = 4096;
+
+    /**
+     * size of the frame fields preceding the message
+     */
+    private static final int FIXED_BODY_SIZE = 8 + 1 + 8 + 8 + 8 + 4;
+
+    private final FileChannel _channel;
+
+    /**
+     * whether to force the log to disk after each commit
+     */
+    private final boolean _sync;
+
+    /**
+     * sparse index mapping sequence numbers to frame offsets
+     */
+    private final TreeMap<Long, Long> _index = new TreeMap<Long, Long>();
+
+    /**
+     * changes of committed transactions waiting for preceding sequence
+     * numbers, <b>null</b> entries mark transactions rolled back
+     */
+    private final TreeMap<Long, ChangeEvent[]> _waiting =
+            new TreeMap<Long, ChangeEvent[]>();
+
+    /**
+     * number of sequence numbers reserved per waiting transaction
+     */
+    private final Map<Long, Integer> _reserved = new HashMap<Long, Integer>();
+
+    /**
+     * next sequence number to be reserved
+     */
+    private long _nextReserved;
+
+    /**
+     * next sequence number to be written
+     */
+    private long _nextWritten;
+
+    /**
+     * number of frames written
+     */
+    private long _numFrames;
+
+    /**
+     * size of the log up to the end of the last frame written
+     */
+    private volatile long _size;
+
+    /**
+     * sequence number of the last change written
+     */
+    private volatile long _lastSequence;
+
+    /**
+     * error that made the log fail or <b>null</b>
+     */
+    private volatile IOException _failure;
+
+    /**
+     * Opens a change log.
+     * 
+     * @param file
+     *            log file, created if missing
+     * @param sync
+     *            whether to force the log to disk after each commit
+     * @throws IOException
+     *             if the log could not be opened
+     */
+    public ChangeLog(
+            File file,
+            boolean sync) throws IOException {
+        _sync = sync;
+        _channel =
+                FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    /**
+     * Scans the log to restore the sequence counters and the offset index.
+     */
+    private void recover() throws IOException {
+        final long[] lastSequence = {
+            0
+        };
+        long validSize = scan(0, new FrameHandler() {
+
+            @Override
+            public boolean onFrame(long offset, ByteBuffer body) {
+                lastSequence[0] = body.getLong(0);
+                if (_numFrames % INDEX_INTERVAL == 0) {
+                    _index.put(lastSequence[0], offset);
+                }
+                _numFrames += 1;
+                return true;
+            }
+        }, _channel.size());
+        if (validSize < _channel.size()) {
+            _channel.truncate(validSize);
+        }
+        _size = validSize;
+        _lastSequence = lastSequence[0];
+        _nextReserved = _lastSequence + 1;
+        _nextWritten = _nextReserved;
+    }
+
+    /**
+     * Reserves sequence numbers for the changes of a transaction about to
+     * commit.
+     * 
+     * @param numChanges
+     *            number of changes
+     * @return first sequence number reserved
+     * @throws IllegalStateException
+     *             if the log has failed
+     */
+    public synchronized long reserve(int numChanges) {
+        if (_failure != null) {
+            throw new IllegalStateException("change log failed", _failure);
+        }
+        long first = _nextReserved;
+        _nextReserved += numChanges;
+        _reserved.put(first, numChanges);
+        return first;
+    }
+
+    /**
+     * Logs the changes of a committed transaction.
+     * 
+     * @param first
+     *            first sequence number reserved
+     * @param changes
+     *            changes in the order of the reserved sequence numbers
+     * @throws IOException
+     *             if the log could not be written or has failed
+     */
+    public synchronized void commit(long first, ChangeEvent[] changes)
+            throws IOException {
+        checkFailure();
+        _waiting.put(first, changes);
+        drain();
+    }
+
+    /**
+     * Releases the sequence numbers of a transaction rolled back.
+     * 
+     * @param first
+     *            first sequence number reserved
+     * @throws IOException
+     *             if changes waiting for the sequence numbers could not be
+     *             written or the log has failed
+     */
+    public synchronized void abort(long first) throws IOException {
+        checkFailure();
+        _waiting.put(first, null);
+        drain();
+    }
+
+    private void checkFailure() throws IOException {
+        if (_failure != null) {
+            throw new IOException("change log failed", _failure);
+        }
+    }
+
+    /**
+     * Writes the changes waiting that have no gap to the changes written.
+     * Marks the log failed if a change could not be written.
+     */
+    private void drain() throws IOException {
+        boolean isWritten = false;
+        Map.Entry<Long, ChangeEvent[]> next;
+        try {
+            while ((next = _waiting.firstEntry()) != null
+                    && next.getKey() == _nextWritten) {
+                _waiting.pollFirstEntry();
+                int numReserved = _reserved.remove(next.getKey());
+                if (next.getValue() != null) {
+                    for (ChangeEvent change : next.getValue()) {
+                        write(change);
+                    }
+                    isWritten = true;
+                }
+                _nextWritten += numReserved;
+            }
+            if (isWritten && _sync) {
+                _channel.force(false);
+            }
+        } catch (IOException e) {
+            // the sequence can not continue without a gap
+            _failure = e;
+            _waiting.clear();
+            _reserved.clear();
+            notifyAll();
+            throw e;
+        }
+        if (isWritten) {
+            notifyAll();
+        }
+    }
+
+    private void write(ChangeEvent change) throws IOException {
+        byte[] message =
+                (change.getMessage() != null) ? change.getMessage().getBytes(
+                        StandardCharsets.UTF_8) : new byte[0];
+        int bodyLength = FIXED_BODY_SIZE + message.length;
+        ByteBuffer frame = ByteBuffer.allocate(4 + bodyLength + 4);
+        frame.putInt(bodyLength);
+        frame.putLong(change.getSequence());
+        frame.put((byte) change.getType().ordinal());
+        frame.putLong(change.getTimestamp());
+        frame.putLong(change.getUser());
+        frame.putLong(change.getTarget());
+        frame.putInt(message.length);
+        frame.put(message);
+        CRC32 crc = new CRC32();
+        crc.update(frame.array(), 4, bodyLength);
+        frame.putInt((int) crc.getValue());
+        frame.flip();
+
+        long offset = _size;
+        while (frame.hasRemaining()) {
+            _channel.write(frame, offset + frame.position());
+        }
+        if (_numFrames % INDEX_INTERVAL == 0) {
+            _index.put(change.getSequence(), offset);
+        }
+        _numFrames += 1;
+        _size = offset + 4 + bodyLength + 4;
+        _lastSequence = change.getSequence();
+    }
+
+    /**
+     * Reads changes from the log.
+     * 
+     * @param afterSequence
+     *            sequence number to read the changes after
+     * @param maxChanges
+     *            maximum number of changes to read
+     * @param listener
+     *            listener receiving the changes
+     * @return sequence number of the last change read or
+     *         <code>afterSequence</code> if there are no changes
+     * @throws IOException
+     *             if the log could not be read
+     */
+    public long read(
+            final long afterSequence,
+            final int maxChanges,
+            final ChangeListener listener) throws IOException {
+        long offset;
+        synchronized (this) {
+            Map.Entry<Long, Long> start = _index.floorEntry(afterSequence);
+            offset = (start != null) ? start.getValue() : 0;
+        }
+        final long[] lastSequence = {
+            afterSequence
+        };
+        final int[] numRead = {
+            0
+        };
+        scan(offset, new FrameHandler() {
+
+            @Override
+            public boolean onFrame(long offset, ByteBuffer body) {
+                long sequence = body.getLong();
+                if (sequence <= afterSequence) {
+                    return true;
+                }
+                ChangeType type = ChangeType.fromCode(body.get());
+                long timestamp = body.getLong();
+                long idUser = body.getLong();
+                long idTarget = body.getLong();
+                int messageLength = body.getInt();
+                String message = null;
+                if (type == ChangeType.POST_CREATED) {
+                    message =
+                            new String(body.array(), body.position(),
+                                    messageLength, StandardCharsets.UTF_8);
+                }
+                listener.onChange(new ChangeEvent(sequence, type, timestamp,
+                        idUser, idTarget, message));
+                lastSequence[0] = sequence;
+                numRead[0] += 1;
+                return (numRead[0] < maxChanges);
+            }
+        }, _size);
+        return lastSequence[0];
+    }
+
+    /**
+     * Waits for changes after a sequence number to be written.
+     * 
+     * @param afterSequence
+     *            sequence number of the last change known
+     * @param timeout
+     *            maximum time to wait in milliseconds
+     * @return true - if there are changes after the sequence number
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     * @throws IOException
+     *             if the log has failed and there are no further changes
+     */
+    public synchronized boolean awaitChanges(long afterSequence, long timeout)
+            throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (_lastSequence <= afterSequence && _failure == null
+                && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        if (_lastSequence > afterSequence) {
+            return true;
+        }
+        checkFailure();
+        return false;
+    }
+
+    /**
+     * @return error that made the log fail<br>
+     *         <b>null</b> - if the log has not failed
+     */
+    public IOException getFailure() {
+        return _failure;
+    }
+
+    /**
+     * @return sequence number of the last change written<br>
+     *         <code>0</code> - if the log is empty
+     */
+    public long getLastSequence() {
+        return _lastSequence;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        _channel.close();
+    }
+
+    /**
+     * Scans the frames of the log.
+     * 
+     * @param offset
+     *            offset of the first frame to scan
+     * @param handler
+     *            handler receiving the frames
+     * @param size
+     *            size of the log to scan
+     * @return offset of the end of the last valid frame scanned
+     */
+    private long scan(long offset, FrameHandler handler, long size)
+            throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        ByteBuffer body = ByteBuffer.allocate(256);
+        ByteBuffer checksum = ByteBuffer.allocate(4);
+        CRC32 crc = new CRC32();
+        while (offset + 4 <= size) {
+            if (!readFully(length, 4, offset)) {
+                break;
+            }
+            int bodyLength = length.getInt(0);
+            if (bodyLength < FIXED_BODY_SIZE
+                    || offset + 4 + bodyLength + 4 > size) {
+                break;
+            }
+            if (body.capacity() < bodyLength) {
+                body = ByteBuffer.allocate(Math.max(bodyLength,
+                        body.capacity() * 2));
+            }
+            if (!readFully(body, bodyLength, offset + 4)
+                    || !readFully(checksum, 4, offset + 4 + bodyLength)) {
+                break;
+            }
+            crc.reset();
+            crc.update(body.array(), 0, bodyLength);
+            if ((int) crc.getValue() != checksum.getInt(0)) {
+                break;
+            }
+            body.position(0);
+            if (!handler.onFrame(offset, body)) {
+                return offset + 4 + bodyLength + 4;
+            }
+            offset += 4 + bodyLength + 4;
+        }
+        return offset;
+    }
+
+    private boolean readFully(ByteBuffer buffer, int length, long offset)
+            throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (_channel.read(buffer, offset + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * handler of the frames scanned
+     */
+    private interface FrameHandler {
+
+        /**
+         * @param offset
+         *            frame offset
+         * @param body
+         *            frame body, positioned at its start
+         * @return true - to continue scanning
+         */
+        boolean onFrame(long offset, ByteBuffer body);
+    }
+}
@@ -0,0 +1,111 @@
+package de.uniko.sebschlicht.graphity.neo4j.cdc;
+
+import java.io.IOException;
+
+import de.uniko.sebschlicht.graphity.neo4j.maintenance.ProgressCheckpoint;
+
+/**
+ * consumer of a change log with a durable offset<br>
+ * The offset is the sequence number of the last change the consumer has
+ * processed. It is persisted on {@link #commit()} only, so a restarted
+ * consumer receives the changes processed after the last commit again.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ChangeLogConsumer {
+
+    /**
+     * change log to consume
+     */
+    private final ChangeLog _log;
+
+    /**
+     * checkpoint holding the committed offset
+     */
+    private final ProgressCheckpoint _checkpoint;
+
+    /**
+     * sequence number of the last change passed to the listener
+     */
+    private long _offset;
+
+    /**
+     * Creates a consumer continuing at its committed offset.
+     * 
+     * @param log
+     *            change log to consume
+     * @param checkpoint
+     *            checkpoint holding the consumer's offset
+     * @throws IOException
+     *             if the checkpoint could not be read
+     */
+    public ChangeLogConsumer(
+            ChangeLog log,
+            ProgressCheckpoint checkpoint) throws IOException {
+        _log = log;
+        _checkpoint = checkpoint;
+        _offset = Math.max(checkpoint.load(), 0);
+    }
+
+    /**
+     * Passes the next changes to a listener.
+     * 
+     * @param maxChanges
+     *            maximum number of changes to pass
+     * @param listener
+     *            listener receiving the changes
+     * @return number of changes passed
+     * @throws IOException
+     *             if the log could not be read
+     */
+    public int poll(int maxChanges, final ChangeListener listener)
+            throws IOException {
+        final int[] numChanges = {
+            0
+        };
+        _offset = _log.read(_offset, maxChanges, new ChangeListener() {
+
+            @Override
+            public void onChange(ChangeEvent event) {
+                listener.onChange(event);
+                numChanges[0] += 1;
+            }
+        });
+        return numChanges[0];
+    }
+
+    /**
+     * Persists the offset of the last change passed.
+     * 
+     * @throws IOException
+     *             if the checkpoint could not be written
+     */
+    public void commit() throws IOException {
+        _checkpoint.save(_offset);
+    }
+
+    /**
+     * Moves the consumer to replay changes.
+     * 
+     * @param sequence
+     *            sequence number of the first change to be passed next
+     */
+    public void seek(long sequence) {
+        _offset = Math.max(sequence - 1, 0);
+    }
+
+    /**
+     * @return sequence number of the last change passed
+     */
+    public long getOffset() {
+        return _offset;
+    }
+
+    /**
+     * @return number of changes logged but not passed yet
+     */
+    public long getLag() {
+        return _log.getLastSequence() - _offset;
+    }
+}
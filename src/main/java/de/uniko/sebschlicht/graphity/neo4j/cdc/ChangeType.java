@@ -0,0 +1,49 @@
+package de.uniko.sebschlicht.graphity.neo4j.cdc;
+
+/**
+ * type of a change to the social network graph
+ * 
+ * @author sebschlicht
+ * 
+ */
+public enum ChangeType {
+
+    /**
+     * user created, target unused
+     */
+    USER_CREATED,
+
+    /**
+     * status update created, target is the status update identifier
+     */
+    POST_CREATED,
+
+    /**
+     * followship added, target is the user followed
+     */
+    FOLLOW_ADDED,
+
+    /**
+     * followship removed, target is the user unfollowed
+     */
+    FOLLOW_REMOVED,
+
+    /**
+     * user removed, target unused
+     */
+    USER_REMOVED;
+
+    private static final ChangeType[] VALUES = values();
+
+    /**
+     * @param code
+     *            ordinal persisted
+     * @return change type with the ordinal specified
+     */
+    public static ChangeType fromCode(int code) {
+        if (code < 0 || code >= VALUES.length) {
+            throw new IllegalArgumentException("unknown change type " + code);
+        }
+        return VALUES[code];
+    }
+}
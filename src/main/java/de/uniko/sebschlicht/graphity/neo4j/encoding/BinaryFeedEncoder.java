@@ -0,0 +1,171 @@
+package de.uniko.sebschlicht.graphity.neo4j.encoding;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import de.uniko.sebschlicht.graphity.neo4j.FeedSink;
+
+/**
+ * encoder writing a news feed into a byte buffer while it is read<br>
+ * Messages are encoded into the buffer directly, without intermediate
+ * status update objects or byte arrays. The buffer's byte order is used. An
+ * encoded feed is
+ * 
+ * <pre>
+ * int magic, int number of status updates, status update*
+ * status update: long author, long published, int message length,
+ *                byte[] message (UTF-8)
+ * </pre>
+ * 
+ * If the buffer is too small, the feed is truncated after the last status
+ * update that fitted entirely.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class BinaryFeedEncoder implements FeedSink {
+
+    /**
+     * magic number starting each encoded feed
+     */
+    public static final int MAGIC = 0x47464431;
+
+    /**
+     * size of the status update fields preceding the message
+     */
+    private static final int FIXED_RECORD_SIZE = 8 + 8 + 4;
+
+    private final CharsetEncoder _encoder = StandardCharsets.UTF_8
+            .newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private ByteBuffer _buffer;
+
+    /**
+     * position of the feed header in the buffer
+     */
+    private int _start;
+
+    private int _size;
+
+    private boolean _isTruncated;
+
+    /**
+     * Starts to encode a feed at the current position of a buffer. The
+     * encoder can be reused for any number of feeds.
+     * 
+     * @param buffer
+     *            buffer to write the feed to
+     * @throws BufferOverflowException
+     *             if the buffer can not hold the feed header
+     */
+    public void begin(ByteBuffer buffer) {
+        _buffer = buffer;
+        _start = buffer.position();
+        _size = 0;
+        _isTruncated = false;
+        buffer.putInt(MAGIC);
+        buffer.putInt(0);
+    }
+
+    @Override
+    public void add(long idAuthor, long published, String message) {
+        if (_isTruncated) {
+            return;
+        }
+        int recordStart = _buffer.position();
+        if (_buffer.remaining() < FIXED_RECORD_SIZE) {
+            _isTruncated = true;
+            return;
+        }
+        _buffer.putLong(idAuthor);
+        _buffer.putLong(published);
+        int lengthPosition = _buffer.position();
+        _buffer.position(lengthPosition + 4);
+        _encoder.reset();
+        CoderResult result =
+                _encoder.encode(CharBuffer.wrap(message), _buffer, true);
+        if (!result.isOverflow()) {
+            result = _encoder.flush(_buffer);
+        }
+        if (result.isOverflow()) {
+            _buffer.position(recordStart);
+            _isTruncated = true;
+            return;
+        }
+        _buffer.putInt(lengthPosition,
+                _buffer.position() - lengthPosition - 4);
+        _size += 1;
+    }
+
+    /**
+     * Completes the feed. The buffer is positioned after the feed.
+     * 
+     * @return number of bytes written
+     */
+    public int finish() {
+        _buffer.putInt(_start + 4, _size);
+        int length = _buffer.position() - _start;
+        _buffer = null;
+        return length;
+    }
+
+    /**
+     * @return number of status updates encoded
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return true - if status updates have been dropped as the buffer was
+     *         full
+     */
+    public boolean isTruncated() {
+        return _isTruncated;
+    }
+
+    /**
+     * Decodes a feed, starting at the current position of a buffer. The
+     * buffer is positioned after the feed.
+     * 
+     * @param buffer
+     *            buffer holding the feed, in the byte order it was written
+     *            in
+     * @param feed
+     *            sink receiving the status updates
+     * @return number of status updates decoded
+     * @throws IllegalArgumentException
+     *             if the buffer does not hold a feed at its position
+     */
+    public static int decode(ByteBuffer buffer, FeedSink feed) {
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("no encoded feed at position "
+                    + (buffer.position() - 4));
+        }
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        int size = buffer.getInt();
+        for (int i = 0; i < size; ++i) {
+            long idAuthor = buffer.getLong();
+            long published = buffer.getLong();
+            int length = buffer.getInt();
+            ByteBuffer message = buffer.slice();
+            message.limit(length);
+            buffer.position(buffer.position() + length);
+            try {
+                feed.add(idAuthor, published, decoder.decode(message)
+                        .toString());
+            } catch (CharacterCodingException e) {
+                throw new IllegalArgumentException("malformed message", e);
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,127 @@
+package de.uniko.sebschlicht.graphity.neo4j.encoding;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import de.uniko.sebschlicht.graphity.neo4j.FeedSink;
+
+/**
+ * encoder streaming a news feed as JSON while it is read<br>
+ * Status updates are written to the stream directly, without intermediate
+ * status update objects, maps or strings. A feed is encoded as an array of
+ * objects with the fields of a status update:
+ * 
+ * <pre>
+ * [{"author":"1","published":1400000000000,"message":"hello"}, ...]
+ * </pre>
+ * 
+ * Errors of the stream are deferred to {@link #finish()}, as sinks must not
+ * throw checked exceptions.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class JsonFeedEncoder implements FeedSink {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer _writer;
+
+    private int _size;
+
+    /**
+     * first error of the stream
+     */
+    private IOException _error;
+
+    /**
+     * Creates an encoder writing a single feed to a stream.
+     * 
+     * @param out
+     *            stream to write the feed to, encoded in UTF-8
+     */
+    public JsonFeedEncoder(
+            OutputStream out) {
+        _writer =
+                new BufferedWriter(new OutputStreamWriter(out,
+                        StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void add(long idAuthor, long published, String message) {
+        if (_error != null) {
+            return;
+        }
+        try {
+            _writer.write((_size == 0) ? "[{\"author\":\"" : ",{\"author\":\"");
+            _writer.write(Long.toString(idAuthor));
+            _writer.write("\",\"published\":");
+            _writer.write(Long.toString(published));
+            _writer.write(",\"message\":\"");
+            writeEscaped(message);
+            _writer.write("\"}");
+            _size += 1;
+        } catch (IOException e) {
+            _error = e;
+        }
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        int length = value.length();
+        int unescaped = 0;
+        for (int i = 0; i < length; ++i) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != 0x2028
+                    && c != 0x2029) {
+                continue;
+            }
+            _writer.write(value, unescaped, i - unescaped);
+            unescaped = i + 1;
+            switch (c) {
+                case '"':
+                    _writer.write("\\\"");
+                    break;
+                case '\\':
+                    _writer.write("\\\\");
+                    break;
+                case '\n':
+                    _writer.write("\\n");
+                    break;
+                case '\r':
+                    _writer.write("\\r");
+                    break;
+                case '\t':
+                    _writer.write("\\t");
+                    break;
+                default:
+                    _writer.write("\\u");
+                    _writer.write(HEX[(c >> 12) & 0xF]);
+                    _writer.write(HEX[(c >> 8) & 0xF]);
+                    _writer.write(HEX[(c >> 4) & 0xF]);
+                    _writer.write(HEX[c & 0xF]);
+            }
+        }
+        _writer.write(value, unescaped, length - unescaped);
+    }
+
+    /**
+     * Completes the feed and flushes it to the stream. The stream is not
+     * closed.
+     * 
+     * @return number of status updates encoded
+     * @throws IOException
+     *             if the feed could not be written to the stream
+     */
+    public int finish() throws IOException {
+        if (_error != null) {
+            throw _error;
+        }
+        _writer.write((_size == 0) ? "[]" : "]");
+        _writer.flush();
+        return _size;
+    }
+}
@@ -1,7 +1,9 @@
 package de.uniko.sebschlicht.graphity.neo4j.impl;
 
 import java.io.File;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
@@ -15,15 +17,21 @@ import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import de.uniko.sebschlicht.graphity.exception.IllegalUserIdException;
 import de.uniko.sebschlicht.graphity.exception.UnknownReaderIdException;
 import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.FeedFilter;
+import de.uniko.sebschlicht.graphity.neo4j.FeedRanker;
+import de.uniko.sebschlicht.graphity.neo4j.FeedSink;
 import de.uniko.sebschlicht.graphity.neo4j.Neo4jGraphity;
 import de.uniko.sebschlicht.graphity.neo4j.NodeType;
+import de.uniko.sebschlicht.graphity.neo4j.RankedFeed;
 import de.uniko.sebschlicht.graphity.neo4j.Walker;
-import de.uniko.sebschlicht.graphity.neo4j.model.PostIteratorComparator;
+import de.uniko.sebschlicht.graphity.neo4j.model.PostCursor;
+import de.uniko.sebschlicht.graphity.neo4j.model.PostCursorHeap;
+import de.uniko.sebschlicht.graphity.neo4j.model.ReplicaCursor;
 import de.uniko.sebschlicht.graphity.neo4j.model.StatusUpdateProxy;
-import de.uniko.sebschlicht.graphity.neo4j.model.UserPostIterator;
+import de.uniko.sebschlicht.graphity.neo4j.model.UserCursor;
 import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats;
 import de.uniko.sebschlicht.socialnet.StatusUpdate;
-import de.uniko.sebschlicht.socialnet.StatusUpdateList;
 
 /**
  * Graphity implementation optimized for read requests
@@ -33,6 +41,42 @@ import de.uniko.sebschlicht.socialnet.StatusUpdateList;
  */
 public class ReadOptimizedGraphity extends Neo4jGraphity {
 
+    /**
+     * replica cursor reused by the requests of a thread
+     */
+    private final ThreadLocal<ReplicaCursor> _replicaCursors =
+            new ThreadLocal<ReplicaCursor>() {
+
+                @Override
+                protected ReplicaCursor initialValue() {
+                    return new ReplicaCursor(_edgePointers);
+                }
+            };
+
+    /**
+     * replica layer editor reused by the followship requests of a thread
+     */
+    private final ThreadLocal<ReplicaLayer> _replicaLayers =
+            new ThreadLocal<ReplicaLayer>() {
+
+                @Override
+                protected ReplicaLayer initialValue() {
+                    return new ReplicaLayer(_edgePointers);
+                }
+            };
+
+    /**
+     * lock list reused by the status update requests of a thread
+     */
+    private final ThreadLocal<UserLockList> _lockLists =
+            new ThreadLocal<UserLockList>() {
+
+                @Override
+                protected UserLockList initialValue() {
+                    return new UserLockList(16);
+                }
+            };
+
     public ReadOptimizedGraphity(
             GraphDatabaseService graphDb) {
         super(graphDb);
@@ -44,9 +88,10 @@ public class ReadOptimizedGraphity extends Neo4jGraphity {
         Node followedReplica = null;
         for (Relationship followship : nFollowing.getRelationships(
                 EdgeType.FOLLOWS, Direction.OUTGOING)) {
+            TraversalStats.relationshipTraversed();
             followedReplica = followship.getEndNode();
-            if (Walker.nextNode(followedReplica, EdgeType.REPLICA).equals(
-                    nFollowed)) {
+            if (Walker.nextNode(followedReplica, EdgeType.REPLICA,
+                    _edgePointers).equals(nFollowed)) {
                 // user is following already
                 return false;
             }
@@ -54,68 +99,117 @@ public class ReadOptimizedGraphity extends Neo4jGraphity {
 
         // create replica
         final Node newReplica = graphDb.createNode();
+        _edgePointers.invalidate(newReplica, EdgeType.REPLICA);
+        _edgePointers.invalidate(newReplica, EdgeType.GRAPHITY);
         nFollowing.createRelationshipTo(newReplica, EdgeType.FOLLOWS);
         newReplica.createRelationshipTo(nFollowed, EdgeType.REPLICA);
 
         // check if followed user is the first in following's ego network
         if (Walker.nextNode(nFollowing, EdgeType.GRAPHITY) == null) {
+            _edgePointers.invalidate(nFollowing, EdgeType.GRAPHITY);
             nFollowing.createRelationshipTo(newReplica, EdgeType.GRAPHITY);
         } else {
             // search for insertion index within following replica layer
-            final long followedTimestamp = getLastUpdateByReplica(newReplica);
-            long crrTimestamp;
+            TraversalStats.propertyRead();
+            final long followedTimestamp =
+                    (long) nFollowed.getProperty(
+                            UserProxy.PROP_LAST_STREAM_UDPATE, 0L);
+            ReplicaCursor nextReplica = _replicaCursors.get();
             Node prevReplica = nFollowing;
-            Node nextReplica = null;
-            while (true) {
-                // get next user
-                nextReplica = Walker.nextNode(prevReplica, EdgeType.GRAPHITY);
-                if (nextReplica != null) {
-                    crrTimestamp = getLastUpdateByReplica(nextReplica);
-                    // step on if current user has newer status updates
-                    if (crrTimestamp > followedTimestamp) {
-                        prevReplica = nextReplica;
-                        continue;
-                    }
+            try {
+                nextReplica.reset(Walker.nextNode(prevReplica,
+                        EdgeType.GRAPHITY));
+                // step on while current user has newer status updates
+                while (nextReplica.isValid()
+                        && nextReplica.getFollowed().getLastPostTimestamp()
+                                > followedTimestamp) {
+                    prevReplica = nextReplica.getNode();
+                    nextReplica.advance();
                 }
-                // insertion position has been found
-                break;
-            }
-            // insert followed user's replica into following's ego network
-            if (nextReplica != null) {
-                prevReplica.getSingleRelationship(EdgeType.GRAPHITY,
-                        Direction.OUTGOING).delete();
-                newReplica.createRelationshipTo(nextReplica, EdgeType.GRAPHITY);
+                // insert followed user's replica into following's ego network
+                if (nextReplica.isValid()) {
+                    prevReplica.getSingleRelationship(EdgeType.GRAPHITY,
+                            Direction.OUTGOING).delete();
+                    newReplica.createRelationshipTo(nextReplica.getNode(),
+                            EdgeType.GRAPHITY);
+                }
+            } finally {
+                nextReplica.release();
             }
+            _edgePointers.invalidate(prevReplica, EdgeType.GRAPHITY);
             prevReplica.createRelationshipTo(newReplica, EdgeType.GRAPHITY);
         }
         return true;
     }
 
     /**
-     * remove a followed user from the replica layer
-     * 
-     * @param followedReplica
-     *            replica of the user that will be removed
+     * Creates the replicas of all users followed and merges them into the
+     * replica layer with a single sort and relink pass.
      */
-    private void removeFromReplicaLayer(final Node followedReplica) {
-        final Node prev =
-                Walker.previousNode(followedReplica, EdgeType.GRAPHITY);
-        final Node next = Walker.nextNode(followedReplica, EdgeType.GRAPHITY);
-        // bridge the user replica in the replica layer
-        prev.getSingleRelationship(EdgeType.GRAPHITY, Direction.OUTGOING)
-                .delete();
-        if (next != null) {
-            next.getSingleRelationship(EdgeType.GRAPHITY, Direction.INCOMING)
-                    .delete();
-            prev.createRelationshipTo(next, EdgeType.GRAPHITY);
+    @Override
+    protected boolean[] addFollowships(Node nFollowing, Node[] nFollowed) {
+        boolean[] isAdded = new boolean[nFollowed.length];
+        // collect the users followed already
+        long[] followedIds = new long[16];
+        int numFollowed = 0;
+        for (Relationship followship : nFollowing.getRelationships(
+                EdgeType.FOLLOWS, Direction.OUTGOING)) {
+            TraversalStats.relationshipTraversed();
+            if (numFollowed == followedIds.length) {
+                followedIds = Arrays.copyOf(followedIds, numFollowed * 2);
+            }
+            followedIds[numFollowed] =
+                    Walker.nextNode(followship.getEndNode(), EdgeType.REPLICA,
+                            _edgePointers).getId();
+            numFollowed += 1;
+        }
+        Arrays.sort(followedIds, 0, numFollowed);
+        // users of the batch, to skip users listed more than once
+        long[] batchIds = new long[nFollowed.length];
+        for (int i = 0; i < nFollowed.length; ++i) {
+            batchIds[i] = nFollowed[i].getId();
+        }
+        Arrays.sort(batchIds);
+        boolean[] isBatchTaken = new boolean[batchIds.length];
+
+        ReplicaLayer replicaLayer = _replicaLayers.get();
+        try {
+            replicaLayer.load(nFollowing);
+            int numAdded = 0;
+            for (int i = 0; i < nFollowed.length; ++i) {
+                long idFollowed = nFollowed[i].getId();
+                if (Arrays.binarySearch(followedIds, 0, numFollowed,
+                        idFollowed) >= 0) {
+                    continue;
+                }
+                int batchIndex = Arrays.binarySearch(batchIds, idFollowed);
+                while (batchIndex > 0
+                        && batchIds[batchIndex - 1] == idFollowed) {
+                    batchIndex -= 1;
+                }
+                if (isBatchTaken[batchIndex]) {
+                    continue;
+                }
+                isBatchTaken[batchIndex] = true;
+                // create replica
+                Node newReplica = graphDb.createNode();
+                _edgePointers.invalidate(newReplica, EdgeType.REPLICA);
+                _edgePointers.invalidate(newReplica, EdgeType.GRAPHITY);
+                nFollowing.createRelationshipTo(newReplica, EdgeType.FOLLOWS);
+                newReplica.createRelationshipTo(nFollowed[i],
+                        EdgeType.REPLICA);
+                replicaLayer.add(newReplica,
+                        new UserProxy(nFollowed[i]).getLastPostTimestamp());
+                isAdded[i] = true;
+                numAdded += 1;
+            }
+            if (numAdded > 0) {
+                replicaLayer.link(nFollowing);
+            }
+        } finally {
+            replicaLayer.clear();
         }
-        // remove the followship
-        followedReplica.getSingleRelationship(EdgeType.FOLLOWS,
-                Direction.INCOMING).delete();
-        // remove the replica node itself
-        followedReplica.getSingleRelationship(EdgeType.REPLICA,
-                Direction.OUTGOING).delete();
-        followedReplica.delete();
+        return isAdded;
     }
 
     @Override
@@ -124,9 +218,10 @@ public class ReadOptimizedGraphity extends Neo4jGraphity {
         Node followedReplica = null;
         for (Relationship followship : nFollowing.getRelationships(
                 EdgeType.FOLLOWS, Direction.OUTGOING)) {
+            TraversalStats.relationshipTraversed();
             followedReplica = followship.getEndNode();
-            if (Walker.nextNode(followedReplica, EdgeType.REPLICA).equals(
-                    nFollowed)) {
+            if (Walker.nextNode(followedReplica, EdgeType.REPLICA,
+                    _edgePointers).equals(nFollowed)) {
                 break;
             }
             followedReplica = null;
@@ -135,10 +230,93 @@ public class ReadOptimizedGraphity extends Neo4jGraphity {
         if (followedReplica == null) {
             return false;
         }
-        removeFromReplicaLayer(followedReplica);
+        ReplicaLayer replicaLayer = _replicaLayers.get();
+        try {
+            replicaLayer.remove(followedReplica);
+        } finally {
+            replicaLayer.clear();
+        }
         return true;
     }
 
+    @Override
+    protected int removeFollowships(
+            Node nUser,
+            int maxFollowships,
+            Transaction tx) {
+        List<Node> replicas = new ArrayList<Node>();
+        // replicas in the user's ego network
+        for (Relationship followship : nUser.getRelationships(
+                EdgeType.FOLLOWS, Direction.OUTGOING)) {
+            TraversalStats.relationshipTraversed();
+            if (replicas.size() == maxFollowships) {
+                break;
+            }
+            replicas.add(followship.getEndNode());
+        }
+        int numOwnReplicas = replicas.size();
+        // replicas in the ego networks of the user's followers
+        for (Relationship replication : nUser.getRelationships(
+                EdgeType.REPLICA, Direction.INCOMING)) {
+            TraversalStats.relationshipTraversed();
+            if (replicas.size() == maxFollowships) {
+                break;
+            }
+            replicas.add(replication.getStartNode());
+        }
+
+        // lock the users followed and following in the global order
+        UserLockList neighbours = _lockLists.get();
+        try {
+            for (int i = 0; i < replicas.size(); ++i) {
+                Node nReplica = replicas.get(i);
+                if (i < numOwnReplicas) {
+                    neighbours.add(Walker.nextNode(nReplica,
+                            EdgeType.REPLICA, _edgePointers));
+                } else {
+                    neighbours.add(Walker.previousNode(nReplica,
+                            EdgeType.FOLLOWS));
+                }
+            }
+            neighbours.lockAll(tx);
+        } finally {
+            neighbours.clear();
+        }
+
+        for (int i = 0; i < numOwnReplicas; ++i) {
+            // the user's ego network is dropped as a whole
+            Node nReplica = replicas.get(i);
+            Node nFollowed =
+                    Walker.nextNode(nReplica, EdgeType.REPLICA, _edgePointers);
+            _edgePointers.invalidate(nReplica, EdgeType.GRAPHITY);
+            _edgePointers.invalidate(nReplica, EdgeType.REPLICA);
+            for (Relationship relationship : nReplica.getRelationships()) {
+                TraversalStats.relationshipTraversed();
+                if (relationship.isType(EdgeType.GRAPHITY)) {
+                    _edgePointers.invalidate(relationship.getStartNode(),
+                            EdgeType.GRAPHITY);
+                }
+                relationship.delete();
+            }
+            nReplica.delete();
+            new UserProxy(nFollowed).updateNumFollowers(-1);
+        }
+        ReplicaLayer replicaLayer = _replicaLayers.get();
+        try {
+            for (int i = numOwnReplicas; i < replicas.size(); ++i) {
+                // bridge the replica in the follower's ego network
+                Node nReplica = replicas.get(i);
+                Node nFollowing =
+                        Walker.previousNode(nReplica, EdgeType.FOLLOWS);
+                replicaLayer.remove(nReplica);
+                new UserProxy(nFollowing).updateNumFollowing(-1);
+            }
+        } finally {
+            replicaLayer.clear();
+        }
+        return replicas.size();
+    }
+
     /**
      * update the ego networks of a user's followers
      * 
@@ -146,41 +324,56 @@ public class ReadOptimizedGraphity extends Neo4jGraphity {
      *            user where changes have occurred
      */
     private void updateEgoNetworks(final Node user) {
-        Node followedReplica, followingUser, lastPosterReplica;
+        ReplicaCursor followedReplica = _replicaCursors.get();
+        Node followingUser, lastPosterReplica;
         Node prevReplica, nextReplica;
-        // loop through followers
-        for (Relationship relationship : user.getRelationships(
-                EdgeType.REPLICA, Direction.INCOMING)) {
-            // load each replica and the user corresponding
-            followedReplica = relationship.getStartNode();
-            followingUser =
-                    Walker.previousNode(followedReplica, EdgeType.FOLLOWS);
-            // bridge user node
-            prevReplica =
-                    Walker.previousNode(followedReplica, EdgeType.GRAPHITY);
-            if (!prevReplica.equals(followingUser)) {
-                followedReplica.getSingleRelationship(EdgeType.GRAPHITY,
-                        Direction.INCOMING).delete();
-                nextReplica =
-                        Walker.nextNode(followedReplica, EdgeType.GRAPHITY);
-                if (nextReplica != null) {
-                    followedReplica.getSingleRelationship(EdgeType.GRAPHITY,
-                            Direction.OUTGOING).delete();
-                    prevReplica.createRelationshipTo(nextReplica,
+        try {
+            // loop through followers
+            for (Relationship relationship : user.getRelationships(
+                    EdgeType.REPLICA, Direction.INCOMING)) {
+                TraversalStats.relationshipTraversed();
+                // load each replica and the user corresponding
+                followedReplica.reset(relationship.getStartNode());
+                followingUser = followedReplica.getFollowing();
+                // bridge user node
+                prevReplica =
+                        Walker.previousNode(followedReplica.getNode(),
+                                EdgeType.GRAPHITY);
+                if (!prevReplica.equals(followingUser)) {
+                    _edgePointers.invalidate(prevReplica, EdgeType.GRAPHITY);
+                    _edgePointers.invalidate(followedReplica.getNode(),
                             EdgeType.GRAPHITY);
+                    followedReplica.getNode()
+                            .getSingleRelationship(EdgeType.GRAPHITY,
+                                    Direction.INCOMING).delete();
+                    nextReplica =
+                            Walker.nextNode(followedReplica.getNode(),
+                                    EdgeType.GRAPHITY);
+                    if (nextReplica != null) {
+                        followedReplica.getNode()
+                                .getSingleRelationship(EdgeType.GRAPHITY,
+                                        Direction.OUTGOING).delete();
+                        prevReplica.createRelationshipTo(nextReplica,
+                                EdgeType.GRAPHITY);
+                    }
+                }
+                // insert user's replica at its new position
+                lastPosterReplica =
+                        Walker.nextNode(followingUser, EdgeType.GRAPHITY);
+                if (!lastPosterReplica.equals(followedReplica.getNode())) {
+                    _edgePointers.invalidate(followingUser, EdgeType.GRAPHITY);
+                    _edgePointers.invalidate(followedReplica.getNode(),
+                            EdgeType.GRAPHITY);
+                    followingUser.getSingleRelationship(EdgeType.GRAPHITY,
+                            Direction.OUTGOING).delete();
+                    followingUser.createRelationshipTo(
+                            followedReplica.getNode(), EdgeType.GRAPHITY);
+                    followedReplica.getNode().createRelationshipTo(
+                            lastPosterReplica, EdgeType.GRAPHITY);
                 }
             }
-            // insert user's replica at its new position
-            lastPosterReplica =
-                    Walker.nextNode(followingUser, EdgeType.GRAPHITY);
-            if (!lastPosterReplica.equals(followedReplica)) {
-                followingUser.getSingleRelationship(EdgeType.GRAPHITY,
-                        Direction.OUTGOING).delete();
-                followingUser.createRelationshipTo(followedReplica,
-                        EdgeType.GRAPHITY);
-                followedReplica.createRelationshipTo(lastPosterReplica,
-                        EdgeType.GRAPHITY);
-            }
+        } finally {
+            followedReplica.release();
         }
     }
 
@@ -190,19 +383,20 @@ public class ReadOptimizedGraphity extends Neo4jGraphity {
             StatusUpdate statusUpdate,
             Transaction tx) {
         // lock user and ego network
-        TreeSet<UserProxy> subscribers =
-                new TreeSet<>(new LockUserComparator());
-        subscribers.add(new UserProxy(nAuthor));
-        Node followingReplica, followingUser;
-        for (Relationship followship : nAuthor.getRelationships(
-                EdgeType.REPLICA, Direction.INCOMING)) {
-            followingReplica = followship.getStartNode();
-            followingUser =
-                    Walker.previousNode(followingReplica, EdgeType.FOLLOWS);
-            subscribers.add(new UserProxy(followingUser));
-        }
-        for (UserProxy user : subscribers) {
-            tx.acquireWriteLock(user.getNode());
+        UserLockList subscribers = _lockLists.get();
+        try {
+            subscribers.add(nAuthor);
+            Node followingReplica;
+            for (Relationship followship : nAuthor.getRelationships(
+                    EdgeType.REPLICA, Direction.INCOMING)) {
+                TraversalStats.relationshipTraversed();
+                followingReplica = followship.getStartNode();
+                subscribers.add(Walker.previousNode(followingReplica,
+                        EdgeType.FOLLOWS));
+            }
+            subscribers.lockAll(tx);
+        } finally {
+            subscribers.clear();
         }
 
         return addStatusUpdate(nAuthor, statusUpdate);
@@ -219,6 +413,7 @@ public class ReadOptimizedGraphity extends Neo4jGraphity {
 
         // add status update to user (link node, update user)
         UserProxy pAuthor = new UserProxy(nAuthor);
+        pAuthor.setEdgePointerCache(_edgePointers);
         pAuthor.addStatusUpdate(pStatusUpdate);
 
         // update ego networks of status update author followers
@@ -228,63 +423,75 @@ public class ReadOptimizedGraphity extends Neo4jGraphity {
     }
 
     @Override
-    protected StatusUpdateList readStatusUpdates(
+    protected void readStatusUpdates(
             Node nReader,
-            int numStatusUpdates) {
-        StatusUpdateList statusUpdates = new StatusUpdateList();
-        final TreeSet<UserPostIterator> postIterators =
-                new TreeSet<UserPostIterator>(new PostIteratorComparator());
-
-        // load first user by replica
-        UserProxy pCrrUser = null;
-        UserPostIterator userPostIterator;
-        Node nReplica = Walker.nextNode(nReader, EdgeType.GRAPHITY);
-        if (nReplica != null) {
-            pCrrUser =
-                    new UserProxy(Walker.nextNode(nReplica, EdgeType.REPLICA));
-            userPostIterator = new UserPostIterator(pCrrUser);
-            userPostIterator.setReplicaNode(nReplica);
-
-            if (userPostIterator.hasNext()) {
-                postIterators.add(userPostIterator);
-            }
+            int numStatusUpdates,
+            FeedFilter filter,
+            FeedSink feed) {
+        if (filter != null) {
+            readStatusUpdates(nReader, numStatusUpdates, filter, feed,
+                    _postCursorHeaps.get(), _replicaCursors.get());
+            return;
         }
-
-        // handle user queue
-        UserProxy pPrevUser = pCrrUser;
-        while (statusUpdates.size() < numStatusUpdates
-                && !postIterators.isEmpty()) {
-            // add last recent status update
-            userPostIterator = postIterators.pollLast();
-            statusUpdates.add(userPostIterator.next().getStatusUpdate());
-
-            // re-add iterator if not empty
-            if (userPostIterator.hasNext()) {
-                postIterators.add(userPostIterator);
+        int numRead = 0;
+        PostCursorHeap postCursors = _postCursorHeaps.get();
+        postCursors.setPostArchive(_postArchive);
+        ReplicaCursor replica = _replicaCursors.get();
+        try {
+            // load first user by replica
+            PostCursor crrCursor, lastLoaded = null;
+            if (replica.reset(
+                    Walker.nextNode(nReader, EdgeType.GRAPHITY, _edgePointers))
+                    .isValid()) {
+                crrCursor =
+                        postCursors.acquire().reset(
+                                replica.getFollowed().getNode(),
+                                replica.getNode());
+                if (crrCursor.hasPost()) {
+                    postCursors.push(crrCursor);
+                    lastLoaded = crrCursor;
+                }
+                mergeActivity(postCursors, replica.getFollowed().getNode());
             }
 
-            // load additional user if necessary
-            if (userPostIterator.getUser() == pPrevUser) {
-                nReplica =
-                        Walker.nextNode(userPostIterator.getReplicaNode(),
-                                EdgeType.GRAPHITY);
-                // check if additional user existing
-                if (nReplica != null) {
-                    pCrrUser =
-                            new UserProxy(Walker.nextNode(nReplica,
-                                    EdgeType.REPLICA));
-                    userPostIterator = new UserPostIterator(pCrrUser);
-                    userPostIterator.setReplicaNode(nReplica);
-                    // check if user has status updates
-                    if (userPostIterator.hasNext()) {
-                        postIterators.add(userPostIterator);
-                        pPrevUser = pCrrUser;
-                    } else {
-                        // further users do not need to be loaded
-                        pPrevUser = null;
+            // handle user queue
+            while (numRead < numStatusUpdates
+                    && !postCursors.isEmpty()) {
+                // add last recent status update
+                crrCursor = postCursors.peek();
+                feed.add(crrCursor.getAuthor().getIdentifier(),
+                        crrCursor.getCrrPublished(), crrCursor.getCrrMessage());
+                numRead += 1;
+
+                // step on and remove cursor if empty
+                crrCursor.advance();
+                postCursors.update();
+
+                // load additional user if necessary
+                if (crrCursor == lastLoaded) {
+                    replica.reset(crrCursor.getReplicaNode());
+                    // check if additional user existing
+                    if (replica.advance()) {
+                        crrCursor =
+                                postCursors.acquire().reset(
+                                        replica.getFollowed().getNode(),
+                                        replica.getNode());
+                        // check if user has status updates
+                        if (crrCursor.hasPost()) {
+                            postCursors.push(crrCursor);
+                            lastLoaded = crrCursor;
+                        } else {
+                            // further users do not need to be loaded
+                            lastLoaded = null;
+                        }
+                        mergeActivity(postCursors, replica.getFollowed()
+                                .getNode());
                     }
                 }
             }
+        } finally {
+            postCursors.clear();
+            replica.release();
         }
 
         //            // access single stream only
@@ -295,22 +502,147 @@ public class ReadOptimizedGraphity extends Neo4jGraphity {
         //                    && postIterator.hasNext()) {
         //                statusUpdates.add(postIterator.next().getStatusUpdate());
         //            }
+    }
 
-        return statusUpdates;
+    /**
+     * Reads a filtered news feed. Replicas of authors not accepted are
+     * skipped without positioning a post cursor. The walk along the GRAPHITY
+     * chain stops when all authors accepted have been loaded or when the
+     * last post of the user followed is older than the time window.<br>
+     * A user is loaded as soon as its last post may be newer than the
+     * status update to be added next, as status updates newer than the time
+     * window are skipped and may hide the chain order.
+     */
+    private void readStatusUpdates(
+            Node nReader,
+            int numStatusUpdates,
+            FeedFilter filter,
+            FeedSink feed,
+            PostCursorHeap postCursors,
+            ReplicaCursor replica) {
+        postCursors.setPostArchive(_postArchive);
+        try {
+            int numRead = 0;
+            int numAuthorsLeft = filter.getNumAuthors();
+            replica.reset(Walker.nextNode(nReader, EdgeType.GRAPHITY,
+                    _edgePointers));
+            boolean hasReplica = seekReplica(replica, filter);
+            PostCursor crrCursor;
+            while (numRead < numStatusUpdates) {
+                // load users that may have newer status updates
+                while (hasReplica
+                        && numAuthorsLeft > 0
+                        && (postCursors.isEmpty() || replica.getFollowed()
+                                .getLastPostTimestamp() >= postCursors.peek()
+                                .getCrrPublished())) {
+                    crrCursor =
+                            postCursors.acquire().reset(
+                                    replica.getFollowed().getNode(),
+                                    replica.getNode());
+                    if (crrCursor.hasPost()) {
+                        postCursors.push(crrCursor);
+                    }
+                    mergeActivity(postCursors, replica.getFollowed()
+                            .getNode());
+                    numAuthorsLeft -= 1;
+                    hasReplica =
+                            replica.advance() && seekReplica(replica, filter);
+                }
+                if (postCursors.isEmpty()) {
+                    break;
+                }
+
+                crrCursor = postCursors.peek();
+                if (crrCursor.getCrrPublished() < filter.getFrom()) {
+                    // all status updates left are older than the window
+                    break;
+                }
+                if (crrCursor.getCrrPublished() < filter.getTo()) {
+                    feed.add(crrCursor.getAuthor().getIdentifier(),
+                            crrCursor.getCrrPublished(),
+                            crrCursor.getCrrMessage());
+                    numRead += 1;
+                }
+                crrCursor.advance();
+                postCursors.update();
+            }
+        } finally {
+            postCursors.clear();
+            replica.release();
+        }
     }
 
     /**
-     * Retrieves the timestamp of the last recent status update of the user
-     * specified.
+     * Reads a ranked news feed. Each user followed is scored by its last
+     * recent status update, which bounds the scores of all of its status
+     * updates. The walk along the GRAPHITY chain stops as soon as the bound
+     * of the users left, given by the last post of the next user followed,
+     * can not enter the ranked feed anymore.
+     */
+    @Override
+    protected void readRankedStatusUpdates(
+            Node nReader,
+            FeedRanker ranker,
+            RankedFeed top) {
+        PostCursorHeap postCursors = _postCursorHeaps.get();
+        postCursors.setPostArchive(_postArchive);
+        ReplicaCursor replica = _replicaCursors.get();
+        try {
+            PostCursor cursor = postCursors.acquire();
+            replica.reset(Walker.nextNode(nReader, EdgeType.GRAPHITY,
+                    _edgePointers));
+            while (replica.isValid()) {
+                UserCursor followed = replica.getFollowed();
+                long lastPost = followed.getLastPostTimestamp();
+                // chain is sorted by the last post timestamp
+                if (lastPost == 0
+                        || (top.isFull() && ranker.getUpperBound(lastPost)
+                                <= top.getThreshold())) {
+                    break;
+                }
+                if (top.accepts(ranker.score(followed.getIdentifier(),
+                        lastPost))) {
+                    rankStatusUpdates(
+                            cursor.reset(followed.getNode(), replica.getNode()),
+                            ranker, top);
+                }
+                replica.advance();
+            }
+        } finally {
+            postCursors.clear();
+            replica.release();
+        }
+    }
+
+    /**
+     * Moves a replica cursor to the next replica of an author accepted by a
+     * filter.
      * 
-     * @param userReplica
-     *            replica of the user
-     * @return timestamp of the user's last recent status update
+     * @param replica
+     *            replica cursor, moved along the GRAPHITY chain
+     * @param filter
+     *            news feed filter
+     * @return true - if the cursor is positioned at a replica of an author
+     *         accepted<br>
+     *         false - if no further user followed has posted in the time
+     *         window
      */
-    private static long getLastUpdateByReplica(final Node userReplica) {
-        final Node user = Walker.nextNode(userReplica, EdgeType.REPLICA);
-        UserProxy pUser = new UserProxy(user);
-        return pUser.getLastPostTimestamp();
+    private static boolean seekReplica(
+            ReplicaCursor replica,
+            FeedFilter filter) {
+        while (replica.isValid()) {
+            UserCursor followed = replica.getFollowed();
+            long lastPost = followed.getLastPostTimestamp();
+            if (lastPost == 0 || lastPost < filter.getFrom()) {
+                // chain is sorted by the last post timestamp
+                return false;
+            }
+            if (filter.acceptsAuthor(followed.getIdentifier())) {
+                return true;
+            }
+            replica.advance();
+        }
+        return false;
     }
 
     public static void main(String[] args) throws Exception {
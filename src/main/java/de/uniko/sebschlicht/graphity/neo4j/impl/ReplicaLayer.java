@@ -0,0 +1,313 @@
+package de.uniko.sebschlicht.graphity.neo4j.impl;
+
+import java.util.Arrays;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+
+import de.uniko.sebschlicht.graphity.neo4j.EdgePointerCache;
+import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.Walker;
+import de.uniko.sebschlicht.graphity.neo4j.model.ReplicaCursor;
+
+/**
+ * reusable editor of the replica layer of an ego network<br>
+ * Collects the replicas of the GRAPHITY chain of a user together with
+ * replicas to be added, sorts them by the last post timestamp of the users
+ * followed and relinks the chain in a single pass. Only edges that differ
+ * from the current chain are replaced, so adding k replicas to a chain of n
+ * replicas takes O((n + k) log(n + k)) instead of k insertion walks.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ReplicaLayer {
+
+    /**
+     * pointer cache to be kept consistent when relinking
+     */
+    private final EdgePointerCache _edgePointers;
+
+    private final ReplicaCursor _replica;
+
+    /**
+     * replica nodes in chain order, followed by the replicas added
+     */
+    private Node[] _replicas;
+
+    /**
+     * last post timestamps of the users followed
+     */
+    private long[] _timestamps;
+
+    /**
+     * current successors in the chain or <b>null</b>
+     */
+    private Node[] _successors;
+
+    /**
+     * whether a replica is not linked into the chain yet
+     */
+    private boolean[] _isNew;
+
+    /**
+     * positions of the replicas in chain order once sorted
+     */
+    private int[] _order;
+
+    /**
+     * current successor of the user node
+     */
+    private Node _first;
+
+    private int _size;
+
+    /**
+     * Creates an empty replica layer editor.
+     * 
+     * @param edgePointers
+     *            pointer cache to be kept consistent when relinking
+     */
+    public ReplicaLayer(
+            EdgePointerCache edgePointers) {
+        _edgePointers = edgePointers;
+        _replica = new ReplicaCursor(edgePointers);
+        int capacity = 16;
+        _replicas = new Node[capacity];
+        _timestamps = new long[capacity];
+        _successors = new Node[capacity];
+        _isNew = new boolean[capacity];
+        _order = new int[capacity];
+    }
+
+    /**
+     * Loads the GRAPHITY chain of a user.
+     * 
+     * @param nFollowing
+     *            user owning the ego network
+     */
+    public void load(Node nFollowing) {
+        clear();
+        _first = Walker.nextNode(nFollowing, EdgeType.GRAPHITY);
+        try {
+            _replica.reset(_first);
+            Node nReplica, nSuccessor;
+            while (_replica.isValid()) {
+                nReplica = _replica.getNode();
+                long timestamp = _replica.getFollowed().getLastPostTimestamp();
+                nSuccessor = Walker.nextNode(nReplica, EdgeType.GRAPHITY);
+                append(nReplica, timestamp, nSuccessor, false);
+                _replica.reset(nSuccessor);
+            }
+        } finally {
+            _replica.release();
+        }
+    }
+
+    /**
+     * Adds a replica that is not linked into the chain yet.
+     * 
+     * @param nReplica
+     *            replica node
+     * @param timestamp
+     *            last post timestamp of the user followed
+     */
+    public void add(Node nReplica, long timestamp) {
+        append(nReplica, timestamp, null, true);
+    }
+
+    private void append(
+            Node nReplica,
+            long timestamp,
+            Node nSuccessor,
+            boolean isNew) {
+        if (_size == _replicas.length) {
+            int capacity = _size * 2;
+            _replicas = Arrays.copyOf(_replicas, capacity);
+            _timestamps = Arrays.copyOf(_timestamps, capacity);
+            _successors = Arrays.copyOf(_successors, capacity);
+            _isNew = Arrays.copyOf(_isNew, capacity);
+            _order = Arrays.copyOf(_order, capacity);
+        }
+        _replicas[_size] = nReplica;
+        _timestamps[_size] = timestamp;
+        _successors[_size] = nSuccessor;
+        _isNew[_size] = isNew;
+        _order[_size] = _size;
+        _size += 1;
+    }
+
+    /**
+     * Sorts the replicas and relinks the GRAPHITY chain of the user
+     * accordingly.
+     * 
+     * @param nFollowing
+     *            user owning the ego network
+     * @return number of GRAPHITY edges deleted and created
+     */
+    public int link(Node nFollowing) {
+        sort(0, _size - 1);
+        Node nPrev = nFollowing;
+        Node nPrevSuccessor = _first;
+        Node nCrr;
+        int numWrites = 0;
+        for (int i = 0; i < _size; ++i) {
+            int index = _order[i];
+            nCrr = _replicas[index];
+            numWrites += relink(nPrev, nPrevSuccessor, nCrr);
+            nPrev = nCrr;
+            nPrevSuccessor = _successors[index];
+        }
+        return numWrites + relink(nPrev, nPrevSuccessor, null);
+    }
+
+    /**
+     * Compares two replicas by timestamp descending, new replicas before
+     * existing replicas of the same timestamp and by position otherwise.
+     * 
+     * @param i1
+     *            position of the first replica
+     * @param i2
+     *            position of the second replica
+     * @return negative value if the first replica precedes the second one in
+     *         the chain, positive value otherwise
+     */
+    private int compare(int i1, int i2) {
+        if (_timestamps[i1] != _timestamps[i2]) {
+            return (_timestamps[i1] > _timestamps[i2]) ? -1 : 1;
+        }
+        if (_isNew[i1] != _isNew[i2]) {
+            return _isNew[i1] ? -1 : 1;
+        }
+        return Integer.compare(i1, i2);
+    }
+
+    /**
+     * Sorts the replica positions into chain order. As no two positions are
+     * equal, the order is the same as of a stable sort.
+     */
+    private void sort(int low, int high) {
+        while (high - low > 16) {
+            int pivot = _order[(low + high) >>> 1];
+            int i = low, j = high;
+            while (i <= j) {
+                while (compare(_order[i], pivot) < 0) {
+                    i += 1;
+                }
+                while (compare(_order[j], pivot) > 0) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            // recurse into the smaller partition
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; ++i) {
+            for (int j = i; j > low
+                    && compare(_order[j - 1], _order[j]) > 0; --j) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int index = _order[i];
+        _order[i] = _order[j];
+        _order[j] = index;
+    }
+
+    /**
+     * Replaces the outgoing GRAPHITY edge of a node if its successor has
+     * changed.
+     * 
+     * @return number of edges deleted and created
+     */
+    private int relink(Node nPrev, Node nOldSuccessor, Node nNewSuccessor) {
+        if (nOldSuccessor == null) {
+            if (nNewSuccessor == null) {
+                return 0;
+            }
+        } else if (nNewSuccessor != null
+                && nOldSuccessor.getId() == nNewSuccessor.getId()) {
+            return 0;
+        }
+        _edgePointers.invalidate(nPrev, EdgeType.GRAPHITY);
+        int numWrites = 0;
+        if (nOldSuccessor != null) {
+            nPrev.getSingleRelationship(EdgeType.GRAPHITY, Direction.OUTGOING)
+                    .delete();
+            numWrites += 1;
+        }
+        if (nNewSuccessor != null) {
+            nPrev.createRelationshipTo(nNewSuccessor, EdgeType.GRAPHITY);
+            numWrites += 1;
+        }
+        return numWrites;
+    }
+
+    /**
+     * Removes a replica from the replica layer and deletes it along with the
+     * followship it represents.
+     * 
+     * @param nReplica
+     *            replica of the user that will be removed
+     */
+    public void remove(Node nReplica) {
+        final Node prev = Walker.previousNode(nReplica, EdgeType.GRAPHITY);
+        final Node next = Walker.nextNode(nReplica, EdgeType.GRAPHITY);
+        _edgePointers.invalidate(prev, EdgeType.GRAPHITY);
+        _edgePointers.invalidate(nReplica, EdgeType.GRAPHITY);
+        _edgePointers.invalidate(nReplica, EdgeType.REPLICA);
+        // bridge the user replica in the replica layer
+        prev.getSingleRelationship(EdgeType.GRAPHITY, Direction.OUTGOING)
+                .delete();
+        if (next != null) {
+            next.getSingleRelationship(EdgeType.GRAPHITY, Direction.INCOMING)
+                    .delete();
+            prev.createRelationshipTo(next, EdgeType.GRAPHITY);
+        }
+        // remove the followship
+        nReplica.getSingleRelationship(EdgeType.FOLLOWS, Direction.INCOMING)
+                .delete();
+        // remove the replica node itself
+        nReplica.getSingleRelationship(EdgeType.REPLICA, Direction.OUTGOING)
+                .delete();
+        nReplica.delete();
+    }
+
+    /**
+     * Detaches the editor from the nodes it references.
+     */
+    public void clear() {
+        Arrays.fill(_replicas, 0, _size, null);
+        Arrays.fill(_successors, 0, _size, null);
+        _first = null;
+        _size = 0;
+    }
+
+    /**
+     * @param index
+     *            position in load and add order
+     * @return replica node loaded or added at this position
+     */
+    public Node getReplica(int index) {
+        return _replicas[index];
+    }
+
+    /**
+     * @return number of replicas loaded and added
+     */
+    public int size() {
+        return _size;
+    }
+}
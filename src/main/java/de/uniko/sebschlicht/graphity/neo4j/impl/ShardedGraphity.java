@@ -0,0 +1,432 @@
+package de.uniko.sebschlicht.graphity.neo4j.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.uniko.sebschlicht.graphity.Graphity;
+import de.uniko.sebschlicht.graphity.exception.IllegalUserIdException;
+import de.uniko.sebschlicht.graphity.exception.UnknownFollowedIdException;
+import de.uniko.sebschlicht.graphity.exception.UnknownFollowingIdException;
+import de.uniko.sebschlicht.graphity.exception.UnknownReaderIdException;
+import de.uniko.sebschlicht.graphity.neo4j.ActivityMode;
+import de.uniko.sebschlicht.graphity.neo4j.FeedBuffer;
+import de.uniko.sebschlicht.graphity.neo4j.Neo4jGraphity;
+import de.uniko.sebschlicht.graphity.neo4j.Readiness;
+import de.uniko.sebschlicht.graphity.neo4j.model.ActivityType;
+import de.uniko.sebschlicht.graphity.neo4j.model.UserStats;
+import de.uniko.sebschlicht.socialnet.StatusUpdate;
+import de.uniko.sebschlicht.socialnet.StatusUpdateList;
+
+/**
+ * Graphity implementation partitioning users across multiple graph
+ * databases<br>
+ * Each user has a home shard, determined by hashing the user identifier,
+ * that stores the user's status updates. A followship is stored in the home
+ * shard of the user followed, where the follower is represented by a ghost
+ * user node without status updates. Thus every write request operates on a
+ * single shard. A news feed is read from all shards in parallel, each
+ * contributing the status updates of the users followed that it is home to,
+ * and the partial news feeds are merged.<br>
+ * Followship activity is recorded according to the activity mode of the
+ * shards, each activity in the home shard of the user it belongs to. The
+ * activity of the user followed is recorded in the transaction that changes
+ * the followship. The activity of a following user homed in another shard is
+ * recorded in a transaction of its own, and a followship is removed again if
+ * this fails.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ShardedGraphity extends Graphity {
+
+    /**
+     * Graphity instances operating on the shards
+     */
+    private final Neo4jGraphity[] _shards;
+
+    /**
+     * executor reading the partial news feeds
+     */
+    private final ExecutorService _readExecutor;
+
+    /**
+     * Creates a sharded social graph.
+     * 
+     * @param shards
+     *            Graphity instances operating on the shards, each on a graph
+     *            database of its own<br>
+     *            The order of the shards must not change once users have been
+     *            added.
+     */
+    public ShardedGraphity(
+            Neo4jGraphity[] shards) {
+        if (shards.length == 0) {
+            throw new IllegalArgumentException("at least one shard required");
+        }
+        _shards = shards;
+        final AtomicInteger numThreads = new AtomicInteger();
+        _readExecutor =
+                Executors.newFixedThreadPool(shards.length,
+                        new ThreadFactory() {
+
+                            @Override
+                            public Thread newThread(Runnable runnable) {
+                                Thread thread =
+                                        new Thread(runnable, "shard-reader-"
+                                                + numThreads.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+    }
+
+    /**
+     * Sets the way followship activity is recorded in all shards.
+     * 
+     * @param activityMode
+     *            activity mode, defaults to
+     *            {@link ActivityMode#STATUS_UPDATES}
+     */
+    public void setActivityMode(ActivityMode activityMode) {
+        for (Neo4jGraphity shard : _shards) {
+            shard.setActivityMode(activityMode);
+        }
+    }
+
+    /**
+     * Stops the threads reading partial news feeds. The shards have to be
+     * shut down separately.
+     */
+    public void shutdown() {
+        _readExecutor.shutdown();
+    }
+
+    /**
+     * @param idUser
+     *            user identifier
+     * @return index of the user's home shard
+     */
+    public int getShardIndex(long idUser) {
+        long hash = idUser * 0x9E3779B97F4A7C15L;
+        hash ^= (hash >>> 32);
+        return (int) ((hash & Long.MAX_VALUE) % _shards.length);
+    }
+
+    /**
+     * @param idUser
+     *            user identifier
+     * @return Graphity instance operating on the user's home shard
+     */
+    public Neo4jGraphity getShard(long idUser) {
+        return _shards[getShardIndex(idUser)];
+    }
+
+    /**
+     * Initializes the shards in parallel and blocks until all of them are
+     * ready.
+     * 
+     * @throws IllegalStateException
+     *             if the initialization of a shard failed
+     */
+    @Override
+    public void init() {
+        initAsync();
+        for (Neo4jGraphity shard : _shards) {
+            try {
+                while (!shard.awaitReady(1, TimeUnit.SECONDS)) {
+                    if (shard.getReadiness() == Readiness.FAILED) {
+                        throw new IllegalStateException(
+                                "shard initialization failed",
+                                shard.getInitFailure());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(
+                        "interrupted during shard initialization", e);
+            }
+        }
+    }
+
+    /**
+     * Initializes the shards in parallel in the background and returns
+     * immediately.
+     * 
+     * @see #getReadiness()
+     */
+    public void initAsync() {
+        for (Neo4jGraphity shard : _shards) {
+            shard.initAsync();
+        }
+    }
+
+    /**
+     * @return initialization state of the shard least ready<br>
+     *         <code>FAILED</code> if the initialization of any shard failed
+     */
+    public Readiness getReadiness() {
+        Readiness readiness = Readiness.READY;
+        for (Neo4jGraphity shard : _shards) {
+            Readiness shardReadiness = shard.getReadiness();
+            if (shardReadiness == Readiness.FAILED) {
+                return Readiness.FAILED;
+            }
+            if (shardReadiness.compareTo(readiness) < 0) {
+                readiness = shardReadiness;
+            }
+        }
+        return readiness;
+    }
+
+    @Override
+    public boolean addUser(String userIdentifier) throws IllegalUserIdException {
+        long idUser = Neo4jGraphity.parseUserIdentifier(userIdentifier);
+        if (idUser == 0) {
+            throw new IllegalUserIdException(userIdentifier);
+        }
+        return getShard(idUser).addUser(idUser);
+    }
+
+    /**
+     * Removes a user from all shards, i.e. the user from its home shard and
+     * its ghosts from the other shards. Each shard tears down its part of the
+     * user in the background.<br>
+     * Ghosts are removed even if the user is not found in its home shard, so
+     * a removal that failed in between can be repeated.
+     * 
+     * @param userIdentifier
+     *            identifier of the user to be removed
+     * @return true - if the user was removed from its home shard<br>
+     *         false - if there is no such user
+     */
+    public boolean removeUser(String userIdentifier) {
+        long idUser = Neo4jGraphity.parseUserIdentifier(userIdentifier);
+        if (idUser == 0) {
+            return false;
+        }
+        int homeShard = getShardIndex(idUser);
+        boolean isRemoved = _shards[homeShard].removeUser(userIdentifier);
+        for (int i = 0; i < _shards.length; ++i) {
+            if (i != homeShard) {
+                _shards[i].removeUser(userIdentifier);
+            }
+        }
+        return isRemoved;
+    }
+
+    @Override
+    public boolean addFollowship(String idFollowing, String idFollowed)
+            throws IllegalUserIdException {
+        long idUserFollowing = Neo4jGraphity.parseUserIdentifier(idFollowing);
+        if (idUserFollowing == 0) {
+            throw new IllegalUserIdException(idFollowing);
+        }
+        long idUserFollowed = Neo4jGraphity.parseUserIdentifier(idFollowed);
+        if (idUserFollowed == 0) {
+            throw new IllegalUserIdException(idFollowed);
+        }
+        Neo4jGraphity shardFollowing = getShard(idUserFollowing);
+        Neo4jGraphity shardFollowed = getShard(idUserFollowed);
+        if (shardFollowing == shardFollowed) {
+            return shardFollowed.addFollowship(idFollowing, idFollowed);
+        }
+        if (!shardFollowed
+                .addGhostFollowship(idUserFollowing, idUserFollowed)) {
+            return false;
+        }
+        try {
+            // also ensures that the follower exists in its home shard
+            shardFollowing.addActivity(idUserFollowing, ActivityType.FOLLOWS,
+                    idUserFollowed, System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            try {
+                shardFollowed.removeGhostFollowship(idUserFollowing,
+                        idUserFollowed);
+            } catch (Exception removalFailure) {
+                e.addSuppressed(removalFailure);
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Removes a followship from the home shard of the user followed.<br>
+     * If the following user has no ghost in this shard, there is no
+     * followship to remove and <i>false</i> is returned.
+     */
+    @Override
+    public boolean removeFollowship(String idFollowing, String idFollowed)
+            throws UnknownFollowingIdException, UnknownFollowedIdException {
+        long idUserFollowing = Neo4jGraphity.parseUserIdentifier(idFollowing);
+        if (idUserFollowing == 0) {
+            throw new UnknownFollowingIdException(idFollowing);
+        }
+        long idUserFollowed = Neo4jGraphity.parseUserIdentifier(idFollowed);
+        if (idUserFollowed == 0) {
+            throw new UnknownFollowedIdException(idFollowed);
+        }
+        Neo4jGraphity shardFollowing = getShard(idUserFollowing);
+        Neo4jGraphity shardFollowed = getShard(idUserFollowed);
+        if (shardFollowing == shardFollowed) {
+            return shardFollowed.removeFollowship(idFollowing, idFollowed);
+        }
+        try {
+            if (!shardFollowed.removeGhostFollowship(idUserFollowing,
+                    idUserFollowed)) {
+                return false;
+            }
+        } catch (UnknownFollowingIdException e) {
+            return false;
+        }
+        try {
+            shardFollowing.addActivity(idUserFollowing, ActivityType.UNFOLLOWS,
+                    idUserFollowed, System.currentTimeMillis());
+        } catch (IllegalUserIdException e) {
+            // identifiers have been validated already
+            throw new IllegalStateException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public long addStatusUpdate(String idAuthor, String message)
+            throws IllegalUserIdException {
+        long idUserAuthor = Neo4jGraphity.parseUserIdentifier(idAuthor);
+        if (idUserAuthor == 0) {
+            throw new IllegalUserIdException(idAuthor);
+        }
+        return getShard(idUserAuthor).addStatusUpdate(idAuthor, message);
+    }
+
+    /**
+     * Reads the statistics of a user. The followers of a user are counted in
+     * its home shard, while the users followed are spread across the shards
+     * holding ghosts of the user.
+     * 
+     * @param idUser
+     *            user identifier
+     * @return statistics of the user<br>
+     *         <b>null</b> - if the user is not existing
+     */
+    public UserStats readUserStats(long idUser) {
+        int homeShard = getShardIndex(idUser);
+        UserStats home = _shards[homeShard].readUserStats(idUser);
+        if (home == null) {
+            return null;
+        }
+        long numFollowing = home.getNumFollowing();
+        for (int i = 0; i < _shards.length; ++i) {
+            if (i != homeShard) {
+                UserStats ghost = _shards[i].readUserStats(idUser);
+                if (ghost != null) {
+                    numFollowing += ghost.getNumFollowing();
+                }
+            }
+        }
+        return new UserStats(idUser, home.getNumFollowers(), numFollowing,
+                home.getLastPostTimestamp());
+    }
+
+    @Override
+    public StatusUpdateList readStatusUpdates(
+            String idReader,
+            final int numStatusUpdates) throws UnknownReaderIdException {
+        final long idUserReader = Neo4jGraphity.parseUserIdentifier(idReader);
+        if (idUserReader == 0) {
+            throw new UnknownReaderIdException(idReader);
+        }
+
+        // read partial news feeds, the home shard in the calling thread
+        int homeShard = getShardIndex(idUserReader);
+        FeedBuffer[] feeds = new FeedBuffer[_shards.length];
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Future<Boolean>[] results = new Future[_shards.length];
+        for (int i = 0; i < _shards.length; ++i) {
+            feeds[i] = new FeedBuffer(numStatusUpdates);
+            if (i != homeShard) {
+                final Neo4jGraphity shard = _shards[i];
+                final FeedBuffer feed = feeds[i];
+                results[i] = _readExecutor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() {
+                        return shard.readStatusUpdates(idUserReader,
+                                numStatusUpdates, feed);
+                    }
+                });
+            }
+        }
+        boolean isReaderExisting =
+                _shards[homeShard].readStatusUpdates(idUserReader,
+                        numStatusUpdates, feeds[homeShard]);
+        try {
+            for (int i = 0; i < _shards.length; ++i) {
+                if (i != homeShard && results[i].get()) {
+                    isReaderExisting = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted reading news feed",
+                    e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        if (!isReaderExisting) {
+            throw new UnknownReaderIdException(idReader);
+        }
+        return merge(feeds, numStatusUpdates);
+    }
+
+    /**
+     * Merges partial news feeds.
+     * 
+     * @param feeds
+     *            partial news feeds, each the last recent status update first
+     * @param numStatusUpdates
+     *            maximum number of status updates to merge
+     * @return news feed holding the last recent status updates of all
+     *         partial news feeds
+     */
+    private static StatusUpdateList merge(
+            FeedBuffer[] feeds,
+            int numStatusUpdates) {
+        StatusUpdateList statusUpdates = new StatusUpdateList();
+        int[] positions = new int[feeds.length];
+        int numMerged = 0;
+        int crrFeed;
+        long crrPublished;
+        while (numMerged < numStatusUpdates) {
+            crrFeed = -1;
+            crrPublished = Long.MIN_VALUE;
+            for (int i = 0; i < feeds.length; ++i) {
+                if (positions[i] < feeds[i].size()
+                        && feeds[i].getPublished(positions[i]) > crrPublished) {
+                    crrFeed = i;
+                    crrPublished = feeds[i].getPublished(positions[i]);
+                }
+            }
+            if (crrFeed == -1) {
+                break;
+            }
+            FeedBuffer feed = feeds[crrFeed];
+            int position = positions[crrFeed];
+            statusUpdates.add(new StatusUpdate(String.valueOf(feed
+                    .getAuthor(position)), crrPublished, feed
+                    .getMessage(position)));
+            positions[crrFeed] += 1;
+            numMerged += 1;
+        }
+        return statusUpdates;
+    }
+}
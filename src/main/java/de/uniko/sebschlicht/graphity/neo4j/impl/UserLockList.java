@@ -0,0 +1,167 @@
+package de.uniko.sebschlicht.graphity.neo4j.impl;
+
+import java.util.Arrays;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats;
+
+/**
+ * reusable list of user nodes to be write-locked in a global order<br>
+ * Replaces a sorted set of user proxies on the hot write path: users are
+ * collected into primitive arrays and locked in ascending identifier order,
+ * which is the order {@link LockUserComparator} defines.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class UserLockList {
+
+    /**
+     * list positions sorted by user identifier
+     */
+    private int[] _order;
+
+    /**
+     * user identifiers in insertion order
+     */
+    private long[] _identifiers;
+
+    /**
+     * user nodes in insertion order
+     */
+    private Node[] _nodes;
+
+    /**
+     * number of users in the list
+     */
+    private int _size;
+
+    /**
+     * Creates an empty list.
+     * 
+     * @param initialCapacity
+     *            number of users the list can hold without growing
+     */
+    public UserLockList(
+            int initialCapacity) {
+        _order = new int[initialCapacity];
+        _identifiers = new long[initialCapacity];
+        _nodes = new Node[initialCapacity];
+    }
+
+    /**
+     * Adds a user to be locked.
+     * 
+     * @param nUser
+     *            user node
+     */
+    public void add(Node nUser) {
+        add(nUser, UserProxy.readIdentifier(nUser));
+    }
+
+    /**
+     * Adds a user to be locked.
+     * 
+     * @param nUser
+     *            user node
+     * @param identifier
+     *            user identifier to avoid its lookup
+     */
+    public void add(Node nUser, long identifier) {
+        if (_size == _nodes.length) {
+            int capacity = _size * 2 + 1;
+            _identifiers = Arrays.copyOf(_identifiers, capacity);
+            _nodes = Arrays.copyOf(_nodes, capacity);
+        }
+        _identifiers[_size] = identifier;
+        _nodes[_size] = nUser;
+        _size += 1;
+    }
+
+    /**
+     * Acquires write locks for all users in ascending identifier order.
+     * Users added multiple times are locked once.
+     * 
+     * @param tx
+     *            current graph transaction
+     */
+    public void lockAll(Transaction tx) {
+        if (_order.length < _size) {
+            _order = new int[_nodes.length];
+        }
+        // sort positions by identifiers
+        for (int i = 0; i < _size; ++i) {
+            _order[i] = i;
+        }
+        sortPositions(0, _size - 1);
+        long prevIdentifier = -1;
+        int position;
+        for (int i = 0; i < _size; ++i) {
+            position = _order[i];
+            if (i == 0 || _identifiers[position] != prevIdentifier) {
+                tx.acquireWriteLock(_nodes[position]);
+                TraversalStats.lockTaken();
+                prevIdentifier = _identifiers[position];
+            }
+        }
+    }
+
+    /**
+     * Empties the list to be reused.
+     */
+    public void clear() {
+        Arrays.fill(_nodes, 0, _size, null);
+        _size = 0;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Sorts the list positions by the identifiers they point to (quicksort
+     * with insertion sort for short ranges).
+     */
+    private void sortPositions(int lo, int hi) {
+        while (hi - lo > 16) {
+            long pivot = _identifiers[_order[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (_identifiers[_order[i]] < pivot) {
+                    i += 1;
+                }
+                while (_identifiers[_order[j]] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    int tmp = _order[i];
+                    _order[i] = _order[j];
+                    _order[j] = tmp;
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            // recurse into the smaller part only
+            if (j - lo < hi - i) {
+                sortPositions(lo, j);
+                lo = i;
+            } else {
+                sortPositions(i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; ++i) {
+            int key = _order[i];
+            long identifier = _identifiers[key];
+            int j = i - 1;
+            while (j >= lo && _identifiers[_order[j]] > identifier) {
+                _order[j + 1] = _order[j];
+                j -= 1;
+            }
+            _order[j + 1] = key;
+        }
+    }
+}
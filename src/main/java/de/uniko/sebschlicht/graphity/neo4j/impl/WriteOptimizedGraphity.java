@@ -1,12 +1,14 @@
 package de.uniko.sebschlicht.graphity.neo4j.impl;
 
 import java.io.File;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseBuilder;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import org.neo4j.graphdb.factory.GraphDatabaseSettings;
@@ -14,14 +16,18 @@ import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import de.uniko.sebschlicht.graphity.exception.IllegalUserIdException;
 import de.uniko.sebschlicht.graphity.exception.UnknownReaderIdException;
 import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.FeedFilter;
+import de.uniko.sebschlicht.graphity.neo4j.FeedRanker;
+import de.uniko.sebschlicht.graphity.neo4j.FeedSink;
 import de.uniko.sebschlicht.graphity.neo4j.Neo4jGraphity;
 import de.uniko.sebschlicht.graphity.neo4j.NodeType;
-import de.uniko.sebschlicht.graphity.neo4j.model.PostIteratorComparator;
+import de.uniko.sebschlicht.graphity.neo4j.RankedFeed;
+import de.uniko.sebschlicht.graphity.neo4j.model.PostCursor;
+import de.uniko.sebschlicht.graphity.neo4j.model.PostCursorHeap;
 import de.uniko.sebschlicht.graphity.neo4j.model.StatusUpdateProxy;
-import de.uniko.sebschlicht.graphity.neo4j.model.UserPostIterator;
 import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats;
 import de.uniko.sebschlicht.socialnet.StatusUpdate;
-import de.uniko.sebschlicht.socialnet.StatusUpdateList;
 
 /**
  * Graphity implementation optimized for write requests
@@ -41,6 +47,7 @@ public class WriteOptimizedGraphity extends Neo4jGraphity {
         // try to find the node of the user followed
         for (Relationship followship : nFollowing.getRelationships(
                 EdgeType.FOLLOWS, Direction.OUTGOING)) {
+            TraversalStats.relationshipTraversed();
             if (followship.getEndNode().equals(nFollowed)) {
                 return false;
             }
@@ -60,6 +67,7 @@ public class WriteOptimizedGraphity extends Neo4jGraphity {
         Relationship followship = null;
         for (Relationship follows : nFollowing.getRelationships(
                 Direction.OUTGOING, EdgeType.FOLLOWS)) {
+            TraversalStats.relationshipTraversed();
             if (follows.getEndNode().equals(nFollowed)) {
                 followship = follows;
                 break;
@@ -75,6 +83,39 @@ public class WriteOptimizedGraphity extends Neo4jGraphity {
         return true;
     }
 
+    @Override
+    protected int removeFollowships(
+            Node nUser,
+            int maxFollowships,
+            Transaction tx) {
+        List<Relationship> followships = new ArrayList<Relationship>();
+        for (Relationship followship : nUser
+                .getRelationships(EdgeType.FOLLOWS)) {
+            TraversalStats.relationshipTraversed();
+            if (followships.size() == maxFollowships) {
+                break;
+            }
+            followships.add(followship);
+        }
+        // lock the users followed and following in the global order
+        UserLockList neighbours = new UserLockList(followships.size());
+        for (Relationship followship : followships) {
+            neighbours.add(followship.getOtherNode(nUser));
+        }
+        neighbours.lockAll(tx);
+        for (Relationship followship : followships) {
+            Node nOther = followship.getOtherNode(nUser);
+            boolean isFollowing = followship.getStartNode().equals(nUser);
+            followship.delete();
+            if (isFollowing) {
+                new UserProxy(nOther).updateNumFollowers(-1);
+            } else {
+                new UserProxy(nOther).updateNumFollowing(-1);
+            }
+        }
+        return followships.size();
+    }
+
     @Override
     protected long addStatusUpdate(Node nAuthor, StatusUpdate statusUpdate) {
         // create new status update node and fill via proxy
@@ -86,44 +127,65 @@ public class WriteOptimizedGraphity extends Neo4jGraphity {
 
         // add status update to user (link node, update user)
         UserProxy pAuthor = new UserProxy(nAuthor);
+        pAuthor.setEdgePointerCache(_edgePointers);
         pAuthor.addStatusUpdate(pStatusUpdate);
 
         return pStatusUpdate.getIdentifier();
     }
 
     @Override
-    protected StatusUpdateList readStatusUpdates(
+    protected void readStatusUpdates(
             Node nReader,
-            int numStatusUpdates) {
-        StatusUpdateList statusUpdates = new StatusUpdateList();
-        final TreeSet<UserPostIterator> postIterators =
-                new TreeSet<UserPostIterator>(new PostIteratorComparator());
-
-        // loop through users followed
-        UserProxy pCrrUser;
-        UserPostIterator userPostIterator;
-        for (Relationship relationship : nReader.getRelationships(
-                EdgeType.FOLLOWS, Direction.OUTGOING)) {
-            // add post iterator
-            pCrrUser = new UserProxy(relationship.getEndNode());
-            userPostIterator = new UserPostIterator(pCrrUser);
-
-            if (userPostIterator.hasNext()) {
-                postIterators.add(userPostIterator);
+            int numStatusUpdates,
+            FeedFilter filter,
+            FeedSink feed) {
+        int numRead = 0;
+        PostCursorHeap postCursors = _postCursorHeaps.get();
+        postCursors.setPostArchive(_postArchive);
+        try {
+            // loop through users followed
+            PostCursor crrCursor;
+            for (Relationship relationship : nReader.getRelationships(
+                    EdgeType.FOLLOWS, Direction.OUTGOING)) {
+                TraversalStats.relationshipTraversed();
+                if (filter != null
+                        && !accepts(filter, relationship.getEndNode())) {
+                    continue;
+                }
+                // add post cursor
+                crrCursor =
+                        postCursors.acquire().reset(relationship.getEndNode(),
+                                null);
+                if (crrCursor.hasPost()) {
+                    postCursors.push(crrCursor);
+                }
+                mergeActivity(postCursors, relationship.getEndNode());
             }
-        }
 
-        // handle queue
-        while ((statusUpdates.size() < numStatusUpdates)
-                && !postIterators.isEmpty()) {
-            // add last recent status update
-            userPostIterator = postIterators.pollLast();
-            statusUpdates.add(userPostIterator.next().getStatusUpdate());
+            // handle queue
+            while (numRead < numStatusUpdates
+                    && !postCursors.isEmpty()) {
+                // add last recent status update
+                crrCursor = postCursors.peek();
+                if (filter == null
+                        || crrCursor.getCrrPublished() < filter.getTo()) {
+                    if (filter != null
+                            && crrCursor.getCrrPublished() < filter.getFrom()) {
+                        // all status updates left are older than the window
+                        break;
+                    }
+                    feed.add(crrCursor.getAuthor().getIdentifier(),
+                            crrCursor.getCrrPublished(),
+                            crrCursor.getCrrMessage());
+                    numRead += 1;
+                }
 
-            // re-add iterator if not empty
-            if (userPostIterator.hasNext()) {
-                postIterators.add(userPostIterator);
+                // step on and remove cursor if empty
+                crrCursor.advance();
+                postCursors.update();
             }
+        } finally {
+            postCursors.clear();
         }
 
         //            // access single stream only
@@ -134,8 +196,54 @@ public class WriteOptimizedGraphity extends Neo4jGraphity {
         //                    && postIterator.hasNext()) {
         //                statusUpdates.add(postIterator.next().getStatusUpdate());
         //            }
+    }
 
-        return statusUpdates;
+    /**
+     * Reads a ranked news feed. The users followed are not ordered, so each
+     * of them is scored by its last recent status update, which bounds the
+     * scores of all of its status updates, and skipped if it can not enter
+     * the ranked feed.
+     */
+    @Override
+    protected void readRankedStatusUpdates(
+            Node nReader,
+            FeedRanker ranker,
+            RankedFeed top) {
+        PostCursorHeap postCursors = _postCursorHeaps.get();
+        postCursors.setPostArchive(_postArchive);
+        try {
+            PostCursor cursor = postCursors.acquire();
+            for (Relationship relationship : nReader.getRelationships(
+                    EdgeType.FOLLOWS, Direction.OUTGOING)) {
+                TraversalStats.relationshipTraversed();
+                UserProxy pFollowed =
+                        new UserProxy(relationship.getEndNode());
+                long lastPost = pFollowed.getLastPostTimestamp();
+                if (lastPost == 0
+                        || !top.accepts(ranker.score(
+                                pFollowed.getIdentifier(), lastPost))) {
+                    continue;
+                }
+                rankStatusUpdates(
+                        cursor.reset(relationship.getEndNode(), null), ranker,
+                        top);
+            }
+        } finally {
+            postCursors.clear();
+        }
+    }
+
+    /**
+     * Checks whether a user followed may have status updates accepted by a
+     * filter, without loading them.
+     */
+    private static boolean accepts(FeedFilter filter, Node nFollowed) {
+        UserProxy pFollowed = new UserProxy(nFollowed);
+        long lastPost = pFollowed.getLastPostTimestamp();
+        if (lastPost == 0 || lastPost < filter.getFrom()) {
+            return false;
+        }
+        return filter.acceptsAuthor(pFollowed.getIdentifier());
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,356 @@
+package de.uniko.sebschlicht.graphity.neo4j.maintenance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+
+import de.uniko.sebschlicht.graphity.neo4j.FeedSink;
+import de.uniko.sebschlicht.graphity.neo4j.Neo4jGraphity;
+import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
+
+/**
+ * warm-up of the news feeds of the most active readers after a restart<br>
+ * Reads the news feeds of the readers selected in a pool of worker threads,
+ * which loads their user index entries, the ego networks walked and the
+ * newest status updates into the caches of the database. The readers are
+ * taken from a reader log persisted before the restart, if any. Otherwise the
+ * users that posted most recently are considered to be the most active
+ * readers.<br>
+ * The warm-up is ready once all readers have been warmed up or the time limit
+ * has been exceeded. Requests are served during the warm-up, they are just
+ * slower.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class CacheWarmer implements Runnable {
+
+    /**
+     * number of users scanned per batch to select the readers
+     */
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    /**
+     * sink dropping the status updates read
+     */
+    private static final FeedSink DISCARD = new FeedSink() {
+
+        @Override
+        public void add(long idAuthor, long published, String message) {
+            // the status updates are read for their side effects only
+        }
+    };
+
+    /**
+     * graph database to warm up
+     */
+    protected final GraphDatabaseService _graphDb;
+
+    /**
+     * Graphity instance serving the news feeds
+     */
+    protected final Neo4jGraphity _graphity;
+
+    /**
+     * number of worker threads
+     */
+    protected final int _numWorkers;
+
+    /**
+     * (optional) readers to warm up, the most active first
+     */
+    protected long[] _readers;
+
+    /**
+     * maximum number of readers to warm up
+     */
+    protected int _maxReaders = 10000;
+
+    /**
+     * number of status updates read per news feed
+     */
+    protected int _feedSize = 15;
+
+    /**
+     * maximum duration of the warm-up in milliseconds, <code>0</code> for no
+     * limit
+     */
+    protected long _timeLimit;
+
+    /**
+     * whether the warm-up has been requested to stop
+     */
+    protected volatile boolean _isStopped;
+
+    /**
+     * whether the warm-up has finished
+     */
+    protected volatile boolean _isReady;
+
+    private final CountDownLatch _ready = new CountDownLatch(1);
+
+    private volatile int _numReaders;
+
+    private final AtomicLong _numReadersWarmed = new AtomicLong();
+
+    /**
+     * Creates a warm-up for a graph database.
+     * 
+     * @param graphDb
+     *            graph database to warm up
+     * @param graphity
+     *            Graphity instance serving the news feeds
+     * @param numWorkers
+     *            number of worker threads
+     */
+    public CacheWarmer(
+            GraphDatabaseService graphDb,
+            Neo4jGraphity graphity,
+            int numWorkers) {
+        _graphDb = graphDb;
+        _graphity = graphity;
+        _numWorkers = numWorkers;
+    }
+
+    /**
+     * Specifies the readers to warm up, e.g. loaded from a reader log.
+     * 
+     * @param readers
+     *            identifiers of the readers, the most active first, or
+     *            <b>null</b> to select the users that posted most recently
+     */
+    public void setReaders(long[] readers) {
+        _readers = readers;
+    }
+
+    /**
+     * @param maxReaders
+     *            maximum number of readers to warm up
+     */
+    public void setMaxReaders(int maxReaders) {
+        _maxReaders = maxReaders;
+    }
+
+    /**
+     * @param feedSize
+     *            number of status updates read per news feed
+     */
+    public void setFeedSize(int feedSize) {
+        _feedSize = feedSize;
+    }
+
+    /**
+     * Limits the duration of the warm-up. Readers that have not been warmed
+     * up when the limit is exceeded are skipped.
+     * 
+     * @param timeLimit
+     *            maximum duration in milliseconds, <code>0</code> for no limit
+     */
+    public void setTimeLimit(long timeLimit) {
+        _timeLimit = timeLimit;
+    }
+
+    /**
+     * Runs the warm-up in a background thread.
+     * 
+     * @return thread running the warm-up
+     */
+    public Thread start() {
+        Thread thread = new Thread(this, "cache-warmer");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Requests the warm-up to stop. The warm-up is considered to be ready
+     * once the news feeds in progress have been read.
+     */
+    public void stop() {
+        _isStopped = true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            long deadline =
+                    (_timeLimit > 0) ? System.currentTimeMillis() + _timeLimit
+                            : Long.MAX_VALUE;
+            long[] readers = _readers;
+            if (readers == null) {
+                readers = selectRecentAuthors();
+            }
+            if (readers.length > _maxReaders) {
+                long[] selected = new long[_maxReaders];
+                System.arraycopy(readers, 0, selected, 0, _maxReaders);
+                readers = selected;
+            }
+            _numReaders = readers.length;
+            warmUp(readers, deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            _isReady = true;
+            _ready.countDown();
+        }
+    }
+
+    /**
+     * Selects the users that posted most recently.
+     * 
+     * @return identifiers of the users, the most recent author first
+     * @throws InterruptedException
+     *             if interrupted while scanning the users
+     */
+    protected long[] selectRecentAuthors() throws InterruptedException {
+        // [last post timestamp, user identifier], the oldest author on top
+        PriorityQueue<long[]> authors =
+                new PriorityQueue<>(Math.max(_maxReaders, 1),
+                        new Comparator<long[]>() {
+
+                            @Override
+                            public int compare(long[] a1, long[] a2) {
+                                return Long.compare(a1[0], a2[0]);
+                            }
+                        });
+        try (UserScanner users =
+                new UserScanner(_graphDb, SCAN_BATCH_SIZE, -1)) {
+            long[] batch;
+            while (!_isStopped && (batch = users.nextBatch()) != null) {
+                try (Transaction tx = _graphDb.beginTx()) {
+                    for (long nodeId : batch) {
+                        Node nUser;
+                        try {
+                            nUser = _graphDb.getNodeById(nodeId);
+                        } catch (NotFoundException e) {
+                            // user has been removed meanwhile
+                            continue;
+                        }
+                        long lastPost =
+                                new UserProxy(nUser).getLastPostTimestamp();
+                        if (authors.size() < _maxReaders) {
+                            authors.add(new long[] {
+                                lastPost, UserProxy.readIdentifier(nUser)
+                            });
+                        } else if (_maxReaders > 0
+                                && lastPost > authors.peek()[0]) {
+                            long[] author = authors.poll();
+                            author[0] = lastPost;
+                            author[1] = UserProxy.readIdentifier(nUser);
+                            authors.add(author);
+                        }
+                    }
+                }
+            }
+        }
+        long[] readers = new long[authors.size()];
+        for (int i = readers.length - 1; i >= 0; --i) {
+            readers[i] = authors.poll()[1];
+        }
+        return readers;
+    }
+
+    private void warmUp(final long[] readers, final long deadline)
+            throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(_numWorkers);
+        try {
+            for (int w = 0; w < _numWorkers; ++w) {
+                final int offset = w;
+                workers.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        // the most active readers are warmed up first
+                        for (int i = offset; i < readers.length; i +=
+                                _numWorkers) {
+                            if (_isStopped
+                                    || System.currentTimeMillis() > deadline) {
+                                return;
+                            }
+                            if (_graphity.warmUpStatusUpdates(readers[i],
+                                    _feedSize, DISCARD)) {
+                                _numReadersWarmed.incrementAndGet();
+                            }
+                        }
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * @return true - if the warm-up has finished
+     */
+    public boolean isReady() {
+        return _isReady;
+    }
+
+    /**
+     * Waits for the warm-up to finish.
+     * 
+     * @param timeout
+     *            maximum time to wait
+     * @param unit
+     *            unit of the timeout
+     * @return true - if the warm-up has finished<br>
+     *         false - if the timeout elapsed before
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return _ready.await(timeout, unit);
+    }
+
+    /**
+     * @return number of readers selected for the warm-up, <code>0</code>
+     *         until the readers have been selected
+     */
+    public int getNumReaders() {
+        return _numReaders;
+    }
+
+    /**
+     * @return number of readers whose news feeds have been read
+     */
+    public long getNumReadersWarmed() {
+        return _numReadersWarmed.get();
+    }
+
+    /**
+     * Loads the readers persisted in a reader log file.
+     * 
+     * @param file
+     *            reader log file
+     * @param maxReaders
+     *            maximum number of readers to load
+     * @return identifiers of the readers, the most active first, or
+     *         <b>null</b> if there is no reader log
+     * @throws IOException
+     *             if the reader log could not be read
+     */
+    public static long[] loadReaders(File file, int maxReaders)
+            throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        ReaderLog readerLog = new ReaderLog(maxReaders);
+        readerLog.load(file);
+        return readerLog.getRecentReaders(maxReaders);
+    }
+}
@@ -0,0 +1,384 @@
+package de.uniko.sebschlicht.graphity.neo4j.maintenance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+import de.uniko.sebschlicht.graphity.neo4j.EdgePointerCache;
+import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.NodeType;
+import de.uniko.sebschlicht.graphity.neo4j.Walker;
+import de.uniko.sebschlicht.graphity.neo4j.impl.ReplicaLayer;
+import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
+
+/**
+ * parallel rebuild of the ego networks of all users<br>
+ * Converts followships of the write-optimized model (user -> FOLLOWS -> user)
+ * into replicas of the read-optimized model and sorts the GRAPHITY chain of
+ * each user by the last post timestamps of the users followed. Replicas that
+ * are detached from the chain, e.g. after bulk edits, are linked again.
+ * Chains already in order are left untouched.<br>
+ * Users are scanned in batches that are rebuilt in a transaction each by a
+ * pool of workers. The progress is persisted in a checkpoint once all
+ * batches up to a user have been committed, so an interrupted run resumes
+ * after the last batch completed in scan order.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class EgoNetworkRebuilder implements Runnable {
+
+    /**
+     * graph database to rebuild
+     */
+    protected final GraphDatabaseService _graphDb;
+
+    /**
+     * number of worker threads
+     */
+    protected final int _numWorkers;
+
+    /**
+     * number of users rebuilt per transaction
+     */
+    protected final int _batchSize;
+
+    /**
+     * (optional) checkpoint to resume from
+     */
+    protected ProgressCheckpoint _checkpoint;
+
+    /**
+     * pointer cache to be kept consistent when relinking<br>
+     * a private cache is used if no Graphity instance operates on the
+     * database
+     */
+    protected EdgePointerCache _edgePointers;
+
+    /**
+     * replica layer editor per worker
+     */
+    private final ThreadLocal<ReplicaLayer> _replicaLayers =
+            new ThreadLocal<ReplicaLayer>() {
+
+                @Override
+                protected ReplicaLayer initialValue() {
+                    return new ReplicaLayer(_edgePointers);
+                }
+            };
+
+    /**
+     * whether the rebuild has been requested to stop
+     */
+    protected volatile boolean _isStopped;
+
+    private final AtomicLong _numUsersRebuilt = new AtomicLong();
+
+    private final AtomicLong _numFollowshipsConverted = new AtomicLong();
+
+    private final AtomicLong _numReplicasRelinked = new AtomicLong();
+
+    private final AtomicLong _numTransactions = new AtomicLong();
+
+    private final AtomicLong _numDeadlocks = new AtomicLong();
+
+    /**
+     * Creates a rebuilder for a graph database.
+     * 
+     * @param graphDb
+     *            graph database to rebuild
+     * @param numWorkers
+     *            number of worker threads
+     * @param batchSize
+     *            number of users rebuilt per transaction
+     */
+    public EgoNetworkRebuilder(
+            GraphDatabaseService graphDb,
+            int numWorkers,
+            int batchSize) {
+        _graphDb = graphDb;
+        _numWorkers = numWorkers;
+        _batchSize = batchSize;
+    }
+
+    /**
+     * Persists the progress in a checkpoint to resume an interrupted run.
+     * 
+     * @param checkpoint
+     *            checkpoint holding the last user node processed
+     */
+    public void setCheckpoint(ProgressCheckpoint checkpoint) {
+        _checkpoint = checkpoint;
+    }
+
+    /**
+     * Keeps the pointer cache of a Graphity instance operating on the same
+     * database consistent.
+     * 
+     * @param edgePointers
+     *            pointer cache
+     */
+    public void setEdgePointerCache(EdgePointerCache edgePointers) {
+        _edgePointers = edgePointers;
+    }
+
+    /**
+     * Requests the rebuild to stop once the batches in progress have been
+     * committed.
+     */
+    public void stop() {
+        _isStopped = true;
+    }
+
+    @Override
+    public void run() {
+        boolean isPrivateCache = (_edgePointers == null);
+        if (isPrivateCache) {
+            _edgePointers = new EdgePointerCache(_graphDb, 1024);
+            _graphDb.registerTransactionEventHandler(_edgePointers);
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(_numWorkers);
+        try {
+            long lastNodeId = (_checkpoint != null) ? _checkpoint.load() : -1;
+            Queue<Future<?>> pending = new ArrayDeque<>();
+            Queue<long[]> pendingBatches = new ArrayDeque<>();
+            try (UserScanner users =
+                    new UserScanner(_graphDb, _batchSize, lastNodeId)) {
+                long[] batch;
+                while (!_isStopped && (batch = users.nextBatch()) != null) {
+                    final long[] userNodeIds = batch;
+                    pending.add(workers.submit(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            rebuildBatch(userNodeIds);
+                        }
+                    }));
+                    pendingBatches.add(batch);
+                    // limit the batches held in memory
+                    if (pending.size() >= 2 * _numWorkers) {
+                        complete(pending.poll(), pendingBatches.poll());
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                complete(pending.poll(), pendingBatches.poll());
+            }
+            if (_checkpoint != null && !_isStopped) {
+                _checkpoint.clear();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to access checkpoint", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to rebuild ego networks",
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdownNow();
+            if (isPrivateCache) {
+                _graphDb.unregisterTransactionEventHandler(_edgePointers);
+                _edgePointers = null;
+            }
+        }
+    }
+
+    /**
+     * Waits for the oldest batch in progress and saves the progress.
+     */
+    private void complete(Future<?> rebuild, long[] batch)
+            throws InterruptedException, ExecutionException, IOException {
+        rebuild.get();
+        if (_checkpoint != null) {
+            _checkpoint.save(batch[batch.length - 1]);
+        }
+    }
+
+    /**
+     * Rebuilds the ego networks of a batch of users in a single transaction.
+     * The transaction is retried if it deadlocks with another worker.
+     * 
+     * @param userNodeIds
+     *            identifiers of the user nodes
+     */
+    protected void rebuildBatch(long[] userNodeIds) {
+        ReplicaLayer replicaLayer = _replicaLayers.get();
+        while (true) {
+            long numUsers = 0, numConverted = 0, numRelinked = 0;
+            try (Transaction tx = _edgePointers.beginTx()) {
+                for (long userNodeId : userNodeIds) {
+                    Node nUser;
+                    try {
+                        nUser = _graphDb.getNodeById(userNodeId);
+                    } catch (NotFoundException e) {
+                        // user removed concurrently
+                        continue;
+                    }
+                    tx.acquireWriteLock(nUser);
+                    try {
+                        replicaLayer.load(nUser);
+                        numConverted += convertFollowships(nUser, replicaLayer);
+                        numRelinked += attachReplicas(nUser, replicaLayer);
+                        replicaLayer.link(nUser);
+                    } finally {
+                        replicaLayer.clear();
+                    }
+                    numUsers += 1;
+                }
+                tx.success();
+            } catch (DeadlockDetectedException e) {
+                _numDeadlocks.incrementAndGet();
+                continue;
+            }
+            _numTransactions.incrementAndGet();
+            _numUsersRebuilt.addAndGet(numUsers);
+            _numFollowshipsConverted.addAndGet(numConverted);
+            _numReplicasRelinked.addAndGet(numRelinked);
+            return;
+        }
+    }
+
+    /**
+     * Replaces the followships of a user to other users by replicas.
+     * 
+     * @param nUser
+     *            user node
+     * @param replicaLayer
+     *            replica layer of the user, loaded
+     * @return number of followships converted
+     */
+    private int convertFollowships(Node nUser, ReplicaLayer replicaLayer) {
+        List<Relationship> followships = new ArrayList<>();
+        for (Relationship followship : nUser.getRelationships(
+                EdgeType.FOLLOWS, Direction.OUTGOING)) {
+            if (followship.getEndNode().hasLabel(NodeType.USER)) {
+                followships.add(followship);
+            }
+        }
+        for (Relationship followship : followships) {
+            Node nFollowed = followship.getEndNode();
+            Node nReplica = _graphDb.createNode();
+            nUser.createRelationshipTo(nReplica, EdgeType.FOLLOWS);
+            nReplica.createRelationshipTo(nFollowed, EdgeType.REPLICA);
+            followship.delete();
+            replicaLayer.add(nReplica,
+                    new UserProxy(nFollowed).getLastPostTimestamp());
+        }
+        return followships.size();
+    }
+
+    /**
+     * Adds the replicas of a user that are missing in its GRAPHITY chain to
+     * the replica layer.
+     * 
+     * @param nUser
+     *            user node
+     * @param replicaLayer
+     *            replica layer of the user, loaded
+     * @return number of replicas attached
+     */
+    private int attachReplicas(Node nUser, ReplicaLayer replicaLayer) {
+        Set<Long> replicas = new HashSet<>();
+        for (int i = 0; i < replicaLayer.size(); ++i) {
+            replicas.add(replicaLayer.getReplica(i).getId());
+        }
+        List<Node> detached = new ArrayList<>();
+        for (Relationship followship : nUser.getRelationships(
+                EdgeType.FOLLOWS, Direction.OUTGOING)) {
+            Node nReplica = followship.getEndNode();
+            if (!replicas.contains(nReplica.getId())
+                    && !nReplica.hasLabel(NodeType.USER)
+                    && !nReplica.hasLabel(NodeType.REMOVED_USER)) {
+                detached.add(nReplica);
+            }
+        }
+        for (Node nReplica : detached) {
+            // drop the remains of the replica's former chain position
+            Relationship successor =
+                    nReplica.getSingleRelationship(EdgeType.GRAPHITY,
+                            Direction.OUTGOING);
+            if (successor != null) {
+                _edgePointers.invalidate(nReplica, EdgeType.GRAPHITY);
+                successor.delete();
+            }
+            Node nFollowed = Walker.nextNode(nReplica, EdgeType.REPLICA);
+            replicaLayer.add(nReplica,
+                    new UserProxy(nFollowed).getLastPostTimestamp());
+        }
+        return detached.size();
+    }
+
+    public long getNumUsersRebuilt() {
+        return _numUsersRebuilt.get();
+    }
+
+    public long getNumFollowshipsConverted() {
+        return _numFollowshipsConverted.get();
+    }
+
+    public long getNumReplicasRelinked() {
+        return _numReplicasRelinked.get();
+    }
+
+    public long getNumTransactions() {
+        return _numTransactions.get();
+    }
+
+    public long getNumDeadlocks() {
+        return _numDeadlocks.get();
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1 && args.length != 2) {
+            System.out
+                    .println("usage: EgoNetworkRebuilder <pathNeo4jDb> [numThreads]");
+            throw new IllegalArgumentException("invalid number of arguments");
+        }
+        File fDatabase = new File(args[0]);
+        int numThreads =
+                (args.length == 2) ? Integer.valueOf(args[1]) : Runtime
+                        .getRuntime().availableProcessors();
+
+        final GraphDatabaseService graphDb =
+                new GraphDatabaseFactory().newEmbeddedDatabase(fDatabase
+                        .getAbsolutePath());
+        final EgoNetworkRebuilder rebuilder =
+                new EgoNetworkRebuilder(graphDb, numThreads, 100);
+        rebuilder.setCheckpoint(new ProgressCheckpoint(new File(fDatabase,
+                "rebuild.checkpoint")));
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                rebuilder.stop();
+                graphDb.shutdown();
+                System.out.println("exited.");
+            }
+        });
+        System.out.println("database ready.");
+        rebuilder.run();
+        System.out.println(rebuilder.getNumUsersRebuilt()
+                + " ego networks rebuilt, "
+                + rebuilder.getNumFollowshipsConverted()
+                + " followships converted.");
+    }
+}
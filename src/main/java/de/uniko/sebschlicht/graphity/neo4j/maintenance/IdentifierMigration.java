@@ -0,0 +1,259 @@
+package de.uniko.sebschlicht.graphity.neo4j.maintenance;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import de.uniko.sebschlicht.graphity.neo4j.Neo4jGraphity;
+import de.uniko.sebschlicht.graphity.neo4j.NodeType;
+import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
+
+/**
+ * migration of string user identifiers to native numbers<br>
+ * Scans all user nodes and rewrites string identifiers in parallel batches,
+ * each batch in a transaction of its own. The migration can run while the
+ * social network is in use, if the Graphity instance operating on the
+ * database falls back to string identifiers meanwhile (see
+ * {@link Neo4jGraphity#setLegacyIdentifierLookup(boolean)}).
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class IdentifierMigration {
+
+    /**
+     * interval of the progress output of the command line tool in
+     * milliseconds
+     */
+    private static final long PROGRESS_INTERVAL = 10000;
+
+    /**
+     * graph database to migrate
+     */
+    private final GraphDatabaseService _graphDb;
+
+    /**
+     * number of worker threads
+     */
+    private final int _numThreads;
+
+    /**
+     * number of users migrated per transaction
+     */
+    private final int _batchSize;
+
+    /**
+     * number of user nodes scanned
+     */
+    private final AtomicLong _numScanned;
+
+    /**
+     * number of identifiers rewritten
+     */
+    private final AtomicLong _numMigrated;
+
+    /**
+     * first error that occurred in a worker thread
+     */
+    private final AtomicReference<RuntimeException> _error;
+
+    /**
+     * Creates a migration for a graph database.
+     * 
+     * @param graphDb
+     *            graph database to migrate
+     * @param numThreads
+     *            number of worker threads
+     * @param batchSize
+     *            number of users migrated per transaction
+     */
+    public IdentifierMigration(
+            GraphDatabaseService graphDb,
+            int numThreads,
+            int batchSize) {
+        _graphDb = graphDb;
+        _numThreads = numThreads;
+        _batchSize = batchSize;
+        _numScanned = new AtomicLong();
+        _numMigrated = new AtomicLong();
+        _error = new AtomicReference<>();
+    }
+
+    /**
+     * Migrates all user identifiers that are stored as strings.
+     * 
+     * @return number of identifiers rewritten
+     * @throws InterruptedException
+     *             if interrupted while waiting for the workers
+     */
+    public long run() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(_numThreads);
+        // limit the number of batches in memory
+        final Semaphore batchSlots = new Semaphore(_numThreads * 2);
+        try (Transaction tx = _graphDb.beginTx();
+                ResourceIterator<Node> users =
+                        GlobalGraphOperations.at(_graphDb)
+                                .getAllNodesWithLabel(NodeType.USER)
+                                .iterator()) {
+            long[] batch = new long[_batchSize];
+            int size = 0;
+            Node nUser;
+            while (users.hasNext() && _error.get() == null) {
+                nUser = users.next();
+                _numScanned.incrementAndGet();
+                if (!(nUser.getProperty(UserProxy.PROP_IDENTIFIER, null)
+                        instanceof String)) {
+                    // already migrated
+                    continue;
+                }
+                batch[size] = nUser.getId();
+                size += 1;
+                if (size == _batchSize) {
+                    submit(workers, batchSlots, batch, size);
+                    batch = new long[_batchSize];
+                    size = 0;
+                }
+            }
+            if (size > 0) {
+                submit(workers, batchSlots, batch, size);
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        if (_error.get() != null) {
+            throw new IllegalStateException("identifier migration failed",
+                    _error.get());
+        }
+        return _numMigrated.get();
+    }
+
+    private void submit(
+            ExecutorService workers,
+            final Semaphore batchSlots,
+            final long[] nodeIds,
+            final int size) throws InterruptedException {
+        batchSlots.acquire();
+        workers.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    migrateBatch(nodeIds, size);
+                } catch (RuntimeException e) {
+                    _error.compareAndSet(null, e);
+                } finally {
+                    batchSlots.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Rewrites the identifiers of a batch of user nodes in a single
+     * transaction.
+     * 
+     * @param nodeIds
+     *            identifiers of the user nodes
+     * @param size
+     *            number of node identifiers in the batch
+     */
+    private void migrateBatch(long[] nodeIds, int size) {
+        long numMigrated = 0;
+        try (Transaction tx = _graphDb.beginTx()) {
+            Node nUser;
+            Object identifier;
+            for (int i = 0; i < size; ++i) {
+                nUser = _graphDb.getNodeById(nodeIds[i]);
+                tx.acquireWriteLock(nUser);
+                identifier = nUser.getProperty(UserProxy.PROP_IDENTIFIER, null);
+                if (identifier instanceof String) {
+                    nUser.setProperty(UserProxy.PROP_IDENTIFIER,
+                            Long.parseLong((String) identifier));
+                    numMigrated += 1;
+                }
+            }
+            tx.success();
+        }
+        _numMigrated.addAndGet(numMigrated);
+    }
+
+    /**
+     * @return number of user nodes scanned so far
+     */
+    public long getNumScanned() {
+        return _numScanned.get();
+    }
+
+    /**
+     * @return number of identifiers rewritten so far
+     */
+    public long getNumMigrated() {
+        return _numMigrated.get();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1 || args.length > 3) {
+            System.out
+                    .println("usage: IdentifierMigration <pathNeo4jDb> [numThreads] [batchSize]");
+            throw new IllegalArgumentException("invalid number of arguments");
+        }
+        File fDatabase = new File(args[0]);
+        int numThreads =
+                (args.length > 1) ? Integer.valueOf(args[1]) : Runtime
+                        .getRuntime().availableProcessors();
+        int batchSize = (args.length > 2) ? Integer.valueOf(args[2]) : 10000;
+
+        final GraphDatabaseService graphDb =
+                new GraphDatabaseFactory().newEmbeddedDatabase(fDatabase
+                        .getAbsolutePath());
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                graphDb.shutdown();
+                System.out.println("exited.");
+            }
+        });
+        System.out.println("database ready.");
+        final IdentifierMigration migration =
+                new IdentifierMigration(graphDb, numThreads, batchSize);
+        Thread progress = new Thread("migration-progress") {
+
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(PROGRESS_INTERVAL);
+                        System.out.println("migrated: "
+                                + migration.getNumMigrated() + " (scanned: "
+                                + migration.getNumScanned() + ")");
+                    }
+                } catch (InterruptedException e) {
+                    // migration finished
+                }
+            }
+        };
+        progress.setDaemon(true);
+        progress.start();
+        long numMigrated;
+        try {
+            numMigrated = migration.run();
+        } finally {
+            progress.interrupt();
+        }
+        System.out.println(numMigrated + " of " + migration.getNumScanned()
+                + " user identifiers migrated.");
+    }
+}
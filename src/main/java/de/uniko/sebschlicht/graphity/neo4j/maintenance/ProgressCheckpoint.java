@@ -0,0 +1,83 @@
+package de.uniko.sebschlicht.graphity.neo4j.maintenance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * file holding the progress of a long-running operation<br>
+ * The progress is a single number, e.g. the identifier of the last node
+ * processed. It is replaced atomically, so a crash leaves either the previous
+ * or the new progress behind.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ProgressCheckpoint {
+
+    /**
+     * file holding the progress
+     */
+    private final File _file;
+
+    /**
+     * Creates a checkpoint persisted in a file.
+     * 
+     * @param file
+     *            checkpoint file, created on the first save
+     */
+    public ProgressCheckpoint(
+            File file) {
+        _file = file;
+    }
+
+    /**
+     * Loads the progress persisted.
+     * 
+     * @return progress saved last<br>
+     *         <code>-1</code> - if no progress has been saved yet
+     * @throws IOException
+     *             if the checkpoint file could not be read
+     */
+    public long load() throws IOException {
+        if (!_file.exists()) {
+            return -1;
+        }
+        String progress =
+                new String(Files.readAllBytes(_file.toPath()),
+                        StandardCharsets.UTF_8).trim();
+        return Long.parseLong(progress);
+    }
+
+    /**
+     * Persists the progress.
+     * 
+     * @param progress
+     *            current progress
+     * @throws IOException
+     *             if the checkpoint file could not be written
+     */
+    public void save(long progress) throws IOException {
+        File tmp = new File(_file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(String.valueOf(progress).getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), _file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Removes the checkpoint, e.g. after the operation has completed.
+     * 
+     * @throws IOException
+     *             if the checkpoint file could not be removed
+     */
+    public void clear() throws IOException {
+        Files.deleteIfExists(_file.toPath());
+    }
+}
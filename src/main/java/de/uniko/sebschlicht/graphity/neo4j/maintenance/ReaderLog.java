@@ -0,0 +1,139 @@
+package de.uniko.sebschlicht.graphity.neo4j.maintenance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * bounded log of the users that have read their news feeds recently<br>
+ * News feed reads are recorded in a lock-free ring, so the oldest reads are
+ * overwritten once the log is full. The log can be persisted to select the
+ * readers to be warmed up after a restart.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ReaderLog {
+
+    /**
+     * identifiers of the readers, <code>0</code> for empty slots
+     */
+    private final AtomicLongArray _readers;
+
+    /**
+     * number of reads recorded
+     */
+    private final AtomicLong _numReads = new AtomicLong();
+
+    /**
+     * Creates an empty reader log.
+     * 
+     * @param capacity
+     *            number of reads kept
+     */
+    public ReaderLog(
+            int capacity) {
+        _readers = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Records a news feed read.
+     * 
+     * @param idReader
+     *            reader identifier
+     */
+    public void record(long idReader) {
+        long index = _numReads.getAndIncrement();
+        _readers.set((int) (index % _readers.length()), idReader);
+    }
+
+    /**
+     * Retrieves the readers of the last recent reads.
+     * 
+     * @param maxReaders
+     *            maximum number of readers to retrieve
+     * @return distinct reader identifiers, the last recent reader first
+     */
+    public long[] getRecentReaders(int maxReaders) {
+        long numReads = _numReads.get();
+        int capacity = _readers.length();
+        int numSlots = (int) Math.min(numReads, capacity);
+        long[] readers = new long[Math.min(numSlots, maxReaders)];
+        Set<Long> found = new HashSet<>();
+        int numReaders = 0;
+        for (int i = 1; i <= numSlots && numReaders < readers.length; ++i) {
+            long idReader = _readers.get((int) ((numReads - i) % capacity));
+            if (idReader != 0 && found.add(idReader)) {
+                readers[numReaders] = idReader;
+                numReaders += 1;
+            }
+        }
+        return Arrays.copyOf(readers, numReaders);
+    }
+
+    /**
+     * Persists the distinct readers of the log. The file is replaced
+     * atomically.
+     * 
+     * @param file
+     *            file to write the readers to
+     * @throws IOException
+     *             if the file could not be written
+     */
+    public void save(File file) throws IOException {
+        long[] readers = getRecentReaders(_readers.length());
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+                DataOutputStream out =
+                        new DataOutputStream(new BufferedOutputStream(
+                                fileOut))) {
+            out.writeInt(readers.length);
+            for (long idReader : readers) {
+                out.writeLong(idReader);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the readers persisted into the log.
+     * 
+     * @param file
+     *            file written by {@link #save(File)}, ignored if missing
+     * @throws IOException
+     *             if the file could not be read
+     */
+    public void load(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file)))) {
+            long[] readers = new long[in.readInt()];
+            for (int i = 0; i < readers.length; ++i) {
+                readers[i] = in.readLong();
+            }
+            // record the oldest reader first
+            for (int i = readers.length - 1; i >= 0; --i) {
+                record(readers[i]);
+            }
+        }
+    }
+}
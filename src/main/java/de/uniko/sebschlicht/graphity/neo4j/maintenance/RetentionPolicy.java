@@ -0,0 +1,75 @@
+package de.uniko.sebschlicht.graphity.neo4j.maintenance;
+
+/**
+ * rules which status updates of a user are retained<br>
+ * The last recent status update of a user is always retained, so neither the
+ * user's last post timestamp nor the order of any ego network changes.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class RetentionPolicy {
+
+    /**
+     * maximum age of a status update in milliseconds, <code>0</code> for no
+     * limit
+     */
+    private final long _maxAge;
+
+    /**
+     * maximum number of status updates per user, <code>0</code> for no limit
+     */
+    private final int _maxPostsPerUser;
+
+    /**
+     * Creates a retention policy.
+     * 
+     * @param maxAge
+     *            maximum age of a status update in milliseconds,
+     *            <code>0</code> for no limit
+     * @param maxPostsPerUser
+     *            maximum number of status updates per user, <code>0</code>
+     *            for no limit
+     */
+    public RetentionPolicy(
+            long maxAge,
+            int maxPostsPerUser) {
+        if (maxAge < 0 || maxPostsPerUser < 0) {
+            throw new IllegalArgumentException(
+                    "retention limits must not be negative");
+        }
+        _maxAge = maxAge;
+        _maxPostsPerUser = maxPostsPerUser;
+    }
+
+    public long getMaxAge() {
+        return _maxAge;
+    }
+
+    public int getMaxPostsPerUser() {
+        return _maxPostsPerUser;
+    }
+
+    /**
+     * Checks whether a status update is retained.
+     * 
+     * @param index
+     *            position of the status update in the author's PUBLISHED
+     *            chain, <code>0</code> for the last recent one
+     * @param published
+     *            timestamp of publishing
+     * @param now
+     *            current timestamp
+     * @return true - if the status update is retained<br>
+     *         false - if the status update and all older ones may be removed
+     */
+    public boolean isRetained(int index, long published, long now) {
+        if (index == 0) {
+            return true;
+        }
+        if (_maxPostsPerUser > 0 && index >= _maxPostsPerUser) {
+            return false;
+        }
+        return (_maxAge == 0 || now - published <= _maxAge);
+    }
+}
@@ -0,0 +1,474 @@
+package de.uniko.sebschlicht.graphity.neo4j.maintenance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import de.uniko.sebschlicht.graphity.neo4j.EdgePointerCache;
+import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.Walker;
+import de.uniko.sebschlicht.graphity.neo4j.archive.PostArchive;
+import de.uniko.sebschlicht.graphity.neo4j.model.StatusUpdateProxy;
+import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
+
+/**
+ * background pruning of status updates according to a retention policy<br>
+ * Truncates the tails of the users' PUBLISHED chains in small transactions,
+ * pausing between them to limit the impact on regular requests. The ACTIVITY
+ * chains, present if activity is recorded as events, are truncated according
+ * to the same policy. The progress
+ * can be persisted in a checkpoint, so an interrupted run resumes with the
+ * user it was interrupted at.<br>
+ * If a post archive is attached, the status updates are moved to the archive
+ * instead of being dropped. Each batch is archived before the transaction
+ * removing it commits, and status updates found in the archive already are
+ * not archived again when a run is resumed, even if the batch boundaries
+ * have shifted in the meantime.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class RetentionPruner implements Runnable {
+
+    /**
+     * number of users scanned per batch
+     */
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    /**
+     * graph database to prune
+     */
+    protected final GraphDatabaseService _graphDb;
+
+    /**
+     * retention policy to apply
+     */
+    protected final RetentionPolicy _policy;
+
+    /**
+     * maximum number of status updates removed per transaction
+     */
+    protected final int _batchSize;
+
+    /**
+     * pause between two transactions in milliseconds
+     */
+    protected final long _pause;
+
+    /**
+     * (optional) checkpoint to resume from
+     */
+    protected ProgressCheckpoint _checkpoint;
+
+    /**
+     * (optional) pointer cache of the Graphity instance operating on the
+     * database
+     */
+    protected EdgePointerCache _edgePointers;
+
+    /**
+     * (optional) archive to move the status updates removed to
+     */
+    protected PostArchive _archive;
+
+    private long[] _archivePublished;
+
+    private long[] _archiveIdentifiers;
+
+    private String[] _archiveMessages;
+
+    /**
+     * whether the pruning has been requested to stop
+     */
+    protected volatile boolean _isStopped;
+
+    private final AtomicLong _numUsersScanned = new AtomicLong();
+
+    private final AtomicLong _numUsersPruned = new AtomicLong();
+
+    private final AtomicLong _numPostsRemoved = new AtomicLong();
+
+    private final AtomicLong _numEventsRemoved = new AtomicLong();
+
+    private final AtomicLong _numTransactions = new AtomicLong();
+
+    /**
+     * Creates a pruner for a graph database.
+     * 
+     * @param graphDb
+     *            graph database to prune
+     * @param policy
+     *            retention policy to apply
+     * @param batchSize
+     *            maximum number of status updates removed per transaction
+     * @param pause
+     *            pause between two transactions in milliseconds
+     */
+    public RetentionPruner(
+            GraphDatabaseService graphDb,
+            RetentionPolicy policy,
+            int batchSize,
+            long pause) {
+        _graphDb = graphDb;
+        _policy = policy;
+        _batchSize = batchSize;
+        _pause = pause;
+    }
+
+    /**
+     * Persists the progress in a checkpoint to resume an interrupted run.
+     * 
+     * @param checkpoint
+     *            checkpoint holding the last user node processed
+     */
+    public void setCheckpoint(ProgressCheckpoint checkpoint) {
+        _checkpoint = checkpoint;
+    }
+
+    /**
+     * Keeps the pointer cache of a Graphity instance operating on the same
+     * database consistent.
+     * 
+     * @param edgePointers
+     *            pointer cache
+     */
+    public void setEdgePointerCache(EdgePointerCache edgePointers) {
+        _edgePointers = edgePointers;
+    }
+
+    /**
+     * Moves the status updates removed to an archive instead of dropping
+     * them.
+     * 
+     * @param archive
+     *            post archive
+     */
+    public void setPostArchive(PostArchive archive) {
+        _archive = archive;
+        _archivePublished = new long[_batchSize];
+        _archiveIdentifiers = new long[_batchSize];
+        _archiveMessages = new String[_batchSize];
+    }
+
+    /**
+     * Requests the pruning to stop after the current transaction.
+     */
+    public void stop() {
+        _isStopped = true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            long lastNodeId = (_checkpoint != null) ? _checkpoint.load() : -1;
+            long now = System.currentTimeMillis();
+            try (UserScanner users =
+                    new UserScanner(_graphDb, SCAN_BATCH_SIZE, lastNodeId)) {
+                long[] batch;
+                while (!_isStopped && (batch = users.nextBatch()) != null) {
+                    for (long userNodeId : batch) {
+                        if (_isStopped) {
+                            return;
+                        }
+                        pruneUser(userNodeId, now);
+                        _numUsersScanned.incrementAndGet();
+                    }
+                    if (_checkpoint != null) {
+                        _checkpoint.save(batch[batch.length - 1]);
+                    }
+                }
+            }
+            if (_checkpoint != null && !_isStopped) {
+                _checkpoint.clear();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to access checkpoint", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes the status updates and activity events of a user that are not
+     * retained.
+     * 
+     * @param userNodeId
+     *            identifier of the user node
+     * @param now
+     *            timestamp the retention policy is evaluated against
+     * @throws InterruptedException
+     *             if interrupted while pausing
+     */
+    protected void pruneUser(long userNodeId, long now)
+            throws InterruptedException {
+        try {
+            boolean isPruned =
+                    pruneChain(userNodeId, EdgeType.PUBLISHED, now);
+            if (!_isStopped
+                    && pruneChain(userNodeId, EdgeType.ACTIVITY, now)) {
+                isPruned = true;
+            }
+            if (isPruned) {
+                _numUsersPruned.incrementAndGet();
+            }
+        } catch (NotFoundException e) {
+            // user or status update removed concurrently
+        }
+    }
+
+    /**
+     * Removes the nodes of a chain of a user that are not retained.
+     * 
+     * @param userNodeId
+     *            identifier of the user node
+     * @param chain
+     *            type of the chain's edges, PUBLISHED or ACTIVITY
+     * @param now
+     *            timestamp the retention policy is evaluated against
+     * @return true - if nodes of the chain were not retained<br>
+     *         false - if all nodes of the chain are retained
+     * @throws InterruptedException
+     *             if interrupted while pausing
+     */
+    private boolean pruneChain(long userNodeId, EdgeType chain, long now)
+            throws InterruptedException {
+        long keptNodeId = findLastRetained(userNodeId, chain, now);
+        if (keptNodeId == -1) {
+            return false;
+        }
+        boolean isTruncated = false;
+        while (!isTruncated && !_isStopped) {
+            try (Transaction tx = beginWriteTx()) {
+                Node nUser = _graphDb.getNodeById(userNodeId);
+                tx.acquireWriteLock(nUser);
+                if (_archive != null && chain == EdgeType.PUBLISHED) {
+                    archive(UserProxy.readIdentifier(nUser),
+                            _graphDb.getNodeById(keptNodeId), _batchSize);
+                }
+                isTruncated =
+                        truncate(_graphDb.getNodeById(keptNodeId), chain,
+                                _batchSize);
+                tx.success();
+            }
+            _numTransactions.incrementAndGet();
+            if (_pause > 0) {
+                Thread.sleep(_pause);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Searches the last node of a chain of a user that is retained.
+     * 
+     * @param userNodeId
+     *            identifier of the user node
+     * @param chain
+     *            type of the chain's edges
+     * @param now
+     *            timestamp the retention policy is evaluated against
+     * @return identifier of the oldest node retained<br>
+     *         <code>-1</code> - if all nodes are retained
+     */
+    private long findLastRetained(long userNodeId, EdgeType chain, long now) {
+        try (Transaction tx = _graphDb.beginTx()) {
+            Node nUser = _graphDb.getNodeById(userNodeId);
+            Node nPost = Walker.nextNode(nUser, chain);
+            Node nLastRetained = null;
+            long published;
+            int index = 0;
+            while (nPost != null) {
+                // activity events share the property
+                published =
+                        (long) nPost
+                                .getProperty(StatusUpdateProxy.PROP_PUBLISHED);
+                if (!_policy.isRetained(index, published, now)) {
+                    return nLastRetained.getId();
+                }
+                nLastRetained = nPost;
+                nPost = Walker.nextNode(nPost, chain);
+                index += 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the status updates that the next truncation removes to the
+     * archive.
+     * 
+     * @param idAuthor
+     *            author identifier
+     * @param nLastRetained
+     *            oldest status update node retained
+     * @param maxPosts
+     *            maximum number of status updates to archive
+     */
+    protected void archive(long idAuthor, Node nLastRetained, int maxPosts) {
+        Node nPost = Walker.nextNode(nLastRetained, EdgeType.PUBLISHED);
+        int numPosts = 0;
+        while (nPost != null && numPosts < maxPosts) {
+            _archivePublished[numPosts] =
+                    (long) nPost.getProperty(StatusUpdateProxy.PROP_PUBLISHED);
+            // bootstrapped status updates have no identifier
+            _archiveIdentifiers[numPosts] =
+                    (long) nPost.getProperty(StatusUpdateProxy.PROP_IDENTIFIER,
+                            0L);
+            _archiveMessages[numPosts] =
+                    (String) nPost.getProperty(StatusUpdateProxy.PROP_MESSAGE);
+            numPosts += 1;
+            nPost = Walker.nextNode(nPost, EdgeType.PUBLISHED);
+        }
+        if (numPosts == 0) {
+            return;
+        }
+        try {
+            // skip status updates archived before an interruption
+            int runStart = 0;
+            for (int i = 0; i < numPosts; ++i) {
+                if (_archive.isArchived(idAuthor, _archivePublished[i],
+                        _archiveIdentifiers[i])) {
+                    _archive.append(idAuthor, _archivePublished,
+                            _archiveIdentifiers, _archiveMessages, runStart,
+                            i - runStart);
+                    runStart = i + 1;
+                }
+            }
+            _archive.append(idAuthor, _archivePublished, _archiveIdentifiers,
+                    _archiveMessages, runStart, numPosts - runStart);
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to archive status updates"
+                    + " of user " + idAuthor, e);
+        } finally {
+            for (int i = 0; i < numPosts; ++i) {
+                _archiveMessages[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Removes the nodes following a node in its chain.
+     * 
+     * @param nLastRetained
+     *            oldest node retained
+     * @param chain
+     *            type of the chain's edges, PUBLISHED or ACTIVITY
+     * @param maxPosts
+     *            maximum number of nodes to remove
+     * @return true - if the chain ends at the node retained now<br>
+     *         false - if there are further nodes to remove
+     */
+    protected boolean truncate(
+            Node nLastRetained,
+            EdgeType chain,
+            int maxPosts) {
+        invalidate(nLastRetained, chain);
+        Node nPost = Walker.nextNode(nLastRetained, chain);
+        if (nPost == null) {
+            return true;
+        }
+        nLastRetained.getSingleRelationship(chain, Direction.OUTGOING)
+                .delete();
+        Node nNext;
+        int numRemoved = 0;
+        while (nPost != null && numRemoved < maxPosts) {
+            invalidate(nPost, chain);
+            nNext = Walker.nextNode(nPost, chain);
+            if (nNext != null) {
+                nPost.getSingleRelationship(chain, Direction.OUTGOING)
+                        .delete();
+            }
+            nPost.delete();
+            numRemoved += 1;
+            nPost = nNext;
+        }
+        if (chain == EdgeType.PUBLISHED) {
+            _numPostsRemoved.addAndGet(numRemoved);
+        } else {
+            _numEventsRemoved.addAndGet(numRemoved);
+        }
+        if (nPost != null) {
+            // further nodes are removed in the next transaction
+            nLastRetained.createRelationshipTo(nPost, chain);
+            return false;
+        }
+        return true;
+    }
+
+    private Transaction beginWriteTx() {
+        return (_edgePointers != null)
+                ? _edgePointers.beginTx()
+                : _graphDb.beginTx();
+    }
+
+    private void invalidate(Node nPost, EdgeType chain) {
+        if (_edgePointers != null) {
+            _edgePointers.invalidate(nPost, chain);
+        }
+    }
+
+    public long getNumUsersScanned() {
+        return _numUsersScanned.get();
+    }
+
+    public long getNumUsersPruned() {
+        return _numUsersPruned.get();
+    }
+
+    public long getNumPostsRemoved() {
+        return _numPostsRemoved.get();
+    }
+
+    public long getNumEventsRemoved() {
+        return _numEventsRemoved.get();
+    }
+
+    public long getNumTransactions() {
+        return _numTransactions.get();
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 3 && args.length != 4) {
+            System.out
+                    .println("usage: RetentionPruner <pathNeo4jDb> <maxAgeDays> <maxPostsPerUser> [pathArchive]");
+            throw new IllegalArgumentException("invalid number of arguments");
+        }
+        File fDatabase = new File(args[0]);
+        long maxAge = Long.valueOf(args[1]) * 24 * 60 * 60 * 1000;
+        int maxPostsPerUser = Integer.valueOf(args[2]);
+
+        final GraphDatabaseService graphDb =
+                new GraphDatabaseFactory().newEmbeddedDatabase(fDatabase
+                        .getAbsolutePath());
+        final RetentionPruner pruner =
+                new RetentionPruner(graphDb, new RetentionPolicy(maxAge,
+                        maxPostsPerUser), 1000, 0);
+        pruner.setCheckpoint(new ProgressCheckpoint(new File(fDatabase,
+                "retention.checkpoint")));
+        if (args.length == 4) {
+            pruner.setPostArchive(new PostArchive(new File(args[3])));
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                pruner.stop();
+                graphDb.shutdown();
+                System.out.println("exited.");
+            }
+        });
+        System.out.println("database ready.");
+        pruner.run();
+        System.out.println(pruner.getNumPostsRemoved()
+                + " status updates and " + pruner.getNumEventsRemoved()
+                + " activity events of " + pruner.getNumUsersPruned()
+                + " users removed.");
+    }
+}
@@ -0,0 +1,151 @@
+package de.uniko.sebschlicht.graphity.neo4j.maintenance;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import de.uniko.sebschlicht.graphity.neo4j.NodeType;
+
+/**
+ * background scan of all user nodes in batches of node identifiers<br>
+ * The label scan runs in a read transaction of a thread of its own, so the
+ * consumer can process the batches in transactions of its own. User nodes are
+ * scanned in ascending node identifier order, which allows to resume a scan
+ * after the last user processed.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class UserScanner implements AutoCloseable {
+
+    /**
+     * marker for the end of the scan
+     */
+    private static final long[] END = new long[0];
+
+    /**
+     * batches scanned but not consumed yet
+     */
+    private final BlockingQueue<long[]> _batches;
+
+    /**
+     * thread scanning the user nodes
+     */
+    private final Thread _scanner;
+
+    /**
+     * error that stopped the scan
+     */
+    private volatile RuntimeException _error;
+
+    /**
+     * whether the end of the scan has been consumed
+     */
+    private boolean _isExhausted;
+
+    /**
+     * Starts to scan the user nodes of a graph database.
+     * 
+     * @param graphDb
+     *            graph database to scan
+     * @param batchSize
+     *            number of user nodes per batch
+     * @param lastNodeId
+     *            identifier of the last user node processed before, users up
+     *            to this node are skipped; <code>-1</code> to scan all users
+     */
+    public UserScanner(
+            final GraphDatabaseService graphDb,
+            final int batchSize,
+            final long lastNodeId) {
+        _batches = new ArrayBlockingQueue<>(4);
+        _scanner = new Thread("user-scanner") {
+
+            @Override
+            public void run() {
+                try {
+                    scan(graphDb, batchSize, lastNodeId);
+                } catch (RuntimeException e) {
+                    _error = e;
+                } catch (InterruptedException e) {
+                    // scan was closed
+                    return;
+                }
+                try {
+                    _batches.put(END);
+                } catch (InterruptedException e) {
+                    // scan was closed
+                }
+            }
+        };
+        _scanner.setDaemon(true);
+        _scanner.start();
+    }
+
+    private void scan(
+            GraphDatabaseService graphDb,
+            int batchSize,
+            long lastNodeId) throws InterruptedException {
+        try (Transaction tx = graphDb.beginTx();
+                ResourceIterator<Node> users =
+                        GlobalGraphOperations.at(graphDb)
+                                .getAllNodesWithLabel(NodeType.USER)
+                                .iterator()) {
+            long[] batch = new long[batchSize];
+            int size = 0;
+            long nodeId;
+            while (users.hasNext()) {
+                nodeId = users.next().getId();
+                if (nodeId <= lastNodeId) {
+                    continue;
+                }
+                batch[size] = nodeId;
+                size += 1;
+                if (size == batchSize) {
+                    _batches.put(batch);
+                    batch = new long[batchSize];
+                    size = 0;
+                }
+            }
+            if (size > 0) {
+                _batches.put(Arrays.copyOf(batch, size));
+            }
+        }
+    }
+
+    /**
+     * Retrieves the next batch of user nodes.
+     * 
+     * @return identifiers of the next user nodes in ascending order<br>
+     *         <b>null</b> - if all user nodes have been scanned
+     * @throws InterruptedException
+     *             if interrupted while waiting for the scan
+     * @throws IllegalStateException
+     *             if the scan failed
+     */
+    public long[] nextBatch() throws InterruptedException {
+        if (_isExhausted) {
+            return null;
+        }
+        long[] batch = _batches.take();
+        if (batch == END) {
+            _isExhausted = true;
+            if (_error != null) {
+                throw new IllegalStateException("user scan failed", _error);
+            }
+            return null;
+        }
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        _scanner.interrupt();
+    }
+}
@@ -0,0 +1,44 @@
+package de.uniko.sebschlicht.graphity.neo4j.model;
+
+import org.neo4j.graphdb.Node;
+
+import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.Walker;
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats;
+
+/**
+ * reusable cursor over the activity events recorded for a single user<br>
+ * Walks the user's ACTIVITY chain and presents each event record as status
+ * update, so events can be merged into news feeds alongside status updates.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ActivityCursor extends PostCursor {
+
+    @Override
+    public PostCursor reset(Node nUser, Node nReplica) {
+        _author.reset(nUser);
+        _nReplica = nReplica;
+        moveTo(Walker.nextNode(nUser, EdgeType.ACTIVITY));
+        return this;
+    }
+
+    @Override
+    public void advance() {
+        if (_nStatusUpdate != null) {
+            moveTo(Walker.nextNode(_nStatusUpdate, EdgeType.ACTIVITY));
+        }
+    }
+
+    @Override
+    public String getCrrMessage() {
+        TraversalStats.propertiesRead(2);
+        return ActivityType.valueOf(
+                (String) _nStatusUpdate
+                        .getProperty(ActivityEventProxy.PROP_TYPE))
+                .getMessage(
+                        (long[]) _nStatusUpdate
+                                .getProperty(ActivityEventProxy.PROP_TARGETS));
+    }
+}
@@ -0,0 +1,118 @@
+package de.uniko.sebschlicht.graphity.neo4j.model;
+
+import java.util.Arrays;
+
+import org.neo4j.graphdb.Node;
+
+/**
+ * node proxy for a system activity event<br>
+ * An event record stores the identifiers of the users involved only. Events
+ * of the same type may be coalesced into a single record.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ActivityEventProxy extends SocialNodeProxy {
+
+    /**
+     * activity type
+     */
+    public static final String PROP_TYPE = "activity";
+
+    /**
+     * date and time the last recent activity was recorded
+     */
+    public static final String PROP_PUBLISHED =
+            StatusUpdateProxy.PROP_PUBLISHED;
+
+    /**
+     * identifiers of the users involved, the last recent first
+     */
+    public static final String PROP_TARGETS = "targets";
+
+    /**
+     * maximum number of activities coalesced into a single record
+     */
+    public static final int MAX_TARGETS = 32;
+
+    /**
+     * Create an activity event node proxy to provide data access and
+     * manipulation.
+     * 
+     * @param nEvent
+     *            activity event node to get and set data
+     */
+    public ActivityEventProxy(
+            Node nEvent) {
+        super(nEvent);
+    }
+
+    /**
+     * Initializes the activity event node wrapped by this proxy.
+     * 
+     * @param type
+     *            activity type
+     * @param published
+     *            timestamp of the activity
+     * @param idTarget
+     *            identifier of the user involved
+     */
+    public void initNode(ActivityType type, long published, long idTarget) {
+        _node.setProperty(PROP_TYPE, type.name());
+        _node.setProperty(PROP_PUBLISHED, published);
+        _node.setProperty(PROP_TARGETS, new long[] {
+            idTarget
+        });
+    }
+
+    /**
+     * Checks whether an activity can be coalesced into this event.
+     * 
+     * @param type
+     *            activity type
+     * @param published
+     *            timestamp of the activity
+     * @param window
+     *            maximum age of this event in milliseconds
+     * @return true - if the activity can be added to this event
+     */
+    public boolean canCoalesce(ActivityType type, long published, long window) {
+        return type == getType() && published - getPublished() <= window
+                && getTargets().length < MAX_TARGETS;
+    }
+
+    /**
+     * Coalesces an activity into this event.
+     * 
+     * @param published
+     *            timestamp of the activity
+     * @param idTarget
+     *            identifier of the user involved
+     */
+    public void coalesce(long published, long idTarget) {
+        long[] targets = getTargets();
+        long[] coalesced = new long[targets.length + 1];
+        coalesced[0] = idTarget;
+        System.arraycopy(targets, 0, coalesced, 1, targets.length);
+        _node.setProperty(PROP_TARGETS, coalesced);
+        _node.setProperty(PROP_PUBLISHED, published);
+    }
+
+    public ActivityType getType() {
+        return ActivityType.valueOf((String) _node.getProperty(PROP_TYPE));
+    }
+
+    public long getPublished() {
+        return (long) _node.getProperty(PROP_PUBLISHED);
+    }
+
+    public long[] getTargets() {
+        long[] targets = (long[]) _node.getProperty(PROP_TARGETS);
+        return Arrays.copyOf(targets, targets.length);
+    }
+
+    public String getMessage() {
+        return getType().getMessage(
+                (long[]) _node.getProperty(PROP_TARGETS));
+    }
+}
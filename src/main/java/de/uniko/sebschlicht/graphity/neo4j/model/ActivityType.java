@@ -0,0 +1,69 @@
+package de.uniko.sebschlicht.graphity.neo4j.model;
+
+/**
+ * kinds of system activity events
+ * 
+ * @author sebschlicht
+ * 
+ */
+public enum ActivityType {
+
+    /**
+     * user followed other users
+     */
+    FOLLOWS("now follows "),
+
+    /**
+     * user has been followed by other users
+     */
+    FOLLOWED("has new follower "),
+
+    /**
+     * user unfollowed other users
+     */
+    UNFOLLOWS("did unfollow "),
+
+    /**
+     * user has been unfollowed by other users
+     */
+    UNFOLLOWED("was unfollowed by ");
+
+    /**
+     * message prefix preceding the users involved
+     */
+    private final String _messagePrefix;
+
+    private ActivityType(
+            String messagePrefix) {
+        _messagePrefix = messagePrefix;
+    }
+
+    /**
+     * Builds the message displayed for an activity.
+     * 
+     * @param idTarget
+     *            identifier of the user involved
+     * @return activity message
+     */
+    public String getMessage(String idTarget) {
+        return _messagePrefix + idTarget;
+    }
+
+    /**
+     * Builds the message displayed for coalesced activities.
+     * 
+     * @param targets
+     *            identifiers of the users involved, the last recent first
+     * @return activity message
+     */
+    public String getMessage(long[] targets) {
+        StringBuilder message = new StringBuilder(_messagePrefix);
+        for (int i = 0; i < targets.length; ++i) {
+            if (i > 0) {
+                message.append(", ");
+            }
+            message.append(targets[i]);
+        }
+        return message.toString();
+    }
+}
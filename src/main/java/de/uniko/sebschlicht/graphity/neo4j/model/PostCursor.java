@@ -0,0 +1,230 @@
+package de.uniko.sebschlicht.graphity.neo4j.model;
+
+import org.neo4j.graphdb.Node;
+
+import de.uniko.sebschlicht.graphity.neo4j.EdgePointerCache;
+import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.Walker;
+import de.uniko.sebschlicht.graphity.neo4j.archive.ArchiveCursor;
+import de.uniko.sebschlicht.graphity.neo4j.archive.PostArchive;
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats;
+import de.uniko.sebschlicht.socialnet.StatusUpdate;
+
+/**
+ * reusable cursor over the status updates published by a single user<br>
+ * Walks the user's PUBLISHED chain from the last recent status update on
+ * and caches the publishing timestamp of the status update it is positioned
+ * at. In contrast to the {@link UserPostIterator} no proxy is allocated per
+ * status update.<br>
+ * If a post archive is attached, the cursor continues with the user's
+ * archived status updates when the PUBLISHED chain ends.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class PostCursor {
+
+    /**
+     * (optional) pointer cache to walk the PUBLISHED chain
+     */
+    protected final EdgePointerCache _edgePointers;
+
+    /**
+     * author of the status updates
+     */
+    protected final UserCursor _author;
+
+    /**
+     * (optional) replica node the author was reached via
+     */
+    protected Node _nReplica;
+
+    /**
+     * status update node the cursor is positioned at
+     */
+    protected Node _nStatusUpdate;
+
+    /**
+     * (cached) timestamp of publishing of the current status update
+     */
+    protected long _published;
+
+    /**
+     * (optional) archive holding status updates removed from the graph
+     */
+    protected PostArchive _archive;
+
+    /**
+     * (lazy) cursor over the author's archived status updates
+     */
+    protected ArchiveCursor _archived;
+
+    /**
+     * whether the cursor has left the PUBLISHED chain for the archive
+     */
+    protected boolean _isArchived;
+
+    /**
+     * Creates a cursor that has to be positioned via
+     * {@link #reset(Node, Node)} before use.
+     * 
+     * @param edgePointers
+     *            (optional) pointer cache to walk the PUBLISHED chain
+     */
+    public PostCursor(
+            EdgePointerCache edgePointers) {
+        _edgePointers = edgePointers;
+        _author = new UserCursor();
+    }
+
+    /**
+     * Creates a cursor that has to be positioned via
+     * {@link #reset(Node, Node)} before use.
+     */
+    public PostCursor() {
+        this(null);
+    }
+
+    /**
+     * Attaches a post archive to continue with when the PUBLISHED chain
+     * ends.
+     * 
+     * @param archive
+     *            post archive or <b>null</b> to stop at the chain's end
+     */
+    public void setPostArchive(PostArchive archive) {
+        _archive = archive;
+    }
+
+    /**
+     * Positions the cursor at the last recent status update of a user.
+     * 
+     * @param nUser
+     *            author node
+     * @param nReplica
+     *            (optional) replica node the author was reached via
+     * @return this cursor
+     */
+    public PostCursor reset(Node nUser, Node nReplica) {
+        _author.reset(nUser);
+        _nReplica = nReplica;
+        _isArchived = false;
+        moveTo(Walker.nextNode(nUser, EdgeType.PUBLISHED, _edgePointers));
+        return this;
+    }
+
+    /**
+     * Detaches the cursor from any node it references.
+     */
+    public void release() {
+        _author.release();
+        _nReplica = null;
+        _nStatusUpdate = null;
+        if (_archived != null) {
+            _archived.release();
+        }
+        _isArchived = false;
+    }
+
+    /**
+     * Moves the cursor to the next older status update of the author.
+     */
+    public void advance() {
+        if (_isArchived) {
+            _archived.advance();
+            _published = _archived.hasPost() ? _archived.getCrrPublished() : 0;
+        } else if (_nStatusUpdate != null) {
+            Node nNext =
+                    Walker.nextNode(_nStatusUpdate, EdgeType.PUBLISHED,
+                            _edgePointers);
+            if (nNext == null && _archive != null) {
+                continueInArchive();
+            } else {
+                moveTo(nNext);
+            }
+        }
+    }
+
+    /**
+     * Leaves the PUBLISHED chain for the author's archived status updates
+     * that are older than the status update the cursor is positioned at.
+     */
+    private void continueInArchive() {
+        long boundaryIdentifier =
+                (long) _nStatusUpdate
+                        .getProperty(StatusUpdateProxy.PROP_IDENTIFIER, 0L);
+        _nStatusUpdate = null;
+        if (_archived == null) {
+            _archived = new ArchiveCursor();
+        }
+        _isArchived =
+                _archived.reset(_archive, _author.getIdentifier(),
+                        _published, boundaryIdentifier);
+        _published = _isArchived ? _archived.getCrrPublished() : 0;
+    }
+
+    /**
+     * Positions the cursor at a status update node.
+     * 
+     * @param nStatusUpdate
+     *            status update node or <b>null</b> if the author's status
+     *            updates are exhausted
+     */
+    protected void moveTo(Node nStatusUpdate) {
+        _nStatusUpdate = nStatusUpdate;
+        if (nStatusUpdate != null) {
+            TraversalStats.propertyRead();
+            _published =
+                    (long) nStatusUpdate
+                            .getProperty(StatusUpdateProxy.PROP_PUBLISHED);
+        } else {
+            _published = 0;
+        }
+    }
+
+    /**
+     * @return true - if the cursor is positioned at a status update<br>
+     *         false - if the author's status updates are exhausted
+     */
+    public boolean hasPost() {
+        if (_isArchived) {
+            return _archived.hasPost();
+        }
+        return (_nStatusUpdate != null);
+    }
+
+    /**
+     * @return timestamp of publishing of the current status update<br>
+     *         <code>0</code> if the status updates are exhausted
+     */
+    public long getCrrPublished() {
+        return _published;
+    }
+
+    public String getCrrMessage() {
+        if (_isArchived) {
+            return _archived.getCrrMessage();
+        }
+        TraversalStats.propertyRead();
+        return (String) _nStatusUpdate
+                .getProperty(StatusUpdateProxy.PROP_MESSAGE);
+    }
+
+    /**
+     * Materializes the current status update.
+     * 
+     * @return status update the cursor is positioned at
+     */
+    public StatusUpdate getCrrStatusUpdate() {
+        return new StatusUpdate(String.valueOf(_author.getIdentifier()),
+                _published, getCrrMessage());
+    }
+
+    public UserCursor getAuthor() {
+        return _author;
+    }
+
+    public Node getReplicaNode() {
+        return _nReplica;
+    }
+}
@@ -0,0 +1,226 @@
+package de.uniko.sebschlicht.graphity.neo4j.model;
+
+import de.uniko.sebschlicht.graphity.neo4j.EdgePointerCache;
+import de.uniko.sebschlicht.graphity.neo4j.archive.PostArchive;
+
+/**
+ * max-heap of post cursors ordered by the publishing timestamp of their
+ * current status updates<br>
+ * Owns a pool of cursors that is recycled on {@link #clear()}, so a heap
+ * instance can serve any number of news feed requests of a single thread
+ * without further allocations.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class PostCursorHeap {
+
+    /**
+     * (optional) pointer cache handed to the pooled cursors
+     */
+    private final EdgePointerCache _edgePointers;
+
+    /**
+     * (optional) post archive attached to the cursors handed out
+     */
+    private PostArchive _postArchive;
+
+    /**
+     * cursors handed out since the last clear, reused afterwards
+     */
+    private PostCursor[] _pool;
+
+    /**
+     * number of pooled cursors currently in use
+     */
+    private int _numAcquired;
+
+    /**
+     * activity cursors handed out since the last clear, reused afterwards
+     */
+    private PostCursor[] _activityPool;
+
+    /**
+     * number of pooled activity cursors currently in use
+     */
+    private int _numActivityAcquired;
+
+    /**
+     * binary heap of cursors
+     */
+    private PostCursor[] _heap;
+
+    /**
+     * number of cursors in the heap
+     */
+    private int _size;
+
+    /**
+     * Creates an empty heap.
+     * 
+     * @param initialCapacity
+     *            number of cursors to be allocated upfront
+     * @param edgePointers
+     *            (optional) pointer cache to walk PUBLISHED chains
+     */
+    public PostCursorHeap(
+            int initialCapacity,
+            EdgePointerCache edgePointers) {
+        _edgePointers = edgePointers;
+        _pool = new PostCursor[initialCapacity];
+        _activityPool = new PostCursor[initialCapacity];
+        _heap = new PostCursor[initialCapacity];
+    }
+
+    /**
+     * Attaches a post archive to the cursors handed out from now on.
+     * 
+     * @param postArchive
+     *            post archive or <b>null</b> to read the graph only
+     */
+    public void setPostArchive(PostArchive postArchive) {
+        _postArchive = postArchive;
+    }
+
+    /**
+     * Hands out an unused cursor of the pool.
+     * 
+     * @return cursor that has to be positioned before use
+     */
+    public PostCursor acquire() {
+        if (_numAcquired == _pool.length) {
+            _pool = grow(_pool);
+        }
+        PostCursor cursor = _pool[_numAcquired];
+        if (cursor == null) {
+            cursor = new PostCursor(_edgePointers);
+            _pool[_numAcquired] = cursor;
+        }
+        cursor.setPostArchive(_postArchive);
+        _numAcquired += 1;
+        return cursor;
+    }
+
+    /**
+     * Hands out an unused activity cursor of the pool.
+     * 
+     * @return activity cursor that has to be positioned before use
+     */
+    public PostCursor acquireActivityCursor() {
+        if (_numActivityAcquired == _activityPool.length) {
+            _activityPool = grow(_activityPool);
+        }
+        PostCursor cursor = _activityPool[_numActivityAcquired];
+        if (cursor == null) {
+            cursor = new ActivityCursor();
+            _activityPool[_numActivityAcquired] = cursor;
+        }
+        _numActivityAcquired += 1;
+        return cursor;
+    }
+
+    /**
+     * Empties the heap and returns all cursors to the pool.
+     */
+    public void clear() {
+        for (int i = 0; i < _numAcquired; ++i) {
+            _pool[i].release();
+        }
+        for (int i = 0; i < _numActivityAcquired; ++i) {
+            _activityPool[i].release();
+        }
+        _numActivityAcquired = 0;
+        for (int i = 0; i < _size; ++i) {
+            _heap[i] = null;
+        }
+        _numAcquired = 0;
+        _size = 0;
+    }
+
+    public boolean isEmpty() {
+        return (_size == 0);
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Adds a cursor that is positioned at a status update.
+     * 
+     * @param cursor
+     *            cursor to add
+     */
+    public void push(PostCursor cursor) {
+        if (_size == _heap.length) {
+            _heap = grow(_heap);
+        }
+        _heap[_size] = cursor;
+        siftUp(_size);
+        _size += 1;
+    }
+
+    /**
+     * @return cursor positioned at the last recent status update
+     */
+    public PostCursor peek() {
+        return _heap[0];
+    }
+
+    /**
+     * Restores the heap order after the top cursor was advanced.<br>
+     * Removes the top cursor if its status updates are exhausted.
+     */
+    public void update() {
+        if (!_heap[0].hasPost()) {
+            _size -= 1;
+            _heap[0] = _heap[_size];
+            _heap[_size] = null;
+        }
+        if (_size > 0) {
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int index) {
+        PostCursor cursor = _heap[index];
+        long published = cursor.getCrrPublished();
+        int parent;
+        while (index > 0) {
+            parent = (index - 1) >>> 1;
+            if (_heap[parent].getCrrPublished() >= published) {
+                break;
+            }
+            _heap[index] = _heap[parent];
+            index = parent;
+        }
+        _heap[index] = cursor;
+    }
+
+    private void siftDown(int index) {
+        PostCursor cursor = _heap[index];
+        long published = cursor.getCrrPublished();
+        int half = _size >>> 1;
+        int child;
+        while (index < half) {
+            child = 2 * index + 1;
+            if (child + 1 < _size
+                    && _heap[child + 1].getCrrPublished() > _heap[child]
+                            .getCrrPublished()) {
+                child += 1;
+            }
+            if (published >= _heap[child].getCrrPublished()) {
+                break;
+            }
+            _heap[index] = _heap[child];
+            index = child;
+        }
+        _heap[index] = cursor;
+    }
+
+    private static PostCursor[] grow(PostCursor[] array) {
+        PostCursor[] grown = new PostCursor[array.length * 2 + 1];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
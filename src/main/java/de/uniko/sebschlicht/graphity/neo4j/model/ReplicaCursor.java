@@ -0,0 +1,130 @@
+package de.uniko.sebschlicht.graphity.neo4j.model;
+
+import org.neo4j.graphdb.Node;
+
+import de.uniko.sebschlicht.graphity.neo4j.EdgePointerCache;
+import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.Walker;
+
+/**
+ * reusable cursor over replica nodes<br>
+ * Resolves the users a replica connects lazily and can walk along the
+ * GRAPHITY chain of an ego network.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class ReplicaCursor {
+
+    /**
+     * (optional) pointer cache to walk GRAPHITY and REPLICA edges
+     */
+    protected final EdgePointerCache _edgePointers;
+
+    /**
+     * replica node the cursor is positioned at
+     */
+    protected Node _nReplica;
+
+    /**
+     * (cached) user owning the ego network the replica belongs to
+     */
+    protected Node _nFollowing;
+
+    /**
+     * user followed the replica stands for
+     */
+    protected final UserCursor _followed;
+
+    /**
+     * whether the followed user has been resolved yet
+     */
+    protected boolean _isFollowedLoaded;
+
+    /**
+     * Creates a cursor that has to be positioned via {@link #reset(Node)}
+     * before use.
+     * 
+     * @param edgePointers
+     *            (optional) pointer cache to walk GRAPHITY and REPLICA edges
+     */
+    public ReplicaCursor(
+            EdgePointerCache edgePointers) {
+        _edgePointers = edgePointers;
+        _followed = new UserCursor();
+    }
+
+    /**
+     * Creates a cursor that has to be positioned via {@link #reset(Node)}
+     * before use.
+     */
+    public ReplicaCursor() {
+        this(null);
+    }
+
+    /**
+     * Positions the cursor at a replica node.
+     * 
+     * @param nReplica
+     *            replica node or <b>null</b> to mark the end of a chain
+     * @return this cursor
+     */
+    public ReplicaCursor reset(Node nReplica) {
+        _nReplica = nReplica;
+        _nFollowing = null;
+        _isFollowedLoaded = false;
+        _followed.release();
+        return this;
+    }
+
+    /**
+     * Detaches the cursor from any node it references.
+     */
+    public void release() {
+        reset(null);
+    }
+
+    /**
+     * Moves the cursor to the next replica in the GRAPHITY chain.
+     * 
+     * @return true - if the cursor was moved to the next replica<br>
+     *         false - if the end of the chain has been reached
+     */
+    public boolean advance() {
+        reset(Walker.nextNode(_nReplica, EdgeType.GRAPHITY, _edgePointers));
+        return (_nReplica != null);
+    }
+
+    /**
+     * @return true - if the cursor is positioned at a replica node
+     */
+    public boolean isValid() {
+        return (_nReplica != null);
+    }
+
+    public Node getNode() {
+        return _nReplica;
+    }
+
+    /**
+     * @return (cached) node of the user owning the ego network
+     */
+    public Node getFollowing() {
+        if (_nFollowing == null) {
+            _nFollowing = Walker.previousNode(_nReplica, EdgeType.FOLLOWS);
+        }
+        return _nFollowing;
+    }
+
+    /**
+     * @return (cached) cursor positioned at the user followed
+     */
+    public UserCursor getFollowed() {
+        if (!_isFollowedLoaded) {
+            _followed.reset(Walker.nextNode(_nReplica, EdgeType.REPLICA,
+                    _edgePointers));
+            _isFollowedLoaded = true;
+        }
+        return _followed;
+    }
+}
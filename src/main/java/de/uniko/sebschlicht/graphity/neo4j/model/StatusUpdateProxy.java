@@ -5,6 +5,7 @@ import org.neo4j.graphdb.Node;
 import de.metalcon.domain.Muid;
 import de.metalcon.domain.UidType;
 import de.metalcon.exceptions.ServiceOverloadedException;
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats;
 import de.uniko.sebschlicht.socialnet.StatusUpdate;
 
 /**
@@ -93,6 +94,7 @@ public class StatusUpdateProxy extends SocialNodeProxy {
     }
 
     public String getMessage() {
+        TraversalStats.propertyRead();
         return (String) _node.getProperty(PROP_MESSAGE);
     }
 
@@ -106,6 +108,7 @@ public class StatusUpdateProxy extends SocialNodeProxy {
      */
     public long getPublished() {
         if (published == 0) {
+            TraversalStats.propertyRead();
             published = (long) _node.getProperty(PROP_PUBLISHED);
         }
         return published;
@@ -0,0 +1,81 @@
+package de.uniko.sebschlicht.graphity.neo4j.model;
+
+import org.neo4j.graphdb.Node;
+
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats;
+
+/**
+ * reusable cursor over user nodes<br>
+ * Caches the primitive user fields of the node it is currently positioned at
+ * and can be reset to another user instead of allocating a new proxy.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class UserCursor {
+
+    /**
+     * user node the cursor is positioned at
+     */
+    protected Node _nUser;
+
+    /**
+     * (cached) user identifier
+     */
+    protected long _identifier;
+
+    /**
+     * (cached) timestamp of the last recent status update posted by the user
+     */
+    protected long _lastPostTimestamp;
+
+    /**
+     * Positions the cursor at a user node and drops any cached field.
+     * 
+     * @param nUser
+     *            user node to read data from
+     * @return this cursor
+     */
+    public UserCursor reset(Node nUser) {
+        _nUser = nUser;
+        _identifier = -1;
+        _lastPostTimestamp = -1;
+        return this;
+    }
+
+    /**
+     * Detaches the cursor from the user node it is positioned at.
+     */
+    public void release() {
+        _nUser = null;
+    }
+
+    public Node getNode() {
+        return _nUser;
+    }
+
+    /**
+     * @return (cached) user identifier
+     */
+    public long getIdentifier() {
+        if (_identifier == -1) {
+            _identifier = UserProxy.readIdentifier(_nUser);
+        }
+        return _identifier;
+    }
+
+    /**
+     * @return (cached) timestamp of the last recent status update posted by
+     *         the user<br>
+     *         defaults to <code>0</code>
+     */
+    public long getLastPostTimestamp() {
+        if (_lastPostTimestamp == -1) {
+            TraversalStats.propertyRead();
+            _lastPostTimestamp =
+                    (long) _nUser.getProperty(
+                            UserProxy.PROP_LAST_STREAM_UDPATE, 0L);
+        }
+        return _lastPostTimestamp;
+    }
+}
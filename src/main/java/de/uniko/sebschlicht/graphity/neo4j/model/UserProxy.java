@@ -3,8 +3,11 @@ package de.uniko.sebschlicht.graphity.neo4j.model;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 
+import de.uniko.sebschlicht.graphity.neo4j.EdgePointerCache;
 import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.NodeType;
 import de.uniko.sebschlicht.graphity.neo4j.Walker;
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats;
 
 /**
  * node proxy for an user that can act in the social network
@@ -24,6 +27,16 @@ public class UserProxy extends SocialNodeProxy {
      */
     public static final String PROP_LAST_STREAM_UDPATE = "stream_update";
 
+    /**
+     * number of users following this user
+     */
+    public static final String PROP_NUM_FOLLOWERS = "followers";
+
+    /**
+     * number of users this user follows
+     */
+    public static final String PROP_NUM_FOLLOWING = "following";
+
     /**
      * unique user identifier
      */
@@ -34,6 +47,11 @@ public class UserProxy extends SocialNodeProxy {
      */
     protected long _lastPostTimestamp;
 
+    /**
+     * (optional) pointer cache to be kept consistent when relinking
+     */
+    protected EdgePointerCache _edgePointers;
+
     /**
      * Create a user node proxy to provide data access and manipulation.
      * 
@@ -72,6 +90,17 @@ public class UserProxy extends SocialNodeProxy {
         _identifier = identifier;
     }
 
+    /**
+     * Sets the pointer cache to be kept consistent when relinking the
+     * PUBLISHED chain.
+     * 
+     * @param edgePointers
+     *            pointer cache
+     */
+    public void setEdgePointerCache(EdgePointerCache edgePointers) {
+        _edgePointers = edgePointers;
+    }
+
     /**
      * Adds a status update to the user.<br>
      * Links the status update node to the user node and to previous updates
@@ -95,6 +124,11 @@ public class UserProxy extends SocialNodeProxy {
      *            proxy of the status update
      */
     public void linkStatusUpdate(StatusUpdateProxy pStatusUpdate) {
+        if (_edgePointers != null) {
+            _edgePointers.invalidate(_node, EdgeType.PUBLISHED);
+            _edgePointers.invalidate(pStatusUpdate.getNode(),
+                    EdgeType.PUBLISHED);
+        }
         // get last recent status update
         Node lastUpdate = Walker.nextNode(_node, EdgeType.PUBLISHED);
         // update references to previous status update (if existing)
@@ -108,6 +142,45 @@ public class UserProxy extends SocialNodeProxy {
         _node.createRelationshipTo(pStatusUpdate.getNode(), EdgeType.PUBLISHED);
     }
 
+    /**
+     * Records a system activity of the user.<br>
+     * Coalesces the activity into the last recent event if it is of the same
+     * type and not older than the coalescing window. Does neither touch the
+     * status updates nor the last post timestamp of the user.
+     * 
+     * @param type
+     *            activity type
+     * @param published
+     *            timestamp of the activity
+     * @param idTarget
+     *            identifier of the user involved
+     * @param coalescingWindow
+     *            maximum age of an event in milliseconds to coalesce the
+     *            activity into
+     */
+    public void addActivity(
+            ActivityType type,
+            long published,
+            long idTarget,
+            long coalescingWindow) {
+        Node nLastEvent = Walker.nextNode(_node, EdgeType.ACTIVITY);
+        if (nLastEvent != null) {
+            ActivityEventProxy pLastEvent = new ActivityEventProxy(nLastEvent);
+            if (pLastEvent.canCoalesce(type, published, coalescingWindow)) {
+                pLastEvent.coalesce(published, idTarget);
+                return;
+            }
+            _node.getSingleRelationship(EdgeType.ACTIVITY, Direction.OUTGOING)
+                    .delete();
+        }
+        Node nEvent = _node.getGraphDatabase().createNode(NodeType.EVENT);
+        new ActivityEventProxy(nEvent).initNode(type, published, idTarget);
+        if (nLastEvent != null) {
+            nEvent.createRelationshipTo(nLastEvent, EdgeType.ACTIVITY);
+        }
+        _node.createRelationshipTo(nEvent, EdgeType.ACTIVITY);
+    }
+
     /**
      * Retrieves the user identifier.<br>
      * Caches the user identifier for future calls.
@@ -116,11 +189,104 @@ public class UserProxy extends SocialNodeProxy {
      */
     public long getIdentifier() {
         if (_identifier == -1) {
-            _identifier = (long) _node.getProperty(PROP_IDENTIFIER);
+            _identifier = readIdentifier(_node);
         }
         return _identifier;
     }
 
+    /**
+     * Reads the identifier of a user node.<br>
+     * Identifiers are stored as native numbers, but stores that have not been
+     * migrated yet may still contain string identifiers.
+     * 
+     * @param nUser
+     *            user node
+     * @return user identifier
+     */
+    public static long readIdentifier(Node nUser) {
+        TraversalStats.propertyRead();
+        Object identifier = nUser.getProperty(PROP_IDENTIFIER);
+        if (identifier instanceof String) {
+            return Long.parseLong((String) identifier);
+        }
+        return (long) identifier;
+    }
+
+    /**
+     * Adjusts the follower counter after a followship to this user has been
+     * added or removed.<br>
+     * If the counter is missing, e.g. in stores created before counters were
+     * maintained, it is initialized by counting the followships, which
+     * already reflect the change.
+     * 
+     * @param delta
+     *            change of the number of followers
+     */
+    public void updateNumFollowers(long delta) {
+        if (_node.hasProperty(PROP_NUM_FOLLOWERS)) {
+            _node.setProperty(PROP_NUM_FOLLOWERS,
+                    (long) _node.getProperty(PROP_NUM_FOLLOWERS) + delta);
+        } else {
+            _node.setProperty(PROP_NUM_FOLLOWERS, countFollowers(_node));
+        }
+    }
+
+    /**
+     * Adjusts the following counter after a followship of this user has been
+     * added or removed.<br>
+     * If the counter is missing, it is initialized by counting the
+     * followships, which already reflect the change.
+     * 
+     * @param delta
+     *            change of the number of users followed
+     */
+    public void updateNumFollowing(long delta) {
+        if (_node.hasProperty(PROP_NUM_FOLLOWING)) {
+            _node.setProperty(PROP_NUM_FOLLOWING,
+                    (long) _node.getProperty(PROP_NUM_FOLLOWING) + delta);
+        } else {
+            _node.setProperty(PROP_NUM_FOLLOWING, countFollowing(_node));
+        }
+    }
+
+    /**
+     * @return number of users following this user<br>
+     *         counted if the counter is missing
+     */
+    public long getNumFollowers() {
+        Object numFollowers = _node.getProperty(PROP_NUM_FOLLOWERS, null);
+        if (numFollowers != null) {
+            return (long) numFollowers;
+        }
+        return countFollowers(_node);
+    }
+
+    /**
+     * @return number of users this user follows<br>
+     *         counted if the counter is missing
+     */
+    public long getNumFollowing() {
+        Object numFollowing = _node.getProperty(PROP_NUM_FOLLOWING, null);
+        if (numFollowing != null) {
+            return (long) numFollowing;
+        }
+        return countFollowing(_node);
+    }
+
+    /**
+     * Counts the followers of a user. Followers are linked via FOLLOWS edges
+     * in the write-optimized model and via replica nodes in the
+     * read-optimized model.
+     */
+    private static long countFollowers(Node nUser) {
+        return nUser.getDegree(EdgeType.FOLLOWS, Direction.INCOMING)
+                + nUser.getDegree(EdgeType.REPLICA, Direction.INCOMING);
+    }
+
+    private static long countFollowing(Node nUser) {
+        return nUser.getDegree(EdgeType.FOLLOWS, Direction.OUTGOING);
+    }
+
     public void setLastPostTimestamp(long lastPostTimestamp) {
         _node.setProperty(PROP_LAST_STREAM_UDPATE, lastPostTimestamp);
         _lastPostTimestamp = lastPostTimestamp;
@@ -133,6 +299,7 @@ public class UserProxy extends SocialNodeProxy {
      */
     public long getLastPostTimestamp() {
         if (_lastPostTimestamp == -1) {
+            TraversalStats.propertyRead();
             _lastPostTimestamp =
                     (long) _node.getProperty(PROP_LAST_STREAM_UDPATE, 0L);
         }
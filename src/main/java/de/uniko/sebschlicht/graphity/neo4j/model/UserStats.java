@@ -0,0 +1,49 @@
+package de.uniko.sebschlicht.graphity.neo4j.model;
+
+/**
+ * statistics of a user, read from counters maintained on the user node
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class UserStats {
+
+    private final long _identifier;
+
+    private final long _numFollowers;
+
+    private final long _numFollowing;
+
+    private final long _lastPostTimestamp;
+
+    public UserStats(
+            long identifier,
+            long numFollowers,
+            long numFollowing,
+            long lastPostTimestamp) {
+        _identifier = identifier;
+        _numFollowers = numFollowers;
+        _numFollowing = numFollowing;
+        _lastPostTimestamp = lastPostTimestamp;
+    }
+
+    public long getIdentifier() {
+        return _identifier;
+    }
+
+    public long getNumFollowers() {
+        return _numFollowers;
+    }
+
+    public long getNumFollowing() {
+        return _numFollowing;
+    }
+
+    /**
+     * @return timestamp of the last recent status update<br>
+     *         <code>0</code> - if the user has not posted yet
+     */
+    public long getLastPostTimestamp() {
+        return _lastPostTimestamp;
+    }
+}
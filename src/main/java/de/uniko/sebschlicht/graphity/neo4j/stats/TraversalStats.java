@@ -0,0 +1,175 @@
+package de.uniko.sebschlicht.graphity.neo4j.stats;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.uniko.sebschlicht.graphity.neo4j.OperationType;
+
+/**
+ * cost of the graph operations of a single request<br>
+ * Statistics are recorded per thread between {@link #start()} and
+ * {@link #stop()}. The graph walks report their costs via static methods
+ * that do nothing unless any thread is recording, so the accounting is
+ * close to free when disabled.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class TraversalStats {
+
+    /**
+     * cost metrics recorded
+     */
+    public enum Metric {
+        NODES_VISITED, RELATIONSHIPS_TRAVERSED, RELATIONSHIPS_CREATED,
+        RELATIONSHIPS_DELETED, PROPERTY_READS, LOCKS_TAKEN
+    }
+
+    private static final ThreadLocal<TraversalStats> CURRENT =
+            new ThreadLocal<TraversalStats>();
+
+    /**
+     * number of threads recording
+     */
+    private static final AtomicInteger NUM_RECORDING = new AtomicInteger();
+
+    private final long[] _counts = new long[Metric.values().length];
+
+    /**
+     * (optional) type of the operation recorded
+     */
+    private OperationType _operation;
+
+    /**
+     * size of the ego network dominating the operation's cost,
+     * <code>-1</code> if unknown
+     */
+    private long _egoNetworkSize = -1;
+
+    private TraversalStats() {
+    }
+
+    /**
+     * Starts to record the costs of the current thread.
+     * 
+     * @return statistics the costs are recorded into
+     * @throws IllegalStateException
+     *             if the thread is recording already
+     */
+    public static TraversalStats start() {
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException(
+                    "thread is recording traversal statistics already");
+        }
+        TraversalStats stats = new TraversalStats();
+        CURRENT.set(stats);
+        NUM_RECORDING.incrementAndGet();
+        return stats;
+    }
+
+    /**
+     * Stops to record the costs of the current thread. Has to be called by
+     * the thread that started the recording, after its transaction has been
+     * closed to include the relationships created and deleted.
+     */
+    public void stop() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+            NUM_RECORDING.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return statistics recorded by the current thread or <b>null</b>
+     */
+    public static TraversalStats current() {
+        if (NUM_RECORDING.get() == 0) {
+            return null;
+        }
+        return CURRENT.get();
+    }
+
+    private static void add(Metric metric, long count) {
+        TraversalStats stats = current();
+        if (stats != null) {
+            stats._counts[metric.ordinal()] += count;
+        }
+    }
+
+    public static void nodeVisited() {
+        add(Metric.NODES_VISITED, 1);
+    }
+
+    public static void relationshipTraversed() {
+        add(Metric.RELATIONSHIPS_TRAVERSED, 1);
+    }
+
+    public static void relationshipsCreated(long count) {
+        add(Metric.RELATIONSHIPS_CREATED, count);
+    }
+
+    public static void relationshipsDeleted(long count) {
+        add(Metric.RELATIONSHIPS_DELETED, count);
+    }
+
+    public static void propertyRead() {
+        add(Metric.PROPERTY_READS, 1);
+    }
+
+    public static void propertiesRead(long count) {
+        add(Metric.PROPERTY_READS, count);
+    }
+
+    public static void lockTaken() {
+        add(Metric.LOCKS_TAKEN, 1);
+    }
+
+    /**
+     * Specifies the operation recorded.
+     * 
+     * @param operation
+     *            operation type
+     * @param egoNetworkSize
+     *            size of the ego network dominating the operation's cost,
+     *            e.g. the number of users a reader follows
+     */
+    public void setOperation(OperationType operation, long egoNetworkSize) {
+        _operation = operation;
+        _egoNetworkSize = egoNetworkSize;
+    }
+
+    /**
+     * @return type of the operation recorded or <b>null</b> if not specified
+     */
+    public OperationType getOperation() {
+        return _operation;
+    }
+
+    /**
+     * @return size of the ego network dominating the operation's cost,
+     *         <code>-1</code> if unknown
+     */
+    public long getEgoNetworkSize() {
+        return _egoNetworkSize;
+    }
+
+    /**
+     * @param metric
+     *            cost metric
+     * @return cost recorded for the metric
+     */
+    public long get(Metric metric) {
+        return _counts[metric.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(_operation).append("(").append(_egoNetworkSize)
+                .append(")");
+        for (Metric metric : Metric.values()) {
+            builder.append(" ").append(metric.name().toLowerCase())
+                    .append("=").append(_counts[metric.ordinal()]);
+        }
+        return builder.toString();
+    }
+}
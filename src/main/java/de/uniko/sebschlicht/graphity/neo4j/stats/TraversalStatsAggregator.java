@@ -0,0 +1,176 @@
+package de.uniko.sebschlicht.graphity.neo4j.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.uniko.sebschlicht.graphity.neo4j.OperationType;
+import de.uniko.sebschlicht.graphity.neo4j.stats.TraversalStats.Metric;
+
+/**
+ * aggregation of the costs of many requests by operation type and ego
+ * network size<br>
+ * Ego network sizes are grouped into buckets by powers of two: bucket
+ * <code>0</code> holds empty and unknown ego networks, bucket <code>b</code>
+ * the sizes in <code>[2^(b-1), 2^b)</code>. Comparing the average costs of
+ * the buckets shows where the costs grow with the ego network size. Requests
+ * may be recorded concurrently.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class TraversalStatsAggregator {
+
+    /**
+     * number of ego network size buckets
+     */
+    public static final int NUM_BUCKETS = 64;
+
+    private static final int NUM_METRICS = Metric.values().length;
+
+    /**
+     * number of requests per operation type and bucket
+     */
+    private final AtomicLongArray _numRequests;
+
+    /**
+     * sum of the costs per operation type, bucket and metric
+     */
+    private final AtomicLongArray _sums;
+
+    /**
+     * maximum cost per operation type, bucket and metric
+     */
+    private final AtomicLongArray _maxima;
+
+    public TraversalStatsAggregator() {
+        int numOperations = OperationType.values().length;
+        _numRequests = new AtomicLongArray(numOperations * NUM_BUCKETS);
+        _sums =
+                new AtomicLongArray(numOperations * NUM_BUCKETS * NUM_METRICS);
+        _maxima =
+                new AtomicLongArray(numOperations * NUM_BUCKETS * NUM_METRICS);
+    }
+
+    /**
+     * @param egoNetworkSize
+     *            ego network size
+     * @return bucket the size belongs to
+     */
+    public static int getBucket(long egoNetworkSize) {
+        return 64 - Long.numberOfLeadingZeros(Math.max(egoNetworkSize, 0));
+    }
+
+    /**
+     * @param bucket
+     *            ego network size bucket
+     * @return minimum ego network size of the bucket
+     */
+    public static long getBucketMinimum(int bucket) {
+        return (bucket == 0) ? 0 : 1L << (bucket - 1);
+    }
+
+    /**
+     * Adds the costs of a request. Requests whose operation has not been
+     * specified are ignored.
+     * 
+     * @param stats
+     *            statistics of the request
+     */
+    public void record(TraversalStats stats) {
+        if (stats.getOperation() == null) {
+            return;
+        }
+        int request =
+                stats.getOperation().ordinal() * NUM_BUCKETS
+                        + getBucket(stats.getEgoNetworkSize());
+        _numRequests.incrementAndGet(request);
+        for (Metric metric : Metric.values()) {
+            int index = request * NUM_METRICS + metric.ordinal();
+            long count = stats.get(metric);
+            _sums.addAndGet(index, count);
+            long max;
+            while (count > (max = _maxima.get(index))
+                    && !_maxima.compareAndSet(index, max, count)) {
+                // retry
+            }
+        }
+    }
+
+    /**
+     * @param operation
+     *            operation type
+     * @param bucket
+     *            ego network size bucket
+     * @return number of requests recorded
+     */
+    public long getNumRequests(OperationType operation, int bucket) {
+        return _numRequests.get(operation.ordinal() * NUM_BUCKETS + bucket);
+    }
+
+    /**
+     * @param operation
+     *            operation type
+     * @param bucket
+     *            ego network size bucket
+     * @param metric
+     *            cost metric
+     * @return total cost of the requests recorded
+     */
+    public long getTotal(OperationType operation, int bucket, Metric metric) {
+        return _sums.get(index(operation, bucket, metric));
+    }
+
+    /**
+     * @param operation
+     *            operation type
+     * @param bucket
+     *            ego network size bucket
+     * @param metric
+     *            cost metric
+     * @return maximum cost of a single request recorded
+     */
+    public long getMaximum(OperationType operation, int bucket, Metric metric) {
+        return _maxima.get(index(operation, bucket, metric));
+    }
+
+    private static int index(
+            OperationType operation,
+            int bucket,
+            Metric metric) {
+        return (operation.ordinal() * NUM_BUCKETS + bucket) * NUM_METRICS
+                + metric.ordinal();
+    }
+
+    /**
+     * Renders the average costs per operation type and bucket, omitting
+     * empty buckets.
+     * 
+     * @return table of the average costs, one line per bucket
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("operation\tego network\trequests");
+        for (Metric metric : Metric.values()) {
+            builder.append("\t").append(metric.name().toLowerCase());
+        }
+        builder.append("\n");
+        for (OperationType operation : OperationType.values()) {
+            for (int bucket = 0; bucket < NUM_BUCKETS; ++bucket) {
+                long numRequests = getNumRequests(operation, bucket);
+                if (numRequests == 0) {
+                    continue;
+                }
+                builder.append(operation).append("\t>=")
+                        .append(getBucketMinimum(bucket)).append("\t")
+                        .append(numRequests);
+                for (Metric metric : Metric.values()) {
+                    builder.append("\t").append(
+                            String.format("%.1f",
+                                    (double) getTotal(operation, bucket,
+                                            metric) / numRequests));
+                }
+                builder.append("\n");
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,45 @@
+package de.uniko.sebschlicht.graphity.neo4j.stats;
+
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+/**
+ * handler adding the relationships created and deleted by a transaction to
+ * the statistics recorded by the committing thread
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class TraversalStatsHandler implements TransactionEventHandler<Void> {
+
+    @Override
+    public Void beforeCommit(TransactionData data) throws Exception {
+        if (TraversalStats.current() != null) {
+            TraversalStats.relationshipsCreated(count(data
+                    .createdRelationships()));
+            TraversalStats.relationshipsDeleted(count(data
+                    .deletedRelationships()));
+        }
+        return null;
+    }
+
+    private static long count(Iterable<Relationship> relationships) {
+        long count = 0;
+        for (@SuppressWarnings("unused")
+        Relationship relationship : relationships) {
+            count += 1;
+        }
+        return count;
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Void state) {
+        // counted before commit, on the committing thread
+    }
+
+    @Override
+    public void afterRollback(TransactionData data, Void state) {
+        // nothing to do
+    }
+}
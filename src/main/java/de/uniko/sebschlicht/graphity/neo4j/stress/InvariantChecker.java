@@ -0,0 +1,484 @@
+package de.uniko.sebschlicht.graphity.neo4j.stress;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.maintenance.UserScanner;
+import de.uniko.sebschlicht.graphity.neo4j.model.StatusUpdateProxy;
+import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
+
+/**
+ * consistency check of a social network graph at rest<br>
+ * Walks the ego network and the status updates of each user and checks the
+ * invariants the Graphity models rely on:
+ * <ul>
+ * <li>the GRAPHITY chain of a user is acyclic, unbranched, sorted by the last
+ * post timestamp of the users followed and holds exactly the replicas the
+ * user FOLLOWS (read-optimized model only)</li>
+ * <li>each replica has exactly one REPLICA edge and no user is followed
+ * twice</li>
+ * <li>the follower and following counters match the edges</li>
+ * <li>the PUBLISHED chain of a user is acyclic and sorted and its head
+ * matches the last post timestamp of the user</li>
+ * </ul>
+ * Optionally the followships and the number of status updates are compared
+ * against the state expected by the client that produced the graph.<br>
+ * The graph must not be modified during the check.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class InvariantChecker {
+
+    /**
+     * kind of invariant violation
+     */
+    public enum Violation {
+
+        /**
+         * node has multiple outgoing edges of a chain edge type
+         */
+        CHAIN_BRANCHED,
+
+        /**
+         * GRAPHITY chain revisits a replica
+         */
+        GRAPHITY_CYCLE,
+
+        /**
+         * GRAPHITY chain is not sorted by last post timestamp
+         */
+        GRAPHITY_UNSORTED,
+
+        /**
+         * GRAPHITY chain contains a replica the user does not follow
+         */
+        FOREIGN_REPLICA,
+
+        /**
+         * replica followed by the user is missing in the GRAPHITY chain
+         */
+        DETACHED_REPLICA,
+
+        /**
+         * replica does not have exactly one REPLICA edge
+         */
+        INVALID_REPLICA,
+
+        /**
+         * user is followed more than once by the same user
+         */
+        DUPLICATE_FOLLOWSHIP,
+
+        /**
+         * following counter does not match the FOLLOWS edges
+         */
+        FOLLOWING_COUNTER,
+
+        /**
+         * follower counter does not match the edges of the followers
+         */
+        FOLLOWERS_COUNTER,
+
+        /**
+         * PUBLISHED chain revisits a status update
+         */
+        PUBLISHED_CYCLE,
+
+        /**
+         * PUBLISHED chain is not sorted by timestamp of publishing
+         */
+        PUBLISHED_UNSORTED,
+
+        /**
+         * last post timestamp does not match the newest status update
+         */
+        LAST_POST_TIMESTAMP,
+
+        /**
+         * users followed differ from the users expected
+         */
+        UNEXPECTED_FOLLOWSHIPS,
+
+        /**
+         * number of status updates differs from the number expected
+         */
+        UNEXPECTED_STATUS_UPDATES;
+    }
+
+    /**
+     * number of user nodes checked per transaction
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * graph database to check
+     */
+    protected final GraphDatabaseService _graphDb;
+
+    /**
+     * whether the graph has been created by the read-optimized model
+     */
+    protected final boolean _isReadOptimized;
+
+    /**
+     * (optional) identifiers of the users expected to be followed per user
+     */
+    protected Map<Long, Set<Long>> _expectedFollowships;
+
+    /**
+     * (optional) number of status updates expected per user
+     */
+    protected Map<Long, Long> _expectedStatusUpdates;
+
+    /**
+     * maximum number of violations described
+     */
+    protected int _maxDescriptions = 100;
+
+    private final int[] _numViolations = new int[Violation.values().length];
+
+    private final List<String> _descriptions = new ArrayList<>();
+
+    private long _numUsers;
+
+    /**
+     * Creates a consistency check for a graph database.
+     * 
+     * @param graphDb
+     *            graph database to check
+     * @param isReadOptimized
+     *            whether the graph has been created by the read-optimized
+     *            model, i.e. is made of replica nodes and GRAPHITY chains
+     */
+    public InvariantChecker(
+            GraphDatabaseService graphDb,
+            boolean isReadOptimized) {
+        _graphDb = graphDb;
+        _isReadOptimized = isReadOptimized;
+    }
+
+    /**
+     * @param expectedFollowships
+     *            identifiers of the users expected to be followed per user,
+     *            users missing are expected to follow nobody
+     */
+    public void setExpectedFollowships(
+            Map<Long, Set<Long>> expectedFollowships) {
+        _expectedFollowships = expectedFollowships;
+    }
+
+    /**
+     * @param expectedStatusUpdates
+     *            number of status updates expected per user, users missing are
+     *            expected to have posted nothing
+     */
+    public void setExpectedStatusUpdates(
+            Map<Long, Long> expectedStatusUpdates) {
+        _expectedStatusUpdates = expectedStatusUpdates;
+    }
+
+    /**
+     * @param maxDescriptions
+     *            maximum number of violations described, further violations
+     *            are counted only
+     */
+    public void setMaxDescriptions(int maxDescriptions) {
+        _maxDescriptions = maxDescriptions;
+    }
+
+    /**
+     * Checks all user nodes of the graph.
+     * 
+     * @return total number of violations found
+     * @throws InterruptedException
+     *             if interrupted while scanning the users
+     */
+    public int check() throws InterruptedException {
+        try (UserScanner users = new UserScanner(_graphDb, BATCH_SIZE, -1)) {
+            long[] batch;
+            while ((batch = users.nextBatch()) != null) {
+                try (Transaction tx = _graphDb.beginTx()) {
+                    for (long nodeId : batch) {
+                        checkUser(_graphDb.getNodeById(nodeId));
+                        _numUsers += 1;
+                    }
+                }
+            }
+        }
+        return getNumViolations();
+    }
+
+    /**
+     * Checks the invariants of a single user.
+     * 
+     * @param nUser
+     *            user node
+     */
+    protected void checkUser(Node nUser) {
+        long idUser = UserProxy.readIdentifier(nUser);
+        Set<Long> followed;
+        long numFollowers;
+        if (_isReadOptimized) {
+            followed = checkReplicas(nUser, idUser);
+            numFollowers =
+                    nUser.getDegree(EdgeType.REPLICA, Direction.INCOMING);
+        } else {
+            followed = new HashSet<>();
+            for (Relationship follows : nUser.getRelationships(
+                    EdgeType.FOLLOWS, Direction.OUTGOING)) {
+                long idFollowed =
+                        UserProxy.readIdentifier(follows.getEndNode());
+                if (!followed.add(idFollowed)) {
+                    violate(Violation.DUPLICATE_FOLLOWSHIP, idUser, "follows "
+                            + idFollowed + " more than once");
+                }
+            }
+            numFollowers =
+                    nUser.getDegree(EdgeType.FOLLOWS, Direction.INCOMING);
+        }
+
+        // counters are optional, they are counted if missing
+        Object numFollowing =
+                nUser.getProperty(UserProxy.PROP_NUM_FOLLOWING, null);
+        if (numFollowing != null && (long) numFollowing != followed.size()) {
+            violate(Violation.FOLLOWING_COUNTER, idUser, "counter "
+                    + numFollowing + ", following " + followed.size());
+        }
+        Object numFollowersCounted =
+                nUser.getProperty(UserProxy.PROP_NUM_FOLLOWERS, null);
+        if (numFollowersCounted != null
+                && (long) numFollowersCounted != numFollowers) {
+            violate(Violation.FOLLOWERS_COUNTER, idUser, "counter "
+                    + numFollowersCounted + ", followers " + numFollowers);
+        }
+
+        long numStatusUpdates = checkStatusUpdates(nUser, idUser);
+
+        if (_expectedFollowships != null) {
+            Set<Long> expected = _expectedFollowships.get(idUser);
+            if (expected == null) {
+                expected = Collections.emptySet();
+            }
+            if (!expected.equals(followed)) {
+                violate(Violation.UNEXPECTED_FOLLOWSHIPS, idUser, "following "
+                        + followed + ", expected " + expected);
+            }
+        }
+        if (_expectedStatusUpdates != null) {
+            Long expected = _expectedStatusUpdates.get(idUser);
+            if (numStatusUpdates != ((expected != null) ? expected : 0)) {
+                violate(Violation.UNEXPECTED_STATUS_UPDATES, idUser,
+                        numStatusUpdates + " status updates, expected "
+                                + expected);
+            }
+        }
+    }
+
+    /**
+     * Checks the replicas and the GRAPHITY chain of a user.
+     * 
+     * @param nUser
+     *            user node
+     * @param idUser
+     *            user identifier
+     * @return identifiers of the users followed
+     */
+    private Set<Long> checkReplicas(Node nUser, long idUser) {
+        Set<Long> replicas = new HashSet<>();
+        Set<Long> followed = new HashSet<>();
+        for (Relationship follows : nUser.getRelationships(EdgeType.FOLLOWS,
+                Direction.OUTGOING)) {
+            Node nReplica = follows.getEndNode();
+            replicas.add(nReplica.getId());
+            Node nFollowed = null;
+            int numReplicaEdges = 0;
+            for (Relationship replica : nReplica.getRelationships(
+                    EdgeType.REPLICA, Direction.OUTGOING)) {
+                nFollowed = replica.getEndNode();
+                numReplicaEdges += 1;
+            }
+            if (numReplicaEdges != 1) {
+                violate(Violation.INVALID_REPLICA, idUser, "replica "
+                        + nReplica.getId() + " has " + numReplicaEdges
+                        + " REPLICA edges");
+                continue;
+            }
+            long idFollowed = UserProxy.readIdentifier(nFollowed);
+            if (!followed.add(idFollowed)) {
+                violate(Violation.DUPLICATE_FOLLOWSHIP, idUser, "follows "
+                        + idFollowed + " more than once");
+            }
+        }
+
+        Set<Long> chain = new HashSet<>();
+        long prevTimestamp = Long.MAX_VALUE;
+        Node nReplica = nextNode(nUser, EdgeType.GRAPHITY, idUser);
+        while (nReplica != null) {
+            if (!chain.add(nReplica.getId())) {
+                violate(Violation.GRAPHITY_CYCLE, idUser, "replica "
+                        + nReplica.getId() + " visited twice");
+                return followed;
+            }
+            if (!replicas.contains(nReplica.getId())) {
+                violate(Violation.FOREIGN_REPLICA, idUser, "replica "
+                        + nReplica.getId() + " is not followed");
+            }
+            Node nFollowed = nextNode(nReplica, EdgeType.REPLICA, idUser);
+            if (nFollowed != null) {
+                long timestamp =
+                        new UserProxy(nFollowed).getLastPostTimestamp();
+                if (timestamp > prevTimestamp) {
+                    violate(Violation.GRAPHITY_UNSORTED, idUser, "replica "
+                            + nReplica.getId() + " (" + timestamp
+                            + ") follows " + prevTimestamp);
+                }
+                prevTimestamp = timestamp;
+            }
+            nReplica = nextNode(nReplica, EdgeType.GRAPHITY, idUser);
+        }
+        for (long replica : replicas) {
+            if (!chain.contains(replica)) {
+                violate(Violation.DETACHED_REPLICA, idUser, "replica "
+                        + replica + " is not in the GRAPHITY chain");
+            }
+        }
+        return followed;
+    }
+
+    /**
+     * Checks the PUBLISHED chain of a user.
+     * 
+     * @param nUser
+     *            user node
+     * @param idUser
+     *            user identifier
+     * @return number of status updates of the user
+     */
+    private long checkStatusUpdates(Node nUser, long idUser) {
+        Set<Long> chain = new HashSet<>();
+        long prevTimestamp = Long.MAX_VALUE;
+        Node nStatusUpdate = nextNode(nUser, EdgeType.PUBLISHED, idUser);
+        if (nStatusUpdate != null) {
+            long lastPost = new UserProxy(nUser).getLastPostTimestamp();
+            long published =
+                    (long) nStatusUpdate
+                            .getProperty(StatusUpdateProxy.PROP_PUBLISHED);
+            if (lastPost != published) {
+                violate(Violation.LAST_POST_TIMESTAMP, idUser, "last post "
+                        + lastPost + ", newest status update " + published);
+            }
+        }
+        while (nStatusUpdate != null) {
+            if (!chain.add(nStatusUpdate.getId())) {
+                violate(Violation.PUBLISHED_CYCLE, idUser, "status update "
+                        + nStatusUpdate.getId() + " visited twice");
+                break;
+            }
+            long published =
+                    (long) nStatusUpdate
+                            .getProperty(StatusUpdateProxy.PROP_PUBLISHED);
+            if (published > prevTimestamp) {
+                violate(Violation.PUBLISHED_UNSORTED, idUser, "status update "
+                        + nStatusUpdate.getId() + " (" + published
+                        + ") follows " + prevTimestamp);
+            }
+            prevTimestamp = published;
+            nStatusUpdate = nextNode(nStatusUpdate, EdgeType.PUBLISHED, idUser);
+        }
+        return chain.size();
+    }
+
+    /**
+     * Walks along a chain edge type, which must be unique per node.
+     * 
+     * @return next node or <b>null</b> if the chain ends
+     */
+    private Node nextNode(Node node, RelationshipType edgeType, long idUser) {
+        Node next = null;
+        for (Relationship edge : node.getRelationships(edgeType,
+                Direction.OUTGOING)) {
+            if (next != null) {
+                violate(Violation.CHAIN_BRANCHED, idUser, "node "
+                        + node.getId() + " has multiple " + edgeType.name()
+                        + " edges");
+                break;
+            }
+            next = edge.getEndNode();
+        }
+        return next;
+    }
+
+    private void violate(Violation violation, long idUser, String description) {
+        _numViolations[violation.ordinal()] += 1;
+        if (_descriptions.size() < _maxDescriptions) {
+            _descriptions.add(violation + " at user " + idUser + ": "
+                    + description);
+        }
+    }
+
+    /**
+     * @return number of users checked
+     */
+    public long getNumUsers() {
+        return _numUsers;
+    }
+
+    /**
+     * @return total number of violations found
+     */
+    public int getNumViolations() {
+        int numViolations = 0;
+        for (int n : _numViolations) {
+            numViolations += n;
+        }
+        return numViolations;
+    }
+
+    /**
+     * @param violation
+     *            kind of violation
+     * @return number of violations of this kind found
+     */
+    public int getNumViolations(Violation violation) {
+        return _numViolations[violation.ordinal()];
+    }
+
+    /**
+     * @return descriptions of the first violations found
+     */
+    public List<String> getDescriptions() {
+        return _descriptions;
+    }
+
+    /**
+     * @return summary of the violations found
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(_numUsers).append(" users checked, ")
+                .append(getNumViolations()).append(" violations");
+        for (Violation violation : Violation.values()) {
+            if (_numViolations[violation.ordinal()] > 0) {
+                report.append("\n\t").append(violation).append(": ")
+                        .append(_numViolations[violation.ordinal()]);
+            }
+        }
+        for (String description : _descriptions) {
+            report.append("\n\t").append(description);
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,601 @@
+package de.uniko.sebschlicht.graphity.neo4j.stress;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+import de.uniko.sebschlicht.graphity.exception.IllegalUserIdException;
+import de.uniko.sebschlicht.graphity.neo4j.ActivityMode;
+import de.uniko.sebschlicht.graphity.neo4j.FeedSink;
+import de.uniko.sebschlicht.graphity.neo4j.Neo4jGraphity;
+import de.uniko.sebschlicht.graphity.neo4j.OperationType;
+import de.uniko.sebschlicht.graphity.neo4j.impl.ReadOptimizedGraphity;
+import de.uniko.sebschlicht.graphity.neo4j.impl.WriteOptimizedGraphity;
+
+/**
+ * concurrency stress test of a Graphity instance<br>
+ * Runs a mixed workload of news feed reads, followship changes and status
+ * updates in a number of threads against an embedded database, which
+ * exercises the lock ordering of the write operations. Deadlocks detected by
+ * the database are rolled back and counted.<br>
+ * Each thread owns a disjoint subset of the users as followers, so the
+ * followships expected after the run are known exactly although the users
+ * followed, the authors and the readers are picked from all users. The
+ * expected state can be passed to an {@link InvariantChecker} once the
+ * workers have stopped.
+ * 
+ * @author sebschlicht
+ * 
+ */
+public class StressHarness {
+
+    /**
+     * maximum number of failures whose stack traces are printed
+     */
+    private static final int MAX_PRINTED_FAILURES = 10;
+
+    /**
+     * Graphity instance under test
+     */
+    protected final Neo4jGraphity _graphity;
+
+    /**
+     * number of worker threads
+     */
+    protected final int _numThreads;
+
+    /**
+     * number of users, identified by <code>1</code> to <code>numUsers</code>
+     */
+    protected final int _numUsers;
+
+    /**
+     * percentage of news feed reads
+     */
+    protected int _pctRead = 50;
+
+    /**
+     * percentage of followships added
+     */
+    protected int _pctFollow = 25;
+
+    /**
+     * percentage of followships removed, the remainder are status updates
+     */
+    protected int _pctUnfollow = 10;
+
+    /**
+     * number of status updates read per news feed
+     */
+    protected int _feedSize = 15;
+
+    /**
+     * whether followship changes are posted as status updates
+     */
+    protected boolean _isActivityPosted = true;
+
+    /**
+     * whether the workers have been requested to stop
+     */
+    protected volatile boolean _isStopped;
+
+    private final AtomicLongArray _numOperations;
+
+    private final AtomicLongArray _numDeadlocks;
+
+    private final AtomicLongArray _numErrors;
+
+    /**
+     * number of operations whose result contradicted the expected state
+     */
+    private final AtomicLong _numUnexpectedResults = new AtomicLong();
+
+    /**
+     * number of news feeds read that were not sorted by timestamp
+     */
+    private final AtomicLong _numUnsortedFeeds = new AtomicLong();
+
+    /**
+     * number of status updates expected per user
+     */
+    private final AtomicLongArray _numStatusUpdates;
+
+    private final Worker[] _workers;
+
+    private long _duration;
+
+    /**
+     * Creates a stress test of a Graphity instance.
+     * 
+     * @param graphity
+     *            initialized Graphity instance on an empty database
+     * @param numThreads
+     *            number of worker threads
+     * @param numUsers
+     *            number of users
+     */
+    public StressHarness(
+            Neo4jGraphity graphity,
+            int numThreads,
+            int numUsers) {
+        if (numThreads < 1 || numUsers < 2) {
+            throw new IllegalArgumentException(
+                    "at least one thread and two users required");
+        }
+        _graphity = graphity;
+        _numThreads = numThreads;
+        _numUsers = numUsers;
+        int numTypes = OperationType.values().length;
+        _numOperations = new AtomicLongArray(numTypes);
+        _numDeadlocks = new AtomicLongArray(numTypes);
+        _numErrors = new AtomicLongArray(numTypes);
+        _numStatusUpdates = new AtomicLongArray(numUsers + 1);
+        _workers = new Worker[numThreads];
+        for (int i = 0; i < numThreads; ++i) {
+            _workers[i] = new Worker(i);
+        }
+    }
+
+    /**
+     * Specifies the workload mix. The operations not covered are status
+     * updates.
+     * 
+     * @param pctRead
+     *            percentage of news feed reads
+     * @param pctFollow
+     *            percentage of followships added
+     * @param pctUnfollow
+     *            percentage of followships removed
+     */
+    public void setWorkload(int pctRead, int pctFollow, int pctUnfollow) {
+        if (pctRead < 0 || pctFollow < 0 || pctUnfollow < 0
+                || pctRead + pctFollow + pctUnfollow > 100) {
+            throw new IllegalArgumentException("invalid workload mix");
+        }
+        _pctRead = pctRead;
+        _pctFollow = pctFollow;
+        _pctUnfollow = pctUnfollow;
+    }
+
+    /**
+     * @param feedSize
+     *            number of status updates read per news feed
+     */
+    public void setFeedSize(int feedSize) {
+        _feedSize = feedSize;
+    }
+
+    /**
+     * Sets the activity mode of the Graphity instance under test.
+     * 
+     * @param activityMode
+     *            mode the followship changes are recorded in
+     */
+    public void setActivityMode(ActivityMode activityMode) {
+        _graphity.setActivityMode(activityMode);
+        _isActivityPosted = (activityMode == ActivityMode.STATUS_UPDATES);
+    }
+
+    /**
+     * Creates the users.
+     * 
+     * @throws IllegalUserIdException
+     *             never
+     * @throws IllegalStateException
+     *             if a user is existing already
+     */
+    public void createUsers() throws IllegalUserIdException {
+        for (int idUser = 1; idUser <= _numUsers; ++idUser) {
+            if (!_graphity.addUser(String.valueOf(idUser))) {
+                throw new IllegalStateException("user " + idUser
+                        + " is existing already, database must be empty");
+            }
+        }
+    }
+
+    /**
+     * Runs the workload and waits for the workers to stop.
+     * 
+     * @param duration
+     *            duration of the workload in milliseconds
+     * @throws InterruptedException
+     *             if interrupted while waiting for the workers
+     */
+    public void run(long duration) throws InterruptedException {
+        _isStopped = false;
+        long msStart = System.currentTimeMillis();
+        for (Worker worker : _workers) {
+            worker.start();
+        }
+        try {
+            Thread.sleep(duration);
+        } finally {
+            _isStopped = true;
+            for (Worker worker : _workers) {
+                worker.join();
+            }
+            _duration = System.currentTimeMillis() - msStart;
+        }
+    }
+
+    /**
+     * @return identifiers of the users followed per user after the run
+     */
+    public Map<Long, Set<Long>> getExpectedFollowships() {
+        Map<Long, Set<Long>> followships = new HashMap<>();
+        for (Worker worker : _workers) {
+            for (Map.Entry<Long, List<Long>> following : worker._following
+                    .entrySet()) {
+                if (!following.getValue().isEmpty()) {
+                    followships.put(following.getKey(), new HashSet<>(
+                            following.getValue()));
+                }
+            }
+        }
+        return followships;
+    }
+
+    /**
+     * @return number of status updates per user after the run
+     */
+    public Map<Long, Long> getExpectedStatusUpdates() {
+        Map<Long, Long> statusUpdates = new HashMap<>();
+        for (int idUser = 1; idUser <= _numUsers; ++idUser) {
+            long numStatusUpdates = _numStatusUpdates.get(idUser);
+            if (numStatusUpdates > 0) {
+                statusUpdates.put((long) idUser, numStatusUpdates);
+            }
+        }
+        return statusUpdates;
+    }
+
+    /**
+     * @return number of operations whose result contradicted the expected
+     *         state, e.g. a followship added that has been existing already
+     */
+    public long getNumUnexpectedResults() {
+        return _numUnexpectedResults.get();
+    }
+
+    /**
+     * @return number of news feeds read that were not sorted by timestamp
+     */
+    public long getNumUnsortedFeeds() {
+        return _numUnsortedFeeds.get();
+    }
+
+    /**
+     * @param type
+     *            operation type
+     * @return number of operations of this type committed
+     */
+    public long getNumOperations(OperationType type) {
+        return _numOperations.get(type.ordinal());
+    }
+
+    /**
+     * @param type
+     *            operation type
+     * @return number of operations of this type rolled back due to a
+     *         deadlock
+     */
+    public long getNumDeadlocks(OperationType type) {
+        return _numDeadlocks.get(type.ordinal());
+    }
+
+    /**
+     * @param type
+     *            operation type
+     * @return number of operations of this type failed for other reasons
+     */
+    public long getNumErrors(OperationType type) {
+        return _numErrors.get(type.ordinal());
+    }
+
+    /**
+     * @return summary of the throughput and failures of the last run
+     */
+    public String report() {
+        long numOperations = 0, numDeadlocks = 0;
+        StringBuilder types = new StringBuilder();
+        for (OperationType type : OperationType.values()) {
+            long n = getNumOperations(type);
+            long d = getNumDeadlocks(type);
+            long e = getNumErrors(type);
+            numOperations += n;
+            numDeadlocks += d;
+            if (n + d + e > 0) {
+                types.append("\n\t").append(type).append(": ").append(n)
+                        .append(" operations, ").append(d)
+                        .append(" deadlocks, ").append(e).append(" errors");
+            }
+        }
+        StringBuilder report = new StringBuilder();
+        report.append(numOperations).append(" operations in ")
+                .append(_duration).append(" ms using ").append(_numThreads)
+                .append(" threads (")
+                .append(numOperations * 1000 / Math.max(_duration, 1))
+                .append(" ops/s), ").append(numDeadlocks)
+                .append(" deadlocks").append(types);
+        report.append("\n\tunexpected results: ")
+                .append(_numUnexpectedResults.get());
+        report.append("\n\tunsorted news feeds: ")
+                .append(_numUnsortedFeeds.get());
+        return report.toString();
+    }
+
+    private static boolean isDeadlock(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DeadlockDetectedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * worker thread running a random mix of operations<br>
+     * Followships are changed for the users owned by the worker only.
+     */
+    private class Worker extends Thread {
+
+        private final int _index;
+
+        private final int _numOwned;
+
+        private final Random _random;
+
+        /**
+         * identifiers of the users followed per user owned
+         */
+        private final Map<Long, List<Long>> _following = new HashMap<>();
+
+        private long _prevPublished;
+
+        private boolean _isFeedSorted;
+
+        private final FeedSink _feedCheck = new FeedSink() {
+
+            @Override
+            public void add(long idAuthor, long published, String message) {
+                if (published > _prevPublished) {
+                    _isFeedSorted = false;
+                }
+                _prevPublished = published;
+            }
+        };
+
+        public Worker(
+                int index) {
+            super("stress-worker-" + index);
+            _index = index;
+            _numOwned = (_numUsers - index + _numThreads - 1) / _numThreads;
+            _random = new Random(index);
+        }
+
+        @Override
+        public void run() {
+            while (!_isStopped) {
+                int dice = _random.nextInt(100);
+                OperationType type;
+                if (dice < _pctRead) {
+                    type = OperationType.READ_STATUS_UPDATES;
+                } else if ((dice -= _pctRead) < _pctFollow) {
+                    type = OperationType.ADD_FOLLOWSHIP;
+                } else if (dice - _pctFollow < _pctUnfollow) {
+                    type = OperationType.REMOVE_FOLLOWSHIP;
+                } else {
+                    type = OperationType.ADD_STATUS_UPDATE;
+                }
+                execute(type);
+            }
+        }
+
+        private void execute(OperationType type) {
+            try {
+                switch (type) {
+                    case READ_STATUS_UPDATES:
+                        read();
+                        break;
+
+                    case ADD_FOLLOWSHIP:
+                        if (!follow()) {
+                            return;
+                        }
+                        break;
+
+                    case REMOVE_FOLLOWSHIP:
+                        if (!unfollow()) {
+                            return;
+                        }
+                        break;
+
+                    default:
+                        post();
+                        break;
+                }
+                _numOperations.incrementAndGet(type.ordinal());
+            } catch (RuntimeException e) {
+                if (isDeadlock(e)) {
+                    _numDeadlocks.incrementAndGet(type.ordinal());
+                } else {
+                    fail(type, e);
+                }
+            } catch (Exception e) {
+                fail(type, e);
+            }
+        }
+
+        private void fail(OperationType type, Exception e) {
+            long numErrors = _numErrors.getAndIncrement(type.ordinal());
+            if (numErrors < MAX_PRINTED_FAILURES) {
+                System.err.println(type + " failed:");
+                e.printStackTrace();
+            }
+        }
+
+        private long randomUser() {
+            return 1 + _random.nextInt(_numUsers);
+        }
+
+        /**
+         * @return random user owned or <code>0</code> if none
+         */
+        private long randomOwnedUser() {
+            if (_numOwned == 0) {
+                return 0;
+            }
+            return 1 + _index + (long) _numThreads
+                    * _random.nextInt(_numOwned);
+        }
+
+        private List<Long> getFollowing(long idUser) {
+            List<Long> following = _following.get(idUser);
+            if (following == null) {
+                following = new ArrayList<>();
+                _following.put(idUser, following);
+            }
+            return following;
+        }
+
+        private void read() {
+            _prevPublished = Long.MAX_VALUE;
+            _isFeedSorted = true;
+            _graphity.readStatusUpdates(randomUser(), _feedSize, _feedCheck);
+            if (!_isFeedSorted) {
+                _numUnsortedFeeds.incrementAndGet();
+            }
+        }
+
+        private boolean follow() throws IllegalUserIdException {
+            long idFollowing = randomOwnedUser();
+            long idFollowed = randomUser();
+            if (idFollowing == 0 || idFollowing == idFollowed) {
+                return false;
+            }
+            List<Long> following = getFollowing(idFollowing);
+            boolean isFollowing = following.contains(idFollowed);
+            if (_graphity.addFollowship(String.valueOf(idFollowing),
+                    String.valueOf(idFollowed))) {
+                if (isFollowing) {
+                    _numUnexpectedResults.incrementAndGet();
+                } else {
+                    following.add(idFollowed);
+                }
+                postActivity(idFollowing, idFollowed);
+            } else if (!isFollowing) {
+                _numUnexpectedResults.incrementAndGet();
+            }
+            return true;
+        }
+
+        private boolean unfollow() throws Exception {
+            long idFollowing = randomOwnedUser();
+            List<Long> following = _following.get(idFollowing);
+            if (following == null || following.isEmpty()) {
+                return false;
+            }
+            int i = _random.nextInt(following.size());
+            long idFollowed = following.get(i);
+            if (_graphity.removeFollowship(String.valueOf(idFollowing),
+                    String.valueOf(idFollowed))) {
+                following.set(i, following.get(following.size() - 1));
+                following.remove(following.size() - 1);
+                postActivity(idFollowing, idFollowed);
+            } else {
+                _numUnexpectedResults.incrementAndGet();
+            }
+            return true;
+        }
+
+        private void postActivity(long idFollowing, long idFollowed) {
+            if (_isActivityPosted) {
+                _numStatusUpdates.incrementAndGet((int) idFollowing);
+                _numStatusUpdates.incrementAndGet((int) idFollowed);
+            }
+        }
+
+        private void post() throws IllegalUserIdException {
+            long idAuthor = randomUser();
+            if (_graphity.addStatusUpdate(String.valueOf(idAuthor),
+                    "stress test by " + _index) != 0) {
+                _numStatusUpdates.incrementAndGet((int) idAuthor);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IllegalUserIdException,
+            InterruptedException {
+        if (args.length < 2 || args.length > 5) {
+            System.out
+                    .println("usage: StressHarness <pathNeo4jDb> <read|write> [numThreads] [numUsers] [durationSeconds]");
+            throw new IllegalArgumentException("invalid number of arguments");
+        }
+        File fDatabase = new File(args[0]);
+        String[] existing = fDatabase.list();
+        if (existing != null && existing.length > 0) {
+            throw new IllegalArgumentException("database \"" + fDatabase
+                    + "\" must be empty");
+        }
+        boolean isReadOptimized;
+        if ("read".equals(args[1])) {
+            isReadOptimized = true;
+        } else if ("write".equals(args[1])) {
+            isReadOptimized = false;
+        } else {
+            throw new IllegalArgumentException("unknown model \"" + args[1]
+                    + "\"");
+        }
+        int numThreads =
+                (args.length > 2) ? Integer.valueOf(args[2]) : Runtime
+                        .getRuntime().availableProcessors() * 2;
+        int numUsers = (args.length > 3) ? Integer.valueOf(args[3]) : 1000;
+        long duration =
+                ((args.length > 4) ? Long.valueOf(args[4]) : 60) * 1000;
+
+        GraphDatabaseService graphDb =
+                new GraphDatabaseFactory().newEmbeddedDatabase(fDatabase
+                        .getAbsolutePath());
+        boolean isConsistent;
+        try {
+            Neo4jGraphity graphity =
+                    isReadOptimized ? new ReadOptimizedGraphity(graphDb)
+                            : new WriteOptimizedGraphity(graphDb);
+            graphity.init();
+            StressHarness harness =
+                    new StressHarness(graphity, numThreads, numUsers);
+            harness.createUsers();
+            System.out.println(numUsers + " users created.");
+            harness.run(duration);
+            System.out.println(harness.report());
+
+            InvariantChecker checker =
+                    new InvariantChecker(graphDb, isReadOptimized);
+            checker.setExpectedFollowships(harness.getExpectedFollowships());
+            checker.setExpectedStatusUpdates(harness
+                    .getExpectedStatusUpdates());
+            checker.check();
+            System.out.println(checker.report());
+            isConsistent =
+                    (checker.getNumViolations() == 0 && harness
+                            .getNumUnexpectedResults() == 0);
+        } finally {
+            graphDb.shutdown();
+        }
+        System.out.println(isConsistent ? "consistent." : "inconsistent.");
+        if (!isConsistent) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.uniko.sebschlicht.graphity.neo4j.cdc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import de.uniko.sebschlicht.graphity.neo4j.Neo4jGraphity;
+import de.uniko.sebschlicht.graphity.neo4j.impl.ReadOptimizedGraphity;
+
+public class ChangeCaptureTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GraphDatabaseService graphDb;
+
+    private Neo4jGraphity graphity;
+
+    private ChangeLog changeLog;
+
+    @Before
+    public void setUp() throws Exception {
+        graphDb =
+                new GraphDatabaseFactory().newEmbeddedDatabase(folder
+                        .newFolder("db").getAbsolutePath());
+        graphity = new ReadOptimizedGraphity(graphDb);
+        graphity.init();
+        changeLog = new ChangeLog(folder.newFile("changes.log"), false);
+        graphity.setChangeLog(changeLog);
+        assertTrue(graphity.addUser(1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        graphity.setChangeLog(null);
+        changeLog.close();
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void failedMutationIsNotCaptured() throws Exception {
+        try (Transaction tx = graphity.beginTx()) {
+            graphity.addStatusUpdate("1", "rolled back", tx);
+            // closed without success
+        }
+        assertTrue(graphity.addStatusUpdate("1", "committed") != 0);
+
+        assertCommittedPostOnly();
+    }
+
+    @Test
+    public void failedMutationInCallerTransactionIsNotCaptured()
+            throws Exception {
+        try (Transaction tx = graphDb.beginTx()) {
+            graphity.addStatusUpdate("1", "rolled back", tx);
+            // closed without success
+        }
+        assertTrue(graphity.addStatusUpdate("1", "committed") != 0);
+
+        assertCommittedPostOnly();
+    }
+
+    private void assertCommittedPostOnly() throws Exception {
+        final List<ChangeEvent> changes = new ArrayList<ChangeEvent>();
+        changeLog.read(0, Integer.MAX_VALUE, new ChangeListener() {
+
+            @Override
+            public void onChange(ChangeEvent change) {
+                changes.add(change);
+            }
+        });
+        assertEquals(2, changes.size());
+        assertEquals(ChangeType.USER_CREATED, changes.get(0).getType());
+        assertEquals(ChangeType.POST_CREATED, changes.get(1).getType());
+        assertEquals("committed", changes.get(1).getMessage());
+        assertEquals(changes.get(0).getSequence() + 1, changes.get(1)
+                .getSequence());
+    }
+}
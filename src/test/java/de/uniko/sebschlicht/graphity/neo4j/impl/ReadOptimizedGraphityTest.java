@@ -0,0 +1,110 @@
+package de.uniko.sebschlicht.graphity.neo4j.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+public class ReadOptimizedGraphityTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GraphDatabaseService graphDb;
+
+    private FailingGraphity graphity;
+
+    @Before
+    public void setUp() throws Exception {
+        graphDb =
+                new GraphDatabaseFactory().newEmbeddedDatabase(folder
+                        .newFolder("db").getAbsolutePath());
+        graphity = new FailingGraphity(graphDb);
+        graphity.init();
+    }
+
+    @After
+    public void tearDown() {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void addFollowshipsSkipsUsersFollowed() throws Exception {
+        assertEquals(2, graphity.addFollowships("1", Arrays.asList("2", "3",
+                "2")));
+        assertEquals(1, graphity.addFollowships("1", Arrays.asList("3", "4",
+                "4")));
+        assertEquals(3, graphity.readUserStats(1).getNumFollowing());
+        assertEquals(1, graphity.readUserStats(4).getNumFollowers());
+    }
+
+    @Test
+    public void failedBatchCreatesNoUsers() throws Exception {
+        graphity.isFailing = true;
+        try {
+            graphity.addFollowships("1", Arrays.asList("2", "3"));
+            fail("batch did not fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertNull(graphity.readUserStats(1));
+        assertNull(graphity.readUserStats(2));
+        assertNull(graphity.readUserStats(3));
+    }
+
+    @Test
+    public void failedBatchRollsBackCallerTransaction() throws Exception {
+        graphity.isFailing = true;
+        try (Transaction tx = graphDb.beginTx()) {
+            try {
+                graphity.addFollowships("1", Arrays.asList("2", "3"), tx);
+                fail("batch did not fail");
+            } catch (IllegalStateException e) {
+                // the caller commits anyway
+            }
+            tx.success();
+        } catch (TransactionFailureException e) {
+            // rolled back
+        }
+        assertNull(graphity.readUserStats(1));
+        assertNull(graphity.readUserStats(2));
+
+        graphity.isFailing = false;
+        assertEquals(2, graphity.addFollowships("1", Arrays.asList("2", "3")));
+        assertNotNull(graphity.readUserStats(3));
+    }
+
+    /**
+     * Graphity failing to add followships once the users have been loaded
+     */
+    private static class FailingGraphity extends ReadOptimizedGraphity {
+
+        boolean isFailing;
+
+        FailingGraphity(
+                GraphDatabaseService graphDb) {
+            super(graphDb);
+        }
+
+        @Override
+        protected boolean[] addFollowships(Node nFollowing, Node[] nFollowed) {
+            if (isFailing) {
+                throw new IllegalStateException("batch failed");
+            }
+            return super.addFollowships(nFollowing, nFollowed);
+        }
+    }
+}
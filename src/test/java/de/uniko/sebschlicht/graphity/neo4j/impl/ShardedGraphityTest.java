@@ -0,0 +1,70 @@
+package de.uniko.sebschlicht.graphity.neo4j.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import de.uniko.sebschlicht.graphity.neo4j.Neo4jGraphity;
+
+public class ShardedGraphityTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GraphDatabaseService[] graphDbs;
+
+    private ShardedGraphity graphity;
+
+    @Before
+    public void setUp() throws Exception {
+        graphDbs = new GraphDatabaseService[2];
+        Neo4jGraphity[] shards = new Neo4jGraphity[graphDbs.length];
+        for (int i = 0; i < graphDbs.length; ++i) {
+            graphDbs[i] =
+                    new GraphDatabaseFactory().newEmbeddedDatabase(folder
+                            .newFolder("shard" + i).getAbsolutePath());
+            shards[i] = new ReadOptimizedGraphity(graphDbs[i]);
+        }
+        graphity = new ShardedGraphity(shards);
+        graphity.init();
+    }
+
+    @After
+    public void tearDown() {
+        graphity.shutdown();
+        for (GraphDatabaseService graphDb : graphDbs) {
+            graphDb.shutdown();
+        }
+    }
+
+    @Test
+    public void removeUserRemovesGhosts() throws Exception {
+        long idFollowing = 1;
+        long idFollowed = 2;
+        while (graphity.getShardIndex(idFollowed) == graphity
+                .getShardIndex(idFollowing)) {
+            idFollowed += 1;
+        }
+        assertTrue(graphity.addUser(String.valueOf(idFollowed)));
+        assertTrue(graphity.addFollowship(String.valueOf(idFollowing),
+                String.valueOf(idFollowed)));
+        Neo4jGraphity ghostShard = graphity.getShard(idFollowed);
+        assertNotNull(ghostShard.readUserStats(idFollowing));
+
+        assertTrue(graphity.removeUser(String.valueOf(idFollowing)));
+
+        assertNull(graphity.readUserStats(idFollowing));
+        assertNull(ghostShard.readUserStats(idFollowing));
+        assertNotNull(graphity.readUserStats(idFollowed));
+        assertFalse(graphity.removeUser(String.valueOf(idFollowing)));
+    }
+}
@@ -0,0 +1,153 @@
+package de.uniko.sebschlicht.graphity.neo4j.maintenance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import de.uniko.sebschlicht.graphity.neo4j.ActivityMode;
+import de.uniko.sebschlicht.graphity.neo4j.EdgeType;
+import de.uniko.sebschlicht.graphity.neo4j.Neo4jGraphity;
+import de.uniko.sebschlicht.graphity.neo4j.NodeType;
+import de.uniko.sebschlicht.graphity.neo4j.Walker;
+import de.uniko.sebschlicht.graphity.neo4j.archive.ArchiveCursor;
+import de.uniko.sebschlicht.graphity.neo4j.archive.PostArchive;
+import de.uniko.sebschlicht.graphity.neo4j.impl.ReadOptimizedGraphity;
+import de.uniko.sebschlicht.graphity.neo4j.model.UserProxy;
+
+public class RetentionPrunerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GraphDatabaseService graphDb;
+
+    private Neo4jGraphity graphity;
+
+    private PostArchive archive;
+
+    private int numPosts;
+
+    @Before
+    public void setUp() throws Exception {
+        graphDb =
+                new GraphDatabaseFactory().newEmbeddedDatabase(folder
+                        .newFolder("db").getAbsolutePath());
+        graphity = new ReadOptimizedGraphity(graphDb);
+        graphity.init();
+        archive = new PostArchive(folder.newFolder("archive"));
+        assertTrue(graphity.addUser(1));
+    }
+
+    @After
+    public void tearDown() {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void resumedRunArchivesEachPostOnce() throws Exception {
+        addPosts(10);
+        RetentionPolicy policy = new RetentionPolicy(0, 5);
+        RetentionPruner interrupted =
+                new RetentionPruner(graphDb, policy, 3, 0) {
+
+                    @Override
+                    protected boolean truncate(
+                            Node nLastRetained,
+                            EdgeType chain,
+                            int maxPosts) {
+                        throw new IllegalStateException("interrupted");
+                    }
+                };
+        interrupted.setPostArchive(archive);
+        try {
+            interrupted.run();
+            fail("run was not interrupted");
+        } catch (IllegalStateException e) {
+            // first batch archived but not removed
+        }
+
+        // shift the batch boundaries
+        addPosts(2);
+        RetentionPruner pruner = new RetentionPruner(graphDb, policy, 3, 0);
+        pruner.setPostArchive(archive);
+        pruner.run();
+
+        assertEquals(7, pruner.getNumPostsRemoved());
+        List<String> archived = readArchive();
+        assertEquals(7, archived.size());
+        for (int i = 0; i < 7; ++i) {
+            assertEquals("post " + (6 - i), archived.get(i));
+        }
+    }
+
+    @Test
+    public void activityEventsArePruned() throws Exception {
+        graphity.setActivityMode(ActivityMode.EVENTS);
+        assertTrue(graphity.addUser(2));
+        for (int i = 0; i < 6; ++i) {
+            // alternating types are not coalesced
+            assertTrue(graphity.addFollowship("1", "2"));
+            assertTrue(graphity.removeFollowship("1", "2"));
+        }
+        assertEquals(12, countEvents(1));
+        assertEquals(12, countEvents(2));
+
+        RetentionPruner pruner =
+                new RetentionPruner(graphDb, new RetentionPolicy(0, 5), 3, 0);
+        pruner.run();
+
+        assertEquals(0, pruner.getNumPostsRemoved());
+        assertEquals(14, pruner.getNumEventsRemoved());
+        assertEquals(5, countEvents(1));
+        assertEquals(5, countEvents(2));
+    }
+
+    private int countEvents(long idUser) {
+        try (Transaction tx = graphDb.beginTx();
+                ResourceIterator<Node> users =
+                        graphDb.findNodesByLabelAndProperty(NodeType.USER,
+                                UserProxy.PROP_IDENTIFIER, idUser).iterator()) {
+            int numEvents = 0;
+            Node nEvent = Walker.nextNode(users.next(), EdgeType.ACTIVITY);
+            while (nEvent != null) {
+                numEvents += 1;
+                nEvent = Walker.nextNode(nEvent, EdgeType.ACTIVITY);
+            }
+            return numEvents;
+        }
+    }
+
+    private void addPosts(int num) throws Exception {
+        for (int i = 0; i < num; ++i) {
+            // distinct timestamps
+            Thread.sleep(2);
+            assertTrue(graphity.addStatusUpdate("1", "post " + numPosts) != 0);
+            numPosts += 1;
+        }
+    }
+
+    private List<String> readArchive() {
+        List<String> messages = new ArrayList<String>();
+        ArchiveCursor cursor = new ArchiveCursor();
+        cursor.reset(archive, 1, Long.MAX_VALUE, 0);
+        while (cursor.hasPost()) {
+            messages.add(cursor.getCrrMessage());
+            cursor.advance();
+        }
+        return messages;
+    }
+}